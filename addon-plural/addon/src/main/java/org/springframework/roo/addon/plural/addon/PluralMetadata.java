@@ -18,6 +18,8 @@ import org.springframework.roo.classpath.details.MemberFindingUtils;
 import org.springframework.roo.classpath.details.annotations.AnnotationAttributeValue;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.itd.AbstractItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.metadata.MetadataFingerprint;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
@@ -105,6 +107,12 @@ public class PluralMetadata extends AbstractItdTypeDetailsProvidingMetadataItem
         return StringUtils.equals(plural, other.getPlural());
     }
 
+    @Override
+    public MetadataFingerprint getFingerprint() {
+        // As with hashCode, the (empty) ITD builder is irrelevant
+        return new MetadataFingerprintBuilder().append(plural).build();
+    }
+
     /**
      * This method returns the plural term as per inflector. ATTENTION: this
      * method does NOT take @RooPlural into account. Use getPlural(..) instead!
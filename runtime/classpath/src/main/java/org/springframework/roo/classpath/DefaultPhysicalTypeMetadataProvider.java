@@ -2,6 +2,7 @@ package org.springframework.roo.classpath;
 
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.logging.Logger;
@@ -20,12 +21,14 @@ import org.springframework.roo.classpath.details.DefaultPhysicalTypeMetadata;
 import org.springframework.roo.classpath.scanner.MemberDetails;
 import org.springframework.roo.classpath.scanner.MemberDetailsBuilder;
 import org.springframework.roo.classpath.scanner.MemberDetailsDecorator;
+import org.springframework.roo.file.monitor.event.BatchFileEventListener;
 import org.springframework.roo.file.monitor.event.FileEvent;
 import org.springframework.roo.file.monitor.event.FileEventListener;
 import org.springframework.roo.file.monitor.event.FileOperation;
 import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.metadata.MetadataItem;
 import org.springframework.roo.metadata.MetadataService;
+import org.springframework.roo.metadata.MetadataSnapshotService;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.process.manager.FileManager;
 import org.springframework.roo.project.LogicalPath;
@@ -41,6 +44,12 @@ import org.springframework.roo.support.logging.HandlerUtils;
  * each, also providing type creation and deleting methods. Prior to 1.2.0, the
  * default implementation of PhysicalTypeMetadataProvider was
  * JavaParserMetadataProvider.
+ * <p>
+ * Receives file events in batches, so that the metadata notifications caused
+ * by a batch are dispatched together (see
+ * {@link MetadataDependencyRegistry#beginNotificationBatch()}).
+ * {@link FileEventListener} is listed explicitly so that the component is
+ * still registered under that interface.
  * 
  * @author Ben Alex
  * @author James Tyrrell
@@ -50,7 +59,8 @@ import org.springframework.roo.support.logging.HandlerUtils;
 @Service
 @References(value = { @Reference(name = "memberHoldingDecorator", strategy = ReferenceStrategy.EVENT, policy = ReferencePolicy.DYNAMIC, referenceInterface = MemberDetailsDecorator.class, cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE) })
 public class DefaultPhysicalTypeMetadataProvider implements
-        PhysicalTypeMetadataProvider, FileEventListener {
+        PhysicalTypeMetadataProvider, FileEventListener,
+        BatchFileEventListener {
 	
 	protected final static Logger LOGGER = HandlerUtils.getLogger(DefaultPhysicalTypeMetadataProvider.class);
 	
@@ -73,6 +83,7 @@ public class DefaultPhysicalTypeMetadataProvider implements
     private FileManager fileManager;
     private MetadataDependencyRegistry metadataDependencyRegistry;
     private MetadataService metadataService;
+    private MetadataSnapshotService metadataSnapshotService;
     private ProjectOperations projectOperations;
     private TypeLocationService typeLocationService;
     private TypeParsingService typeParsingService;
@@ -144,6 +155,13 @@ public class DefaultPhysicalTypeMetadataProvider implements
         if (typeDetails == null) {
             return null;
         }
+        if (metadataSnapshotService == null) {
+            metadataSnapshotService = getMetadataSnapshotService();
+        }
+        if (metadataSnapshotService != null) {
+            metadataSnapshotService.recordSource(metadataIdentificationString,
+                    canonicalPath);
+        }
         final PhysicalTypeMetadata result = new DefaultPhysicalTypeMetadata(
                 metadataIdentificationString, canonicalPath, typeDetails);
         final ClassOrInterfaceTypeDetails details = result
@@ -244,6 +262,19 @@ public class DefaultPhysicalTypeMetadataProvider implements
             if (id == null) {
                 return;
             }
+            // On startup, a type that hasn't changed since the last metadata
+            // snapshot doesn't need to be regenerated or announced
+            if (metadataSnapshotService == null) {
+                metadataSnapshotService = getMetadataSnapshotService();
+            }
+            if (metadataSnapshotService != null) {
+                if (fileEvent.getOperation() != FileOperation.MONITORING_START) {
+                    metadataSnapshotService.sourceChanged(id);
+                }
+                else if (metadataSnapshotService.isUnchangedSinceSnapshot(id)) {
+                    return;
+                }
+            }
             // Now we've worked out the id, we can publish the event in case
             // others were interested
             metadataService.evictAndGet(id);
@@ -251,6 +282,27 @@ public class DefaultPhysicalTypeMetadataProvider implements
         }
     }
 
+    public void onFileEvents(final List<FileEvent> fileEvents) {
+        if (metadataDependencyRegistry == null) {
+            metadataDependencyRegistry = getMetadataDependencyRegistry();
+        }
+
+        Validate.notNull(metadataDependencyRegistry,
+                "MetadataDependencyRegistry is required");
+
+        metadataDependencyRegistry.beginNotificationBatch();
+        try {
+            for (final FileEvent fileEvent : fileEvents) {
+                onFileEvent(fileEvent);
+            }
+        }
+        catch (final RuntimeException e) {
+            metadataDependencyRegistry.discardNotificationBatch();
+            throw e;
+        }
+        metadataDependencyRegistry.endNotificationBatch();
+    }
+
     protected void unbindMemberHoldingDecorator(
             final MemberDetailsDecorator decorator) {
         synchronized (lock) {
@@ -312,6 +364,27 @@ public class DefaultPhysicalTypeMetadataProvider implements
 		}
     }
     
+    public MetadataSnapshotService getMetadataSnapshotService(){
+    	// Get all Services implement MetadataSnapshotService interface
+		try {
+			ServiceReference<?>[] references = this.context.getAllServiceReferences(MetadataSnapshotService.class.getName(), null);
+			
+			if(references == null){
+				return null;
+			}
+			
+			for(ServiceReference<?> ref : references){
+				return (MetadataSnapshotService) this.context.getService(ref);
+			}
+			
+			return null;
+			
+		} catch (InvalidSyntaxException e) {
+			LOGGER.warning("Cannot load MetadataSnapshotService on DefaultPhysicalTypeMetadataProvider.");
+			return null;
+		}
+    }
+    
     public ProjectOperations getProjectOperations(){
     	// Get all Services implement ProjectOperations interface
 		try {
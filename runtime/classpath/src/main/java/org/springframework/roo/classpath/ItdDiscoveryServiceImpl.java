@@ -14,6 +14,9 @@ import org.springframework.roo.model.JavaType;
 
 /**
  * Implementation of {@link ItdDiscoveryService}.
+ * <p>
+ * Thread-safe, as ITD metadata providers can run concurrently (see
+ * {@link MetadataWarmUpTask}).
  * 
  * @author James Tyrrell
  * @since 1.2.0
@@ -26,7 +29,7 @@ public class ItdDiscoveryServiceImpl implements ItdDiscoveryService {
     private final Map<String, String> itdIdToTypeMap = new HashMap<String, String>();
     private final Map<String, Map<String, MemberHoldingTypeDetails>> typeMap = new HashMap<String, Map<String, MemberHoldingTypeDetails>>();
 
-    public void addItdTypeDetails(final ItdTypeDetails itdTypeDetails) {
+    public synchronized void addItdTypeDetails(final ItdTypeDetails itdTypeDetails) {
         if (itdTypeDetails == null || itdTypeDetails.getGovernor() == null) {
             return;
         }
@@ -46,7 +49,7 @@ public class ItdDiscoveryServiceImpl implements ItdDiscoveryService {
         updateChanges(itdTypeDetails.getGovernor().getName(), false);
     }
 
-    public boolean haveItdsChanged(final String requestingClass,
+    public synchronized boolean haveItdsChanged(final String requestingClass,
             final JavaType javaType) {
         Set<String> changesSinceLastRequest = changeMap.get(requestingClass);
         if (changesSinceLastRequest == null) {
@@ -63,7 +66,7 @@ public class ItdDiscoveryServiceImpl implements ItdDiscoveryService {
         return false;
     }
 
-    public void removeItdTypeDetails(final String itdTypeDetailsId) {
+    public synchronized void removeItdTypeDetails(final String itdTypeDetailsId) {
         if (StringUtils.isBlank(itdTypeDetailsId)) {
             return;
         }
@@ -78,6 +81,9 @@ public class ItdDiscoveryServiceImpl implements ItdDiscoveryService {
         }
     }
 
+    /**
+     * Must be called while synchronized on this instance.
+     */
     private void updateChanges(final JavaType javaType, final boolean remove) {
         for (final String requestingClass : changeMap.keySet()) {
             if (remove) {
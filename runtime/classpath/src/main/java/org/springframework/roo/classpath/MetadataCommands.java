@@ -2,8 +2,14 @@ package org.springframework.roo.classpath;
 
 import static org.apache.commons.io.IOUtils.LINE_SEPARATOR;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.SortedSet;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
@@ -11,11 +17,17 @@ import org.apache.felix.scr.annotations.Service;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.classpath.details.MemberHoldingTypeDetails;
 import org.springframework.roo.classpath.scanner.MemberDetailsScanner;
+import org.springframework.roo.metadata.MetadataCacheEvent;
+import org.springframework.roo.metadata.MetadataCacheEvictionPolicy;
 import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
 import org.springframework.roo.metadata.MetadataLogger;
+import org.springframework.roo.metadata.MetadataOperation;
+import org.springframework.roo.metadata.MetadataProviderStatistic;
 import org.springframework.roo.metadata.MetadataService;
 import org.springframework.roo.metadata.MetadataTimingStatistic;
+import org.springframework.roo.metadata.internal.MetadataDependencyGraph;
+import org.springframework.roo.metadata.internal.MetadataTraceAnalyzer;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.project.ProjectMetadata;
 import org.springframework.roo.project.ProjectOperations;
@@ -30,11 +42,31 @@ import org.springframework.roo.shell.CommandMarker;
 @Service
 public class MetadataCommands implements CommandMarker {
 
+    /**
+     * The output formats of the {@value #METADATA_TIMINGS_COMMAND} command.
+     */
+    public enum TimingsFormat {
+        JSON, TEXT
+    }
+
+    /**
+     * The export formats of the {@value #METADATA_GRAPH_COMMAND} command.
+     */
+    public enum GraphFormat {
+        DOT, GRAPHML
+    }
+
     private static final String METADATA_FOR_MODULE_COMMAND = "metadata for module";
+    private static final String METADATA_ANALYZE_COMMAND = "metadata analyze";
     private static final String METADATA_CACHE_COMMAND = "metadata cache";
+    private static final String METADATA_CONCURRENCY_COMMAND = "metadata concurrency";
     private static final String METADATA_FOR_ID_COMMAND = "metadata for id";
     private static final String METADATA_FOR_TYPE_COMMAND = "metadata for type";
+    private static final String METADATA_GRAPH_COMMAND = "metadata graph";
+    private static final String METADATA_NOTIFICATIONS_COMMAND = "metadata notifications";
+    private static final String METADATA_RECORD_COMMAND = "metadata record";
     private static final String METADATA_STATUS_COMMAND = "metadata status";
+    private static final String METADATA_TIMINGS_COMMAND = "metadata timings";
     private static final String METADATA_TRACE_COMMAND = "metadata trace";
 
     @Reference private MemberDetailsScanner memberDetailsScanner;
@@ -44,23 +76,67 @@ public class MetadataCommands implements CommandMarker {
     @Reference private ProjectOperations projectOperations;
     @Reference private TypeLocationService typeLocationService;
 
-    @CliAvailabilityIndicator({ METADATA_FOR_MODULE_COMMAND, METADATA_CACHE_COMMAND, 
-    	METADATA_FOR_ID_COMMAND, METADATA_FOR_TYPE_COMMAND, METADATA_STATUS_COMMAND,
-    	METADATA_TRACE_COMMAND})
+    @CliAvailabilityIndicator({ METADATA_FOR_MODULE_COMMAND, METADATA_ANALYZE_COMMAND, METADATA_CACHE_COMMAND, 
+    	METADATA_CONCURRENCY_COMMAND, METADATA_FOR_ID_COMMAND, METADATA_FOR_TYPE_COMMAND, METADATA_GRAPH_COMMAND, METADATA_NOTIFICATIONS_COMMAND,
+    	METADATA_RECORD_COMMAND, METADATA_STATUS_COMMAND, METADATA_TIMINGS_COMMAND, METADATA_TRACE_COMMAND})
     public boolean isModuleMetadataAvailable() {
         return projectOperations.getFocusedModule() != null;
     }
 
+    @CliCommand(value = METADATA_ANALYZE_COMMAND, help = "Shows the most expensive metadata chains in a trace written by '"
+            + METADATA_RECORD_COMMAND + "'")
+    public String metadataAnalyze(
+            @CliOption(key = { "", "file" }, mandatory = false, unspecifiedDefaultValue = "metadata.trace", help = "The trace file to analyze") final File file,
+            @CliOption(key = { "top" }, mandatory = false, unspecifiedDefaultValue = "10", help = "The number of chains to show") final int top,
+            @CliOption(key = { "flameGraph" }, mandatory = false, help = "A file to which to write the trace in the collapsed stack format of flame graph tools") final File flameGraph) {
+        final MetadataTraceAnalyzer analyzer;
+        try {
+            analyzer = new MetadataTraceAnalyzer(file);
+            if (flameGraph != null) {
+                FileUtils.writeStringToFile(flameGraph,
+                        analyzer.formatFlameGraph(), "UTF-8");
+            }
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return analyzer.getEventCount() + " event(s) in '" + file + "'"
+                + LINE_SEPARATOR + analyzer.formatMostExpensiveChains(top);
+    }
+
     @CliCommand(value = METADATA_CACHE_COMMAND, help = "Shows detailed metadata for the indicated type")
     public String metadataCacheMaximum(
-            @CliOption(key = { "maximumCapacity" }, mandatory = true, help = "The maximum number of metadata items to cache") final int maxCapacity) {
+            @CliOption(key = { "maximumCapacity" }, mandatory = true, help = "The maximum number of metadata items to cache") final int maxCapacity,
+            @CliOption(key = { "maximumWeight" }, mandatory = false, help = "The maximum estimated size in bytes of the cached metadata items (0 for unlimited; unchanged if not given)") final Long maxWeight,
+            @CliOption(key = { "evictionPolicy" }, mandatory = false, help = "The policy deciding which metadata items to evict when the cache is full (unchanged if not given)") final MetadataCacheEvictionPolicy evictionPolicy,
+            @CliOption(key = { "softReferences" }, mandatory = false, specifiedDefaultValue = "true", help = "Whether evicted metadata items are kept until the garbage collector needs the memory (unchanged if not given)") final Boolean softReferences) {
         Validate.isTrue(maxCapacity >= 100,
                 "Maximum capacity must be 100 or greater");
+        Validate.isTrue(maxWeight == null || maxWeight == 0
+                || maxWeight >= 1024 * 1024,
+                "Maximum weight must be 0 (unlimited) or 1048576 bytes or greater");
+        if (evictionPolicy != null) {
+            metadataService.setEvictionPolicy(evictionPolicy);
+        }
+        if (softReferences != null) {
+            metadataService.setSoftReferencesEnabled(softReferences);
+        }
+        if (maxWeight != null) {
+            metadataService.setMaxWeight(maxWeight == 0 ? Long.MAX_VALUE
+                    : maxWeight);
+        }
         metadataService.setMaxCapacity(maxCapacity);
         // Show them that the change has taken place
         return metadataTimings();
     }
 
+    @CliCommand(value = METADATA_CONCURRENCY_COMMAND, help = "Switches between serial and concurrent metadata production")
+    public String metadataConcurrency(
+            @CliOption(key = { "", "enabled" }, mandatory = true, help = "Whether independent metadata requests may be processed in parallel") final boolean enabled) {
+        metadataService.setConcurrentMode(enabled);
+        return "Metadata concurrent mode " + (enabled ? "enabled" : "disabled");
+    }
+
     @CliCommand(value = METADATA_FOR_ID_COMMAND, help = "Shows detailed information about the metadata item")
     public String metadataForId(
             @CliOption(key = { "", "metadataId" }, mandatory = true, help = "The metadata ID (should start with MID:)") final String metadataId) {
@@ -158,16 +234,120 @@ public class MetadataCommands implements CommandMarker {
         return sb.toString();
     }
 
+    @CliCommand(value = METADATA_GRAPH_COMMAND, help = "Shows the metadata dependencies that are most expensive to regenerate, as measured while '"
+            + METADATA_TRACE_COMMAND
+            + "' or '"
+            + METADATA_RECORD_COMMAND
+            + "' was on, optionally exporting the whole graph")
+    public String metadataGraph(
+            @CliOption(key = { "top" }, mandatory = false, unspecifiedDefaultValue = "10", help = "The number of cascades to show") final int top,
+            @CliOption(key = { "file" }, mandatory = false, help = "A file to which to export the dependency graph, with the measured regeneration times") final File file,
+            @CliOption(key = { "format" }, mandatory = false, unspecifiedDefaultValue = "DOT", help = "The format of the exported graph") final GraphFormat format) {
+        final MetadataDependencyGraph graph = new MetadataDependencyGraph(
+                metadataDependencyRegistry,
+                metadataLogger.getRegenerationTimes());
+        if (file != null) {
+            try {
+                FileUtils.writeStringToFile(file,
+                        format == GraphFormat.GRAPHML ? graph.formatGraphMl()
+                                : graph.formatDot(), "UTF-8");
+            }
+            catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return graph.getNodeCount() + " item(s), " + graph.getEdgeCount()
+                + " dependencies" + LINE_SEPARATOR + LINE_SEPARATOR
+                + "Most expensive cascades:" + LINE_SEPARATOR
+                + graph.formatMostExpensiveCascades(top) + LINE_SEPARATOR
+                + "Regeneration time by metadata type:" + LINE_SEPARATOR
+                + graph.formatProviderCosts();
+    }
+
+    @CliCommand(value = METADATA_NOTIFICATIONS_COMMAND, help = "Switches between immediate and batched metadata notifications during scans")
+    public String metadataNotifications(
+            @CliOption(key = { "", "batch" }, mandatory = true, help = "Whether the notifications caused by each scan are coalesced and delivered in dependency order") final boolean batch) {
+        metadataDependencyRegistry.setNotificationBatchingEnabled(batch);
+        return "Metadata notification batching "
+                + (batch ? "enabled" : "disabled");
+    }
+
+    @CliCommand(value = METADATA_RECORD_COMMAND, help = "Records metadata requests and notifications to a binary trace file")
+    public String metadataRecord(
+            @CliOption(key = { "", "enabled" }, mandatory = true, help = "Whether to record metadata events") final boolean enabled,
+            @CliOption(key = { "file" }, mandatory = false, unspecifiedDefaultValue = "metadata.trace", help = "The trace file to write") final File file,
+            @CliOption(key = { "capacity" }, mandatory = false, unspecifiedDefaultValue = "1048576", help = "The number of events to keep before overwriting the oldest") final int capacity) {
+        if (enabled) {
+            metadataLogger.startTraceRecording(file, capacity);
+            return "Recording metadata events to '" + file + "'";
+        }
+        final File recorded = metadataLogger.stopTraceRecording();
+        if (recorded == null) {
+            return "Metadata events are not being recorded";
+        }
+        return "Recorded metadata events to '" + recorded + "'; use '"
+                + METADATA_ANALYZE_COMMAND + "' to analyze them";
+    }
+
     @CliCommand(value = METADATA_STATUS_COMMAND, help = "Shows metadata statistics")
     public String metadataTimings() {
         final StringBuilder sb = new StringBuilder();
         for (final MetadataTimingStatistic stat : metadataLogger.getTimings()) {
             sb.append(stat.toString()).append(LINE_SEPARATOR);
         }
-        sb.append(metadataService.toString());
+        sb.append(metadataService.toString()).append(LINE_SEPARATOR);
+        sb.append(metadataDependencyRegistry.toString());
         return sb.toString();
     }
 
+    @CliCommand(value = METADATA_TIMINGS_COMMAND, help = "Shows latency percentiles and cache counters for each type of metadata")
+    public String metadataProviderTimings(
+            @CliOption(key = { "format" }, mandatory = false, unspecifiedDefaultValue = "TEXT", help = "The output format; JSON is suited to comparing releases") final TimingsFormat format) {
+        final SortedSet<MetadataProviderStatistic> stats = metadataLogger
+                .getProviderStatistics();
+        if (format != TimingsFormat.JSON) {
+            final StringBuilder sb = new StringBuilder();
+            for (final MetadataProviderStatistic stat : stats) {
+                sb.append(stat.toString()).append(LINE_SEPARATOR);
+            }
+            return sb.toString();
+        }
+
+        final StringBuilder json = new StringBuilder("{\"providers\":[");
+        boolean firstProvider = true;
+        for (final MetadataProviderStatistic stat : stats) {
+            if (!firstProvider) {
+                json.append(",");
+            }
+            firstProvider = false;
+            json.append("{\"name\":\"")
+                    .append(StringEscapeUtils.escapeJava(stat.getName()))
+                    .append("\"");
+            for (final MetadataOperation operation : MetadataOperation
+                    .values()) {
+                json.append(",\"").append(operation.name().toLowerCase())
+                        .append("\":{");
+                json.append("\"invocations\":")
+                        .append(stat.getInvocations(operation));
+                json.append(",\"totalNanos\":").append(
+                        stat.getTime(operation));
+                json.append(",\"p50Nanos\":").append(
+                        stat.getPercentile(operation, 50));
+                json.append(",\"p99Nanos\":").append(
+                        stat.getPercentile(operation, 99));
+                json.append(",\"maxNanos\":").append(
+                        stat.getMaximum(operation));
+                json.append("}");
+            }
+            for (final MetadataCacheEvent event : MetadataCacheEvent.values()) {
+                json.append(",\"").append(event.name().toLowerCase())
+                        .append("\":").append(stat.getCount(event));
+            }
+            json.append("}");
+        }
+        return json.append("]}").toString();
+    }
+
     @CliCommand(value = METADATA_TRACE_COMMAND, help = "Traces metadata event delivery notifications")
     public void metadataTrace(
             @CliOption(key = { "", "level" }, mandatory = true, help = "The verbosity of notifications (0=none, 1=some, 2=all)") final int level) {
@@ -0,0 +1,316 @@
+package org.springframework.roo.classpath;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Service;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.classpath.itd.ItdMetadataProvider;
+import org.springframework.roo.file.monitor.event.FileDetails;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
+import org.springframework.roo.metadata.MetadataService;
+import org.springframework.roo.process.manager.FileManager;
+import org.springframework.roo.process.manager.WarmUpTask;
+import org.springframework.roo.project.PhysicalPath;
+import org.springframework.roo.project.ProjectOperations;
+import org.springframework.roo.project.maven.Pom;
+import org.springframework.roo.support.logging.HandlerUtils;
+import org.springframework.roo.support.util.FileUtils;
+
+/**
+ * {@link WarmUpTask} that produces the metadata of every type in the project
+ * ahead of the first command, so that command doesn't pay for it.
+ * <p>
+ * First the {@link PhysicalTypeMetadata} of all types is produced in parallel;
+ * then the ITD metadata of all types, one level of providers at a time, where
+ * a provider's level is one more than that of the highest provider it
+ * depends upon (according to the class-level dependencies in the
+ * {@link MetadataDependencyRegistry}). The work runs on a {@link ForkJoinPool}
+ * of <code>roo.metadata.warmup.threads</code> threads (by default one per
+ * processor), and only speeds things up if the {@link MetadataService}
+ * produces metadata concurrently (see <code>roo.metadata.concurrent</code>).
+ * <p>
+ * Only enabled if the <code>roo.metadata.warmup</code> system property is set
+ * to <code>true</code>.
+ *
+ * @since 2.0
+ */
+@Component
+@Service
+public class MetadataWarmUpTask implements WarmUpTask {
+
+    private static final String JAVA_FILES_ANT_PATH = "**" + File.separatorChar
+            + "*.java";
+    private static final Logger LOGGER = HandlerUtils
+            .getLogger(MetadataWarmUpTask.class);
+
+    private BundleContext context;
+
+    private MetadataDependencyRegistry metadataDependencyRegistry;
+    private FileManager fileManager;
+    private MetadataService metadataService;
+    private ProjectOperations projectOperations;
+    private TypeLocationService typeLocationService;
+
+    private volatile boolean cancelled;
+    private final boolean enabled = Boolean.getBoolean("roo.metadata.warmup");
+    private final int threads = Integer.getInteger(
+            "roo.metadata.warmup.threads", Runtime.getRuntime()
+                    .availableProcessors());
+
+    protected void activate(final ComponentContext cContext) {
+        context = cContext.getBundleContext();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the level of the given provider, i.e. zero if it depends on no
+     * other ITD provider, otherwise one more than the highest level of those
+     * it does depend on.
+     *
+     * @param providesType the class-level identifier of the provider
+     * @param providers the class-level identifiers of all ITD providers
+     * @param levels the levels computed so far (a value of -1 means the level
+     *            is being computed, i.e. there's a cycle)
+     * @return zero or more
+     */
+    private int getLevel(final String providesType,
+            final Set<String> providers, final Map<String, Integer> levels) {
+        final Integer known = levels.get(providesType);
+        if (known != null) {
+            return Math.max(known, 0);
+        }
+        levels.put(providesType, -1);
+        int level = 0;
+        final Set<String> upstreams = getMetadataDependencyRegistry()
+                .getUpstream(providesType);
+        for (final String upstream : upstreams) {
+            if (providers.contains(upstream) && !upstream.equals(providesType)) {
+                level = Math.max(level,
+                        getLevel(upstream, providers, levels) + 1);
+            }
+        }
+        levels.put(providesType, level);
+        return level;
+    }
+
+    /**
+     * Returns the physical type identifiers of every Java source file in the
+     * project.
+     */
+    private Set<String> getPhysicalTypeIdentifiers() {
+        final Set<String> physicalTypeIds = new LinkedHashSet<String>();
+        for (final Pom pom : getProjectOperations().getPoms()) {
+            for (final PhysicalPath path : pom.getPhysicalPaths()) {
+                if (path.isSource()) {
+                    final String allJavaFiles = FileUtils
+                            .ensureTrailingSeparator(path.getLocationPath())
+                            + JAVA_FILES_ANT_PATH;
+                    for (final FileDetails file : getFileManager()
+                            .findMatchingAntPath(allJavaFiles)) {
+                        final String physicalTypeId = getTypeLocationService()
+                                .getPhysicalTypeIdentifier(
+                                        file.getCanonicalPath());
+                        if (physicalTypeId != null) {
+                            physicalTypeIds.add(physicalTypeId);
+                        }
+                    }
+                }
+            }
+        }
+        return physicalTypeIds;
+    }
+
+    /**
+     * Groups the given ITD providers by level, lowest first.
+     */
+    private Collection<List<ItdMetadataProvider>> groupByLevel(
+            final List<ItdMetadataProvider> itdProviders) {
+        final Set<String> providesTypes = new HashSet<String>();
+        for (final ItdMetadataProvider itdProvider : itdProviders) {
+            providesTypes.add(itdProvider.getProvidesType());
+        }
+        final Map<String, Integer> levels = new HashMap<String, Integer>();
+        final Map<Integer, List<ItdMetadataProvider>> result = new TreeMap<Integer, List<ItdMetadataProvider>>();
+        for (final ItdMetadataProvider itdProvider : itdProviders) {
+            final int level = getLevel(itdProvider.getProvidesType(),
+                    providesTypes, levels);
+            List<ItdMetadataProvider> providersAtLevel = result.get(level);
+            if (providersAtLevel == null) {
+                providersAtLevel = new ArrayList<ItdMetadataProvider>();
+                result.put(level, providersAtLevel);
+            }
+            providersAtLevel.add(itdProvider);
+        }
+        return result.values();
+    }
+
+    /**
+     * Returns a task that produces the given item, unless the warm-up has been
+     * cancelled by the time it runs.
+     */
+    private Callable<Object> newGetTask(
+            final String metadataIdentificationString) {
+        return new Callable<Object>() {
+            public Object call() {
+                if (cancelled) {
+                    return null;
+                }
+                try {
+                    return getMetadataService().get(
+                            metadataIdentificationString);
+                }
+                catch (final RuntimeException e) {
+                    // The item will be produced (and the problem reported)
+                    // when it's next requested
+                    LOGGER.log(Level.FINE, "Unable to warm up '"
+                            + metadataIdentificationString + "'", e);
+                    return null;
+                }
+            }
+        };
+    }
+
+    public void warmUp() {
+        if (!enabled || cancelled) {
+            return;
+        }
+        final long started = System.currentTimeMillis();
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            final Set<String> physicalTypeIds = getPhysicalTypeIdentifiers();
+            final List<Callable<Object>> physicalTypeTasks = new ArrayList<Callable<Object>>();
+            for (final String physicalTypeId : physicalTypeIds) {
+                physicalTypeTasks.add(newGetTask(physicalTypeId));
+            }
+            pool.invokeAll(physicalTypeTasks);
+
+            // Populates the type cache from the metadata just produced, and
+            // leaves out any types that couldn't be parsed
+            final List<String> parsedTypeIds = new ArrayList<String>();
+            for (final String physicalTypeId : physicalTypeIds) {
+                if (cancelled) {
+                    break;
+                }
+                if (getTypeLocationService().getTypeDetails(physicalTypeId) != null) {
+                    parsedTypeIds.add(physicalTypeId);
+                }
+            }
+
+            int itdRequests = 0;
+            for (final List<ItdMetadataProvider> level : groupByLevel(getItdMetadataProviders())) {
+                final List<Callable<Object>> itdTasks = new ArrayList<Callable<Object>>();
+                for (final ItdMetadataProvider itdProvider : level) {
+                    for (final String physicalTypeId : parsedTypeIds) {
+                        itdTasks.add(newGetTask(itdProvider
+                                .getIdForPhysicalJavaType(physicalTypeId)));
+                    }
+                }
+                if (cancelled) {
+                    break;
+                }
+                pool.invokeAll(itdTasks);
+                itdRequests += itdTasks.size();
+            }
+
+            LOGGER.fine((cancelled ? "Cancelled" : "Completed")
+                    + " metadata warm-up of " + parsedTypeIds.size()
+                    + " types (" + itdRequests + " ITD requests) in "
+                    + (System.currentTimeMillis() - started) + " ms");
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public List<ItdMetadataProvider> getItdMetadataProviders() {
+        // Get all Services implement ItdMetadataProvider interface
+        final List<ItdMetadataProvider> itdProviders = new ArrayList<ItdMetadataProvider>();
+        try {
+            final ServiceReference<?>[] references = context
+                    .getAllServiceReferences(
+                            ItdMetadataProvider.class.getName(), null);
+            if (references == null) {
+                return itdProviders;
+            }
+            for (final ServiceReference<?> ref : references) {
+                itdProviders.add((ItdMetadataProvider) context.getService(ref));
+            }
+            return itdProviders;
+        }
+        catch (final InvalidSyntaxException e) {
+            LOGGER.warning("Cannot load ItdMetadataProvider on MetadataWarmUpTask.");
+            return itdProviders;
+        }
+    }
+
+    public FileManager getFileManager() {
+        if (fileManager == null) {
+            fileManager = getService(FileManager.class);
+        }
+        return fileManager;
+    }
+
+    public MetadataDependencyRegistry getMetadataDependencyRegistry() {
+        if (metadataDependencyRegistry == null) {
+            metadataDependencyRegistry = getService(MetadataDependencyRegistry.class);
+        }
+        return metadataDependencyRegistry;
+    }
+
+    public MetadataService getMetadataService() {
+        if (metadataService == null) {
+            metadataService = getService(MetadataService.class);
+        }
+        return metadataService;
+    }
+
+    public ProjectOperations getProjectOperations() {
+        if (projectOperations == null) {
+            projectOperations = getService(ProjectOperations.class);
+        }
+        return projectOperations;
+    }
+
+    public TypeLocationService getTypeLocationService() {
+        if (typeLocationService == null) {
+            typeLocationService = getService(TypeLocationService.class);
+        }
+        return typeLocationService;
+    }
+
+    private <T> T getService(final Class<T> serviceClass) {
+        try {
+            final ServiceReference<?>[] references = context
+                    .getAllServiceReferences(serviceClass.getName(), null);
+            if (references == null || references.length == 0) {
+                return null;
+            }
+            return serviceClass.cast(context.getService(references[0]));
+        }
+        catch (final InvalidSyntaxException e) {
+            LOGGER.warning("Cannot load " + serviceClass.getSimpleName()
+                    + " on MetadataWarmUpTask.");
+            return null;
+        }
+    }
+}
@@ -16,6 +16,8 @@ import org.springframework.roo.project.maven.Pom;
 @Service
 public class TypeCacheImpl implements TypeCache {
 
+    // Synchronized, as metadata may be produced on several threads
+
     private final Map<String, ClassOrInterfaceTypeDetails> midToTypeDetailsMap = new HashMap<String, ClassOrInterfaceTypeDetails>();
     private final Map<String, Set<String>> moduleFilePathToTypeNamesMap = new HashMap<String, Set<String>>();
     private final Map<String, Set<String>> simpleTypeNameTypesMap = new HashMap<String, Set<String>>();
@@ -26,12 +28,12 @@ public class TypeCacheImpl implements TypeCache {
     private final Map<String, String> typeNameToModuleNameMap = new HashMap<String, String>();
     private final Set<JavaType> types = new HashSet<JavaType>();
 
-    public void cacheFilePathAgainstTypeIdentifier(final String typeFilePath,
-            final String typeIdentifier) {
+    public synchronized void cacheFilePathAgainstTypeIdentifier(
+            final String typeFilePath, final String typeIdentifier) {
         typeFilePathToMidMap.put(typeFilePath, typeIdentifier);
     }
 
-    public void cacheType(final String typeFilePath,
+    public synchronized void cacheType(final String typeFilePath,
             final ClassOrInterfaceTypeDetails cid) {
         Validate.notBlank(typeFilePath, "Module name required");
         Validate.notNull(cid, "Type details required");
@@ -54,7 +56,8 @@ public class TypeCacheImpl implements TypeCache {
         simpleTypeNameTypesMap.get(simpleTypeName).add(fullyQualifiedTypeName);
     }
 
-    public void cacheTypeAgainstModule(final Pom pom, final JavaType javaType) {
+    public synchronized void cacheTypeAgainstModule(final Pom pom,
+            final JavaType javaType) {
         Validate.notNull(pom, "Pom cannot be null");
         Validate.notNull(javaType, "Java type cannot be null");
         typeNameToModuleFilePathMap.put(javaType.getFullyQualifiedTypeName(),
@@ -69,30 +72,34 @@ public class TypeCacheImpl implements TypeCache {
                 javaType.getFullyQualifiedTypeName());
     }
 
-    public Set<String> getAllTypeIdentifiers() {
+    public synchronized Set<String> getAllTypeIdentifiers() {
         return new HashSet<String>(midToTypeDetailsMap.keySet());
     }
 
-    public Set<JavaType> getAllTypes() {
+    public synchronized Set<JavaType> getAllTypes() {
         return new HashSet<JavaType>(types);
     }
 
-    public String getPhysicalTypeIdentifier(final JavaType javaType) {
+    public synchronized String getPhysicalTypeIdentifier(
+            final JavaType javaType) {
         Validate.notNull(javaType, "Java type cannot be null");
         return typeNameToMidMap.get(javaType.getFullyQualifiedTypeName());
     }
 
-    public ClassOrInterfaceTypeDetails getTypeDetails(final String mid) {
+    public synchronized ClassOrInterfaceTypeDetails getTypeDetails(
+            final String mid) {
         Validate.notBlank(mid, "Physical type identifier required");
         return midToTypeDetailsMap.get(mid);
     }
 
-    public String getTypeIdFromTypeFilePath(final String typeFilePath) {
+    public synchronized String getTypeIdFromTypeFilePath(
+            final String typeFilePath) {
         Validate.notBlank(typeFilePath, "Physical type file path required");
         return typeFilePathToMidMap.get(typeFilePath);
     }
 
-    public Set<String> getTypeNamesForModuleFilePath(final String moduleFilePath) {
+    public synchronized Set<String> getTypeNamesForModuleFilePath(
+            final String moduleFilePath) {
         Validate.notBlank(moduleFilePath, "Pom file path required");
         if (!moduleFilePathToTypeNamesMap.containsKey(moduleFilePath)) {
             moduleFilePathToTypeNamesMap.put(moduleFilePath,
@@ -102,14 +109,15 @@ public class TypeCacheImpl implements TypeCache {
                 moduleFilePathToTypeNamesMap.get(moduleFilePath));
     }
 
-    public Set<String> getTypesForSimpleTypeName(final String simpleTypeName) {
+    public synchronized Set<String> getTypesForSimpleTypeName(
+            final String simpleTypeName) {
         if (!simpleTypeNameTypesMap.containsKey(simpleTypeName)) {
             return new HashSet<String>();
         }
         return simpleTypeNameTypesMap.get(simpleTypeName);
     }
 
-    public void removeType(final String typeIdentifier) {
+    public synchronized void removeType(final String typeIdentifier) {
         Validate.notBlank(typeIdentifier, "Physical type identifier required");
         final ClassOrInterfaceTypeDetails cid = midToTypeDetailsMap
                 .get(typeIdentifier);
@@ -165,13 +165,14 @@ public class TypeLocationServiceImpl implements TypeLocationService {
     private final Map<Object, Set<String>> tagToMidMap = new HashMap<Object, Set<String>>();
     private final Map<String, Set<JavaType>> typeAnnotationMap = new HashMap<String, Set<JavaType>>();
 
-    private void cacheType(final String fileCanonicalPath) {
+    private void cacheType(final String fileCanonicalPath, final boolean evict) {
         Validate.notBlank(fileCanonicalPath, "File canonical path required");
         if (doesPathIndicateJavaType(fileCanonicalPath)) {
             final String id = getPhysicalTypeIdentifier(fileCanonicalPath);
             if (id != null && PhysicalTypeIdentifier.isValid(id)) {
                 // Change to Java, so drop the cache
-                final ClassOrInterfaceTypeDetails cid = lookupClassOrInterfaceTypeDetails(id);
+                final ClassOrInterfaceTypeDetails cid = lookupClassOrInterfaceTypeDetails(
+                        id, evict);
                 if (cid == null) {
                     if (!getFileManager().exists(fileCanonicalPath)) {
                         getTypeCache().removeType(id);
@@ -549,7 +550,7 @@ public class TypeLocationServiceImpl implements TypeLocationService {
         return getTypeCache().getTypeNamesForModuleFilePath(modulePath);
     }
 
-    public boolean hasTypeChanged(final String requestingClass,
+    public synchronized boolean hasTypeChanged(final String requestingClass,
             final JavaType javaType) {
         Validate.notNull(requestingClass, "Requesting class required");
         Validate.notNull(javaType, "Java type required");
@@ -575,6 +576,12 @@ public class TypeLocationServiceImpl implements TypeLocationService {
         return false;
     }
 
+    /**
+     * Populates the type cache from every source file in the project. The
+     * metadata cache is kept up to date by file events, so any
+     * {@link PhysicalTypeMetadata} already produced (e.g. by a warm-up) is
+     * used as is.
+     */
     private void initTypeMap() {
         for (final Pom pom : getProjectOperations().getPoms()) {
             for (final PhysicalPath path : pom.getPhysicalPaths()) {
@@ -584,7 +591,7 @@ public class TypeLocationServiceImpl implements TypeLocationService {
                             + JAVA_FILES_ANT_PATH;
                     for (final FileDetails file : getFileManager()
                             .findMatchingAntPath(allJavaFiles)) {
-                        cacheType(file.getCanonicalPath());
+                        cacheType(file.getCanonicalPath(), false);
                     }
                 }
             }
@@ -597,23 +604,26 @@ public class TypeLocationServiceImpl implements TypeLocationService {
     }
 
     /**
-     * Obtains the a fresh copy of the {@link ClassOrInterfaceTypeDetails} for
-     * the given physical type.
+     * Obtains the {@link ClassOrInterfaceTypeDetails} for the given physical
+     * type.
      * 
      * @param physicalTypeIdentifier to lookup (required)
+     * @param evict whether to obtain a fresh copy rather than any cached one
      * @return the requested details (or <code>null</code> if unavailable)
      */
     private ClassOrInterfaceTypeDetails lookupClassOrInterfaceTypeDetails(
-            final String physicalTypeIdentifier) {
-        final PhysicalTypeMetadata physicalTypeMetadata = (PhysicalTypeMetadata) getMetadataService()
-                .evictAndGet(physicalTypeIdentifier);
+            final String physicalTypeIdentifier, final boolean evict) {
+        final MetadataService metadataService = getMetadataService();
+        final PhysicalTypeMetadata physicalTypeMetadata = (PhysicalTypeMetadata) (evict ? metadataService
+                .evictAndGet(physicalTypeIdentifier) : metadataService
+                .get(physicalTypeIdentifier));
         if (physicalTypeMetadata == null) {
             return null;
         }
         return physicalTypeMetadata.getMemberHoldingTypeDetails();
     }
 
-    public void processTypesWithAnnotation(
+    public synchronized void processTypesWithAnnotation(
             final List<JavaType> annotationsToDetect,
             final LocatedTypeCallback callback) {
         Validate.notNull(annotationsToDetect, "Annotations to detect required");
@@ -640,7 +650,7 @@ public class TypeLocationServiceImpl implements TypeLocationService {
         }
     }
 
-    private void processTypesWithTag(final Object tag,
+    private synchronized void processTypesWithTag(final Object tag,
             final LocatedTypeCallback callback) {
         Validate.notNull(tag, "Tag required");
         Validate.notNull(callback, "Callback required");
@@ -720,14 +730,19 @@ public class TypeLocationServiceImpl implements TypeLocationService {
         }
     }
 
-    private void updateTypeCache() {
+    /**
+     * Brings the type cache up to date. Like the other methods using the
+     * caches of this class, this is synchronized because metadata may be
+     * produced on several threads (see {@link MetadataWarmUpTask}).
+     */
+    private synchronized void updateTypeCache() {
         if (getTypeCache().getAllTypeIdentifiers().isEmpty()) {
             initTypeMap();
         }
         discoverTypes();
         // Update the type cache
         for (final String change : dirtyFiles) {
-            cacheType(change);
+            cacheType(change, true);
         }
         dirtyFiles.clear();
     }
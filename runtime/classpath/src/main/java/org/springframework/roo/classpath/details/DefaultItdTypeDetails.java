@@ -7,6 +7,7 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -14,6 +15,8 @@ import org.springframework.roo.classpath.PhysicalTypeCategory;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.itd.AbstractItdMetadataProvider;
 import org.springframework.roo.classpath.itd.ItdSourceFileComposer;
+import org.springframework.roo.metadata.MetadataFingerprint;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.model.CustomData;
 import org.springframework.roo.model.CustomDataAccessor;
 import org.springframework.roo.model.JavaType;
@@ -22,9 +25,10 @@ import org.springframework.roo.support.util.CollectionUtils;
 /**
  * Default representation of an {@link ItdTypeDetails}.
  * <p>
- * Provides a basic {@link #hashCode()} that is used for detecting significant
- * changes in {@link AbstractItdMetadataProvider} and avoiding downstream
- * notifications accordingly.
+ * Provides a basic {@link #hashCode()} and a stable {@link #getFingerprint()}
+ * that are used for detecting significant changes in
+ * {@link AbstractItdMetadataProvider} and avoiding downstream notifications
+ * accordingly.
  * 
  * @author Ben Alex
  * @author Stefan Schmidt
@@ -38,6 +42,7 @@ public class DefaultItdTypeDetails extends AbstractMemberHoldingTypeDetails
     private final JavaType aspect;
     private final List<ConstructorMetadata> declaredConstructors = new ArrayList<ConstructorMetadata>();
     private final List<FieldMetadata> declaredFields = new ArrayList<FieldMetadata>();
+    private volatile MetadataFingerprint fingerprint;
     private final List<MethodMetadata> declaredMethods = new ArrayList<MethodMetadata>();
     private final List<JavaType> extendsTypes = new ArrayList<JavaType>();
     private final List<DeclaredFieldAnnotationDetails> fieldAnnotations = new ArrayList<DeclaredFieldAnnotationDetails>();
@@ -47,6 +52,7 @@ public class DefaultItdTypeDetails extends AbstractMemberHoldingTypeDetails
     private final List<DeclaredMethodAnnotationDetails> methodAnnotations = new ArrayList<DeclaredMethodAnnotationDetails>();
     private final boolean privilegedAspect;
     private final Set<JavaType> registeredImports = new HashSet<JavaType>();
+    private volatile ItdSourceFileComposer sourceFileComposer;
     private final Set<JavaType> declarePrecedence = new LinkedHashSet<JavaType>();
     
 
@@ -117,6 +123,30 @@ public class DefaultItdTypeDetails extends AbstractMemberHoldingTypeDetails
         return extendsTypes.contains(type);
     }
 
+    /**
+     * Appends the given custom data in a JVM-independent order. Keys and
+     * values are represented by their {@link Object#toString()}.
+     */
+    private void appendCustomData(final MetadataFingerprintBuilder builder,
+            final CustomData customData) {
+        final Set<String> entries = new TreeSet<String>();
+        for (final Object key : customData.keySet()) {
+            entries.add(key + "=" + customData.get(key));
+        }
+        builder.append(entries.size());
+        for (final String entry : entries) {
+            builder.append(entry);
+        }
+    }
+
+    private void appendCustomData(final MetadataFingerprintBuilder builder,
+            final Collection<? extends CustomDataAccessor> accessors) {
+        builder.append(accessors.size());
+        for (final CustomDataAccessor accessor : accessors) {
+            appendCustomData(builder, accessor.getCustomData());
+        }
+    }
+
     public JavaType getAspect() {
         return aspect;
     }
@@ -181,6 +211,42 @@ public class DefaultItdTypeDetails extends AbstractMemberHoldingTypeDetails
         return Collections.unmodifiableSet(registeredImports);
     }
 
+    public MetadataFingerprint getFingerprint() {
+        // Benign race: every thread computes the same value
+        if (fingerprint == null) {
+            final MetadataFingerprintBuilder builder = new MetadataFingerprintBuilder();
+            builder.append(aspect.getFullyQualifiedTypeName());
+            builder.append(governor.getName().getFullyQualifiedTypeName());
+            builder.append(governor.getModifier());
+            builder.append(privilegedAspect);
+            appendCustomData(builder, governor.getCustomData());
+            appendCustomData(builder, declaredConstructors);
+            appendCustomData(builder, declaredFields);
+            appendCustomData(builder, declaredMethods);
+            builder.append(getSourceFileComposer().getOutput());
+            fingerprint = builder.build();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the composer of this ITD's source code, composing it on first
+     * use, so that the provider writing the ITD and {@link #getFingerprint()}
+     * only render it once.
+     * 
+     * @return a non-<code>null</code> composer
+     * @since 2.0
+     */
+    public ItdSourceFileComposer getSourceFileComposer() {
+        // Benign race: every thread composes the same output
+        ItdSourceFileComposer composer = sourceFileComposer;
+        if (composer == null) {
+            composer = new ItdSourceFileComposer(this);
+            sourceFileComposer = composer;
+        }
+        return composer;
+    }
+
     public JavaType getType() {
         return governor.getType();
     }
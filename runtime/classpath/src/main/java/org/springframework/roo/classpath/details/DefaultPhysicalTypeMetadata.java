@@ -5,13 +5,14 @@ import org.springframework.roo.classpath.PhysicalTypeIdentifier;
 import org.springframework.roo.classpath.PhysicalTypeMetadata;
 import org.springframework.roo.classpath.itd.ItdMetadataProvider;
 import org.springframework.roo.metadata.AbstractMetadataItem;
+import org.springframework.roo.metadata.WeighableMetadataItem;
 import org.springframework.roo.model.JavaType;
 
 /**
  * The default {@link PhysicalTypeMetadata} implementation.
  */
 public class DefaultPhysicalTypeMetadata extends AbstractMetadataItem implements
-        PhysicalTypeMetadata {
+        PhysicalTypeMetadata, WeighableMetadataItem {
 
     private final ClassOrInterfaceTypeDetails cid;
     private final String physicalLocationCanonicalPath;
@@ -42,6 +43,10 @@ public class DefaultPhysicalTypeMetadata extends AbstractMetadataItem implements
         this.physicalLocationCanonicalPath = physicalLocationCanonicalPath;
     }
 
+    public int getElementCount() {
+        return MemberFindingUtils.countDeclaredElements(cid);
+    }
+
     public String getItdCanoncialPath(final ItdMetadataProvider metadataProvider) {
         // Delegate to the correctly spelled method
         return getItdCanonicalPath(metadataProvider);
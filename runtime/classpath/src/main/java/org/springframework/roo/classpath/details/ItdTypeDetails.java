@@ -3,6 +3,7 @@ package org.springframework.roo.classpath.details;
 import java.util.List;
 import java.util.Set;
 
+import org.springframework.roo.metadata.MetadataFingerprint;
 import org.springframework.roo.model.JavaType;
 
 /**
@@ -40,6 +41,17 @@ public interface ItdTypeDetails extends MemberHoldingTypeDetails {
      */
     List<DeclaredFieldAnnotationDetails> getFieldAnnotations();
 
+    /**
+     * Returns a stable fingerprint of this ITD, covering the generated source
+     * along with the custom data of the governor and of the introduced
+     * members. Unlike {@link #hashCode()}, it is the same in every JVM, so it
+     * can be persisted.
+     * 
+     * @return a non-<code>null</code> fingerprint
+     * @since 2.0
+     */
+    MetadataFingerprint getFingerprint();
+
     /**
      * Returns the {@link ClassOrInterfaceTypeDetails} representing the governor
      * of this ITD.
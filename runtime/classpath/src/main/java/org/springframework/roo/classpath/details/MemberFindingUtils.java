@@ -24,6 +24,28 @@ import org.springframework.roo.model.JavaType;
  */
 public final class MemberFindingUtils {
 
+    /**
+     * Counts the annotations and members declared by the given type, without
+     * descending into its inner types' members.
+     * 
+     * @param memberHoldingTypeDetails the type to count (may be
+     *            <code>null</code>)
+     * @return zero or more
+     * @since 2.0
+     */
+    public static int countDeclaredElements(
+            final MemberHoldingTypeDetails memberHoldingTypeDetails) {
+        if (memberHoldingTypeDetails == null) {
+            return 0;
+        }
+        return memberHoldingTypeDetails.getAnnotations().size()
+                + memberHoldingTypeDetails.getDeclaredConstructors().size()
+                + memberHoldingTypeDetails.getDeclaredFields().size()
+                + memberHoldingTypeDetails.getDeclaredInitializers().size()
+                + memberHoldingTypeDetails.getDeclaredInnerTypes().size()
+                + memberHoldingTypeDetails.getDeclaredMethods().size();
+    }
+
     /**
      * Locates the metadata for an annotation of the specified type from within
      * the given list.
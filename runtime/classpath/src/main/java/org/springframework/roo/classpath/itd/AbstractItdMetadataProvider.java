@@ -16,6 +16,7 @@ import org.springframework.roo.classpath.PhysicalTypeIdentifierNamingUtils;
 import org.springframework.roo.classpath.PhysicalTypeMetadata;
 import org.springframework.roo.classpath.TypeLocationService;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.DefaultItdTypeDetails;
 import org.springframework.roo.classpath.details.IdentifiableJavaStructure;
 import org.springframework.roo.classpath.details.ItdTypeDetails;
 import org.springframework.roo.classpath.details.MemberHoldingTypeDetails;
@@ -28,6 +29,7 @@ import org.springframework.roo.metadata.MetadataIdentificationUtils;
 import org.springframework.roo.metadata.MetadataItem;
 import org.springframework.roo.metadata.MetadataNotificationListener;
 import org.springframework.roo.metadata.MetadataProvider;
+import org.springframework.roo.metadata.MetadataSnapshotService;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.process.manager.FileManager;
 import org.springframework.roo.project.LogicalPath;
@@ -289,8 +291,10 @@ public abstract class AbstractItdMetadataProvider extends
             if (!deleteItdFile) {
                 // We have some members in the ITD, so decide if we're to write
                 // something to disk
-                final ItdSourceFileComposer itdSourceFileComposer = new ItdSourceFileComposer(
-                        metadata.getMemberHoldingTypeDetails());
+                // Shared with the fingerprint, so the ITD is only rendered once
+                final ItdSourceFileComposer itdSourceFileComposer = itdTypeDetails instanceof DefaultItdTypeDetails ? ((DefaultItdTypeDetails) itdTypeDetails)
+                        .getSourceFileComposer() : new ItdSourceFileComposer(
+                        itdTypeDetails);
 
                 // Decide whether the get an ITD on-disk based on whether there
                 // is physical content to write
@@ -300,6 +304,10 @@ public abstract class AbstractItdMetadataProvider extends
                     final String itd = itdSourceFileComposer.getOutput();
                     getFileManager().createOrUpdateTextFileIfRequired(itdFilename,
                             itd, false);
+                    final MetadataSnapshotService snapshotService = getMetadataSnapshotService();
+                    if (snapshotService != null && snapshotService.isEnabled()) {
+                        snapshotService.recordGeneratedFile(itdFilename);
+                    }
                 }
                 else {
                     // We don't have content to write
@@ -23,6 +23,9 @@ import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
 import org.springframework.roo.metadata.AbstractMetadataItem;
+import org.springframework.roo.metadata.FingerprintableMetadataItem;
+import org.springframework.roo.metadata.MetadataFingerprint;
+import org.springframework.roo.metadata.WeighableMetadataItem;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.model.JdkJavaType;
@@ -32,18 +35,25 @@ import org.springframework.roo.model.JdkJavaType;
  * assumes the subclass will require a non-null
  * {@link ClassOrInterfaceTypeDetails} representing the governor and wishes to
  * build an ITD via the {@link ItdTypeDetailsBuilder} mechanism.
+ * <p>
+ * The {@link #getFingerprint() fingerprint} of such an item is that of the ITD
+ * it builds. Subclasses that override {@link #hashCode()} to cover other state
+ * should override {@link #getFingerprint()} likewise; until they do, their
+ * hash code is used as the fingerprint.
  * 
  * @author Ben Alex
  * @since 1.0
  */
 public abstract class AbstractItdTypeDetailsProvidingMetadataItem extends
-        AbstractMetadataItem implements ItdTypeDetailsProvidingMetadataItem {
+        AbstractMetadataItem implements ItdTypeDetailsProvidingMetadataItem,
+        FingerprintableMetadataItem, WeighableMetadataItem {
 
     protected JavaType aspectName;
     protected ItdTypeDetailsBuilder builder;
     protected JavaType destination;
     protected PhysicalTypeMetadata governorPhysicalTypeMetadata;
     protected ClassOrInterfaceTypeDetails governorTypeDetails;
+    private MetadataFingerprint fingerprint;
     protected ItdTypeDetails itdTypeDetails;
 
     /**
@@ -197,6 +207,22 @@ public abstract class AbstractItdTypeDetailsProvidingMetadataItem extends
         return getField(PRIVATE, fieldName, fieldType, null);
     }
 
+    public synchronized MetadataFingerprint getFingerprint() {
+        if (fingerprint == null) {
+            if (overridesHashCode()) {
+                fingerprint = MetadataFingerprint.ofHashCode(this);
+            }
+            else if (itdTypeDetails != null) {
+                // Reuses the output the provider composed from these details
+                fingerprint = itdTypeDetails.getFingerprint();
+            }
+            else {
+                fingerprint = builder.build().getFingerprint();
+            }
+        }
+        return fingerprint;
+    }
+
     /**
      * Returns the given method of the governor.
      * 
@@ -228,6 +254,10 @@ public abstract class AbstractItdTypeDetailsProvidingMetadataItem extends
                 methodName, parameterTypes);
     }
 
+    public int getElementCount() {
+        return MemberFindingUtils.countDeclaredElements(itdTypeDetails);
+    }
+
     public final ItdTypeDetails getMemberHoldingTypeDetails() {
         return itdTypeDetails;
     }
@@ -339,6 +369,19 @@ public abstract class AbstractItdTypeDetailsProvidingMetadataItem extends
         return builder.build().hashCode();
     }
 
+    /**
+     * Indicates whether a subclass has replaced {@link #hashCode()}, meaning
+     * that the ITD alone may not reflect every relevant change.
+     */
+    private boolean overridesHashCode() {
+        try {
+            return getClass().getMethod("hashCode").getDeclaringClass() != AbstractItdTypeDetailsProvidingMetadataItem.class;
+        }
+        catch (final NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Determines if the presented class (or any of its superclasses) implements
      * the target interface.
@@ -1,5 +1,7 @@
 package org.springframework.roo.file.monitor;
 
+import java.util.Collection;
+
 import org.springframework.roo.file.monitor.event.FileEventListener;
 
 /**
@@ -42,6 +44,15 @@ public interface NotifiableFileMonitorService extends FileMonitorService {
      */
     void notifyChanged(String fileCanonicalPath);
 
+    /**
+     * Equivalent to calling {@link #notifyChanged(String)} for each of the
+     * given paths, e.g. when a batch of files has been written together.
+     * 
+     * @param fileCanonicalPaths required (can be empty)
+     * @since 2.0
+     */
+    void notifyChanged(Collection<String> fileCanonicalPaths);
+
     void notifyCreated(String fileCanonicalPath);
 
     /**
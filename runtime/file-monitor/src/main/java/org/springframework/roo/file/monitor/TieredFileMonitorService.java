@@ -0,0 +1,39 @@
+package org.springframework.roo.file.monitor;
+
+/**
+ * A {@link FileMonitorService} that can scan the monitored locations
+ * selectively, re-examining frequently changing directories more often than
+ * those that rarely change.
+ *
+ * @since 2.0
+ */
+public interface TieredFileMonitorService extends FileMonitorService {
+
+    /**
+     * Returns how many files and directories the last scan read the state of
+     * from disk.
+     *
+     * @return zero or more
+     */
+    long getLastScanFileCount();
+
+    /**
+     * Returns how many directories the last scan skipped because they weren't
+     * due to be re-examined.
+     *
+     * @return zero or more
+     */
+    long getLastScanSkippedDirectoryCount();
+
+    /**
+     * Similar to {@link #scanAll()}, except only lists the directories that
+     * are due to be, according to how recently each one changed. The files
+     * already known in the other directories are still checked, so their
+     * changes and deletions are detected at once; new files in those
+     * directories are detected by a later scan.
+     *
+     * @return the number of changes detected during this invocation (can be 0
+     *         or above)
+     */
+    int scanDue();
+}
@@ -0,0 +1,29 @@
+package org.springframework.roo.file.monitor.event;
+
+import java.util.List;
+
+/**
+ * A {@link FileEventListener} that is notified of each scan's file system
+ * changes as a single batch, rather than one {@link FileEvent} at a time.
+ * <p>
+ * Within a batch there's at most one event per file, reporting the file's net
+ * change; for example a file that was created and then updated is reported
+ * as {@link FileOperation#CREATED}, and a file that was created and then
+ * deleted isn't reported at all. {@link #onFileEvent(FileEvent)} is not
+ * invoked by a file monitor that supports batches.
+ *
+ * @since 2.0
+ */
+public interface BatchFileEventListener extends FileEventListener {
+
+    /**
+     * Invoked by a
+     * {@link org.springframework.roo.file.monitor.polling.PollingFileMonitorService}
+     * to report the changes found by one or more scans.
+     *
+     * @param fileEvents the file events, in the order in which each file was
+     *            first found to have changed (never null or empty, not
+     *            modifiable)
+     */
+    void onFileEvents(List<FileEvent> fileEvents);
+}
@@ -0,0 +1,143 @@
+package org.springframework.roo.file.monitor.polling;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileOperation;
+
+/**
+ * The {@link FileEvent}s awaiting delivery to
+ * {@link org.springframework.roo.file.monitor.event.BatchFileEventListener}s,
+ * coalesced so that each file has at most one event.
+ * <p>
+ * A file's net change depends on whether the listeners knew of it before its
+ * first event in the batch (i.e. unless that event was a
+ * {@link FileOperation#CREATED} or {@link FileOperation#MONITORING_START}) and
+ * whether they should know of it after its last event (i.e. unless that event
+ * was a {@link FileOperation#DELETED} or
+ * {@link FileOperation#MONITORING_FINISH}):
+ * <ul>
+ * <li>neither: no event</li>
+ * <li>only after: the first event's operation</li>
+ * <li>only before: the last event's operation</li>
+ * <li>both: {@link FileOperation#UPDATED}</li>
+ * </ul>
+ * In each case the event carries the last event's {@link
+ * org.springframework.roo.file.monitor.event.FileDetails}. A file with a
+ * single event in the batch keeps that event unchanged.
+ * <p>
+ * Not thread-safe.
+ *
+ * @since 2.0
+ */
+final class FileEventBatch {
+
+    private static final class Changes {
+
+        final FileOperation first;
+        FileEvent last;
+        boolean single = true;
+
+        Changes(final FileEvent event) {
+            first = event.getOperation();
+            last = event;
+        }
+    }
+
+    private static boolean isAbsentAfter(final FileOperation operation) {
+        return operation == FileOperation.DELETED
+                || operation == FileOperation.MONITORING_FINISH;
+    }
+
+    private static boolean isAbsentBefore(final FileOperation operation) {
+        return operation == FileOperation.CREATED
+                || operation == FileOperation.MONITORING_START;
+    }
+
+    /** key: canonical path, in the order in which each was first added */
+    private final Map<String, Changes> changes = new LinkedHashMap<String, Changes>();
+    private long firstAdded;
+    private long lastAdded;
+
+    /**
+     * Adds the given event to this batch.
+     *
+     * @param event the event to add (required)
+     * @param now the current time in milliseconds
+     */
+    void add(final FileEvent event, final long now) {
+        if (changes.isEmpty()) {
+            firstAdded = now;
+        }
+        lastAdded = now;
+        final String path = event.getFileDetails().getCanonicalPath();
+        final Changes existing = changes.get(path);
+        if (existing == null) {
+            changes.put(path, new Changes(event));
+        }
+        else {
+            existing.last = event;
+            existing.single = false;
+        }
+    }
+
+    /**
+     * Returns the coalesced events and empties this batch.
+     *
+     * @return a non-<code>null</code> list
+     */
+    List<FileEvent> drain() {
+        final List<FileEvent> events = new ArrayList<FileEvent>(changes.size());
+        for (final Changes change : changes.values()) {
+            if (change.single) {
+                events.add(change.last);
+                continue;
+            }
+            final boolean before = !isAbsentBefore(change.first);
+            final boolean after = !isAbsentAfter(change.last.getOperation());
+            final FileOperation operation;
+            if (before && after) {
+                operation = FileOperation.UPDATED;
+            }
+            else if (after) {
+                operation = change.first;
+            }
+            else if (before) {
+                operation = change.last.getOperation();
+            }
+            else {
+                continue;
+            }
+            events.add(operation == change.last.getOperation() ? change.last
+                    : new FileEvent(change.last.getFileDetails(), operation,
+                            null));
+        }
+        changes.clear();
+        return events;
+    }
+
+    /**
+     * Returns when the oldest event in this batch was added.
+     *
+     * @return a time in milliseconds (undefined if this batch is empty)
+     */
+    long getFirstAdded() {
+        return firstAdded;
+    }
+
+    /**
+     * Returns when the newest event in this batch was added.
+     *
+     * @return a time in milliseconds (undefined if this batch is empty)
+     */
+    long getLastAdded() {
+        return lastAdded;
+    }
+
+    boolean isEmpty() {
+        return changes.isEmpty();
+    }
+}
@@ -0,0 +1,176 @@
+package org.springframework.roo.file.monitor.polling;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.springframework.roo.support.util.FileUtils;
+
+/**
+ * The canonical paths of the files and directories known to a
+ * {@link PollingFileMonitorService}, held as a tree of path elements along
+ * with each file's last modification time.
+ * <p>
+ * An Ant path query only visits the directories that could contain a match
+ * (per {@link FileUtils#matchesAntPathStart(String, String)}), so for example
+ * <code>/project/src/main/java/**&#47;*.java</code> never looks at the
+ * contents of <code>/project/src/main/resources</code>.
+ * <p>
+ * Not thread-safe.
+ *
+ * @since 2.0
+ */
+final class FilePathIndex {
+
+    private static final class Node {
+
+        Map<String, Node> children;
+        boolean known;
+        long lastModified;
+
+        Node child(final String name, final boolean create) {
+            Node child = children == null ? null : children.get(name);
+            if (child == null && create) {
+                if (children == null) {
+                    children = new HashMap<String, Node>();
+                }
+                child = new Node();
+                children.put(name, child);
+            }
+            return child;
+        }
+    }
+
+    private static final char SEPARATOR = File.separatorChar;
+
+    private final Node root = new Node();
+    private int size;
+
+    void clear() {
+        root.children = null;
+        size = 0;
+    }
+
+    /**
+     * Returns the node for the given path.
+     *
+     * @param create whether to create any missing nodes
+     * @return <code>null</code> if it doesn't exist and create is
+     *         <code>false</code>
+     */
+    private Node find(final String path, final boolean create) {
+        Node node = root;
+        int start = 0;
+        while (node != null && start < path.length()) {
+            int end = path.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                node = node.child(path.substring(start, end), create);
+            }
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /**
+     * Adds the paths within the given directory that match the given Ant
+     * path to the given map.
+     *
+     * @param antPath the Ant path to match (required)
+     * @param directory the canonical path of the directory to search
+     *            (required)
+     * @param matches the map to which to add the matching paths and their
+     *            last modification times (required)
+     */
+    void findMatches(final String antPath, final String directory,
+            final Map<String, Long> matches) {
+        final Node node = find(directory, false);
+        if (node != null) {
+            findMatches(antPath, node, directory, matches);
+        }
+    }
+
+    private void findMatches(final String antPath, final Node directory,
+            final String directoryPath, final Map<String, Long> matches) {
+        if (directory.children == null) {
+            return;
+        }
+        for (final Entry<String, Node> entry : directory.children.entrySet()) {
+            final String path = directoryPath + SEPARATOR + entry.getKey();
+            final Node node = entry.getValue();
+            if (node.known && FileUtils.matchesAntPath(antPath, path)) {
+                matches.put(path, node.lastModified);
+            }
+            if (node.children != null
+                    && FileUtils.matchesAntPathStart(antPath, path)) {
+                findMatches(antPath, node, path, matches);
+            }
+        }
+    }
+
+    /**
+     * Records the given file or directory.
+     *
+     * @param path its canonical path (required)
+     * @param lastModified its last modification time
+     */
+    void put(final String path, final long lastModified) {
+        final Node node = find(path, true);
+        if (!node.known) {
+            node.known = true;
+            size++;
+        }
+        node.lastModified = lastModified;
+    }
+
+    /**
+     * Forgets the given file or directory, but not any files within it.
+     *
+     * @param path its canonical path (required)
+     * @return <code>true</code> if it was known
+     */
+    boolean remove(final String path) {
+        final Node node = find(path, false);
+        if (node == null || !node.known) {
+            return false;
+        }
+        node.known = false;
+        size--;
+        prune(root, path, 0);
+        return true;
+    }
+
+    /**
+     * Removes the nodes along the given path that are neither known nor have
+     * any children.
+     *
+     * @return whether the given node can itself be removed
+     */
+    private boolean prune(final Node node, final String path, int start) {
+        while (start < path.length() && path.charAt(start) == SEPARATOR) {
+            start++;
+        }
+        if (start < path.length()) {
+            int end = path.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = path.length();
+            }
+            final String name = path.substring(start, end);
+            final Node child = node.child(name, false);
+            if (child != null && prune(child, path, end)) {
+                node.children.remove(name);
+                if (node.children.isEmpty()) {
+                    node.children = null;
+                }
+            }
+        }
+        return !node.known && node.children == null;
+    }
+
+    int size() {
+        return size;
+    }
+}
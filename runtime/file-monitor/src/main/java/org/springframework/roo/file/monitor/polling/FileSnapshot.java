@@ -0,0 +1,262 @@
+package org.springframework.roo.file.monitor.polling;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.springframework.roo.file.monitor.MonitoringRequest;
+
+/**
+ * The last modification times, sizes and (optionally) content hashes of the
+ * files found by one scan of a {@link MonitoringRequest}, keyed by canonical
+ * path.
+ * <p>
+ * The entries are held in parallel arrays (open addressing with linear
+ * probing), so there's no {@link java.io.File}, boxed {@link Long} or map
+ * entry per file. Scans look up each path in the previous snapshot via
+ * {@link #intern(String)}, so that a file's path is held in memory once no
+ * matter how many scans have seen it.
+ * <p>
+ * Not thread-safe; concurrent reads are fine once the snapshot is built.
+ *
+ * @since 2.0
+ */
+final class FileSnapshot implements Iterable<String> {
+
+    /** The hash recorded for a file whose content hasn't been hashed */
+    static final long NO_HASH = 0;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] hashes;
+    private long[] lastModified;
+    private String[] paths;
+    private int size;
+    private long[] sizes;
+
+    FileSnapshot() {
+        this(0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param expectedSize the number of files expected, to avoid resizing
+     */
+    FileSnapshot(final int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        hashes = new long[capacity];
+        lastModified = new long[capacity];
+        paths = new String[capacity];
+        sizes = new long[capacity];
+    }
+
+    boolean contains(final String path) {
+        return indexOf(path) >= 0;
+    }
+
+    /**
+     * Returns the content hash recorded for the given path.
+     *
+     * @param path the canonical path to look up
+     * @return {@link #NO_HASH} if the path isn't in this snapshot or its
+     *         content wasn't hashed
+     */
+    long getHash(final String path) {
+        final int index = indexOf(path);
+        return index < 0 ? NO_HASH : hashes[index];
+    }
+
+    /**
+     * Returns the last modification time recorded for the given path.
+     *
+     * @param path the canonical path to look up
+     * @param defaultValue the value to return if the path isn't in this
+     *            snapshot
+     * @return see above
+     */
+    long getLastModified(final String path, final long defaultValue) {
+        final int index = indexOf(path);
+        return index < 0 ? defaultValue : lastModified[index];
+    }
+
+    /**
+     * Returns the size recorded for the given path.
+     *
+     * @param path the canonical path to look up
+     * @param defaultValue the value to return if the path isn't in this
+     *            snapshot
+     * @return see above
+     */
+    long getSize(final String path, final long defaultValue) {
+        final int index = indexOf(path);
+        return index < 0 ? defaultValue : sizes[index];
+    }
+
+    /**
+     * Returns the slot at which the given path is stored, or if absent,
+     * <code>-1 - </code> the slot at which it should be inserted.
+     */
+    private int indexOf(final String path) {
+        final int mask = paths.length - 1;
+        int index = slot(path, mask);
+        while (paths[index] != null) {
+            if (paths[index].equals(path)) {
+                return index;
+            }
+            index = index + 1 & mask;
+        }
+        return -1 - index;
+    }
+
+    /**
+     * Returns this snapshot's instance of the given path, if any.
+     *
+     * @param path the canonical path to look up
+     * @return an equal {@link String} (the given one if it's not in this
+     *         snapshot)
+     */
+    String intern(final String path) {
+        final int index = indexOf(path);
+        return index < 0 ? path : paths[index];
+    }
+
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int next = advance(0);
+
+            private int advance(int index) {
+                while (index < paths.length && paths[index] == null) {
+                    index++;
+                }
+                return index;
+            }
+
+            public boolean hasNext() {
+                return next < paths.length;
+            }
+
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final String path = paths[next];
+                next = advance(next + 1);
+                return path;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Records the given file's state, replacing any already recorded for it.
+     *
+     * @param path the file's canonical path (required)
+     * @param time the file's last modification time
+     * @param length the file's size in bytes
+     */
+    void put(final String path, final long time, final long length) {
+        put(path, time, length, NO_HASH);
+    }
+
+    /**
+     * Records the given file's state, replacing any already recorded for it.
+     *
+     * @param path the file's canonical path (required)
+     * @param time the file's last modification time
+     * @param length the file's size in bytes
+     * @param hash the file's content hash, or {@link #NO_HASH} if unknown
+     */
+    void put(final String path, final long time, final long length,
+            final long hash) {
+        int index = indexOf(path);
+        if (index >= 0) {
+            hashes[index] = hash;
+            lastModified[index] = time;
+            sizes[index] = length;
+            return;
+        }
+        if ((size + 1) * 4 > paths.length * 3) {
+            resize(paths.length << 1);
+            index = indexOf(path);
+        }
+        index = -1 - index;
+        hashes[index] = hash;
+        paths[index] = path;
+        lastModified[index] = time;
+        sizes[index] = length;
+        size++;
+    }
+
+    /**
+     * Removes the given file from this snapshot.
+     *
+     * @param path the canonical path of the file to remove
+     * @return <code>true</code> if it was present
+     */
+    boolean remove(final String path) {
+        final int index = indexOf(path);
+        if (index < 0) {
+            return false;
+        }
+        // Shift back any following entries that would no longer be reachable
+        // from their home slot
+        final int mask = paths.length - 1;
+        int hole = index;
+        int next = index;
+        while (true) {
+            next = next + 1 & mask;
+            if (paths[next] == null) {
+                break;
+            }
+            final int home = slot(paths[next], mask);
+            final boolean reachable = hole <= next ? hole < home
+                    && home <= next : hole < home || home <= next;
+            if (!reachable) {
+                hashes[hole] = hashes[next];
+                paths[hole] = paths[next];
+                lastModified[hole] = lastModified[next];
+                sizes[hole] = sizes[next];
+                hole = next;
+            }
+        }
+        paths[hole] = null;
+        size--;
+        return true;
+    }
+
+    private void resize(final int capacity) {
+        final long[] oldHashes = hashes;
+        final String[] oldPaths = paths;
+        final long[] oldLastModified = lastModified;
+        final long[] oldSizes = sizes;
+        hashes = new long[capacity];
+        paths = new String[capacity];
+        lastModified = new long[capacity];
+        sizes = new long[capacity];
+        for (int i = 0; i < oldPaths.length; i++) {
+            if (oldPaths[i] != null) {
+                final int index = -1 - indexOf(oldPaths[i]);
+                hashes[index] = oldHashes[i];
+                paths[index] = oldPaths[i];
+                lastModified[index] = oldLastModified[i];
+                sizes[index] = oldSizes[i];
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int slot(final String path, final int mask) {
+        final int hash = path.hashCode();
+        // Spread the high bits, as paths tend to share long prefixes
+        return (hash ^ hash >>> 16) & mask;
+    }
+}
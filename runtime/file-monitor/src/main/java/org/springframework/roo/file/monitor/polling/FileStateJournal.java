@@ -0,0 +1,154 @@
+package org.springframework.roo.file.monitor.polling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads and writes the {@link FileSnapshot}s of a
+ * {@link PollingFileMonitorService} to a file, so that a restarted shell can
+ * tell which files changed while it wasn't running.
+ * <p>
+ * The format is a gzipped stream of snapshots, each holding its entries in
+ * path order, with each path stored as the length of the prefix it shares
+ * with the previous path followed by the rest of it.
+ *
+ * @since 2.0
+ */
+final class FileStateJournal {
+
+    private static final int MAGIC = 0x524f4f4a; // "ROOJ"
+    private static final int VERSION = 2;
+
+    /**
+     * Reads the given journal.
+     *
+     * @param file the journal to read (required)
+     * @return the snapshots keyed as they were written (empty if the file
+     *         doesn't exist or is of an unknown version)
+     * @throws IOException if the file can't be read
+     */
+    static Map<String, FileSnapshot> read(final File file) throws IOException {
+        final Map<String, FileSnapshot> snapshots = new HashMap<String, FileSnapshot>();
+        if (!file.isFile()) {
+            return snapshots;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new FileInputStream(file))));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return snapshots;
+            }
+            final int snapshotCount = in.readInt();
+            for (int i = 0; i < snapshotCount; i++) {
+                final String key = in.readUTF();
+                final int entryCount = in.readInt();
+                final FileSnapshot snapshot = new FileSnapshot(entryCount);
+                String previous = "";
+                for (int j = 0; j < entryCount; j++) {
+                    final int shared = in.readUnsignedShort();
+                    final String path = previous.substring(0, shared)
+                            + in.readUTF();
+                    snapshot.put(path, in.readLong(), in.readLong(),
+                            in.readLong());
+                    previous = path;
+                }
+                snapshots.put(key, snapshot);
+            }
+            return snapshots;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes the given snapshots to the given journal, replacing it
+     * atomically so that a failed write leaves the previous journal intact.
+     *
+     * @param file the journal to write (required)
+     * @param snapshots the snapshots to write, keyed as the caller sees fit
+     *            (required)
+     * @throws IOException if the journal can't be written
+     */
+    static void write(final File file,
+            final Map<String, FileSnapshot> snapshots) throws IOException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create '" + directory + "'");
+        }
+        final File temp = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(temp))));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshots.size());
+            for (final Entry<String, FileSnapshot> entry : snapshots
+                    .entrySet()) {
+                final FileSnapshot snapshot = entry.getValue();
+                final List<String> paths = new ArrayList<String>(
+                        snapshot.size());
+                for (final String path : snapshot) {
+                    paths.add(path);
+                }
+                Collections.sort(paths);
+                out.writeUTF(entry.getKey());
+                out.writeInt(paths.size());
+                String previous = "";
+                for (final String path : paths) {
+                    final int shared = sharedPrefixLength(previous, path);
+                    out.writeShort(shared);
+                    out.writeUTF(path.substring(shared));
+                    out.writeLong(snapshot.getLastModified(path, 0));
+                    out.writeLong(snapshot.getSize(path, 0));
+                    out.writeLong(snapshot.getHash(path));
+                    previous = path;
+                }
+            }
+            out.close();
+            out = null;
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+            temp.delete();
+        }
+    }
+
+    private static int sharedPrefixLength(final String a, final String b) {
+        final int max = Math.min(Math.min(a.length(), b.length()), 0xffff);
+        int length = 0;
+        while (length < max && a.charAt(length) == b.charAt(length)) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Constructor is private to prevent instantiation
+     */
+    private FileStateJournal() {
+    }
+}
@@ -0,0 +1,389 @@
+package org.springframework.roo.file.monitor.polling;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Builds the {@link FileSnapshot} of a monitored file or directory.
+ * <p>
+ * Each directory is listed by its own task on a {@link ForkJoinPool}, so
+ * sibling sub-trees are scanned in parallel. The listing reads each entry's
+ * {@link BasicFileAttributes} once, which gives its type, size and last
+ * modification time without any further calls to the file system.
+ * <p>
+ * Optionally, the content of each file is hashed too, unless the file's size
+ * and last modification time are the same as in the previous snapshot (in
+ * which case the previous hash still applies).
+ * <p>
+ * If given a {@link ScanSchedule}, the scanner records each directory's
+ * listing in it, and can be told to only list the directories that are due
+ * (in which case the other directories' entries are taken from their last
+ * listing, with the known files still being read from disk).
+ *
+ * @since 2.0
+ */
+final class FileTreeScanner {
+
+    /**
+     * The files and sub-directories found in one directory, along with the
+     * contents of those sub-directories.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private long[] hashes = new long[16];
+        private long[] lastModified = new long[16];
+        private long[] sizes = new long[16];
+        private final List<String> paths = new ArrayList<String>();
+        private final List<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+        private final List<Boolean> isDirectory = new ArrayList<Boolean>();
+
+        DirectoryTask(final Path directory) {
+            this.directory = directory;
+        }
+
+        private void add(final String path, final long time,
+                final long length, final long hash) {
+            if (paths.size() == lastModified.length) {
+                hashes = Arrays.copyOf(hashes, hashes.length << 1);
+                lastModified = Arrays.copyOf(lastModified,
+                        lastModified.length << 1);
+                sizes = Arrays.copyOf(sizes, sizes.length << 1);
+            }
+            hashes[paths.size()] = hash;
+            lastModified[paths.size()] = time;
+            sizes[paths.size()] = length;
+            paths.add(path);
+        }
+
+        /**
+         * Indicates whether this directory's contents differ from the prior
+         * snapshot, ignoring the timestamps of its sub-directories (which
+         * change whenever their own contents do).
+         */
+        private boolean hasChanged() {
+            final ScanSchedule.Listing previous = schedule
+                    .getListing(directory.toString());
+            if (previous != null
+                    && previous.children.length != paths.size()) {
+                return true;
+            }
+            if (previous == null && !prior.contains(directory.toString())) {
+                // A new directory, unless this is the first scan
+                return prior.size() > 0;
+            }
+            for (int i = 0; i < paths.size(); i++) {
+                final String path = paths.get(i);
+                if (!prior.contains(path)) {
+                    return true;
+                }
+                if (!isDirectory.get(i)
+                        && (prior.getLastModified(path, -1) != lastModified[i] || prior
+                                .getSize(path, -1) != sizes[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected void compute() {
+            if (dueOnly && copyIfNotDue()) {
+                invokeAll(subdirectories);
+                return;
+            }
+            try {
+                // A depth of one reports each entry (directories included)
+                // to visitFile, along with its attributes
+                Files.walkFileTree(directory, FOLLOW_LINKS, 1,
+                        new SimpleFileVisitor<Path>() {
+                            @Override
+                            public FileVisitResult visitFile(final Path file,
+                                    final BasicFileAttributes attrs) {
+                                final boolean isDirectory = attrs
+                                        .isDirectory();
+                                if (isDirectory && !includeSubtree) {
+                                    return FileVisitResult.CONTINUE;
+                                }
+                                final String path = file.toString();
+                                if (PollingFileMonitorService.isExcluded(file
+                                        .getFileName().toString(), path,
+                                        isDirectory)) {
+                                    return FileVisitResult.CONTINUE;
+                                }
+                                final String internedPath = prior
+                                        .intern(path);
+                                add(internedPath, attrs.lastModifiedTime()
+                                        .toMillis(), attrs.size(),
+                                        hash(file, internedPath, attrs));
+                                DirectoryTask.this.isDirectory
+                                        .add(isDirectory);
+                                if (isDirectory) {
+                                    subdirectories
+                                            .add(new DirectoryTask(file));
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFileFailed(
+                                    final Path file, final IOException e) {
+                                // Deleted or unreadable since it was listed
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
+            }
+            catch (final IOException ignored) {
+                // Deleted or unreadable since it was listed
+            }
+            checked.addAndGet(paths.size());
+            if (schedule != null) {
+                final boolean[] directories = new boolean[paths.size()];
+                for (int i = 0; i < directories.length; i++) {
+                    directories[i] = isDirectory.get(i);
+                }
+                schedule.listed(directory.toString(),
+                        paths.toArray(new String[paths.size()]), directories,
+                        hasChanged(), now);
+            }
+            invokeAll(subdirectories);
+        }
+
+        /**
+         * Takes this directory's entries from its last listing if it's not
+         * due to be listed. The files among them are still read from disk,
+         * so that a change to a known file is found by every scan; only new
+         * entries wait for the directory to be listed. A directory with a
+         * changed or deleted file is made due for listing.
+         *
+         * @return <code>false</code> if it's due
+         */
+        private boolean copyIfNotDue() {
+            final ScanSchedule.Listing listing = schedule.getIfNotDue(
+                    directory.toString(), now);
+            if (listing == null) {
+                return false;
+            }
+            skipped.incrementAndGet();
+            boolean changed = false;
+            for (int i = 0; i < listing.children.length; i++) {
+                final String path = listing.children[i];
+                if (!prior.contains(path)) {
+                    continue;
+                }
+                if (listing.directories[i]) {
+                    add(path, prior.getLastModified(path, 0),
+                            prior.getSize(path, 0), prior.getHash(path));
+                    subdirectories.add(new DirectoryTask(Paths.get(path)));
+                    continue;
+                }
+                final Path file = Paths.get(path);
+                final BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(file,
+                            BasicFileAttributes.class);
+                }
+                catch (final IOException e) {
+                    // Deleted or unreadable since the last listing
+                    changed = true;
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    // Replaced by a directory, which the listing will find
+                    changed = true;
+                    continue;
+                }
+                checked.incrementAndGet();
+                final long time = attrs.lastModifiedTime().toMillis();
+                if (time != prior.getLastModified(path, -1)
+                        || attrs.size() != prior.getSize(path, -1)) {
+                    changed = true;
+                }
+                add(path, time, attrs.size(), hash(file, path, attrs));
+            }
+            if (changed) {
+                schedule.changed(directory.toString(), now);
+            }
+            return true;
+        }
+
+        int count() {
+            int count = paths.size();
+            for (final DirectoryTask subdirectory : subdirectories) {
+                count += subdirectory.count();
+            }
+            return count;
+        }
+
+        void drainTo(final FileSnapshot snapshot) {
+            for (int i = 0; i < paths.size(); i++) {
+                snapshot.put(paths.get(i), lastModified[i], sizes[i],
+                        hashes[i]);
+            }
+            for (final DirectoryTask subdirectory : subdirectories) {
+                subdirectory.drainTo(snapshot);
+            }
+        }
+    }
+
+    private static final Set<FileVisitOption> FOLLOW_LINKS = EnumSet
+            .of(FileVisitOption.FOLLOW_LINKS);
+
+    private final AtomicInteger checked = new AtomicInteger();
+    private boolean dueOnly;
+    private final boolean hashContents;
+    private final boolean includeSubtree;
+    private long now;
+    private final ForkJoinPool pool;
+    private final FileSnapshot prior;
+    private final ScanSchedule schedule;
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    /**
+     * Constructor
+     *
+     * @param pool the pool on which to list directories (required)
+     * @param includeSubtree whether to scan sub-directories (otherwise only
+     *            the files directly within a monitored directory are found)
+     * @param prior the previous snapshot of the same location, whose paths
+     *            are reused (required, can be empty)
+     * @param hashContents whether to record the content hash of each file
+     * @param schedule the schedule in which to record each directory's
+     *            listing (can be <code>null</code>)
+     */
+    FileTreeScanner(final ForkJoinPool pool, final boolean includeSubtree,
+            final FileSnapshot prior, final boolean hashContents,
+            final ScanSchedule schedule) {
+        this.hashContents = hashContents;
+        this.includeSubtree = includeSubtree;
+        this.pool = pool;
+        this.prior = prior;
+        this.schedule = schedule;
+    }
+
+    /**
+     * Returns the number of files and directories whose state was read from
+     * disk by the last scan.
+     *
+     * @return zero or more
+     */
+    int getCheckedCount() {
+        return checked.get();
+    }
+
+    /**
+     * Returns the number of directories that the last scan didn't list as
+     * they weren't due.
+     *
+     * @return zero or more
+     */
+    int getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * Returns the content hash to record for the given file.
+     *
+     * @return {@link FileSnapshot#NO_HASH} if contents aren't being hashed,
+     *         or the file is a directory or can't be read
+     */
+    private long hash(final Path file, final String path,
+            final BasicFileAttributes attrs) {
+        if (!hashContents || attrs.isDirectory()) {
+            return FileSnapshot.NO_HASH;
+        }
+        final long priorHash = prior.getHash(path);
+        if (priorHash != FileSnapshot.NO_HASH
+                && prior.getSize(path, -1) == attrs.size()
+                && prior.getLastModified(path, -1) == attrs.lastModifiedTime()
+                        .toMillis()) {
+            return priorHash;
+        }
+        InputStream in = null;
+        try {
+            in = Files.newInputStream(file);
+            return XxHash64.hash(in);
+        }
+        catch (final IOException e) {
+            return FileSnapshot.NO_HASH;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Scans the given file or directory.
+     *
+     * @param root the canonical file or directory to scan (required)
+     * @return a snapshot of it and, if it's a directory, of its contents
+     *         (empty if it doesn't exist or is excluded)
+     */
+    FileSnapshot scan(final File root) {
+        return scan(root, false);
+    }
+
+    /**
+     * Scans the given file or directory.
+     *
+     * @param root the canonical file or directory to scan (required)
+     * @param dueOnly whether to only list the directories that the schedule
+     *            says are due (ignored if there's no schedule)
+     * @return a snapshot of it and, if it's a directory, of its contents
+     *         (empty if it doesn't exist or is excluded)
+     */
+    FileSnapshot scan(final File root, final boolean dueOnly) {
+        this.dueOnly = dueOnly && schedule != null;
+        now = System.currentTimeMillis();
+        checked.set(0);
+        skipped.set(0);
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(root.toPath(),
+                    BasicFileAttributes.class);
+        }
+        catch (final IOException e) {
+            return new FileSnapshot();
+        }
+        final String rootPath = root.getPath();
+        if (PollingFileMonitorService.isExcluded(root.getName(), rootPath,
+                attrs.isDirectory())) {
+            return new FileSnapshot();
+        }
+        checked.incrementAndGet();
+        if (!attrs.isDirectory()) {
+            final FileSnapshot snapshot = new FileSnapshot();
+            snapshot.put(prior.intern(rootPath), attrs.lastModifiedTime()
+                    .toMillis(), attrs.size(),
+                    hash(root.toPath(), rootPath, attrs));
+            return snapshot;
+        }
+        final DirectoryTask task = new DirectoryTask(root.toPath());
+        pool.invoke(task);
+        final FileSnapshot snapshot = new FileSnapshot(task.count() + 1);
+        snapshot.put(prior.intern(rootPath), attrs.lastModifiedTime()
+                .toMillis(), attrs.size());
+        task.drainTo(snapshot);
+        return snapshot;
+    }
+}
@@ -1,31 +1,55 @@
 package org.springframework.roo.file.monitor.polling;
 
+import java.io.File;
+
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.ReferenceStrategy;
 import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
 import org.springframework.roo.file.monitor.event.FileEventListener;
 import org.springframework.roo.file.monitor.polling.PollingFileMonitorService;
+import org.springframework.roo.support.osgi.OSGiUtils;
 
 /**
  * Extends {@link PollingFileMonitorService} by making it available as an OSGi
  * component that automatically monitors the environment's
  * {@link FileEventListener} components.
+ * <p>
+ * Disabled unless selected by the
+ * {@link org.springframework.roo.file.monitor.watch.FileMonitorServiceSelector}
+ * (which it is by default). Loads and saves the journal of monitored files
+ * if journaling is enabled (see {@link #getJournalFile(String)}).
  * 
  * @author Ben Alex
  * @since 1.1
  */
-@Component
+@Component(enabled = false)
 @Service
 @Reference(name = "fileEventListener", strategy = ReferenceStrategy.EVENT, policy = ReferencePolicy.DYNAMIC, referenceInterface = FileEventListener.class, cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE)
 public class PollingFileMonitorComponent extends PollingFileMonitorService {
 
+    private File journalFile;
+
+    protected void activate(final ComponentContext context) {
+        journalFile = getJournalFile(OSGiUtils.getRooWorkingDirectory(context));
+        if (journalFile != null) {
+            loadJournal(journalFile);
+        }
+    }
+
     protected void bindFileEventListener(final FileEventListener listener) {
         add(listener);
     }
 
+    protected void deactivate(final ComponentContext context) {
+        if (journalFile != null) {
+            saveJournal(journalFile);
+        }
+    }
+
     protected void unbindFileEventListener(final FileEventListener listener) {
         remove(listener);
     }
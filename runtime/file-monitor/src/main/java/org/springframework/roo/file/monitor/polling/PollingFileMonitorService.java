@@ -1,14 +1,10 @@
 package org.springframework.roo.file.monitor.polling;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URISyntaxException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -20,26 +16,24 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.springframework.roo.file.monitor.DirectoryMonitoringRequest;
 import org.springframework.roo.file.monitor.FileMonitorService;
 import org.springframework.roo.file.monitor.MonitoringRequest;
 import org.springframework.roo.file.monitor.NotifiableFileMonitorService;
+import org.springframework.roo.file.monitor.TieredFileMonitorService;
+import org.springframework.roo.file.monitor.event.BatchFileEventListener;
 import org.springframework.roo.file.monitor.event.FileDetails;
 import org.springframework.roo.file.monitor.event.FileEvent;
 import org.springframework.roo.file.monitor.event.FileEventListener;
 import org.springframework.roo.file.monitor.event.FileOperation;
-import org.springframework.roo.shell.AbstractShell;
+import org.springframework.roo.shell.ProjectDescriptor;
 import org.springframework.roo.support.logging.HandlerUtils;
 import org.springframework.roo.support.util.FileUtils;
-import org.springframework.roo.support.util.XmlUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 /**
  * A simple polling-based {@link FileMonitorService}.
@@ -59,25 +53,99 @@ import org.w3c.dom.Element;
  * present in the {@link FileEvent} times equal to the last time a deleted file
  * was modified. The time does NOT represent the deletion time nor the time the
  * deletion was first detected.
+ * <p>
+ * If content hashing is enabled (see {@link #setContentHashing(boolean)}),
+ * the content of each monitored file is hashed when it is first found and
+ * whenever its size or timestamp changes, and a file whose timestamp changed
+ * but whose content didn't (e.g. one touched by a checkout or build tool) is
+ * not reported as {@link FileOperation#UPDATED}.
+ * <p>
+ * {@link #findMatchingAntPath(String)} is answered from an in-memory index of
+ * the monitored files, rather than by walking the disk, when the directory
+ * being searched is within a monitored sub-tree that has been scanned. Such
+ * answers include files that have been notified but not yet scanned, but
+ * (like the events this service publishes) never include hidden files or
+ * build output directories. Set the <code>roo.file.monitor.index</code>
+ * system property to <code>false</code> to always walk the disk.
+ * <p>
+ * {@link BatchFileEventListener}s receive each scan's events as one batch,
+ * coalesced per file. If a debounce delay is set (see
+ * {@link #setDebounceDelay(long)}), the batch found by {@link #scanAll()} is
+ * held until a later {@link #scanAll()} finds no further changes for that
+ * long, so that e.g. a version control checkout spread over several scans
+ * is delivered as a single batch. {@link #scanNotified()} always delivers
+ * the held events, as its callers expect the listeners to have reacted to
+ * their own changes.
+ * <p>
+ * {@link #scanDue()} only lists the directories that are due according to
+ * each one's {@link ScanSchedule} tier, so directories that haven't changed
+ * for a while are listed every few seconds rather than on every scan. The
+ * files already known in the other directories are still checked on every
+ * scan, so an edit is seen straight away. A notification of a change within
+ * a directory, or a change to one of its known files, makes it due
+ * immediately.
  * 
  * @author Ben Alex
  * @author Juan Carlos García
  * @since 1.0
  */
-public class PollingFileMonitorService implements NotifiableFileMonitorService {
+public class PollingFileMonitorService implements
+        NotifiableFileMonitorService, TieredFileMonitorService {
 	
 	protected final static Logger LOGGER = HandlerUtils
 			.getLogger(PollingFileMonitorService.class);
 
+    /** How many debounce delays a batch can be held for at most */
+    private static final int MAX_DEBOUNCE_DELAYS = 10;
+
+    private static final String JOURNAL_FILE = ".roo" + File.separator
+            + "file-monitor.journal";
+
+    /**
+     * Returns the journal in which to save the monitored files' state between
+     * sessions, if the <code>roo.file.monitor.journal</code> system property
+     * is set to <code>true</code>. As the journal only says which files
+     * changed, not what was derived from them, it also requires the metadata
+     * snapshot (<code>roo.metadata.snapshot</code>) to be enabled.
+     * 
+     * @param rooWorkingDirectory the Roo working directory (can be blank)
+     * @return <code>null</code> if journaling is disabled
+     */
+    public static File getJournalFile(final String rooWorkingDirectory) {
+        if (!Boolean.getBoolean("roo.file.monitor.journal")
+                || !Boolean.getBoolean("roo.metadata.snapshot")
+                || StringUtils.isBlank(rooWorkingDirectory)) {
+            return null;
+        }
+        return new File(rooWorkingDirectory, JOURNAL_FILE);
+    }
+
     private final Set<String> allFiles = new HashSet<String>();
     private final Map<String, Set<String>> changeMap = new HashMap<String, Set<String>>();
+    /** The events awaiting delivery to batch listeners */
+    private final FileEventBatch batch = new FileEventBatch();
+    private long debounceDelay = Long.getLong("roo.file.monitor.debounce", 0);
     private final Set<FileEventListener> fileEventListeners = new HashSet<FileEventListener>();
-    private final Object lock = new Object();
+    /** The files found by scans, for answering Ant path queries */
+    private final FilePathIndex index = new FilePathIndex();
+    private final boolean indexing = !"false".equalsIgnoreCase(System
+            .getProperty("roo.file.monitor.index"));
+    /** Guards the state of this service, including that of subclasses */
+    protected final Object lock = new Object();
+    /** key: journal key of a request not yet scanned this session */
+    private final Map<String, FileSnapshot> journal = new HashMap<String, FileSnapshot>();
     private final Set<String> notifyChanged = new HashSet<String>();
     private final Set<String> notifyCreated = new HashSet<String>();
     private final Set<String> notifyDeleted = new HashSet<String>();
-    private final Map<MonitoringRequest, Map<File, Long>> priorExecution = new WeakHashMap<MonitoringRequest, Map<File, Long>>();
+    private final Map<MonitoringRequest, FileSnapshot> priorExecution = new WeakHashMap<MonitoringRequest, FileSnapshot>();
     private final Set<MonitoringRequest> requests = new LinkedHashSet<MonitoringRequest>();
+    private final Map<MonitoringRequest, ScanSchedule> schedules = new WeakHashMap<MonitoringRequest, ScanSchedule>();
+    private long lastScanFileCount;
+    private long lastScanSkippedDirectoryCount;
+    private ForkJoinPool scanPool;
+    private boolean contentHashing = Boolean
+            .getBoolean("roo.file.monitor.hash");
+    private long suppressedEvents;
     private final List<FileEvent> eventsPendingToPublish = new ArrayList<FileEvent>();
     
     public final void add(final FileEventListener e) {
@@ -140,51 +208,55 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
     }
 
     /**
-     * Adds one or more entries into the Map. The key of the Map is the File
-     * object, and the value is the {@link File#lastModified()} time.
+     * Scans the location monitored by the given request, adding the path of
+     * each file found to {@link #allFiles}.
      * <p>
      * Specifically:
      * <ul>
-     * <li>If invoked with a File that is actually a File, only the file is
-     * added.</li>
-     * <li>If invoked with a File that is actually a Directory, all files and
-     * directories are added.</li>
-     * <li>If invoked with a File that is actually a Directory, subdirectories
-     * will be added only if "includeSubtree" is true.</li>
+     * <li>If the request is for a file, only the file is found.</li>
+     * <li>If the request is for a directory, the directory and all files
+     * within it are found.</li>
+     * <li>If the request is for a directory, sub-directories (and their
+     * contents) will be found only if "includeSubtree" is true.</li>
      * </ul>
+     * 
+     * @param request the request whose location to scan (required)
+     * @param includeSubtree whether to scan sub-directories
+     * @param prior the previous snapshot of this location (required, can be
+     *            empty)
+     * @param dueOnly whether to only list the directories that are due
+     * @return a non-<code>null</code> snapshot
      */
-    private void computeEntries(final Map<File, Long> map,
-            final File currentFile, final boolean includeSubtree) {
-        Validate.notNull(map, "Map required");
-        Validate.notNull(currentFile, "Current file is required");
-
-        if (!currentFile.exists() || currentFile.getName().length() > 1
-                && currentFile.getName().startsWith(".")
-                || currentFile.getName().equals("log.roo")
-                || currentFile.isDirectory()
-                && isExcludedDirectory(currentFile.getPath())) {
-            return;
-        }
-
-        map.put(currentFile, currentFile.lastModified());
+    private FileSnapshot computeEntries(final MonitoringRequest request,
+            final boolean includeSubtree, final FileSnapshot prior,
+            final boolean dueOnly) {
+        Validate.notNull(request, "Monitoring request required");
 
+        final File root;
         try {
-            allFiles.add(currentFile.getCanonicalPath());
+            root = request.getFile().getCanonicalFile();
         }
-        catch (final IOException ignored) {
+        catch (final IOException e) {
+            return new FileSnapshot();
         }
-
-        if (currentFile.isDirectory()) {
-            final File[] files = currentFile.listFiles();
-            if (files == null || files.length == 0) {
-                return;
-            }
-            for (final File file : files) {
-                if (file.isFile() || includeSubtree) {
-                    computeEntries(map, file, includeSubtree);
-                }
-            }
+        if (scanPool == null) {
+            scanPool = new ForkJoinPool();
+        }
+        ScanSchedule schedule = schedules.get(request);
+        if (schedule == null) {
+            schedule = new ScanSchedule();
+            schedules.put(request, schedule);
+        }
+        final FileTreeScanner scanner = new FileTreeScanner(scanPool,
+                includeSubtree, prior, contentHashing, schedule);
+        final FileSnapshot snapshot = scanner.scan(root, dueOnly);
+        schedule.retain(snapshot);
+        lastScanFileCount += scanner.getCheckedCount();
+        lastScanSkippedDirectoryCount += scanner.getSkippedCount();
+        for (final String path : snapshot) {
+            allFiles.add(path);
         }
+        return snapshot;
     }
 
     public SortedSet<FileDetails> findMatchingAntPath(final String antPath) {
@@ -215,10 +287,86 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
                 somePath.isDirectory(),
                 "Ant path '%s' appears under file system path '%s' but this is not a directory that can be searched",
                 antPath, somePath);
-        recursiveAntMatch(antPath, somePath, result);
+        if (!findIndexedMatches(antPath, somePath, result)) {
+            recursiveAntMatch(antPath, somePath, result);
+        }
         return result;
     }
 
+    /**
+     * Locates the files under the given directory that match the given Ant
+     * path using the {@link #index}, if it's complete for that directory,
+     * i.e. the directory is within a scanned sub-tree request and not within
+     * an excluded directory.
+     * 
+     * @param antPath to match (required)
+     * @param directory an existing directory to search from (required)
+     * @param result to append located files into (required)
+     * @return <code>false</code> if the index couldn't be used
+     */
+    private boolean findIndexedMatches(final String antPath,
+            final File directory, final SortedSet<FileDetails> result) {
+        if (!indexing) {
+            return false;
+        }
+        final String directoryPath;
+        try {
+            directoryPath = directory.getCanonicalPath();
+        }
+        catch (final IOException e) {
+            return false;
+        }
+        if (!antPath.startsWith(directoryPath + File.separator)) {
+            // The Ant path would be matched against resolved paths that
+            // don't start the way it does
+            return false;
+        }
+        synchronized (lock) {
+            final String rootPath = getIndexedSubtree(directoryPath);
+            if (rootPath == null) {
+                return false;
+            }
+            for (File file = new File(directoryPath); file != null
+                    && file.getPath().length() > rootPath.length(); file = file
+                    .getParentFile()) {
+                if (isExcluded(file.getName(), file.getPath(), true)) {
+                    return false;
+                }
+            }
+
+            final Map<String, Long> matches = new HashMap<String, Long>();
+            index.findMatches(antPath, directoryPath, matches);
+
+            // Reflect notifications that haven't been scanned yet
+            final String prefix = directoryPath + File.separator;
+            for (final String path : notifyCreated) {
+                if (path.startsWith(prefix)
+                        && FileUtils.matchesAntPath(antPath, path)) {
+                    final File file = new File(path);
+                    if (file.exists()) {
+                        matches.put(path, file.lastModified());
+                    }
+                }
+            }
+            for (final String path : notifyChanged) {
+                if (matches.containsKey(path)) {
+                    matches.put(path, new File(path).lastModified());
+                }
+            }
+            for (final String path : notifyDeleted) {
+                if (!new File(path).exists()) {
+                    matches.remove(path);
+                }
+            }
+
+            for (final Entry<String, Long> match : matches.entrySet()) {
+                result.add(new FileDetails(new File(match.getKey()), match
+                        .getValue()));
+            }
+            return true;
+        }
+    }
+
     public Collection<String> getDirtyFiles(final String requestingClass) {
         synchronized (lock) {
             final Collection<String> changesSinceLastRequest = changeMap
@@ -235,7 +383,7 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
     }
 
     private List<FileEvent> getFileCreationEvents(
-            final MonitoringRequest request, final Map<File, Long> priorFiles) {
+            final MonitoringRequest request, final FileSnapshot priorFiles) {
         final List<FileEvent> createEvents = new ArrayList<FileEvent>();
         for (final Iterator<String> iter = notifyCreated.iterator(); iter
                 .hasNext();) {
@@ -251,7 +399,8 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
                             null));
                     // Update the prior execution map so it isn't notified again
                     // next round
-                    priorFiles.put(thisFile, thisFile.lastModified());
+                    priorFiles.put(filePath, thisFile.lastModified(),
+                            thisFile.length());
                 }
             }
         }
@@ -259,7 +408,7 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
     }
 
     private List<FileEvent> getFileDeletionEvents(
-            final MonitoringRequest request, final Map<File, Long> priorFiles) {
+            final MonitoringRequest request, final FileSnapshot priorFiles) {
         final List<FileEvent> deleteEvents = new ArrayList<FileEvent>();
         for (final Iterator<String> iter = notifyDeleted.iterator(); iter
                 .hasNext();) {
@@ -275,7 +424,7 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
                             null), FileOperation.DELETED, null));
                     // Update the prior execution map so it isn't notified again
                     // next round
-                    priorFiles.remove(thisFile);
+                    priorFiles.remove(filePath);
                 }
             }
         }
@@ -283,7 +432,7 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
     }
 
     private List<FileEvent> getFileUpdateEvents(
-            final MonitoringRequest request, final Map<File, Long> priorFiles) {
+            final MonitoringRequest request, final FileSnapshot priorFiles) {
         final List<FileEvent> updateEvents = new ArrayList<FileEvent>();
         for (final Iterator<String> iter = notifyChanged.iterator(); iter
                 .hasNext();) {
@@ -299,7 +448,8 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
                             null));
                     // Update the prior execution map so it isn't notified again
                     // next round
-                    priorFiles.put(thisFile, thisFile.lastModified());
+                    priorFiles.put(filePath, thisFile.lastModified(),
+                            thisFile.length());
                     // Also remove it from the created list, if it's in there
                     if (notifyCreated.contains(filePath)) {
                         notifyCreated.remove(filePath);
@@ -310,6 +460,47 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
         return updateEvents;
     }
 
+    /**
+     * Returns the canonical path of the scanned sub-tree request that
+     * contains the given directory, if any.
+     * 
+     * @param directoryPath the canonical path of the directory (required)
+     * @return <code>null</code> if there's no such request
+     */
+    private String getIndexedSubtree(final String directoryPath) {
+        for (final MonitoringRequest request : requests) {
+            if (request instanceof DirectoryMonitoringRequest
+                    && ((DirectoryMonitoringRequest) request)
+                            .isWatchSubtree()
+                    && priorExecution.containsKey(request)) {
+                final String requestPath;
+                try {
+                    requestPath = request.getFile().getCanonicalPath();
+                }
+                catch (final IOException e) {
+                    continue;
+                }
+                if (directoryPath.equals(requestPath)
+                        || directoryPath.startsWith(requestPath
+                                + File.separator)) {
+                    return requestPath;
+                }
+            }
+        }
+        return null;
+    }
+
+    private String getJournalKey(final MonitoringRequest request) {
+        final boolean includeSubtree = request instanceof DirectoryMonitoringRequest
+                && ((DirectoryMonitoringRequest) request).isWatchSubtree();
+        try {
+            return request.getFile().getCanonicalPath() + "|" + includeSubtree;
+        }
+        catch (final IOException e) {
+            return null;
+        }
+    }
+
     public List<FileDetails> getMonitored() {
         synchronized (lock) {
             final List<FileDetails> monitored = new ArrayList<FileDetails>();
@@ -319,11 +510,11 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
 
             for (final MonitoringRequest request : requests) {
                 if (priorExecution.containsKey(request)) {
-                    final Map<File, Long> priorFiles = priorExecution
+                    final FileSnapshot priorFiles = priorExecution
                             .get(request);
-                    for (final Entry<File, Long> entry : priorFiles.entrySet()) {
-                        monitored.add(new FileDetails(entry.getKey(), entry
-                                .getValue()));
+                    for (final String path : priorFiles) {
+                        monitored.add(new FileDetails(new File(path),
+                                priorFiles.getLastModified(path, 0)));
                     }
                 }
             }
@@ -332,6 +523,64 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
         }
     }
 
+    /**
+     * Returns the debounce delay; see {@link #setDebounceDelay(long)}.
+     * 
+     * @return zero or more milliseconds
+     */
+    public long getDebounceDelay() {
+        synchronized (lock) {
+            return debounceDelay;
+        }
+    }
+
+    public long getLastScanFileCount() {
+        synchronized (lock) {
+            return lastScanFileCount;
+        }
+    }
+
+    public long getLastScanSkippedDirectoryCount() {
+        synchronized (lock) {
+            return lastScanSkippedDirectoryCount;
+        }
+    }
+
+    /**
+     * Returns the monitoring requests currently in force.
+     *
+     * @return a copy of the requests, in the order they were added
+     */
+    protected List<MonitoringRequest> getRequests() {
+        synchronized (lock) {
+            return new ArrayList<MonitoringRequest>(requests);
+        }
+    }
+
+    /**
+     * Returns the number of {@link FileOperation#UPDATED} events that content
+     * hashing has suppressed since this service was created.
+     * 
+     * @return zero or more
+     */
+    public long getSuppressedEventCount() {
+        synchronized (lock) {
+            return suppressedEvents;
+        }
+    }
+
+    /**
+     * Indicates whether content hashing is enabled; see
+     * {@link #setContentHashing(boolean)}.
+     * 
+     * @return see above
+     */
+    public boolean isContentHashing() {
+        synchronized (lock) {
+            return contentHashing;
+        }
+    }
+
     public boolean isDirty() {
         synchronized (lock) {
             return !notifyChanged.isEmpty() || !notifyCreated.isEmpty()
@@ -339,7 +588,34 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
         }
     }
 
-    private boolean isExcludedDirectory(final String path) {
+    /**
+     * Indicates whether the given file or directory is never monitored, i.e.
+     * it's hidden, the shell log, or a build output directory.
+     * 
+     * @param file the file or directory to check (required)
+     * @return see above
+     */
+    protected boolean isExcluded(final File file) {
+        return isExcluded(file.getName(), file.getPath(), file.isDirectory());
+    }
+
+    /**
+     * Indicates whether the given file or directory is never monitored; see
+     * {@link #isExcluded(File)}.
+     * 
+     * @param name the file's name (required)
+     * @param path the file's path (required)
+     * @param isDirectory whether the file is a directory
+     * @return see above
+     */
+    static boolean isExcluded(final String name, final String path,
+            final boolean isDirectory) {
+        return name.length() > 1 && name.startsWith(".")
+                || name.equals("log.roo") || isDirectory
+                && isExcludedDirectory(path);
+    }
+
+    private static boolean isExcludedDirectory(final String path) {
         final boolean hasSrc = path.contains(File.separator + "src");
         return !hasSrc
                 && (path.contains(File.separator + "target") || path
@@ -399,6 +675,52 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
         return true;
     }
 
+    /**
+     * Loads the state saved by {@link #saveJournal(File)} in a previous
+     * session. The first scan of each location recorded in the journal then
+     * reports the files that have been created, updated (i.e. whose size or
+     * last modification time differs), or deleted since as such, including
+     * deletions a cold scan couldn't see. The other files are announced with
+     * {@link FileOperation#MONITORING_START} as usual, leaving it to each
+     * listener to skip those its own snapshot still covers.
+     * <p>
+     * Should be invoked before any monitoring requests are scanned. Does
+     * nothing if the journal doesn't exist, can't be read or is corrupt.
+     * 
+     * @param journalFile the journal to load (required)
+     */
+    public void loadJournal(final File journalFile) {
+        Validate.notNull(journalFile, "Journal file required");
+        synchronized (lock) {
+            try {
+                journal.putAll(FileStateJournal.read(journalFile));
+            }
+            catch (final IOException e) {
+                LOGGER.fine("Ignoring unreadable file monitor journal '"
+                        + journalFile + "': " + e);
+            }
+            catch (final RuntimeException e) {
+                // Corrupt, e.g. a path sharing more than the previous one had;
+                // the first scans will be cold instead
+                LOGGER.fine("Ignoring corrupt file monitor journal '"
+                        + journalFile + "': " + e);
+            }
+        }
+    }
+
+    /**
+     * Announces a file found unchanged since the previous session's journal
+     * as newly monitored, as only the listeners themselves know whether they
+     * have kept what they knew of it (e.g. in a metadata snapshot).
+     */
+    private void announceUnchanged(final List<FileEvent> eventsToPublish,
+            final String path, final long lastModified, final boolean journaled) {
+        if (journaled) {
+            eventsToPublish.add(new FileEvent(new FileDetails(new File(path),
+                    lastModified), FileOperation.MONITORING_START, null));
+        }
+    }
+
     private boolean noRequestsOrChanges() {
         return requests.isEmpty() || !isDirty();
     }
@@ -408,6 +730,16 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
             updateChanges(fileCanonicalPath, false);
             if (isNotificationUnderKnownMonitoringRequest(fileCanonicalPath)) {
                 notifyChanged.add(fileCanonicalPath);
+                scheduleParent(fileCanonicalPath);
+            }
+        }
+    }
+
+    public void notifyChanged(final Collection<String> fileCanonicalPaths) {
+        Validate.notNull(fileCanonicalPaths, "File canonical paths required");
+        synchronized (lock) {
+            for (final String fileCanonicalPath : fileCanonicalPaths) {
+                notifyChanged(fileCanonicalPath);
             }
         }
     }
@@ -417,6 +749,7 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
             updateChanges(fileCanonicalPath, false);
             if (isNotificationUnderKnownMonitoringRequest(fileCanonicalPath)) {
                 notifyCreated.add(fileCanonicalPath);
+                scheduleParent(fileCanonicalPath);
             }
         }
     }
@@ -426,6 +759,7 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
             updateChanges(fileCanonicalPath, true);
             if (isNotificationUnderKnownMonitoringRequest(fileCanonicalPath)) {
                 notifyDeleted.add(fileCanonicalPath);
+                scheduleParent(fileCanonicalPath);
             }
         }
     }
@@ -445,11 +779,56 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
         if (fileEventListeners.isEmpty() || eventsToPublish.isEmpty()) {
             return;
         }
+        boolean batching = false;
+        for (final FileEventListener l : fileEventListeners) {
+            batching |= l instanceof BatchFileEventListener;
+        }
+        final long now = System.currentTimeMillis();
         for (final FileEvent event : eventsToPublish) {
             updateChanges(event.getFileDetails().getCanonicalPath(),
                     event.getOperation() == FileOperation.DELETED);
             for (final FileEventListener l : fileEventListeners) {
-                l.onFileEvent(event);
+                if (!(l instanceof BatchFileEventListener)) {
+                    l.onFileEvent(event);
+                }
+            }
+            if (batching) {
+                batch.add(event, now);
+            }
+        }
+    }
+
+    /**
+     * Delivers the {@link #batch} of events to the batch listeners, if there
+     * are any events and they're not being held back by the debounce delay.
+     * <p>
+     * This method assumes the caller has already acquired a synchronisation
+     * lock.
+     * 
+     * @param debounce whether to apply the debounce delay
+     */
+    private void publishBatch(final boolean debounce) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (debounce && debounceDelay > 0) {
+            final long now = System.currentTimeMillis();
+            // Don't hold events back indefinitely if changes never stop
+            if (now - batch.getLastAdded() < debounceDelay
+                    && now - batch.getFirstAdded() < debounceDelay
+                            * MAX_DEBOUNCE_DELAYS) {
+                return;
+            }
+        }
+        final List<FileEvent> events = Collections.unmodifiableList(batch
+                .drain());
+        if (events.isEmpty()) {
+            return;
+        }
+        for (final FileEventListener l : new ArrayList<FileEventListener>(
+                fileEventListeners)) {
+            if (l instanceof BatchFileEventListener) {
+                ((BatchFileEventListener) l).onFileEvents(events);
             }
         }
     }
@@ -460,9 +839,9 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
             final List<FileEvent> eventsToPublish = new ArrayList<FileEvent>();
 
             // See when each file was last checked
-            Map<File, Long> priorFiles = priorExecution.get(request);
+            FileSnapshot priorFiles = priorExecution.get(request);
             if (priorFiles == null) {
-                priorFiles = new HashMap<File, Long>();
+                priorFiles = new FileSnapshot();
                 priorExecution.put(request, priorFiles);
             }
 
@@ -472,6 +851,7 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
             eventsToPublish.addAll(getFileCreationEvents(request, priorFiles));
             eventsToPublish.addAll(getFileDeletionEvents(request, priorFiles));
 
+            updateIndex(eventsToPublish);
             publish(eventsToPublish);
             eventsPublished += eventsToPublish.size();
         }
@@ -529,25 +909,110 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
             if (priorExecution.containsKey(request)) {
                 final List<FileEvent> eventsToPublish = new ArrayList<FileEvent>();
 
-                final Map<File, Long> priorFiles = priorExecution.get(request);
-                for (final Entry<File, Long> entry : priorFiles.entrySet()) {
-                    final File thisFile = entry.getKey();
-                    final Long lastModified = entry.getValue();
-                    eventsToPublish.add(new FileEvent(new FileDetails(thisFile,
-                            lastModified), FileOperation.MONITORING_FINISH,
-                            null));
+                final FileSnapshot priorFiles = priorExecution.get(request);
+                for (final String path : priorFiles) {
+                    eventsToPublish.add(new FileEvent(new FileDetails(new File(
+                            path), priorFiles.getLastModified(path, 0)),
+                            FileOperation.MONITORING_FINISH, null));
                 }
                 publish(eventsToPublish);
+                publishBatch(false);
             }
 
             priorExecution.remove(request);
+            schedules.remove(request);
+
+            final boolean removed = requests.remove(request);
+            // Other requests may cover some of the same files
+            index.clear();
+            for (final FileSnapshot snapshot : priorExecution.values()) {
+                for (final String path : snapshot) {
+                    index.put(path, snapshot.getLastModified(path, 0));
+                }
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * Enables or disables content hashing, i.e. confirming that a file whose
+     * timestamp has changed has a different content before publishing an
+     * {@link FileOperation#UPDATED} event for it. By default this is enabled
+     * if the <code>roo.file.monitor.hash</code> system property is set to
+     * <code>true</code>.
+     * 
+     * @param contentHashing whether to hash the contents of monitored files
+     */
+    public void setContentHashing(final boolean contentHashing) {
+        synchronized (lock) {
+            this.contentHashing = contentHashing;
+        }
+    }
+
+    /**
+     * Sets how long {@link #scanAll()} must find no further changes before
+     * delivering the changes it has found to {@link BatchFileEventListener}s;
+     * a batch is never held for more than ten times this long. By default
+     * this is the value of the <code>roo.file.monitor.debounce</code> system
+     * property, or zero (i.e. deliver each scan's changes immediately).
+     * 
+     * @param debounceDelay the delay in milliseconds (zero or more)
+     */
+    public void setDebounceDelay(final long debounceDelay) {
+        Validate.isTrue(debounceDelay >= 0,
+                "Debounce delay must be zero or more");
+        synchronized (lock) {
+            this.debounceDelay = debounceDelay;
+        }
+    }
 
-            return requests.remove(request);
+    /**
+     * Saves the state of every monitored location, for
+     * {@link #loadJournal(File)} to load in the next session. If some events
+     * haven't been published yet, including those held back in a debounced
+     * batch, the journal is deleted instead, as the next session must then
+     * publish everything.
+     * 
+     * @param journalFile the journal to write (required)
+     */
+    public void saveJournal(final File journalFile) {
+        Validate.notNull(journalFile, "Journal file required");
+        synchronized (lock) {
+            if (!eventsPendingToPublish.isEmpty() || !batch.isEmpty()) {
+                journalFile.delete();
+                return;
+            }
+            final Map<String, FileSnapshot> snapshots = new HashMap<String, FileSnapshot>(
+                    journal);
+            for (final MonitoringRequest request : requests) {
+                final FileSnapshot snapshot = priorExecution.get(request);
+                final String key = getJournalKey(request);
+                if (snapshot != null && key != null) {
+                    snapshots.put(key, snapshot);
+                }
+            }
+            try {
+                FileStateJournal.write(journalFile, snapshots);
+            }
+            catch (final IOException e) {
+                LOGGER.fine("Unable to write file monitor journal '"
+                        + journalFile + "': " + e);
+            }
         }
     }
 
     public int scanAll() {
+        return scan(false);
+    }
+
+    /**
+     * Scans the monitored locations, as per {@link #scanAll()} or (if dueOnly
+     * is <code>true</code>) {@link #scanDue()}.
+     */
+    private int scan(final boolean dueOnly) {
         synchronized (lock) {
+            lastScanFileCount = 0;
+            lastScanSkippedDirectoryCount = 0;
             if (requests.isEmpty()) {
                 return 0;
             }
@@ -566,85 +1031,97 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
                 }
 
                 // Build contents of the monitored location
-                final Map<File, Long> currentExecution = new HashMap<File, Long>();
-                computeEntries(currentExecution, request.getFile(),
-                        includeSubtree);
+                FileSnapshot priorFiles = priorExecution.get(request);
+                final boolean journaled = priorFiles == null;
+                if (priorFiles == null) {
+                    // Compare with the previous session, if it was journaled
+                    priorFiles = journal.remove(getJournalKey(request));
+                }
+                final FileSnapshot currentExecution = computeEntries(request,
+                        includeSubtree, priorFiles == null ? new FileSnapshot()
+                                : priorFiles, dueOnly);
 
                 final List<FileEvent> eventsToPublish = new ArrayList<FileEvent>();
 
-                if (priorExecution.containsKey(request)) {
+                if (priorFiles != null) {
                     // Need to perform a comparison, as we have data from a
                     // previous execution
-                    final Map<File, Long> priorFiles = priorExecution
-                            .get(request);
 
                     // Locate created and modified files
-                    for (final Entry<File, Long> entry : currentExecution
-                            .entrySet()) {
-                        final File thisFile = entry.getKey();
-                        final Long currentTimestamp = entry.getValue();
-                        if (!priorFiles.containsKey(thisFile)) {
+                    for (final String path : currentExecution) {
+                        final long currentTimestamp = currentExecution
+                                .getLastModified(path, 0);
+                        if (!priorFiles.contains(path)) {
                             // This file did not exist last execution, so it
                             // must be new
                             eventsToPublish.add(new FileEvent(new FileDetails(
-                                    thisFile, currentTimestamp),
+                                    new File(path), currentTimestamp),
                                     FileOperation.CREATED, null));
-                            try {
-                                // If this file was already going to be
-                                // notified, there is no need to do it twice
-                                notifyCreated.remove(thisFile
-                                        .getCanonicalPath());
-                            }
-                            catch (final IOException ignored) {
-                            }
+                            // If this file was already going to be notified,
+                            // there is no need to do it twice
+                            notifyCreated.remove(path);
                             continue;
                         }
 
-                        final Long previousTimestamp = priorFiles.get(thisFile);
-                        if (!currentTimestamp.equals(previousTimestamp)) {
+                        if (currentTimestamp != priorFiles.getLastModified(
+                                path, 0)
+                                || currentExecution.getSize(path, 0) != priorFiles
+                                        .getSize(path, 0)) {
+                            final long hash = currentExecution.getHash(path);
+                            if (hash != FileSnapshot.NO_HASH
+                                    && hash == priorFiles.getHash(path)
+                                    && currentExecution.getSize(path, 0) == priorFiles
+                                            .getSize(path, 0)) {
+                                // Only touched; the content is the same
+                                suppressedEvents++;
+                                announceUnchanged(eventsToPublish, path,
+                                        currentTimestamp, journaled);
+                                continue;
+                            }
                             // Modified
                             eventsToPublish.add(new FileEvent(new FileDetails(
-                                    thisFile, currentTimestamp),
+                                    new File(path), currentTimestamp),
                                     FileOperation.UPDATED, null));
-                            try {
-                                // If this file was already going to be
-                                // notified, there is no need to do it twice
-                                notifyChanged.remove(thisFile
-                                        .getCanonicalPath());
-                            }
-                            catch (final IOException ignored) {
-                            }
+                            // If this file was already going to be notified,
+                            // there is no need to do it twice
+                            notifyChanged.remove(path);
+                            continue;
                         }
+                        announceUnchanged(eventsToPublish, path,
+                                currentTimestamp, journaled);
                     }
 
                     // Now locate deleted files
-                    priorFiles.keySet().removeAll(currentExecution.keySet());
-                    for (final Entry<File, Long> entry : priorFiles.entrySet()) {
-                        final File deletedFile = entry.getKey();
-                        eventsToPublish.add(new FileEvent(new FileDetails(
-                                deletedFile, entry.getValue()),
-                                FileOperation.DELETED, null));
-                        try {
-                            // If this file was already going to be notified,
-                            // there is no need to do it twice
-                            notifyDeleted
-                                    .remove(deletedFile.getCanonicalPath());
-                        }
-                        catch (final IOException ignored) {
+                    for (final String path : priorFiles) {
+                        if (currentExecution.contains(path)) {
+                            continue;
                         }
+                        eventsToPublish.add(new FileEvent(new FileDetails(
+                                new File(path), priorFiles.getLastModified(
+                                        path, 0)), FileOperation.DELETED, null));
+                        // If this file was already going to be notified, there
+                        // is no need to do it twice
+                        notifyDeleted.remove(path);
                     }
                 }
                 else {
                     // No data from previous execution, so it's a
                     // newly-monitored location
-                    for (final Entry<File, Long> entry : currentExecution
-                            .entrySet()) {
-                        eventsToPublish.add(new FileEvent(new FileDetails(entry
-                                .getKey(), entry.getValue()),
+                    for (final String path : currentExecution) {
+                        eventsToPublish.add(new FileEvent(new FileDetails(
+                                new File(path), currentExecution
+                                        .getLastModified(path, 0)),
                                 FileOperation.MONITORING_START, null));
                     }
                 }
 
+                if (!priorExecution.containsKey(request)) {
+                    for (final String path : currentExecution) {
+                        index.put(path,
+                                currentExecution.getLastModified(path, 0));
+                    }
+                }
+
                 // Record the monitored location's contents, ready for next
                 // execution
                 priorExecution.put(request, currentExecution);
@@ -662,6 +1139,7 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
                             file.lastModified()), FileOperation.UPDATED, null));
                 }
                 notifyChanged.clear();
+                updateIndex(eventsToPublish);
                 
                 // ROO-3622: Validate if version change
             	if(!isDifferentVersion()){
@@ -686,98 +1164,81 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
                 changes += eventsToPublish.size();
             }
 
+            publishBatch(true);
             return changes;
         }
     }
     
-    private String getRooProjectVersion(){
-    	String homePath = new File(".").getPath();
-    	String pomPath = homePath + "/pom.xml";
-    	File pom = new File(pomPath);
-    	try {
-    		if(pom.exists()){
-    			InputStream is = new FileInputStream(pom);
-    			Document docXml = XmlUtils.readXml(is);
-    			Element document = docXml.getDocumentElement();
-    			Element rooVersionElement = XmlUtils.findFirstElement(
-    	                 "properties/roo.version", document);
-    			String rooVersion = rooVersionElement.getTextContent();
-    			
-    			return rooVersion;
-    		}
-    		
-    		return "UNKNOWN";
-			
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		}
-    	
-    	return "";
+    private boolean isDifferentVersion() {
+        return ProjectDescriptor.isDifferentVersion(new File("."));
     }
 
-    
-    private boolean isDifferentVersion() {
-    	String rooVersion = getRooProjectVersion();
-    	
-    	if("UNKNOWN".equals(rooVersion)){
-    		return false;
-    	}
-    	
-		return !rooVersion.equals(versionInfoWithoutGit());
-	}
-    
     public static String versionInfoWithoutGit() {
-        // Try to determine the bundle version
-        String bundleVersion = null;
-        JarFile jarFile = null;
-        try {
-            final URL classContainer = AbstractShell.class
-                    .getProtectionDomain().getCodeSource().getLocation();
-            if (classContainer.toString().endsWith(".jar")) {
-                // Attempt to obtain the "Bundle-Version" version from the
-                // manifest
-                jarFile = new JarFile(new File(classContainer.toURI()), false);
-                final ZipEntry manifestEntry = jarFile
-                        .getEntry("META-INF/MANIFEST.MF");
-                final Manifest manifest = new Manifest(
-                        jarFile.getInputStream(manifestEntry));
-                bundleVersion = manifest.getMainAttributes().getValue(
-                        "Bundle-Version");
-            }
-        }
-        catch (final IOException ignoreAndMoveOn) {
-        }
-        catch (final URISyntaxException ignoreAndMoveOn) {
-        }
-        finally {
-            if (jarFile != null) {
-                try {
-                    jarFile.close();
-                }
-                catch (final IOException ignored) {
-                }
-            }
-        }
+        return ProjectDescriptor.getShellVersion();
+    }
 
-        final StringBuilder sb = new StringBuilder();
+    public int scanDue() {
+        return scan(true);
+    }
 
-        if (bundleVersion != null) {
-            sb.append(bundleVersion);
-        }
+    public int scanNotified() {
+        return scanNotified(false);
+    }
 
-        if (sb.length() == 0) {
-            sb.append("UNKNOWN VERSION");
+    /**
+     * Publishes the notified changes, as per {@link #scanNotified()}.
+     * 
+     * @param debounce whether batch listeners' events can be held back by
+     *            the debounce delay (as they are by {@link #scanAll()})
+     * @return the number of events published
+     */
+    protected int scanNotified(final boolean debounce) {
+        synchronized (lock) {
+            int eventsPublished = 0;
+            if (!noRequestsOrChanges()) {
+                eventsPublished = publishRequestedFileEvents();
+            }
+            publishBatch(debounce);
+            return eventsPublished;
         }
-
-        return sb.toString();
     }
 
-    public int scanNotified() {
-        synchronized (lock) {
-            if (noRequestsOrChanges()) {
-                return 0;
+    /**
+     * Applies the given events to the {@link #index}, whether or not they can
+     * be published yet.
+     * 
+     * @param events the events (required, can be empty)
+     */
+    private void updateIndex(final List<FileEvent> events) {
+        for (final FileEvent event : events) {
+            final FileDetails details = event.getFileDetails();
+            switch (event.getOperation()) {
+                case DELETED:
+                case MONITORING_FINISH:
+                    index.remove(details.getCanonicalPath());
+                    break;
+                default:
+                    final Long lastModified = details.getLastModified();
+                    index.put(details.getCanonicalPath(),
+                            lastModified == null ? 0 : lastModified);
             }
-            return publishRequestedFileEvents();
+        }
+    }
+
+    /**
+     * Makes the directory containing the given file due to be listed, as its
+     * contents have changed.
+     * 
+     * @param fileCanonicalPath the changed file (required)
+     */
+    private void scheduleParent(final String fileCanonicalPath) {
+        final String parent = new File(fileCanonicalPath).getParent();
+        if (parent == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        for (final ScanSchedule schedule : schedules.values()) {
+            schedule.changed(parent, now);
         }
     }
 
@@ -0,0 +1,190 @@
+package org.springframework.roo.file.monitor.polling;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides how often each directory of a monitored tree is listed by
+ * {@link PollingFileMonitorService#scanDue()}, based on how recently its
+ * contents last changed:
+ * <ul>
+ * <li>hot (changed within the last minute): every scan</li>
+ * <li>warm (changed within the last ten minutes): every five seconds</li>
+ * <li>cold: every thirty seconds</li>
+ * </ul>
+ * Directories are tracked independently of their parents, so a hot package
+ * deep within a cold tree is still listed by every scan.
+ * <p>
+ * Thread-safe, as directories are listed in parallel.
+ *
+ * @since 2.0
+ */
+final class ScanSchedule {
+
+    /**
+     * What the last listing of a directory found.
+     */
+    static final class Listing {
+
+        /** The canonical paths of the directory's entries */
+        final String[] children;
+        /** Whether each entry is itself a directory */
+        final boolean[] directories;
+        final long lastChanged;
+        final long lastListed;
+
+        Listing(final String[] children, final boolean[] directories,
+                final long lastChanged, final long lastListed) {
+            this.children = children;
+            this.directories = directories;
+            this.lastChanged = lastChanged;
+            this.lastListed = lastListed;
+        }
+    }
+
+    static final long COLD_INTERVAL = 30000;
+    static final long HOT_PERIOD = 60000;
+    static final long WARM_INTERVAL = 5000;
+    static final long WARM_PERIOD = 600000;
+
+    /**
+     * Returns how often a directory should be listed.
+     *
+     * @param sinceChange how many milliseconds ago its contents last changed
+     * @return a number of milliseconds (zero means every scan)
+     */
+    static long getInterval(final long sinceChange) {
+        if (sinceChange < HOT_PERIOD) {
+            return 0;
+        }
+        if (sinceChange < WARM_PERIOD) {
+            return WARM_INTERVAL;
+        }
+        return COLD_INTERVAL;
+    }
+
+    private static boolean isDue(final Listing listing, final long now) {
+        return now - listing.lastListed >= getInterval(now
+                - listing.lastChanged);
+    }
+
+    /** key: canonical path of a directory */
+    private final Map<String, Listing> listings = new ConcurrentHashMap<String, Listing>();
+
+    /**
+     * Returns the last listing of the given directory if it's not yet due to
+     * be listed again.
+     *
+     * @param directory the directory's canonical path (required)
+     * @param now the current time
+     * @return <code>null</code> if the directory is due (or has never been
+     *         listed)
+     */
+    Listing getIfNotDue(final String directory, final long now) {
+        final Listing listing = listings.get(directory);
+        return listing == null || isDue(listing, now) ? null : listing;
+    }
+
+    /**
+     * Returns the last listing of the given directory.
+     *
+     * @param directory the directory's canonical path (required)
+     * @return <code>null</code> if it has never been listed
+     */
+    Listing getListing(final String directory) {
+        return listings.get(directory);
+    }
+
+    /**
+     * Counts the known directories by tier.
+     *
+     * @param now the current time
+     * @return the numbers of hot, warm and cold directories
+     */
+    int[] getTierCounts(final long now) {
+        final int[] counts = new int[3];
+        for (final Listing listing : listings.values()) {
+            final long interval = getInterval(now - listing.lastChanged);
+            counts[interval == 0 ? 0 : interval == WARM_INTERVAL ? 1 : 2]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Indicates whether any known directory is due to be listed.
+     *
+     * @param now the current time
+     * @return see above
+     */
+    boolean isAnyDue(final long now) {
+        for (final Listing listing : listings.values()) {
+            if (isDue(listing, now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records a listing of the given directory.
+     *
+     * @param directory the directory's canonical path (required)
+     * @param children the canonical paths of its entries (required)
+     * @param directories whether each entry is a directory (required)
+     * @param changed whether its contents have changed since the last listing
+     * @param now the current time
+     */
+    void listed(final String directory, final String[] children,
+            final boolean[] directories, final boolean changed, final long now) {
+        final Listing previous = listings.get(directory);
+        final long lastChanged;
+        if (changed) {
+            lastChanged = now;
+        }
+        else if (previous == null) {
+            // Not seen to change yet, but may have been busy; start warm
+            lastChanged = now - HOT_PERIOD;
+        }
+        else {
+            lastChanged = previous.lastChanged;
+        }
+        listings.put(directory, new Listing(children, directories,
+                lastChanged, now));
+    }
+
+    /**
+     * Forgets the directories that are not in the given snapshot, e.g.
+     * because they have been deleted.
+     *
+     * @param snapshot the latest snapshot of the monitored location
+     *            (required)
+     */
+    void retain(final FileSnapshot snapshot) {
+        for (final Iterator<String> iter = listings.keySet().iterator(); iter
+                .hasNext();) {
+            if (!snapshot.contains(iter.next())) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Records that the given directory's contents have changed, so that it's
+     * listed by the next scan and treated as hot.
+     *
+     * @param directory the directory's canonical path (required)
+     * @param now the current time
+     */
+    void changed(final String directory, final long now) {
+        final Listing listing = listings.get(directory);
+        if (listing != null) {
+            listings.put(directory, new Listing(listing.children,
+                    listing.directories, now, Long.MIN_VALUE / 2));
+        }
+    }
+
+    int size() {
+        return listings.size();
+    }
+}
@@ -0,0 +1,152 @@
+package org.springframework.roo.file.monitor.polling;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The XXH64 non-cryptographic hash function (seed zero), used to tell whether
+ * a file's content has really changed. Far faster than a cryptographic digest,
+ * which isn't needed as the content isn't adversarial.
+ *
+ * @see <a href="https://github.com/Cyan4973/xxHash">xxHash</a>
+ * @since 2.0
+ */
+final class XxHash64 {
+
+    private static final int BUFFER_SIZE = 32 * 256;
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    /**
+     * Hashes the given bytes.
+     *
+     * @param bytes the bytes to hash (required)
+     * @return the hash
+     */
+    static long hash(final byte[] bytes) {
+        final XxHash64 hash = new XxHash64();
+        final int stripes = bytes.length & ~31;
+        hash.update(bytes, stripes);
+        return hash.digest(bytes, stripes, bytes.length - stripes);
+    }
+
+    /**
+     * Hashes the remaining content of the given stream, without closing it.
+     *
+     * @param in the stream to hash (required)
+     * @return the hash
+     * @throws IOException if the stream can't be read
+     */
+    static long hash(final InputStream in) throws IOException {
+        final XxHash64 hash = new XxHash64();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        while (true) {
+            // Fill the buffer, so that stripes never span two reads
+            int length = 0;
+            int read;
+            while (length < buffer.length
+                    && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            if (length < buffer.length) {
+                final int stripes = length & ~31;
+                hash.update(buffer, stripes);
+                return hash.digest(buffer, stripes, length - stripes);
+            }
+            hash.update(buffer, length);
+        }
+    }
+
+    private static long mergeRound(long accumulator, final long value) {
+        accumulator ^= round(0, value);
+        return accumulator * PRIME1 + PRIME4;
+    }
+
+    private static long readLong(final byte[] bytes, final int offset) {
+        return bytes[offset] & 0xffL | (bytes[offset + 1] & 0xffL) << 8
+                | (bytes[offset + 2] & 0xffL) << 16
+                | (bytes[offset + 3] & 0xffL) << 24
+                | (bytes[offset + 4] & 0xffL) << 32
+                | (bytes[offset + 5] & 0xffL) << 40
+                | (bytes[offset + 6] & 0xffL) << 48
+                | (bytes[offset + 7] & 0xffL) << 56;
+    }
+
+    private static long readUnsignedInt(final byte[] bytes, final int offset) {
+        return bytes[offset] & 0xffL | (bytes[offset + 1] & 0xffL) << 8
+                | (bytes[offset + 2] & 0xffL) << 16
+                | (bytes[offset + 3] & 0xffL) << 24;
+    }
+
+    private static long round(long accumulator, final long input) {
+        accumulator += input * PRIME2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME1;
+    }
+
+    private long total;
+    private long v1 = PRIME1 + PRIME2;
+    private long v2 = PRIME2;
+    private long v3 = 0;
+    private long v4 = -PRIME1;
+
+    private XxHash64() {
+    }
+
+    /**
+     * Finishes the hash with the given tail of fewer than 32 bytes.
+     */
+    private long digest(final byte[] bytes, int offset, final int length) {
+        long hash;
+        if (total >= 32) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                    + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        }
+        else {
+            hash = PRIME5;
+        }
+        hash += total + length;
+
+        final int end = offset + length;
+        for (; offset + 8 <= end; offset += 8) {
+            hash ^= round(0, readLong(bytes, offset));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+        if (offset + 4 <= end) {
+            hash ^= readUnsignedInt(bytes, offset) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            offset += 4;
+        }
+        for (; offset < end; offset++) {
+            hash ^= (bytes[offset] & 0xffL) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    /**
+     * Consumes the given whole number of 32-byte stripes.
+     */
+    private void update(final byte[] bytes, final int length) {
+        for (int offset = 0; offset < length; offset += 32) {
+            v1 = round(v1, readLong(bytes, offset));
+            v2 = round(v2, readLong(bytes, offset + 8));
+            v3 = round(v3, readLong(bytes, offset + 16));
+            v4 = round(v4, readLong(bytes, offset + 24));
+        }
+        total += length;
+    }
+}
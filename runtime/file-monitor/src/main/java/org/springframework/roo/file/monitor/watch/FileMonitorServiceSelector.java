@@ -0,0 +1,42 @@
+package org.springframework.roo.file.monitor.watch;
+
+import org.apache.felix.scr.annotations.Component;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.file.monitor.FileMonitorService;
+import org.springframework.roo.file.monitor.polling.PollingFileMonitorComponent;
+
+/**
+ * Enables the {@link FileMonitorService} implementation to use, so that only
+ * one is ever registered (all its clients must share the instance that the
+ * process manager scans).
+ * <p>
+ * The {@link WatchServiceFileMonitorComponent} is used if the
+ * <code>roo.file.monitor</code> system property is set to <code>watch</code>,
+ * otherwise the {@link PollingFileMonitorComponent}.
+ * 
+ * @since 2.0
+ */
+@Component(immediate = true)
+public class FileMonitorServiceSelector {
+
+    static final String IMPLEMENTATION_PROPERTY = "roo.file.monitor";
+
+    /**
+     * Returns the name of the component to enable, given the value of the
+     * {@value #IMPLEMENTATION_PROPERTY} system property.
+     * 
+     * @param implementation the property's value (can be <code>null</code>)
+     * @return a non-blank component name
+     */
+    static String getComponentName(final String implementation) {
+        if ("watch".equals(implementation)) {
+            return WatchServiceFileMonitorComponent.class.getName();
+        }
+        return PollingFileMonitorComponent.class.getName();
+    }
+
+    protected void activate(final ComponentContext context) {
+        context.enableComponent(getComponentName(System
+                .getProperty(IMPLEMENTATION_PROPERTY)));
+    }
+}
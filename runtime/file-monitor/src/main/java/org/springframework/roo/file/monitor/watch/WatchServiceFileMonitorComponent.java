@@ -0,0 +1,55 @@
+package org.springframework.roo.file.monitor.watch;
+
+import java.io.File;
+
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.apache.felix.scr.annotations.ReferenceStrategy;
+import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.file.monitor.event.FileEventListener;
+import org.springframework.roo.support.osgi.OSGiUtils;
+
+/**
+ * Extends {@link WatchServiceFileMonitorService} by making it available as an
+ * OSGi component that automatically monitors the environment's
+ * {@link FileEventListener} components.
+ * <p>
+ * Disabled unless selected by the {@link FileMonitorServiceSelector}. Loads
+ * and saves the journal of monitored files if journaling is enabled (see
+ * {@link #getJournalFile(String)}).
+ * 
+ * @since 2.0
+ */
+@Component(enabled = false)
+@Service
+@Reference(name = "fileEventListener", strategy = ReferenceStrategy.EVENT, policy = ReferencePolicy.DYNAMIC, referenceInterface = FileEventListener.class, cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE)
+public class WatchServiceFileMonitorComponent extends
+        WatchServiceFileMonitorService {
+
+    private File journalFile;
+
+    protected void activate(final ComponentContext context) {
+        journalFile = getJournalFile(OSGiUtils.getRooWorkingDirectory(context));
+        if (journalFile != null) {
+            loadJournal(journalFile);
+        }
+    }
+
+    protected void bindFileEventListener(final FileEventListener listener) {
+        add(listener);
+    }
+
+    protected void deactivate(final ComponentContext context) {
+        if (journalFile != null) {
+            saveJournal(journalFile);
+        }
+        close();
+    }
+
+    protected void unbindFileEventListener(final FileEventListener listener) {
+        remove(listener);
+    }
+}
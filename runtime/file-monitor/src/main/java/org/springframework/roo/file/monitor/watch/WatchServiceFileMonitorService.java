@@ -0,0 +1,399 @@
+package org.springframework.roo.file.monitor.watch;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.springframework.roo.file.monitor.DirectoryMonitoringRequest;
+import org.springframework.roo.file.monitor.FileMonitorService;
+import org.springframework.roo.file.monitor.MonitoringRequest;
+import org.springframework.roo.file.monitor.event.FileOperation;
+import org.springframework.roo.file.monitor.polling.PollingFileMonitorService;
+
+/**
+ * A {@link FileMonitorService} that learns of changes from the operating
+ * system through a {@link WatchService}, instead of listing every monitored
+ * directory on each scan.
+ * <p>
+ * Each monitored directory (and, for requests that watch a sub-tree, each
+ * directory below it) is registered with the watch service. A scan translates
+ * the events queued since the previous scan into the same
+ * {@link FileOperation}s a polling scan would have detected, and publishes
+ * them like explicit notifications. A full polling scan is still performed
+ * when:
+ * <ul>
+ * <li>a monitoring request is added or removed, as its contents need to be
+ * indexed (this is where {@link FileOperation#MONITORING_START} events come
+ * from),</li>
+ * <li>the operating system reports that events were lost
+ * ({@link java.nio.file.StandardWatchEventKinds#OVERFLOW}),</li>
+ * <li>a watched directory is deleted or can no longer be watched, as the
+ * deletion of its contents is not reported individually, or</li>
+ * <li>no watch service is available on this platform.</li>
+ * </ul>
+ *
+ * @since 2.0
+ */
+public class WatchServiceFileMonitorService extends PollingFileMonitorService {
+
+    /** key: watched directory */
+    private final Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+    private boolean fullScanRequired = true;
+    /** Watched directories whose sub-directories are watched too */
+    private final Set<Path> subtreeDirectories = new HashSet<Path>();
+    private boolean watchServiceFailed;
+    private WatchService watchService;
+
+    @Override
+    public boolean add(final MonitoringRequest request) {
+        synchronized (lock) {
+            final boolean added = super.add(request);
+            if (added) {
+                fullScanRequired = true;
+            }
+            return added;
+        }
+    }
+
+    /**
+     * Records the given change, merging it with any change already recorded
+     * for the same file during this scan (e.g. a file that's created and
+     * written is only reported as created).
+     */
+    private void addChange(final Map<String, FileOperation> changes,
+            final String path, final FileOperation operation) {
+        final FileOperation previous = changes.get(path);
+        if (previous == null) {
+            changes.put(path, operation);
+        }
+        else if (previous == FileOperation.CREATED) {
+            if (operation == FileOperation.DELETED) {
+                // Came and went between two scans
+                changes.remove(path);
+            }
+        }
+        else if (previous == FileOperation.DELETED) {
+            if (operation != FileOperation.DELETED) {
+                // Replaced
+                changes.put(path, FileOperation.UPDATED);
+            }
+        }
+        else if (operation == FileOperation.DELETED) {
+            changes.put(path, FileOperation.DELETED);
+        }
+    }
+
+    /**
+     * Adds a creation for every file and directory below the given new
+     * directory, registering the directories, as files may have been created
+     * before the directory was registered.
+     */
+    private void addCreatedContents(final Map<String, FileOperation> changes,
+            final Path directory) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir,
+                        final BasicFileAttributes attrs) {
+                    if (isExcluded(dir.toFile())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (!dir.equals(directory)) {
+                        addChange(changes, dir.toString(),
+                                FileOperation.CREATED);
+                    }
+                    register(dir, true);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file,
+                        final BasicFileAttributes attrs) {
+                    if (!isExcluded(file.toFile())) {
+                        addChange(changes, file.toString(),
+                                FileOperation.CREATED);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file,
+                        final IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (final IOException e) {
+            fullScanRequired = true;
+        }
+    }
+
+    private void cancelKeys() {
+        for (final WatchKey key : keys.values()) {
+            key.cancel();
+        }
+        keys.clear();
+        subtreeDirectories.clear();
+    }
+
+    /**
+     * Stops watching the file system; the service can't be used afterwards.
+     */
+    public void close() {
+        synchronized (lock) {
+            cancelKeys();
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                }
+                catch (final IOException ignored) {
+                }
+                watchService = null;
+            }
+            watchServiceFailed = true;
+        }
+    }
+
+    /**
+     * Performs a polling scan and (re-)registers every monitored directory.
+     * Directories are registered before they are scanned, so that no change
+     * is missed; a change made during the scan may therefore be reported
+     * again by the next scan.
+     */
+    private int fullScan() {
+        fullScanRequired = false;
+        if (getWatchService() != null) {
+            cancelKeys();
+            for (final MonitoringRequest request : getRequests()) {
+                registerRequest(request);
+            }
+        }
+        return super.scanAll();
+    }
+
+    private WatchService getWatchService() {
+        if (watchService == null && !watchServiceFailed) {
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+            }
+            catch (final IOException e) {
+                watchServiceFailed = true;
+                LOGGER.log(Level.FINE,
+                        "File system watching unavailable; polling instead", e);
+            }
+            catch (final UnsupportedOperationException e) {
+                watchServiceFailed = true;
+            }
+        }
+        return watchService;
+    }
+
+    @Override
+    public boolean isDirty() {
+        synchronized (lock) {
+            processWatchEvents();
+            return fullScanRequired || super.isDirty();
+        }
+    }
+
+    /**
+     * Converts the events queued by the watch service into notifications of
+     * the files concerned, or requests a full scan if they are incomplete.
+     */
+    private void processWatchEvents() {
+        if (fullScanRequired || getWatchService() == null) {
+            return;
+        }
+        final Map<String, FileOperation> changes = new LinkedHashMap<String, FileOperation>();
+        WatchKey key;
+        while ((key = pollWatchKey()) != null) {
+            final Path directory = (Path) key.watchable();
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    fullScanRequired = true;
+                    continue;
+                }
+                final Path path = directory.resolve((Path) event.context());
+                final File file = path.toFile();
+                if (isExcluded(file)) {
+                    continue;
+                }
+                final boolean isDirectory = file.isDirectory()
+                        || keys.containsKey(path);
+                if (isDirectory && !subtreeDirectories.contains(directory)) {
+                    // Polling doesn't report sub-directories of such requests
+                    continue;
+                }
+                if (event.kind() == ENTRY_CREATE) {
+                    addChange(changes, path.toString(), FileOperation.CREATED);
+                    if (file.isDirectory()) {
+                        addCreatedContents(changes, path);
+                    }
+                }
+                else if (event.kind() == ENTRY_DELETE) {
+                    if (keys.containsKey(path)) {
+                        // Its contents are gone too, but weren't reported
+                        fullScanRequired = true;
+                    }
+                    addChange(changes, path.toString(), FileOperation.DELETED);
+                }
+                else if (event.kind() == ENTRY_MODIFY) {
+                    addChange(changes, path.toString(), FileOperation.UPDATED);
+                }
+            }
+            if (!key.reset()) {
+                // No longer accessible
+                keys.remove(directory);
+                subtreeDirectories.remove(directory);
+                fullScanRequired = true;
+            }
+        }
+        if (fullScanRequired) {
+            // The full scan will detect all these changes anyway
+            return;
+        }
+        for (final Entry<String, FileOperation> change : changes.entrySet()) {
+            switch (change.getValue()) {
+            case CREATED:
+                notifyCreated(change.getKey());
+                break;
+            case DELETED:
+                notifyDeleted(change.getKey());
+                break;
+            default:
+                notifyChanged(change.getKey());
+            }
+        }
+    }
+
+    /**
+     * Returns the next key with queued events, if any.
+     *
+     * @return <code>null</code> if there are no events
+     */
+    WatchKey pollWatchKey() {
+        return watchService.poll();
+    }
+
+    private void register(final Path directory, final boolean subtree) {
+        if (keys.containsKey(directory)) {
+            return;
+        }
+        try {
+            keys.put(directory, directory.register(watchService,
+                    ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+            if (subtree) {
+                subtreeDirectories.add(directory);
+            }
+        }
+        catch (final IOException e) {
+            // Changes in this directory will only be found by full scans
+            LOGGER.log(Level.FINE, "Unable to watch '" + directory + "'", e);
+        }
+    }
+
+    private void registerRequest(final MonitoringRequest request) {
+        final File file;
+        try {
+            file = request.getFile().getCanonicalFile();
+        }
+        catch (final IOException e) {
+            return;
+        }
+        if (!file.exists()) {
+            // Will be registered by the full scan after it's created
+            return;
+        }
+        if (!file.isDirectory()) {
+            register(file.getParentFile().toPath(), false);
+            return;
+        }
+        final boolean subtree = request instanceof DirectoryMonitoringRequest
+                && ((DirectoryMonitoringRequest) request).isWatchSubtree();
+        if (!subtree) {
+            register(file.toPath(), false);
+            return;
+        }
+        try {
+            Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir,
+                        final BasicFileAttributes attrs) {
+                    if (isExcluded(dir.toFile())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    register(dir, true);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file,
+                        final IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (final IOException e) {
+            LOGGER.log(Level.FINE, "Unable to watch '" + file + "'", e);
+        }
+    }
+
+    @Override
+    public boolean remove(final MonitoringRequest request) {
+        synchronized (lock) {
+            final boolean removed = super.remove(request);
+            if (removed) {
+                fullScanRequired = true;
+            }
+            return removed;
+        }
+    }
+
+    @Override
+    public int scanAll() {
+        synchronized (lock) {
+            processWatchEvents();
+            if (fullScanRequired || getWatchService() == null) {
+                return fullScan();
+            }
+            return scanNotified(true);
+        }
+    }
+
+    /**
+     * Equivalent to {@link #scanAll()}, as that only re-examines the
+     * locations with watch events anyway.
+     */
+    @Override
+    public int scanDue() {
+        return scanAll();
+    }
+
+    @Override
+    public int scanNotified() {
+        synchronized (lock) {
+            processWatchEvents();
+            return super.scanNotified();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.springframework.roo.file.monitor.polling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.roo.file.monitor.event.FileDetails;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileOperation;
+
+/**
+ * Unit test of {@link FileEventBatch}
+ *
+ * @since 2.0
+ */
+public class FileEventBatchTest {
+
+    private static FileEvent event(final String name, final long time,
+            final FileOperation operation) {
+        return new FileEvent(new FileDetails(new File(File.separator
+                + "project", name), time), operation, null);
+    }
+
+    private static FileOperation operationOf(final FileOperation... operations) {
+        final FileEventBatch batch = new FileEventBatch();
+        for (int i = 0; i < operations.length; i++) {
+            batch.add(event("Foo.java", i, operations[i]), i);
+        }
+        final List<FileEvent> events = batch.drain();
+        assertTrue(batch.isEmpty());
+        if (events.isEmpty()) {
+            return null;
+        }
+        assertEquals(1, events.size());
+        assertEquals(Long.valueOf(operations.length - 1), events.get(0)
+                .getFileDetails().getLastModified());
+        return events.get(0).getOperation();
+    }
+
+    @Test
+    public void testCoalescesEachFilesEventsToItsNetChange() {
+        assertEquals(FileOperation.CREATED, operationOf(FileOperation.CREATED,
+                FileOperation.UPDATED, FileOperation.UPDATED));
+        assertEquals(null,
+                operationOf(FileOperation.CREATED, FileOperation.DELETED));
+        assertEquals(FileOperation.UPDATED, operationOf(FileOperation.DELETED,
+                FileOperation.CREATED));
+        assertEquals(FileOperation.DELETED, operationOf(FileOperation.UPDATED,
+                FileOperation.DELETED));
+        assertEquals(FileOperation.MONITORING_START, operationOf(
+                FileOperation.MONITORING_START, FileOperation.UPDATED));
+        assertEquals(null, operationOf(FileOperation.MONITORING_START,
+                FileOperation.MONITORING_FINISH));
+        assertEquals(FileOperation.UPDATED, operationOf(FileOperation.UPDATED,
+                FileOperation.UPDATED));
+    }
+
+    @Test
+    public void testKeepsSingleEventsAndFirstSeenOrder() {
+        // Set up
+        final FileEventBatch batch = new FileEventBatch();
+        final FileEvent bar = event("Bar.java", 1, FileOperation.RENAMED);
+        batch.add(event("Foo.java", 1, FileOperation.UPDATED), 10);
+        batch.add(bar, 20);
+        batch.add(event("Foo.java", 2, FileOperation.DELETED), 30);
+
+        // Invoke
+        final List<FileEvent> events = batch.drain();
+
+        // Check
+        assertEquals(2, events.size());
+        assertEquals(FileOperation.DELETED, events.get(0).getOperation());
+        assertSame(bar, events.get(1));
+        assertEquals(10, batch.getFirstAdded());
+        assertEquals(30, batch.getLastAdded());
+    }
+}
@@ -0,0 +1,104 @@
+package org.springframework.roo.file.monitor.polling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.springframework.roo.support.util.FileUtils;
+
+/**
+ * Unit test of {@link FilePathIndex}
+ *
+ * @since 2.0
+ */
+public class FilePathIndexTest {
+
+    private static final String SRC = path("", "project", "src");
+
+    private static String path(final String... elements) {
+        final StringBuilder path = new StringBuilder();
+        for (int i = 0; i < elements.length; i++) {
+            if (i > 0) {
+                path.append(File.separator);
+            }
+            path.append(elements[i]);
+        }
+        return path.toString();
+    }
+
+    @Test
+    public void testFindsTheSameMatchesAsTheMatcher() {
+        // Set up
+        final FilePathIndex index = new FilePathIndex();
+        final Map<String, Long> expected = new HashMap<String, Long>();
+        final String antPath = path(SRC, "main", "java", "**", "*.java");
+        final String[] directories = { "main", "test", "java", "com", "web" };
+        final Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            final String file = path(SRC,
+                    directories[random.nextInt(directories.length)],
+                    directories[random.nextInt(directories.length)],
+                    directories[random.nextInt(directories.length)], "File"
+                            + random.nextInt(20)
+                            + (random.nextBoolean() ? ".java" : ".xml"));
+            if (random.nextInt(4) == 0) {
+                index.remove(file);
+                expected.remove(file);
+            }
+            else {
+                index.put(file, i);
+                if (FileUtils.matchesAntPath(antPath, file)) {
+                    expected.put(file, (long) i);
+                }
+            }
+        }
+
+        // Invoke
+        final Map<String, Long> matches = new HashMap<String, Long>();
+        index.findMatches(antPath, SRC, matches);
+
+        // Check
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, matches);
+    }
+
+    @Test
+    public void testRemovingADirectoryKeepsItsContents() {
+        // Set up
+        final FilePathIndex index = new FilePathIndex();
+        final String directory = path(SRC, "main");
+        final String file = path(directory, "Foo.java");
+        index.put(directory, 1);
+        index.put(file, 2);
+
+        // Invoke
+        assertTrue(index.remove(directory));
+        assertFalse(index.remove(directory));
+
+        // Check
+        assertEquals(1, index.size());
+        final Map<String, Long> matches = new HashMap<String, Long>();
+        index.findMatches(path(SRC, "**", "*"), SRC, matches);
+        assertEquals(1, matches.size());
+        assertEquals(Long.valueOf(2), matches.get(file));
+    }
+
+    @Test
+    public void testUnknownDirectoryHasNoMatches() {
+        final FilePathIndex index = new FilePathIndex();
+        index.put(path(SRC, "Foo.java"), 1);
+        index.remove(path(SRC, "Foo.java"));
+        final Map<String, Long> matches = new HashMap<String, Long>();
+
+        index.findMatches(path(SRC, "**", "*.java"), SRC, matches);
+
+        assertTrue(matches.isEmpty());
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,68 @@
+package org.springframework.roo.file.monitor.polling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit test of {@link FileSnapshot}
+ * 
+ * @since 2.0
+ */
+public class FileSnapshotTest {
+
+    @Test
+    public void testBehavesLikeAMap() {
+        // Set up
+        final FileSnapshot snapshot = new FileSnapshot();
+        final Map<String, Long> expected = new HashMap<String, Long>();
+        final Random random = new Random(42);
+
+        // Invoke
+        for (int i = 0; i < 10000; i++) {
+            final String path = "/project/src/File" + random.nextInt(2000)
+                    + ".java";
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(path) != null,
+                        snapshot.remove(path));
+            }
+            else {
+                snapshot.put(path, i, i % 7);
+                expected.put(path, (long) i);
+            }
+        }
+
+        // Check
+        assertEquals(expected.size(), snapshot.size());
+        final Set<String> paths = new HashSet<String>();
+        for (final String path : snapshot) {
+            assertTrue(paths.add(path));
+            assertEquals(expected.get(path).longValue(),
+                    snapshot.getLastModified(path, -1));
+        }
+        assertEquals(expected.keySet(), paths);
+        assertFalse(snapshot.contains("/project/src/Other.java"));
+        assertEquals(-1, snapshot.getLastModified("/project/src/Other.java",
+                -1));
+    }
+
+    @Test
+    public void testInternReturnsTheStoredInstance() {
+        final FileSnapshot snapshot = new FileSnapshot();
+        final String path = "/project/pom.xml";
+        snapshot.put(path, 1, 2);
+
+        assertSame(path, snapshot.intern(new String(path)));
+        final String other = "/project/other.xml";
+        assertSame(other, snapshot.intern(other));
+    }
+}
@@ -0,0 +1,89 @@
+package org.springframework.roo.file.monitor.polling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link FileStateJournal}
+ * 
+ * @since 2.0
+ */
+public class FileStateJournalTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("journal", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @After
+    public void deleteDirectory() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testReadingAMissingJournalFindsNothing() throws Exception {
+        assertTrue(FileStateJournal.read(new File(directory, "missing"))
+                .isEmpty());
+    }
+
+    @Test
+    public void testReadingAnUnknownFormatFindsNothing() throws Exception {
+        final File journal = new File(directory, "journal");
+        final DataOutputStream out = new DataOutputStream(
+                new GZIPOutputStream(new FileOutputStream(journal)));
+        out.writeInt(0xcafebabe);
+        out.writeInt(1);
+        out.close();
+
+        assertTrue(FileStateJournal.read(journal).isEmpty());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        // Set up
+        final FileSnapshot sources = new FileSnapshot();
+        sources.put("/project/src/main/java", 1000L, 4096L);
+        sources.put("/project/src/main/java/Person.java", 2000L, 512L);
+        sources.put("/project/src/main/java/PersonDao.java", 3000L, 256L);
+        final FileSnapshot pom = new FileSnapshot();
+        pom.put("/project/pom.xml", 4000L, 1024L);
+        final Map<String, FileSnapshot> snapshots = new HashMap<String, FileSnapshot>();
+        snapshots.put("/project/src/main/java|true", sources);
+        snapshots.put("/project/pom.xml|false", pom);
+        final File journal = new File(directory, ".roo/file-monitor.journal");
+
+        // Invoke
+        FileStateJournal.write(journal, snapshots);
+        final Map<String, FileSnapshot> read = FileStateJournal.read(journal);
+
+        // Check
+        assertEquals(snapshots.keySet(), read.keySet());
+        final FileSnapshot readSources = read
+                .get("/project/src/main/java|true");
+        assertEquals(3, readSources.size());
+        assertEquals(3000L, readSources.getLastModified(
+                "/project/src/main/java/PersonDao.java", -1));
+        assertEquals(256L,
+                readSources.getSize("/project/src/main/java/PersonDao.java", -1));
+        assertEquals(4000L,
+                read.get("/project/pom.xml|false").getLastModified(
+                        "/project/pom.xml", -1));
+    }
+}
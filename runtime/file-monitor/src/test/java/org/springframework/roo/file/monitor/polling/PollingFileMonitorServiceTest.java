@@ -0,0 +1,139 @@
+package org.springframework.roo.file.monitor.polling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.file.monitor.DirectoryMonitoringRequest;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileEventListener;
+import org.springframework.roo.file.monitor.event.FileOperation;
+
+/**
+ * Unit test of {@link PollingFileMonitorService}
+ *
+ * @since 2.0
+ */
+public class PollingFileMonitorServiceTest {
+
+    private static final String JOURNAL_PROPERTY = "roo.file.monitor.journal";
+    private static final String SNAPSHOT_PROPERTY = "roo.metadata.snapshot";
+
+    private File directory;
+    /** key: canonical path; value: last operation published */
+    private final Map<String, FileOperation> operations = new HashMap<String, FileOperation>();
+    private File sources;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("polling", "");
+        directory.delete();
+        directory.mkdir();
+        directory = directory.getCanonicalFile();
+        sources = new File(directory, "src");
+        sources.mkdir();
+    }
+
+    @After
+    public void deleteDirectory() {
+        FileUtils.deleteQuietly(directory);
+        System.clearProperty(JOURNAL_PROPERTY);
+        System.clearProperty(SNAPSHOT_PROPERTY);
+    }
+
+    private PollingFileMonitorService newService() {
+        final PollingFileMonitorService service = new PollingFileMonitorService();
+        service.add(new FileEventListener() {
+            public void onFileEvent(final FileEvent fileEvent) {
+                operations.put(fileEvent.getFileDetails().getCanonicalPath(),
+                        fileEvent.getOperation());
+            }
+        });
+        service.add(new DirectoryMonitoringRequest(sources, true,
+                FileOperation.values()));
+        return service;
+    }
+
+    @Test
+    public void testJournalRequiresTheMetadataSnapshot() {
+        System.setProperty(JOURNAL_PROPERTY, "true");
+        assertNull(PollingFileMonitorService.getJournalFile(directory
+                .getPath()));
+
+        System.setProperty(SNAPSHOT_PROPERTY, "true");
+        assertNotNull(PollingFileMonitorService.getJournalFile(directory
+                .getPath()));
+    }
+
+    @Test
+    public void testCorruptJournalMeansAColdScan() throws Exception {
+        final File file = new File(sources, "Person.java");
+        FileUtils.writeStringToFile(file, "class Person {}");
+        final File journal = new File(directory, "journal");
+        final DataOutputStream out = new DataOutputStream(
+                new GZIPOutputStream(new FileOutputStream(journal)));
+        out.writeInt(0x524f4f4a);
+        out.writeInt(2);
+        out.writeInt(1);
+        out.writeUTF(sources.getPath() + "|true");
+        out.writeInt(2);
+        out.writeShort(0);
+        out.writeUTF("a");
+        out.writeLong(0);
+        out.writeLong(0);
+        out.writeLong(0);
+        // Shares more than the previous path has
+        out.writeShort(5);
+        out.writeUTF("b");
+        out.close();
+        final PollingFileMonitorService service = newService();
+
+        service.loadJournal(journal);
+        service.scanAll();
+
+        assertEquals(FileOperation.MONITORING_START,
+                operations.get(file.getPath()));
+    }
+
+    @Test
+    public void testJournalReportsChangesAndAnnouncesUnchangedFiles()
+            throws Exception {
+        // Set up
+        final File changed = new File(sources, "Changed.java");
+        final File deleted = new File(sources, "Deleted.java");
+        final File unchanged = new File(sources, "Unchanged.java");
+        FileUtils.writeStringToFile(changed, "class Changed {}");
+        FileUtils.writeStringToFile(deleted, "class Deleted {}");
+        FileUtils.writeStringToFile(unchanged, "class Unchanged {}");
+        final PollingFileMonitorService previousSession = newService();
+        previousSession.scanAll();
+        final File journal = new File(directory, "journal");
+        previousSession.saveJournal(journal);
+        FileUtils.writeStringToFile(changed, "class Changed { int field; }");
+        deleted.delete();
+        operations.clear();
+
+        // Invoke
+        final PollingFileMonitorService service = newService();
+        service.loadJournal(journal);
+        service.scanAll();
+
+        // Check
+        assertEquals(FileOperation.UPDATED, operations.get(changed.getPath()));
+        assertEquals(FileOperation.DELETED, operations.get(deleted.getPath()));
+        assertEquals(FileOperation.MONITORING_START,
+                operations.get(unchanged.getPath()));
+    }
+}
@@ -0,0 +1,149 @@
+package org.springframework.roo.file.monitor.polling;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link ScanSchedule} and its use by {@link FileTreeScanner}
+ *
+ * @since 2.0
+ */
+public class ScanScheduleTest {
+
+    private File directory;
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("schedule", "");
+        directory.delete();
+        directory.mkdir();
+        directory = directory.getCanonicalFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        FileUtils.deleteQuietly(directory);
+        pool.shutdown();
+    }
+
+    @Test
+    public void testIntervalDependsOnTimeSinceChange() {
+        assertEquals(0, ScanSchedule.getInterval(0));
+        assertEquals(ScanSchedule.WARM_INTERVAL,
+                ScanSchedule.getInterval(ScanSchedule.HOT_PERIOD));
+        assertEquals(ScanSchedule.COLD_INTERVAL,
+                ScanSchedule.getInterval(ScanSchedule.WARM_PERIOD));
+    }
+
+    @Test
+    public void testOnlyListsDirectoriesThatAreDue() throws Exception {
+        // Set up
+        final File subdirectory = new File(directory, "a");
+        subdirectory.mkdir();
+        FileUtils.touch(new File(subdirectory, "One.java"));
+        final ScanSchedule schedule = new ScanSchedule();
+        final FileSnapshot first = new FileTreeScanner(pool, true,
+                new FileSnapshot(), false, schedule).scan(directory, true);
+        assertEquals(3, first.size());
+        assertEquals(2, schedule.size());
+        // Unchanged directories start warm, so aren't due yet
+        assertFalse(schedule.isAnyDue(System.currentTimeMillis()));
+        assertArrayEquals(new int[] { 0, 2, 0 },
+                schedule.getTierCounts(System.currentTimeMillis()));
+        final File two = new File(subdirectory, "Two.java");
+        FileUtils.touch(two);
+
+        // Invoke
+        final FileTreeScanner skipping = new FileTreeScanner(pool, true,
+                first, false, schedule);
+        final FileSnapshot second = skipping.scan(directory, true);
+        schedule.changed(subdirectory.getPath(), System.currentTimeMillis());
+        final FileTreeScanner listing = new FileTreeScanner(pool, true,
+                second, false, schedule);
+        final FileSnapshot third = listing.scan(directory, true);
+
+        // Check
+        assertEquals(3, second.size());
+        assertFalse(second.contains(two.getPath()));
+        assertEquals(2, skipping.getSkippedCount());
+        // The root and the known file were still read from disk
+        assertEquals(2, skipping.getCheckedCount());
+        assertEquals(4, third.size());
+        assertTrue(third.contains(two.getPath()));
+        assertEquals(1, listing.getSkippedCount());
+        assertEquals(3, listing.getCheckedCount());
+        assertArrayEquals(new int[] { 1, 1, 0 },
+                schedule.getTierCounts(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testForgetsDeletedDirectories() throws Exception {
+        final File subdirectory = new File(directory, "a");
+        subdirectory.mkdir();
+        final ScanSchedule schedule = new ScanSchedule();
+        final FileSnapshot first = new FileTreeScanner(pool, true,
+                new FileSnapshot(), false, schedule).scan(directory);
+        assertEquals(2, schedule.size());
+        FileUtils.deleteDirectory(subdirectory);
+
+        final FileSnapshot second = new FileTreeScanner(pool, true, first,
+                false, schedule).scan(directory);
+        schedule.retain(second);
+
+        assertEquals(1, schedule.size());
+        assertEquals(1, second.size());
+    }
+
+    @Test
+    public void testFilesInColdDirectoriesAreCheckedOnEveryScan()
+            throws Exception {
+        // Set up
+        final File subdirectory = new File(directory, "a");
+        subdirectory.mkdir();
+        final File one = new File(subdirectory, "One.java");
+        FileUtils.writeStringToFile(one, "class One {}");
+        final ScanSchedule listed = new ScanSchedule();
+        final FileSnapshot first = new FileTreeScanner(pool, true,
+                new FileSnapshot(), false, listed).scan(directory, true);
+        // Make both directories cold, i.e. not due for a while
+        final ScanSchedule schedule = new ScanSchedule();
+        final long now = System.currentTimeMillis();
+        for (final String path : new String[] { directory.getPath(),
+                subdirectory.getPath() }) {
+            final ScanSchedule.Listing listing = listed.getListing(path);
+            schedule.listed(path, listing.children, listing.directories,
+                    false, now - ScanSchedule.WARM_PERIOD
+                            + ScanSchedule.HOT_PERIOD);
+            schedule.listed(path, listing.children, listing.directories,
+                    false, now);
+        }
+        assertArrayEquals(new int[] { 0, 0, 2 }, schedule.getTierCounts(now));
+        FileUtils.writeStringToFile(one, "class One { int field; }");
+
+        // Invoke
+        final FileTreeScanner scanner = new FileTreeScanner(pool, true,
+                first, false, schedule);
+        final FileSnapshot second = scanner.scan(directory, true);
+
+        // Check
+        assertEquals(2, scanner.getSkippedCount());
+        assertEquals(one.length(), second.getSize(one.getPath(), -1));
+        assertEquals(one.lastModified(),
+                second.getLastModified(one.getPath(), -1));
+        // The directory with the edited file is listed by the next scan
+        assertArrayEquals(new int[] { 1, 0, 1 },
+                schedule.getTierCounts(System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,33 @@
+package org.springframework.roo.file.monitor.polling;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit test of {@link XxHash64}
+ * 
+ * @since 2.0
+ */
+public class XxHash64Test {
+
+    @Test
+    public void testReferenceValues() throws Exception {
+        assertEquals(0xef46db3751d8e999L, XxHash64.hash(new byte[0]));
+        assertEquals(0x44bc2cf5ad770999L, XxHash64.hash("abc".getBytes("UTF-8")));
+        assertEquals(0xfbcea83c8a378bf1L,
+                XxHash64.hash("Nobody inspects the spammish repetition"
+                        .getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testStreamHashMatchesArrayHash() throws Exception {
+        final byte[] bytes = new byte[100003];
+        new Random(1).nextBytes(bytes);
+        assertEquals(XxHash64.hash(bytes),
+                XxHash64.hash(new ByteArrayInputStream(bytes)));
+    }
+}
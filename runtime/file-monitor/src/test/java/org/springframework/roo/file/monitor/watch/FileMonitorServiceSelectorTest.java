@@ -0,0 +1,28 @@
+package org.springframework.roo.file.monitor.watch;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.springframework.roo.file.monitor.polling.PollingFileMonitorComponent;
+
+/**
+ * Unit test of {@link FileMonitorServiceSelector}
+ * 
+ * @since 2.0
+ */
+public class FileMonitorServiceSelectorTest {
+
+    @Test
+    public void testPollingIsTheDefault() {
+        assertEquals(PollingFileMonitorComponent.class.getName(),
+                FileMonitorServiceSelector.getComponentName(null));
+        assertEquals(PollingFileMonitorComponent.class.getName(),
+                FileMonitorServiceSelector.getComponentName("polling"));
+    }
+
+    @Test
+    public void testWatchingCanBeSelected() {
+        assertEquals(WatchServiceFileMonitorComponent.class.getName(),
+                FileMonitorServiceSelector.getComponentName("watch"));
+    }
+}
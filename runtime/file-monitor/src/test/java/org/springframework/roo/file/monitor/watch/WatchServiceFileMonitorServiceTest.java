@@ -0,0 +1,246 @@
+package org.springframework.roo.file.monitor.watch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.Watchable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.file.monitor.DirectoryMonitoringRequest;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileEventListener;
+import org.springframework.roo.file.monitor.event.FileOperation;
+
+/**
+ * Unit test of {@link WatchServiceFileMonitorService}
+ *
+ * @since 2.0
+ */
+public class WatchServiceFileMonitorServiceTest {
+
+    /**
+     * A key of the given directory with the given events, which is no longer
+     * valid after them if so requested.
+     */
+    private static class StubWatchKey implements WatchKey {
+        private final Path directory;
+        private final List<WatchEvent<?>> events;
+        private final boolean valid;
+
+        StubWatchKey(final Path directory, final boolean valid,
+                final WatchEvent<?>... events) {
+            this.directory = directory;
+            this.valid = valid;
+            this.events = new ArrayList<WatchEvent<?>>();
+            Collections.addAll(this.events, events);
+        }
+
+        public void cancel() {
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+
+        public List<WatchEvent<?>> pollEvents() {
+            final List<WatchEvent<?>> result = new ArrayList<WatchEvent<?>>(
+                    events);
+            events.clear();
+            return result;
+        }
+
+        public boolean reset() {
+            return valid;
+        }
+
+        public Watchable watchable() {
+            return directory;
+        }
+    }
+
+    private static final WatchEvent<Object> OVERFLOW_EVENT = new WatchEvent<Object>() {
+        public Object context() {
+            return null;
+        }
+
+        public int count() {
+            return 1;
+        }
+
+        public Kind<Object> kind() {
+            return StandardWatchEventKinds.OVERFLOW;
+        }
+    };
+
+    /** How long to wait for the operating system to report a change */
+    private static final long TIMEOUT = 10000;
+
+    private File directory;
+    private final List<FileEvent> events = new ArrayList<FileEvent>();
+    /** The key to hand out instead of the real ones, if any */
+    private WatchKey injectedKey;
+    private WatchServiceFileMonitorService service;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("watch", "").getCanonicalFile();
+        directory.delete();
+        directory.mkdir();
+        service = new WatchServiceFileMonitorService();
+        service.add(new FileEventListener() {
+            public void onFileEvent(final FileEvent fileEvent) {
+                events.add(fileEvent);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        service.close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    /**
+     * Asserts that the given event was published; a polling scan also reports
+     * the update of the directory containing the file.
+     */
+    private void assertEvent(final FileOperation operation, final File file) {
+        for (final FileEvent event : events) {
+            if (event.getOperation() == operation
+                    && event.getFileDetails().getCanonicalPath()
+                            .equals(file.getPath())) {
+                return;
+            }
+        }
+        fail(operation + " of " + file + " not in " + events);
+    }
+
+    private void assertOnlyEvent(final FileOperation operation,
+            final File file) {
+        assertEquals(events.toString(), 1, events.size());
+        assertEquals(operation, events.get(0).getOperation());
+        assertEquals(file.getPath(), events.get(0).getFileDetails()
+                .getCanonicalPath());
+    }
+
+    private void monitorDirectory() {
+        service.add(new DirectoryMonitoringRequest(directory, true,
+                FileOperation.values()));
+        service.scanAll();
+        events.clear();
+    }
+
+    /**
+     * Scans until the operating system has reported a change, or the timeout
+     * has elapsed.
+     */
+    private void scanUntilChanged() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (events.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            service.scanAll();
+        }
+    }
+
+    /**
+     * Makes the service lose the events the operating system reports and
+     * receive the injected key instead.
+     */
+    private void useLossyWatchService() {
+        service.close();
+        service = new WatchServiceFileMonitorService() {
+            @Override
+            WatchKey pollWatchKey() {
+                WatchKey key;
+                while ((key = super.pollWatchKey()) != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                key = injectedKey;
+                injectedKey = null;
+                return key;
+            }
+        };
+        service.add(new FileEventListener() {
+            public void onFileEvent(final FileEvent fileEvent) {
+                events.add(fileEvent);
+            }
+        });
+    }
+
+    @Test
+    public void testCreationIsReported() throws Exception {
+        monitorDirectory();
+        final File file = new File(directory, "Created.java");
+
+        FileUtils.writeStringToFile(file, "class Created {}");
+        scanUntilChanged();
+
+        assertOnlyEvent(FileOperation.CREATED, file);
+    }
+
+    @Test
+    public void testDeletionIsReported() throws Exception {
+        final File file = new File(directory, "Deleted.java");
+        FileUtils.writeStringToFile(file, "class Deleted {}");
+        monitorDirectory();
+
+        assertTrue(file.delete());
+        scanUntilChanged();
+
+        assertOnlyEvent(FileOperation.DELETED, file);
+    }
+
+    @Test
+    public void testUpdateIsReported() throws Exception {
+        final File file = new File(directory, "Updated.java");
+        FileUtils.writeStringToFile(file, "class Updated {}");
+        monitorDirectory();
+
+        FileUtils.writeStringToFile(file, "class Updated { int field; }");
+        scanUntilChanged();
+
+        assertOnlyEvent(FileOperation.UPDATED, file);
+    }
+
+    @Test
+    public void testInvalidKeyFallsBackToPolling() throws Exception {
+        useLossyWatchService();
+        monitorDirectory();
+        final File file = new File(directory, "Unwatched.java");
+
+        FileUtils.writeStringToFile(file, "class Unwatched {}");
+        injectedKey = new StubWatchKey(directory.toPath(),
+                false);
+        service.scanAll();
+
+        assertEvent(FileOperation.CREATED, file);
+    }
+
+    @Test
+    public void testOverflowFallsBackToPolling() throws Exception {
+        useLossyWatchService();
+        monitorDirectory();
+        final File file = new File(directory, "Lost.java");
+
+        FileUtils.writeStringToFile(file, "class Lost {}");
+        injectedKey = new StubWatchKey(directory.toPath(),
+                true, OVERFLOW_EVENT);
+        service.scanAll();
+
+        assertEvent(FileOperation.CREATED, file);
+    }
+}
@@ -1,14 +1,17 @@
 package org.springframework.roo.file.undo;
 
+import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Stack;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Service;
 import org.osgi.service.component.ComponentContext;
 import org.springframework.roo.file.undo.UndoEvent.UndoOperation;
+import org.springframework.roo.support.osgi.OSGiUtils;
 
 /**
  * Default implementation of the {@link UndoManager} interface.
@@ -25,6 +28,12 @@ public class DefaultUndoManager implements UndoManager {
     private boolean undoEnabled = true;
 
     protected void activate(final ComponentContext context) {
+        final String workingDir = OSGiUtils.getRooWorkingDirectory(context);
+        if (StringUtils.isNotBlank(workingDir)) {
+            // On the project's file system, so pre-images can be linked
+            PreImageStore.getInstance().setParentDirectory(
+                    new File(workingDir, ".roo"));
+        }
     }
 
     public void add(final UndoableOperation undoableOperation) {
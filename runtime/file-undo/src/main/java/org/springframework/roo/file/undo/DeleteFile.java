@@ -4,9 +4,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.springframework.roo.file.undo.PreImageStore.PreImage;
 import org.springframework.roo.support.logging.HandlerUtils;
 
 /**
@@ -21,7 +21,7 @@ public class DeleteFile implements UndoableOperation {
             .getLogger(DeleteFile.class);
 
     private final File actual;
-    private final File backup;
+    private final PreImage preImage;
     private final FilenameResolver filenameResolver;
 
     /**
@@ -60,8 +60,7 @@ public class DeleteFile implements UndoableOperation {
                 "Path '%s' must be a file (not a directory)", actual);
 
         try {
-            backup = File.createTempFile("DeleteFile", "tmp");
-            FileUtils.copyFile(actual, backup);
+            preImage = PreImageStore.getInstance().capture(actual);
         }
         catch (final IOException ioe) {
             throw new IllegalStateException("Unable to make a backup of file '"
@@ -82,26 +81,24 @@ public class DeleteFile implements UndoableOperation {
     public void reset() {
         // Fix for ROO-1555
         try {
-            if (backup.delete()) {
+            if (preImage.release()) {
                 LOGGER.finest("Reset manage "
-                        + filenameResolver.getMeaningfulName(backup));
+                        + filenameResolver.getMeaningfulName(actual));
             }
             else {
-                backup.deleteOnExit();
                 LOGGER.fine("Reset failed "
-                        + filenameResolver.getMeaningfulName(backup));
+                        + filenameResolver.getMeaningfulName(actual));
             }
         }
         catch (final Throwable e) {
-            backup.deleteOnExit();
             LOGGER.fine("Reset failed "
-                    + filenameResolver.getMeaningfulName(backup));
+                    + filenameResolver.getMeaningfulName(actual));
         }
     }
 
     public boolean undo() {
         try {
-            FileUtils.copyFile(backup, actual);
+            preImage.restore(actual);
             LOGGER.fine("Undo delete "
                     + filenameResolver.getMeaningfulName(actual));
             return true;
@@ -111,6 +108,9 @@ public class DeleteFile implements UndoableOperation {
                     + filenameResolver.getMeaningfulName(actual));
             return false;
         }
+        finally {
+            preImage.release();
+        }
     }
 
 }
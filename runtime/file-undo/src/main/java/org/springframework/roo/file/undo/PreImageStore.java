@@ -0,0 +1,275 @@
+package org.springframework.roo.file.undo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.support.logging.HandlerUtils;
+
+/**
+ * Keeps the contents files had before they were updated or deleted, so that
+ * {@link UpdateFile} and {@link DeleteFile} can restore them.
+ * <p>
+ * Where the file system allows it, a pre-image is a hard link to the file
+ * being captured, which costs no data I/O. It stays valid as long as the file
+ * is replaced (e.g. by renaming a new file over it) or deleted rather than
+ * overwritten in place; a pre-image that has since changed is detected, and
+ * refuses to be restored. Otherwise the file is copied into the store, hashing
+ * it as it is read, and kept under the SHA-1 hash of its contents, so that
+ * identical contents are stored once however many times they are captured.
+ * <p>
+ * A symbolic link is captured by linking to the file it resolves to, which is
+ * what gets replaced when the link is written through.
+ * <p>
+ * Links can only be made within a file system, so the store should be kept
+ * on the project's (see {@link #setParentDirectory(File)}); until it is, it
+ * is kept in the temporary directory. Files in a directory that can't be
+ * linked from the store are copied from then on.
+ * <p>
+ * Most transactions end with {@link UndoManager#reset()}, which simply
+ * releases every pre-image. Set the <code>roo.undo.link</code> system
+ * property to <code>false</code> to always copy.
+ * <p>
+ * Thread-safe.
+ *
+ * @since 2.0
+ */
+public final class PreImageStore {
+
+    /**
+     * The captured contents of one file.
+     */
+    public final class PreImage {
+
+        private final File blob;
+        /** <code>null</code> if the blob is a hard link */
+        private final String hash;
+        private final long lastModified;
+        private final long length;
+        private boolean released;
+
+        PreImage(final File blob, final String hash) {
+            this.blob = blob;
+            this.hash = hash;
+            lastModified = blob.lastModified();
+            length = blob.length();
+        }
+
+        /**
+         * Stops keeping these contents; does nothing if already released.
+         *
+         * @return <code>false</code> if they couldn't be deleted, in which case
+         *         they will be on exit
+         */
+        public boolean release() {
+            return PreImageStore.this.release(this);
+        }
+
+        /**
+         * Writes these contents to the given file.
+         *
+         * @param target the file to write (required)
+         * @throws IOException if the contents couldn't be written, or have
+         *             changed since they were captured
+         */
+        public void restore(final File target) throws IOException {
+            Validate.notNull(target, "Target file required");
+            Validate.validState(!released, "Pre-image of '%s' released",
+                    target);
+            if (hash == null
+                    && (blob.lastModified() != lastModified || blob.length() != length)) {
+                throw new IOException("Pre-image of '" + target
+                        + "' was overwritten");
+            }
+            if (hash == null && target.exists()
+                    && Files.isSameFile(blob.toPath(), target.toPath())) {
+                // Still linked, so the target was never changed; copying
+                // would truncate both
+                return;
+            }
+            // Write through a symbolic link rather than replacing it
+            final File destination = target.exists() ? target.toPath()
+                    .toRealPath().toFile() : target;
+            FileUtils.copyFile(blob, destination);
+        }
+    }
+
+    private static final PreImageStore INSTANCE = new PreImageStore(new File(
+            System.getProperty("java.io.tmpdir")));
+    private static final Logger LOGGER = HandlerUtils
+            .getLogger(PreImageStore.class);
+
+    /**
+     * Returns the store used by the undoable operations of this JVM.
+     *
+     * @return a non-<code>null</code> instance
+     */
+    public static PreImageStore getInstance() {
+        return INSTANCE;
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            hex.append(Character.forDigit(b >> 4 & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private long copies;
+    private File directory;
+    private final boolean linking = !"false".equalsIgnoreCase(System
+            .getProperty("roo.undo.link"));
+    private long links;
+    private File parent;
+    /** key: a copied blob, value: how many pre-images share it */
+    private final Map<File, Integer> references = new HashMap<File, Integer>();
+    /** Directories whose files couldn't be linked from the current store */
+    private final Set<File> unlinkableDirectories = new HashSet<File>();
+
+    private PreImageStore(final File parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Captures the current contents of the given file.
+     *
+     * @param file the file to capture (required; must be an existing file)
+     * @return a non-<code>null</code> pre-image, to be released once no
+     *         longer needed
+     * @throws IOException if the contents couldn't be captured
+     */
+    public synchronized PreImage capture(final File file) throws IOException {
+        Validate.notNull(file, "File required");
+        Validate.isTrue(file.isFile(), "Path '%s' must be a file", file);
+        final File store = getDirectory();
+        // Link to what a symbolic link resolves to, as that's what is
+        // replaced when the file is written (see AtomicFileWriter)
+        final Path source = file.toPath().toRealPath();
+        final File fileDirectory = source.toFile().getParentFile();
+        if (linking && !unlinkableDirectories.contains(fileDirectory)) {
+            final File link = new File(store, "link-" + links++);
+            try {
+                Files.createLink(link.toPath(), source);
+                return new PreImage(link, null);
+            }
+            catch (final IOException e) {
+                // e.g. a different file system
+                unlinkableDirectories.add(fileDirectory);
+                LOGGER.finest("Copying pre-images of files in '"
+                        + fileDirectory + "', as linking failed: " + e);
+            }
+            catch (final UnsupportedOperationException e) {
+                unlinkableDirectories.add(fileDirectory);
+            }
+        }
+        final File copy = new File(store, "copy-" + copies++);
+        final String hash;
+        try {
+            hash = copy(file, copy);
+        }
+        catch (final IOException e) {
+            copy.delete();
+            throw e;
+        }
+        final File blob = new File(store, hash);
+        final Integer count = references.get(blob);
+        if (count == null || !blob.isFile()) {
+            Files.move(copy.toPath(), blob.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            references.put(blob, 1);
+        }
+        else {
+            copy.delete();
+            references.put(blob, count + 1);
+        }
+        return new PreImage(blob, hash);
+    }
+
+    /**
+     * Copies the given file, keeping its last modified time.
+     *
+     * @return the SHA-1 hash of the contents copied
+     */
+    private String copy(final File file, final File copy) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // Closes the stream
+        FileUtils.copyInputStreamToFile(new DigestInputStream(
+                new FileInputStream(file), digest), copy);
+        copy.setLastModified(file.lastModified());
+        return toHex(digest.digest());
+    }
+
+    private File getDirectory() throws IOException {
+        if (directory == null || !directory.isDirectory()) {
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Unable to create directory '" + parent
+                        + "'");
+            }
+            directory = File.createTempFile("roo-undo", "", parent);
+            if (!directory.delete() || !directory.mkdir()) {
+                throw new IOException("Unable to create directory '"
+                        + directory + "'");
+            }
+            directory.deleteOnExit();
+            unlinkableDirectories.clear();
+        }
+        return directory;
+    }
+
+    /**
+     * Keeps the pre-images captured from now on in the given directory, which
+     * should be on the same file system as the project's files. Pre-images
+     * already captured are unaffected.
+     *
+     * @param parent the directory in which to create the store (required; is
+     *            created if necessary)
+     */
+    public synchronized void setParentDirectory(final File parent) {
+        Validate.notNull(parent, "Parent directory required");
+        if (!parent.equals(this.parent)) {
+            this.parent = parent;
+            directory = null;
+        }
+    }
+
+    private synchronized boolean release(final PreImage preImage) {
+        if (preImage.released) {
+            return true;
+        }
+        preImage.released = true;
+        if (preImage.hash != null) {
+            final Integer count = references.get(preImage.blob);
+            if (count != null && count > 1) {
+                references.put(preImage.blob, count - 1);
+                return true;
+            }
+            references.remove(preImage.blob);
+        }
+        if (preImage.blob.delete() || !preImage.blob.exists()) {
+            return true;
+        }
+        preImage.blob.deleteOnExit();
+        return false;
+    }
+}
@@ -4,8 +4,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
+import org.springframework.roo.file.undo.PreImageStore.PreImage;
 import org.springframework.roo.support.logging.HandlerUtils;
 
 /**
@@ -20,7 +20,7 @@ public class UpdateFile implements UndoableOperation {
             .getLogger(UpdateFile.class);
 
     private final File actual;
-    private final File backup;
+    private final PreImage preImage;
     private final FilenameResolver filenameResolver;
 
     /**
@@ -41,8 +41,7 @@ public class UpdateFile implements UndoableOperation {
         Validate.notNull(filenameResolver, "Filename resolver required");
         this.filenameResolver = filenameResolver;
         try {
-            backup = File.createTempFile("UpdateFile", "tmp");
-            FileUtils.copyFile(actual, backup);
+            preImage = PreImageStore.getInstance().capture(actual);
         }
         catch (final IOException ioe) {
             throw new IllegalStateException("Unable to make a backup of file '"
@@ -55,26 +54,24 @@ public class UpdateFile implements UndoableOperation {
     public void reset() {
         // Fix for ROO-1555
         try {
-            if (backup.delete()) {
+            if (preImage.release()) {
                 LOGGER.finest("Reset manage "
-                        + filenameResolver.getMeaningfulName(backup));
+                        + filenameResolver.getMeaningfulName(actual));
             }
             else {
-                backup.deleteOnExit();
                 LOGGER.fine("Reset failed "
-                        + filenameResolver.getMeaningfulName(backup));
+                        + filenameResolver.getMeaningfulName(actual));
             }
         }
         catch (final Throwable e) {
-            backup.deleteOnExit();
             LOGGER.fine("Reset failed "
-                    + filenameResolver.getMeaningfulName(backup));
+                    + filenameResolver.getMeaningfulName(actual));
         }
     }
 
     public boolean undo() {
         try {
-            FileUtils.copyFile(backup, actual);
+            preImage.restore(actual);
             LOGGER.fine("Undo manage "
                     + filenameResolver.getMeaningfulName(actual));
             return true;
@@ -84,5 +81,8 @@ public class UpdateFile implements UndoableOperation {
                     + filenameResolver.getMeaningfulName(actual));
             return false;
         }
+        finally {
+            preImage.release();
+        }
     }
 }
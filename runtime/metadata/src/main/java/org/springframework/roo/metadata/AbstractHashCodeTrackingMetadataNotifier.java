@@ -1,7 +1,7 @@
 package org.springframework.roo.metadata;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.apache.felix.scr.annotations.Component;
@@ -12,15 +12,24 @@ import org.osgi.service.component.ComponentContext;
 import org.springframework.roo.support.logging.HandlerUtils;
 
 /**
- * Allows a {@link MetadataProvider} or other class to track hash codes of
+ * Allows a {@link MetadataProvider} or other class to track fingerprints of
  * {@link MetadataItem}s and only invoke
  * {@link MetadataDependencyRegistry#notifyDownstream(String)} if there has been
  * an actual change since the last notification.
  * <p>
+ * Items that implement {@link FingerprintableMetadataItem} are compared by
+ * their {@link MetadataFingerprint}; any other items are compared by their
+ * {@link Object#hashCode()}.
+ * <p>
  * IMPORTANT: Before subclassing this class, ensure the {@link MetadataItem}s
  * that you will be presenting are all of the same type AND they provide a
- * reliable {@link Object#hashCode()} method. Failure to observe this
- * requirement will result in erroneous notifications.
+ * reliable fingerprint or {@link Object#hashCode()} method. Failure to observe
+ * this requirement will result in erroneous notifications.
+ * <p>
+ * When a {@link MetadataSnapshotService} is available, the tracked
+ * fingerprints are kept in it, and the stable ones survive a restart of the
+ * shell. Unchanged items then cause no notifications when they are first
+ * regenerated after the restart.
  * 
  * @author Ben Alex
  * @since 1.1
@@ -37,16 +46,17 @@ public abstract class AbstractHashCodeTrackingMetadataNotifier {
     	context = cContext.getBundleContext();
     }
 
-    private final Map<String, Integer> hashes = new HashMap<String, Integer>();
+    private volatile Map<String, MetadataFingerprint> fingerprints;
+    private final Object fingerprintsLock = new Object();
     
     protected MetadataDependencyRegistry metadataDependencyRegistry;
     protected MetadataService metadataService;
 
     /**
      * Notifies downstream dependencies of a change if and only if the passed
-     * metadata item has a different hash code than the existing metadata item.
-     * This is aimed at reducing needless notifications if nothing has actually
-     * changed since the last notification.
+     * metadata item has a different fingerprint than the existing metadata
+     * item. This is aimed at reducing needless notifications if nothing has
+     * actually changed since the last notification.
      * 
      * @param metadataItem the potentially-updated metadata item (required; must
      *            be a metadata item of the same class as all other items
@@ -56,15 +66,17 @@ public abstract class AbstractHashCodeTrackingMetadataNotifier {
     	
         final String instanceId = MetadataIdentificationUtils
                 .getMetadataInstance(metadataItem.getId());
-        final Integer existing = hashes.get(instanceId);
-        final int newHash = metadataItem.hashCode();
-        if (existing != null && newHash == existing) {
+        final Map<String, MetadataFingerprint> fingerprints = getFingerprints();
+        final MetadataFingerprint existing = fingerprints.get(instanceId);
+        final MetadataFingerprint newFingerprint = metadataItem instanceof FingerprintableMetadataItem ? ((FingerprintableMetadataItem) metadataItem)
+                .getFingerprint() : MetadataFingerprint.ofHashCode(metadataItem);
+        if (newFingerprint.equals(existing)) {
             // No need to notify
             return;
         }
         // To get this far, we need to notify and replace/add the metadata
-        // item's hash for future reference
-        hashes.put(instanceId, newHash);
+        // item's fingerprint for future reference
+        fingerprints.put(instanceId, newFingerprint);
 
         // Eagerly insert into the cache to so any recursive gets for this
         // metadata item will be returned successfully
@@ -75,6 +87,31 @@ public abstract class AbstractHashCodeTrackingMetadataNotifier {
         }
     }
     
+    /**
+     * Returns the tracked fingerprints; the map is shared by the threads that
+     * may produce metadata concurrently, so it supports concurrent access.
+     */
+    private Map<String, MetadataFingerprint> getFingerprints() {
+        Map<String, MetadataFingerprint> result = fingerprints;
+        if (result == null) {
+            synchronized (fingerprintsLock) {
+                result = fingerprints;
+                if (result == null) {
+                    final MetadataSnapshotService snapshotService = getMetadataSnapshotService();
+                    if (snapshotService != null) {
+                        result = snapshotService
+                                .getTrackedFingerprints(getClass().getName());
+                    }
+                    else {
+                        result = new ConcurrentHashMap<String, MetadataFingerprint>();
+                    }
+                    fingerprints = result;
+                }
+            }
+        }
+        return result;
+    }
+
     public MetadataDependencyRegistry getMetadataDependencyRegistry(){
     	if(metadataDependencyRegistry == null){
     		// Get all Services implement MetadataDependencyRegistry interface
@@ -98,6 +135,27 @@ public abstract class AbstractHashCodeTrackingMetadataNotifier {
     	
     }
     
+    public MetadataSnapshotService getMetadataSnapshotService(){
+    	// Get all Services implement MetadataSnapshotService interface
+    	try {
+    		ServiceReference<?>[] references = context.getAllServiceReferences(MetadataSnapshotService.class.getName(), null);
+    		
+    		if(references == null){
+    			return null;
+    		}
+    		
+    		for(ServiceReference<?> ref : references){
+    			return (MetadataSnapshotService) context.getService(ref);
+    		}
+    		
+    		return null;
+    		
+    	} catch (InvalidSyntaxException e) {
+    		LOGGER.warning("Cannot load MetadataSnapshotService on AbstractHashCodeTrackingNotifier.");
+    		return null;
+    	}
+    }
+    
     public MetadataService getMetadataService(){
     	if(metadataService == null){
     		// Get all Services implement MetadataService interface
@@ -1,20 +1,43 @@
 package org.springframework.roo.metadata;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedSet;
-import java.util.Stack;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Service;
+import org.springframework.roo.metadata.internal.LatencyHistogram;
+import org.springframework.roo.metadata.internal.MetadataTraceRecorder;
+import org.springframework.roo.metadata.internal.StandardMetadataProviderStatistic;
 import org.springframework.roo.metadata.internal.StandardMetadataTimingStatistic;
 
 /**
  * Default implementation of {@link MetadataLogger}.
+ * <p>
+ * Event and timer stacks are kept per thread, so metadata produced by several
+ * threads at once (see {@link MetadataService#setConcurrentMode(boolean)}) is
+ * timed and logged correctly. Stack entries are reused and statistics are
+ * kept in lock-free structures, so starting and stopping timers and recording
+ * statistics do not allocate or contend once a class has been seen.
+ * <p>
+ * For each metadata class this logger also keeps a {@link LatencyHistogram}
+ * per {@link MetadataOperation} and a counter per {@link MetadataCacheEvent}
+ * (see {@link #getProviderStatistics()}).
+ * <p>
+ * Binary trace recording is delegated to a {@link MetadataTraceRecorder};
+ * while it is disabled, {@link #recordTraceEvent} costs a single volatile
+ * read.
  * 
  * @author Ben Alex
  * @since 1.1.2
@@ -23,26 +46,73 @@ import org.springframework.roo.metadata.internal.StandardMetadataTimingStatistic
 @Component
 public class DefaultMetadataLogger implements MetadataLogger {
 
+    /**
+     * The statistics recorded for one metadata class.
+     */
+    private static class ProviderRecorder {
+        final AtomicLongArray counts = new AtomicLongArray(
+                MetadataCacheEvent.values().length);
+        final LatencyHistogram[] latencies = new LatencyHistogram[MetadataOperation
+                .values().length];
+
+        ProviderRecorder() {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    /**
+     * The event and timer stacks of one thread. Entries are reused, so that
+     * starting and stopping events and timers does not allocate.
+     */
+    private static class ThreadState {
+        int eventDepth;
+        long[] events = new long[16];
+        int timerDepth;
+        TimerEntry[] timers = new TimerEntry[0];
+
+        TimerEntry pushTimer() {
+            if (timerDepth == timers.length) {
+                timers = Arrays.copyOf(timers, timerDepth + 16);
+                for (int i = timerDepth; i < timers.length; i++) {
+                    timers[i] = new TimerEntry();
+                }
+            }
+            return timers[timerDepth++];
+        }
+    }
+
     private static class TimerEntry {
         long clockStartedOrResumed; // nanos
         long duration; // nanos
         String responsibleClass;
     }
 
-    private long eventNumber = 0;
-    private final Stack<Long> eventStack = new Stack<Long>();
+    /** The total time and invocations of a responsible class */
+    private static class Timing {
+        final AtomicLong invocations = new AtomicLong();
+        final AtomicLong nanoseconds = new AtomicLong();
+    }
+
+    private final AtomicLong eventNumber = new AtomicLong();
     private FileWriter fileLog;
-    /**
-     * key: responsible class, value: number of times a timing record was
-     * created for the responsible class
-     */
-    private final Map<String, Long> invocations = new HashMap<String, Long>();
     private final Class<DefaultMetadataLogger> mutex = DefaultMetadataLogger.class;
-    private final Stack<TimerEntry> timerStack = new Stack<TimerEntry>();
-    /** key: responsible class, value: nanos occupied */
-    private final Map<String, Long> timings = new HashMap<String, Long>();
+    /** key: metadata class */
+    private final ConcurrentMap<String, ProviderRecorder> providers = new ConcurrentHashMap<String, ProviderRecorder>();
+    private volatile MetadataTraceRecorder recorder;
+    /** key: MID, value: nanoseconds */
+    private final ConcurrentMap<String, Long> regenerationTimes = new ConcurrentHashMap<String, Long>();
+    private final ThreadLocal<ThreadState> threadStates = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState();
+        }
+    };
+    /** key: responsible class */
+    private final ConcurrentMap<String, Timing> timings = new ConcurrentHashMap<String, Timing>();
 
-    private int traceLevel = 0;
+    private volatile int traceLevel = 0;
 
     public DefaultMetadataLogger() {
         if (System.getProperty("roo.metadata.trace") != null) {
@@ -50,13 +120,59 @@ public class DefaultMetadataLogger implements MetadataLogger {
         }
     }
 
+    private ProviderRecorder getProviderRecorder(final String metadataClass) {
+        ProviderRecorder recorder = providers.get(metadataClass);
+        if (recorder == null) {
+            final ProviderRecorder newRecorder = new ProviderRecorder();
+            recorder = providers.putIfAbsent(metadataClass, newRecorder);
+            if (recorder == null) {
+                recorder = newRecorder;
+            }
+        }
+        return recorder;
+    }
+
+    public SortedSet<MetadataProviderStatistic> getProviderStatistics() {
+        final SortedSet<MetadataProviderStatistic> result = new TreeSet<MetadataProviderStatistic>();
+        for (final Map.Entry<String, ProviderRecorder> entry : providers
+                .entrySet()) {
+            final ProviderRecorder recorder = entry.getValue();
+            final Map<MetadataCacheEvent, Long> counts = new EnumMap<MetadataCacheEvent, Long>(
+                    MetadataCacheEvent.class);
+            for (final MetadataCacheEvent event : MetadataCacheEvent.values()) {
+                counts.put(event, recorder.counts.get(event.ordinal()));
+            }
+            final Map<MetadataOperation, LatencyHistogram> histograms = new EnumMap<MetadataOperation, LatencyHistogram>(
+                    MetadataOperation.class);
+            for (final MetadataOperation operation : MetadataOperation
+                    .values()) {
+                histograms.put(operation,
+                        recorder.latencies[operation.ordinal()]);
+            }
+            result.add(new StandardMetadataProviderStatistic(entry.getKey(),
+                    counts, histograms));
+        }
+        return result;
+    }
+
+    public Map<String, Long> getRegenerationTimes() {
+        return new HashMap<String, Long>(regenerationTimes);
+    }
+
+    public String getResponsibleClass() {
+        final ThreadState state = threadStates.get();
+        if (state.timerDepth == 0) {
+            return null;
+        }
+        return state.timers[state.timerDepth - 1].responsibleClass;
+    }
+
     public SortedSet<MetadataTimingStatistic> getTimings() {
         final SortedSet<MetadataTimingStatistic> result = new TreeSet<MetadataTimingStatistic>();
-        synchronized (mutex) {
-            for (final String key : timings.keySet()) {
-                result.add(new StandardMetadataTimingStatistic(key, timings
-                        .get(key), invocations.get(key)));
-            }
+        for (final Map.Entry<String, Timing> entry : timings.entrySet()) {
+            result.add(new StandardMetadataTimingStatistic(entry.getKey(),
+                    entry.getValue().nanoseconds.get(), entry.getValue()
+                            .invocations.get()));
         }
         return result;
     }
@@ -65,15 +181,20 @@ public class DefaultMetadataLogger implements MetadataLogger {
         return traceLevel;
     }
 
+    public boolean isTraceRecording() {
+        return recorder != null;
+    }
+
     public void log(final String message) {
         Validate.notBlank(message, "Message to log required");
-        Validate.isTrue(eventStack.size() > 0,
+        final ThreadState state = threadStates.get();
+        Validate.isTrue(state.eventDepth > 0,
                 "Event stack is empty, so no logging should have been requested at this time");
         final StringBuilder sb = new StringBuilder("00000000");
         // Get the current event ID off the stack
-        final Long eventIdentifier = eventStack.get(eventStack.size() - 1);
+        final long eventIdentifier = state.events[state.eventDepth - 1];
         // Figure out the indentation level
-        final int indentationLevel = eventStack.size();
+        final int indentationLevel = state.eventDepth;
         final String hex = Long.toHexString(eventIdentifier);
         sb.replace(8 - hex.length(), 8, hex);
         for (int i = 0; i < indentationLevel; i++) {
@@ -84,23 +205,56 @@ public class DefaultMetadataLogger implements MetadataLogger {
     }
 
     private void logToFile(final String line) {
-        if (fileLog == null) {
-            try {
-                // Overwrite existing (don't append)
-                fileLog = new FileWriter("metadata.log", false);
+        synchronized (mutex) {
+            if (fileLog == null) {
+                try {
+                    // Overwrite existing (don't append)
+                    fileLog = new FileWriter("metadata.log", false);
+                }
+                catch (final IOException ignore) {
+                }
+                if (fileLog == null) {
+                    // Still failing, so give up
+                    return;
+                }
             }
-            catch (final IOException ignore) {
+            try {
+                fileLog.write(line + "\n"); // Unix line endings only from Roo
+                fileLog.flush(); // So tail -f will show it's working
             }
-            if (fileLog == null) {
-                // Still failing, so give up
-                return;
+            catch (final IOException ignoreIt) {
             }
         }
-        try {
-            fileLog.write(line + "\n"); // Unix line endings only from Roo
-            fileLog.flush(); // So tail -f will show it's working
+    }
+
+    public void recordCacheEvent(final String metadataClass,
+            final MetadataCacheEvent event) {
+        getProviderRecorder(metadataClass).counts.incrementAndGet(event
+                .ordinal());
+    }
+
+    public void recordLatency(final String metadataClass,
+            final MetadataOperation operation, final long nanoseconds) {
+        getProviderRecorder(metadataClass).latencies[operation.ordinal()]
+                .record(nanoseconds);
+    }
+
+    public void recordRegenerationTime(
+            final String metadataIdentificationString, final long nanoseconds) {
+        Validate.notBlank(metadataIdentificationString,
+                "Metadata identification string required");
+        if (traceLevel > 0 || recorder != null) {
+            regenerationTimes.put(metadataIdentificationString, nanoseconds);
         }
-        catch (final IOException ignoreIt) {
+    }
+
+    public void recordTraceEvent(final MetadataTraceEvent event,
+            final String metadataIdentificationString,
+            final String relatedIdentificationString) {
+        final MetadataTraceRecorder current = recorder;
+        if (current != null) {
+            current.record(event, metadataIdentificationString,
+                    relatedIdentificationString, threadStates.get().timerDepth);
         }
     }
 
@@ -109,64 +263,86 @@ public class DefaultMetadataLogger implements MetadataLogger {
     }
 
     public void startEvent() {
-        eventNumber++;
-        eventStack.push(eventNumber);
+        final ThreadState state = threadStates.get();
+        if (state.eventDepth == state.events.length) {
+            state.events = Arrays.copyOf(state.events, state.eventDepth << 1);
+        }
+        state.events[state.eventDepth++] = eventNumber.incrementAndGet();
     }
 
     public void startTimer(final String responsibleClass) {
         Validate.notBlank(responsibleClass, "Responsible class required");
         final long now = System.nanoTime();
-        if (timerStack.size() > 0) {
+        final ThreadState state = threadStates.get();
+        if (state.timerDepth > 0) {
             // There is an existing timer on the stack, so we need to stop the
             // clock for it
-            final TimerEntry timerEntry = timerStack.get(timerStack.size() - 1);
+            final TimerEntry timerEntry = state.timers[state.timerDepth - 1];
             // Add the duration it ran to any existing duration
             timerEntry.duration = timerEntry.duration + now
                     - timerEntry.clockStartedOrResumed;
             timerEntry.clockStartedOrResumed = now;
         }
         // Start a new timer
-        final TimerEntry timerEntry = new TimerEntry();
+        final TimerEntry timerEntry = state.pushTimer();
         timerEntry.responsibleClass = responsibleClass;
         timerEntry.clockStartedOrResumed = now;
-        timerStack.push(timerEntry);
+        timerEntry.duration = 0;
+    }
+
+    public synchronized void startTraceRecording(final File file,
+            final int capacity) {
+        stopTraceRecording();
+        try {
+            recorder = new MetadataTraceRecorder(file, capacity);
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException("Unable to record metadata trace to '"
+                    + file + "'", e);
+        }
     }
 
     public void stopEvent() {
+        final ThreadState state = threadStates.get();
         Validate.isTrue(
-                eventStack.size() > 0,
+                state.eventDepth > 0,
                 "Event stack is empty, indicating a mismatched number of timer start/stop calls");
-        eventStack.pop();
+        state.eventDepth--;
     }
 
-    public void stopTimer() {
+    public long stopTimer() {
+        final ThreadState state = threadStates.get();
         Validate.isTrue(
-                timerStack.size() > 0,
+                state.timerDepth > 0,
                 "Timer stack is empty, indicating a mismatched number of timer start/stop calls");
         final long now = System.nanoTime();
-        final TimerEntry timerEntry = timerStack.pop();
+        final TimerEntry timerEntry = state.timers[--state.timerDepth];
         timerEntry.duration = timerEntry.duration + now
                 - timerEntry.clockStartedOrResumed;
         final String responsibleClass = timerEntry.responsibleClass;
+        timerEntry.responsibleClass = null;
 
         // Update the timings summary
-        synchronized (mutex) {
-            Long existingSummary = timings.get(responsibleClass);
-            if (existingSummary == null) {
-                existingSummary = timerEntry.duration;
-            }
-            else {
-                existingSummary = existingSummary + timerEntry.duration;
+        Timing timing = timings.get(responsibleClass);
+        if (timing == null) {
+            final Timing newTiming = new Timing();
+            timing = timings.putIfAbsent(responsibleClass, newTiming);
+            if (timing == null) {
+                timing = newTiming;
             }
-            timings.put(responsibleClass, existingSummary);
+        }
+        timing.nanoseconds.addAndGet(timerEntry.duration);
+        timing.invocations.incrementAndGet();
+        return timerEntry.duration;
+    }
 
-            // Update the invocation count
-            Long existingInvocations = invocations.get(responsibleClass);
-            if (existingInvocations == null) {
-                existingInvocations = 0L;
-            }
-            existingInvocations++;
-            invocations.put(responsibleClass, existingInvocations);
+    public synchronized File stopTraceRecording() {
+        final MetadataTraceRecorder current = recorder;
+        if (current == null) {
+            return null;
         }
+        recorder = null;
+        current.close();
+        return current.getFile();
     }
 }
@@ -2,12 +2,15 @@ package org.springframework.roo.metadata;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.felix.scr.annotations.Component;
@@ -23,9 +26,21 @@ import org.springframework.roo.metadata.internal.MetadataDependencyRegistryTrack
 /**
  * Default implementation of {@link MetadataService}.
  * <p>
- * This implementation is not thread safe. It should only be accessed by a
- * single thread at a time. This is enforced by the process manager semantics,
- * so we avoid the cost of re-synchronization here.
+ * By default this implementation serializes every request through a single
+ * mutex, so only one thread produces metadata at a time. When the concurrent
+ * mode is enabled (see {@link #setConcurrentMode(boolean)} or the
+ * <code>roo.metadata.concurrent</code> system property), the global mutex is
+ * not used; instead each metadata identifier is claimed by the thread that is
+ * producing it, so independent {@link MetadataProvider#get(String)} calls can
+ * run in parallel. A request for an identifier that is being produced by
+ * another thread waits for that thread, unless doing so would close a cycle of
+ * waiting threads, in which case it is blocked and retried exactly like a
+ * recursive request within a single thread.
+ * <p>
+ * Blocked requests are retried once the thread's outermost request has
+ * completed. Retries run in rounds, in the order the requests were blocked;
+ * any request blocked during a round is retried in the next one, so retrying
+ * never nests deeper than a single request.
  * 
  * @author Ben Alex
  * @author Enrique Ruiz at DISID Corporation S.L.
@@ -37,24 +52,60 @@ import org.springframework.roo.metadata.internal.MetadataDependencyRegistryTrack
 public class DefaultMetadataService extends AbstractMetadataCache implements
         MetadataService {
 
+    /**
+     * The state of the metadata requests being processed by one thread.
+     */
+    private static class RequestContext {
+        // Ordered to assist output "stacks" which show the order of requests
+        final Set<String> activeRequests = new LinkedHashSet<String>();
+        // Ordered to help us verify correct operation through logs
+        // (predictable ordering)
+        final Set<String> keysToRetry = new LinkedHashSet<String>();
+        // Whether this thread is already processing retries further up the
+        // stack
+        boolean retrying;
+    }
+
+    /**
+     * The outcome of trying to claim a metadata identifier for production.
+     */
+    private enum ProductionClaim {
+        ACQUIRED, AWAITED, BLOCKED
+    }
+
+    /**
+     * The maximum number of retry rounds after one request, in case the
+     * retried requests keep blocking each other
+     */
+    private static final int MAX_RETRY_ROUNDS = 100;
+
     @Reference private MetadataLogger metadataLogger;
 
     // Request control
-    // List to assist output "stacks"which show the order of requests
-    private final List<String> activeRequests = new ArrayList<String>();
-    private int cacheEvictions = 0;
-    private int cacheHits = 0;
-    private int cacheMisses = 0;
-    private int cachePuts = 0;
-    // List to help us verify correct operation through logs (predictable
-    // ordering)
-    private final List<String> keysToRetry = new ArrayList<String>();
-    // Mutex
-    private final Object lock = new Object();
-    private final Map<String, MetadataProvider> providerMap = new HashMap<String, MetadataProvider>();
-    private final Set<MetadataProvider> providers = new HashSet<MetadataProvider>();
-    private int recursiveGets = 0;
-    private int validGets = 0;
+    private final ThreadLocal<RequestContext> requestContext = new ThreadLocal<RequestContext>() {
+        @Override
+        protected RequestContext initialValue() {
+            return new RequestContext();
+        }
+    };
+    private final AtomicInteger cacheEvictions = new AtomicInteger();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger cacheMisses = new AtomicInteger();
+    private final AtomicInteger cachePuts = new AtomicInteger();
+    private volatile boolean concurrentMode = Boolean
+            .getBoolean("roo.metadata.concurrent");
+    // Mutex used in serial mode
+    private final ReentrantLock lock = new ReentrantLock();
+    // Concurrent mode: key: MID being produced, value: producing thread
+    private final Map<String, Thread> producers = new HashMap<String, Thread>();
+    // Concurrent mode: key: waiting thread, value: MID it is waiting for
+    private final Map<Thread, String> awaitedProducts = new HashMap<Thread, String>();
+    private final Map<String, MetadataProvider> providerMap = new ConcurrentHashMap<String, MetadataProvider>();
+    private final Set<MetadataProvider> providers = new CopyOnWriteArraySet<MetadataProvider>();
+    private final AtomicInteger maxRetryDepth = new AtomicInteger();
+    private final AtomicInteger recursiveGets = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicInteger validGets = new AtomicInteger();
 
     protected MetadataDependencyRegistryTracker registryTracker = null;
 
@@ -83,7 +134,8 @@ public class DefaultMetadataService extends AbstractMetadataCache implements
     }
 
     protected void bindMetadataProvider(final MetadataProvider mp) {
-        synchronized (lock) {
+        lock.lock();
+        try {
             Validate.notNull(mp, "Metadata provider required");
             final String mid = mp.getProvidesType();
             Validate.isTrue(
@@ -97,11 +149,58 @@ public class DefaultMetadataService extends AbstractMetadataCache implements
             providers.add(mp);
             providerMap.put(mid, mp);
         }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tries to claim the given metadata identifier for production by the
+     * current thread. Only used in concurrent mode.
+     * 
+     * @param metadataIdentificationString the MID to produce
+     * @return {@link ProductionClaim#ACQUIRED} if the current thread may
+     *         produce the item, {@link ProductionClaim#AWAITED} if another
+     *         thread has just finished producing it, or
+     *         {@link ProductionClaim#BLOCKED} if waiting for the producing
+     *         thread would deadlock
+     */
+    private ProductionClaim claimProduction(
+            final String metadataIdentificationString) {
+        final Thread current = Thread.currentThread();
+        synchronized (producers) {
+            final Thread owner = producers.get(metadataIdentificationString);
+            if (owner == null) {
+                producers.put(metadataIdentificationString, current);
+                return ProductionClaim.ACQUIRED;
+            }
+            if (owner == current || isWaitingFor(owner, current)) {
+                return ProductionClaim.BLOCKED;
+            }
+            awaitedProducts.put(current, metadataIdentificationString);
+            try {
+                while (producers.containsKey(metadataIdentificationString)) {
+                    producers.wait();
+                }
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return ProductionClaim.BLOCKED;
+            }
+            finally {
+                awaitedProducts.remove(current);
+            }
+            return ProductionClaim.AWAITED;
+        }
     }
 
     @Override
     public void evict(final String metadataIdentificationString) {
-        synchronized (lock) {
+        final boolean serial = !concurrentMode;
+        if (serial) {
+            lock.lock();
+        }
+        try {
             // Clear my own cache (which also verifies the argument is valid at
             // the same time)
             super.evict(metadataIdentificationString);
@@ -119,11 +218,20 @@ public class DefaultMetadataService extends AbstractMetadataCache implements
                 }
             }
         }
+        finally {
+            if (serial) {
+                lock.unlock();
+            }
+        }
     }
 
     @Override
     public void evictAll() {
-        synchronized (lock) {
+        final boolean serial = !concurrentMode;
+        if (serial) {
+            lock.lock();
+        }
+        try {
             // Clear my own cache
             super.evictAll();
 
@@ -135,6 +243,11 @@ public class DefaultMetadataService extends AbstractMetadataCache implements
                 }
             }
         }
+        finally {
+            if (serial) {
+                lock.unlock();
+            }
+        }
     }
 
     public MetadataItem evictAndGet(final String metadataIdentificationString) {
@@ -158,160 +271,47 @@ public class DefaultMetadataService extends AbstractMetadataCache implements
                 "Metadata identification string '%s' does not identify a metadata instance",
                 metadataIdentificationString);
 
-        synchronized (lock) {
-            validGets++;
-
-            try {
-                metadataLogger.startEvent();
-
-                // Do some cache eviction if the caller requested it
-                if (evictCache) {
-                    evict(metadataIdentificationString);
-                    if (metadataLogger.getTraceLevel() > 0) {
-                        metadataLogger.log("Evicting "
-                                + metadataIdentificationString);
-                    }
-                    cacheEvictions++;
-                }
-
-                // We can use the cache even for a recursive get (unless of
-                // course the caller has prevented it)
-                if (cacheRetrievalAllowed) {
-                    // Try the cache first
-                    final MetadataItem result = getFromCache(metadataIdentificationString);
-                    if (result != null) {
-                        cacheHits++;
-                        if (metadataLogger.getTraceLevel() > 0) {
-                            metadataLogger.log("Cache hit "
-                                    + metadataIdentificationString);
-                        }
-                        return result;
-                    }
-                }
-
-                if (metadataLogger.getTraceLevel() > 0) {
-                    metadataLogger.log("Cache miss "
-                            + metadataIdentificationString);
-                }
-                cacheMisses++;
-
-                // Determine if this MID was already requested earlier. We need
-                // to stop these infinite requests from occurring.
-                if (activeRequests.contains(metadataIdentificationString)) {
-                    recursiveGets++;
-                    if (!keysToRetry.contains(metadataIdentificationString)) {
-                        if (metadataLogger.getTraceLevel() > 0) {
-                            metadataLogger.log("Blocked recursive request for "
-                                    + metadataIdentificationString);
-                        }
-                        keysToRetry.add(metadataIdentificationString);
-                    }
-                    return null;
-                }
-
-                // Get the destination
-                final String mdClassId = MetadataIdentificationUtils
-                        .getMetadataClassId(metadataIdentificationString);
-                final MetadataProvider p = providerMap.get(mdClassId);
-                Validate.notNull(
-                        p,
-                        "No metadata provider is currently registered to provide metadata for identifier '%s' (class '%s')",
-                        metadataIdentificationString, mdClassId);
-
-                // Infinite loop management
-                activeRequests.add(metadataIdentificationString);
-
-                // Obtain the item
-                if (metadataLogger.getTraceLevel() > 0) {
-                    metadataLogger.log("Get " + metadataIdentificationString
-                            + " from " + p.getClass().getName());
-                }
-                MetadataItem result = null;
-                try {
-                    metadataLogger.startTimer(p.getClass().getName());
-                    result = p.get(metadataIdentificationString);
-                }
-                finally {
-                    metadataLogger.stopTimer();
-                }
-
-                // If the item isn't available, evict it from the cache (unless
-                // we did so at the start of the method already)
-                if (result == null && !evictCache) {
-                    if (metadataLogger.getTraceLevel() > 0) {
-                        metadataLogger.log("Evicting unavailable item "
-                                + metadataIdentificationString);
-                    }
-                    evict(metadataIdentificationString);
-                    cacheEvictions++;
-                }
-
-                // Put into the cache, provided it isn't null
-                if (result != null) {
-                    if (metadataLogger.getTraceLevel() > 0) {
-                        metadataLogger.log("Caching "
-                                + metadataIdentificationString);
-                    }
-                    super.put(result);
-                    cachePuts++;
-                }
-
-                activeRequests.remove(metadataIdentificationString);
+        final boolean serial = !concurrentMode;
+        if (serial) {
+            lock.lock();
+        }
+        try {
+            return produce(metadataIdentificationString, evictCache,
+                    cacheRetrievalAllowed, serial);
+        }
+        finally {
+            if (serial) {
+                lock.unlock();
+            }
+        }
+    }
 
-                if (metadataLogger.getTraceLevel() > 0) {
-                    metadataLogger.log("Returning "
-                            + metadataIdentificationString);
-                }
+    public boolean isConcurrentMode() {
+        return concurrentMode;
+    }
 
-                return result;
+    /**
+     * Indicates whether the given thread is (transitively) waiting for an
+     * item being produced by the target thread. The caller must hold the
+     * {@link #producers} monitor.
+     */
+    private boolean isWaitingFor(final Thread waiter, final Thread target) {
+        Thread thread = waiter;
+        // Bounded by the number of waiting threads, in case of a stale chain
+        for (int i = 0; i <= awaitedProducts.size(); i++) {
+            final String awaited = awaitedProducts.get(thread);
+            if (awaited == null) {
+                return false;
             }
-            catch (final Exception e) {
-                activeRequests.remove(metadataIdentificationString);
-                throw new IllegalStateException(e);
+            thread = producers.get(awaited);
+            if (thread == null) {
+                return false;
             }
-            finally {
-                // We use another try..finally block as we want to ensure
-                // exceptions don't prevent our metadataLogger.stopEvent()
-                try {
-                    // Have we processed all requests? If so, handle any retries
-                    // we recorded
-                    if (activeRequests.isEmpty()) {
-                        final List<String> thisRetry = new ArrayList<String>();
-                        thisRetry.addAll(keysToRetry);
-                        keysToRetry.clear();
-                        if (metadataLogger.getTraceLevel() > 0
-                                && thisRetry.size() > 0) {
-                            metadataLogger.log(thisRetry.size()
-                                    + " keys to retry: " + thisRetry);
-                        }
-                        for (final String retryMid : thisRetry) {
-                            // Important: we should not evict any prior version
-                            // from the cache (an interim version is
-                            // acceptable).
-                            // We discard the result of the get; this is purely
-                            // to facilitate updating metadata stored in memory
-                            // and on-disk
-                            if (metadataLogger.getTraceLevel() > 0) {
-                                metadataLogger.log("Retrying " + retryMid);
-                            }
-                        	if (ObjectUtils.equals(retryMid, metadataIdentificationString)) {
-                        		// Avoid infinite recursion loop
-                        		continue;
-                        	}
-                            getInternal(retryMid, false, false);
-                        }
-                        if (metadataLogger.getTraceLevel() > 0
-                                && thisRetry.size() > 0) {
-                            metadataLogger.log("Retry group completed "
-                                    + metadataIdentificationString);
-                        }
-                    }
-                }
-                finally {
-                    metadataLogger.stopEvent();
-                }
+            if (thread == target) {
+                return true;
             }
         }
+        return false;
     }
 
     public void notify(final String upstreamDependency,
@@ -327,7 +327,11 @@ public class DefaultMetadataService extends AbstractMetadataCache implements
 
         MetadataDependencyRegistry registry = this.registryTracker.getService();
 
-        synchronized (lock) {
+        final boolean serial = !concurrentMode;
+        if (serial) {
+            lock.lock();
+        }
+        try {
             // Get the destination
             final String mdClassId = MetadataIdentificationUtils
                     .getMetadataClassId(downstreamDependency);
@@ -361,33 +365,339 @@ public class DefaultMetadataService extends AbstractMetadataCache implements
                 registry.notifyDownstream(downstreamDependency);
             }
         }
+        finally {
+            if (serial) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private MetadataItem produce(final String metadataIdentificationString,
+            final boolean evictCache, final boolean cacheRetrievalAllowed,
+            final boolean serial) {
+        validGets.incrementAndGet();
+        final RequestContext context = requestContext.get();
+        final String metadataClass = MetadataIdentificationUtils
+                .getMetadataClass(metadataIdentificationString);
+        boolean claimed = false;
+
+        try {
+            metadataLogger.startEvent();
+
+            // Do some cache eviction if the caller requested it
+            if (evictCache) {
+                evict(metadataIdentificationString);
+                if (metadataLogger.getTraceLevel() > 0) {
+                    metadataLogger.log("Evicting "
+                            + metadataIdentificationString);
+                }
+                cacheEvictions.incrementAndGet();
+                metadataLogger.recordCacheEvent(metadataClass,
+                        MetadataCacheEvent.EVICTION);
+                metadataLogger.recordTraceEvent(MetadataTraceEvent.EVICT,
+                        metadataIdentificationString, null);
+            }
+
+            // We can use the cache even for a recursive get (unless of
+            // course the caller has prevented it)
+            if (cacheRetrievalAllowed) {
+                // Try the cache first
+                final MetadataItem result = getFromCache(metadataIdentificationString);
+                if (result != null) {
+                    cacheHits.incrementAndGet();
+                    metadataLogger.recordCacheEvent(metadataClass,
+                            MetadataCacheEvent.HIT);
+                    metadataLogger.recordTraceEvent(MetadataTraceEvent.CACHE_HIT,
+                            metadataIdentificationString, null);
+                    if (metadataLogger.getTraceLevel() > 0) {
+                        metadataLogger.log("Cache hit "
+                                + metadataIdentificationString);
+                    }
+                    return result;
+                }
+            }
+
+            if (metadataLogger.getTraceLevel() > 0) {
+                metadataLogger.log("Cache miss "
+                        + metadataIdentificationString);
+            }
+            cacheMisses.incrementAndGet();
+            metadataLogger.recordCacheEvent(metadataClass,
+                    MetadataCacheEvent.MISS);
+            metadataLogger.recordTraceEvent(MetadataTraceEvent.CACHE_MISS,
+                    metadataIdentificationString, null);
+
+            // Determine if this MID was already requested earlier. We need
+            // to stop these infinite requests from occurring. In concurrent
+            // mode the same applies to a MID whose producing thread is
+            // (indirectly) waiting for this thread.
+            boolean blocked = context.activeRequests
+                    .contains(metadataIdentificationString);
+            while (!blocked && !serial && !claimed) {
+                switch (claimProduction(metadataIdentificationString)) {
+                case ACQUIRED:
+                    claimed = true;
+                    break;
+                case AWAITED:
+                    // Another thread has just produced it
+                    if (cacheRetrievalAllowed) {
+                        final MetadataItem result = getFromCache(metadataIdentificationString);
+                        if (result != null) {
+                            cacheHits.incrementAndGet();
+                            metadataLogger.recordCacheEvent(metadataClass,
+                                    MetadataCacheEvent.HIT);
+                            metadataLogger.recordTraceEvent(MetadataTraceEvent.CACHE_HIT,
+                                    metadataIdentificationString, null);
+                            return result;
+                        }
+                    }
+                    break;
+                default:
+                    blocked = true;
+                }
+            }
+            if (blocked) {
+                recursiveGets.incrementAndGet();
+                metadataLogger.recordCacheEvent(metadataClass,
+                        MetadataCacheEvent.RECURSIVE_GET);
+                metadataLogger.recordTraceEvent(MetadataTraceEvent.BLOCKED,
+                        metadataIdentificationString, null);
+                if (!context.keysToRetry
+                        .contains(metadataIdentificationString)) {
+                    if (metadataLogger.getTraceLevel() > 0) {
+                        metadataLogger.log("Blocked recursive request for "
+                                + metadataIdentificationString);
+                    }
+                    context.keysToRetry.add(metadataIdentificationString);
+                }
+                return null;
+            }
+
+            // Get the destination
+            final String mdClassId = MetadataIdentificationUtils
+                    .getMetadataClassId(metadataIdentificationString);
+            final MetadataProvider p = providerMap.get(mdClassId);
+            Validate.notNull(
+                    p,
+                    "No metadata provider is currently registered to provide metadata for identifier '%s' (class '%s')",
+                    metadataIdentificationString, mdClassId);
+
+            // Infinite loop management
+            context.activeRequests.add(metadataIdentificationString);
+
+            // Obtain the item
+            if (metadataLogger.getTraceLevel() > 0) {
+                metadataLogger.log("Get " + metadataIdentificationString
+                        + " from " + p.getClass().getName());
+            }
+            MetadataItem result = null;
+            final long started = System.nanoTime();
+            metadataLogger.recordTraceEvent(MetadataTraceEvent.GET_START,
+                    metadataIdentificationString, null);
+            try {
+                metadataLogger.startTimer(p.getClass().getName());
+                result = p.get(metadataIdentificationString);
+            }
+            finally {
+                metadataLogger.recordRegenerationTime(
+                        metadataIdentificationString,
+                        metadataLogger.stopTimer());
+                metadataLogger.recordLatency(metadataClass,
+                        MetadataOperation.GET, System.nanoTime() - started);
+                metadataLogger.recordTraceEvent(MetadataTraceEvent.GET_END,
+                        metadataIdentificationString, null);
+            }
+
+            // If the item isn't available, evict it from the cache (unless
+            // we did so at the start of the method already)
+            if (result == null && !evictCache) {
+                if (metadataLogger.getTraceLevel() > 0) {
+                    metadataLogger.log("Evicting unavailable item "
+                            + metadataIdentificationString);
+                }
+                evict(metadataIdentificationString);
+                cacheEvictions.incrementAndGet();
+                metadataLogger.recordCacheEvent(metadataClass,
+                        MetadataCacheEvent.EVICTION);
+                metadataLogger.recordTraceEvent(MetadataTraceEvent.EVICT,
+                        metadataIdentificationString, null);
+            }
+
+            // Put into the cache, provided it isn't null
+            if (result != null) {
+                if (metadataLogger.getTraceLevel() > 0) {
+                    metadataLogger.log("Caching "
+                            + metadataIdentificationString);
+                }
+                super.put(result);
+                cachePuts.incrementAndGet();
+            }
+
+            context.activeRequests.remove(metadataIdentificationString);
+
+            if (metadataLogger.getTraceLevel() > 0) {
+                metadataLogger.log("Returning "
+                        + metadataIdentificationString);
+            }
+
+            return result;
+        }
+        catch (final Exception e) {
+            context.activeRequests.remove(metadataIdentificationString);
+            throw new IllegalStateException(e);
+        }
+        finally {
+            if (claimed) {
+                releaseProduction(metadataIdentificationString);
+            }
+            // We use another try..finally block as we want to ensure
+            // exceptions don't prevent our metadataLogger.stopEvent()
+            try {
+                // Have we processed all requests? If so, handle any retries
+                // we recorded (unless we're one of them)
+                if (context.activeRequests.isEmpty() && !context.retrying) {
+                    retry(context, metadataIdentificationString, serial);
+                }
+            }
+            finally {
+                metadataLogger.stopEvent();
+            }
+        }
+    }
+
+    /**
+     * Retries the requests blocked while producing the given item, round by
+     * round, until none are blocked.
+     * 
+     * @param context the current thread's requests (required)
+     * @param metadataIdentificationString the item just produced, which is not
+     *            retried straight away
+     * @param serial whether the global mutex is held
+     */
+    private void retry(final RequestContext context,
+            final String metadataIdentificationString, final boolean serial) {
+        context.keysToRetry.remove(metadataIdentificationString);
+        context.retrying = true;
+        int round = 0;
+        try {
+            while (!context.keysToRetry.isEmpty()) {
+                if (round == MAX_RETRY_ROUNDS) {
+                    if (metadataLogger.getTraceLevel() > 0) {
+                        metadataLogger.log("Abandoning "
+                                + context.keysToRetry.size()
+                                + " keys to retry after " + round + " rounds");
+                    }
+                    context.keysToRetry.clear();
+                    break;
+                }
+                round++;
+                final List<String> thisRetry = new ArrayList<String>(
+                        context.keysToRetry);
+                context.keysToRetry.clear();
+                if (metadataLogger.getTraceLevel() > 0) {
+                    metadataLogger.log(thisRetry.size() + " keys to retry: "
+                            + thisRetry);
+                }
+                for (final String retryMid : thisRetry) {
+                    // Important: we should not evict any prior version from
+                    // the cache (an interim version is acceptable).
+                    // We discard the result of the get; this is purely to
+                    // facilitate updating metadata stored in memory and
+                    // on-disk
+                    if (metadataLogger.getTraceLevel() > 0) {
+                        metadataLogger.log("Retrying " + retryMid);
+                    }
+                    retries.incrementAndGet();
+                    metadataLogger.recordCacheEvent(
+                            MetadataIdentificationUtils
+                                    .getMetadataClass(retryMid),
+                            MetadataCacheEvent.RETRY);
+                    produce(retryMid, false, false, serial);
+                    // Just produced, so no need to retry it again if it was
+                    // blocked in the meantime (avoids an infinite loop)
+                    context.keysToRetry.remove(retryMid);
+                }
+                if (metadataLogger.getTraceLevel() > 0) {
+                    metadataLogger.log("Retry group completed "
+                            + metadataIdentificationString);
+                }
+            }
+        }
+        finally {
+            context.retrying = false;
+            int deepest = maxRetryDepth.get();
+            while (round > deepest
+                    && !maxRetryDepth.compareAndSet(deepest, round)) {
+                deepest = maxRetryDepth.get();
+            }
+        }
     }
 
     @Override
     public void put(final MetadataItem metadataItem) {
         super.put(metadataItem);
-        cachePuts++;
+        cachePuts.incrementAndGet();
+    }
+
+    /**
+     * Releases a metadata identifier claimed by
+     * {@link #claimProduction(String)} and wakes up any waiting threads.
+     */
+    private void releaseProduction(final String metadataIdentificationString) {
+        synchronized (producers) {
+            producers.remove(metadataIdentificationString);
+            producers.notifyAll();
+        }
+    }
+
+    /**
+     * Switches between the serial mode, where all requests are processed
+     * under one mutex, and the concurrent mode, where independent requests
+     * can be processed in parallel. The mode should only be changed while no
+     * metadata requests are in progress.
+     * 
+     * @param concurrentMode <code>true</code> to enable the concurrent mode
+     */
+    public void setConcurrentMode(final boolean concurrentMode) {
+        lock.lock();
+        try {
+            this.concurrentMode = concurrentMode;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public final String toString() {
         final ToStringBuilder builder = new ToStringBuilder(this);
-        builder.append("validGets", validGets);
-        builder.append("recursiveGets", recursiveGets);
-        builder.append("cachePuts", cachePuts);
-        builder.append("cacheHits", cacheHits);
-        builder.append("cacheMisses", cacheMisses);
-        builder.append("cacheEvictions", cacheEvictions);
+        builder.append("validGets", validGets.get());
+        builder.append("recursiveGets", recursiveGets.get());
+        builder.append("retries", retries.get());
+        builder.append("maxRetryDepth", maxRetryDepth.get());
+        builder.append("cachePuts", cachePuts.get());
+        builder.append("cacheHits", cacheHits.get());
+        builder.append("cacheMisses", cacheMisses.get());
+        builder.append("cacheEvictions", cacheEvictions.get());
         builder.append("cacheCurrentSize", getCacheSize());
         builder.append("cacheMaximumSize", getMaxCapacity());
+        builder.append("cacheCurrentWeight", getCacheWeight());
+        builder.append("cacheMaximumWeight", getMaxWeight());
+        builder.append("cacheEvictionPolicy", getEvictionPolicy());
+        builder.append("cacheSoftSize", getSoftCacheSize());
+        builder.append("cacheEvictionReasons", getEvictionCounts());
         return builder.toString().replaceFirst("@[0-9a-f]+", ":");
     }
 
     protected void unbindMetadataProvider(final MetadataProvider mp) {
-        synchronized (lock) {
+        lock.lock();
+        try {
             final String mid = mp.getProvidesType();
             providers.remove(mp);
             providerMap.remove(mid);
         }
+        finally {
+            lock.unlock();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,23 @@
+package org.springframework.roo.metadata;
+
+/**
+ * A {@link MetadataItem} that can describe its content with a stable
+ * {@link MetadataFingerprint}, which {@link AbstractHashCodeTrackingMetadataNotifier}
+ * uses in preference to {@link Object#hashCode()} to decide whether
+ * downstream items need to be notified.
+ * 
+ * @since 2.0
+ */
+public interface FingerprintableMetadataItem extends MetadataItem {
+
+    /**
+     * Returns the fingerprint of this item's content. It must cover everything
+     * that downstream metadata could depend upon, and must be the same in
+     * every JVM for the same content (see
+     * {@link MetadataFingerprintBuilder}). As items are immutable,
+     * implementations should compute it at most once.
+     * 
+     * @return a non-<code>null</code> fingerprint
+     */
+    MetadataFingerprint getFingerprint();
+}
@@ -53,4 +53,30 @@ public interface MetadataCache {
      * @param maxCapacity the new maximum capacity
      */
     void setMaxCapacity(int maxCapacity);
+
+    /**
+     * Selects the policy used to decide which items to evict once the cache
+     * is full. Changing the policy empties the cache.
+     * 
+     * @param evictionPolicy the policy to use (required)
+     */
+    void setEvictionPolicy(MetadataCacheEvictionPolicy evictionPolicy);
+
+    /**
+     * Modifies the maximum total weight of the cached items, i.e. the
+     * estimated number of bytes they retain.
+     * 
+     * @param maxWeight the new maximum weight in bytes
+     */
+    void setMaxWeight(long maxWeight);
+
+    /**
+     * Enables a second tier of softly referenced items. Items evicted from the
+     * cache are kept in this tier until the garbage collector needs to reclaim
+     * them, and are restored to the cache if they are requested before then.
+     * 
+     * @param softReferencesEnabled whether to keep evicted items in a soft
+     *            reference tier
+     */
+    void setSoftReferencesEnabled(boolean softReferencesEnabled);
 }
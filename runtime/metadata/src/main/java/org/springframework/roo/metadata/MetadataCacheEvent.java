@@ -0,0 +1,25 @@
+package org.springframework.roo.metadata;
+
+/**
+ * The cache-related events {@link MetadataLogger} counts for each type of
+ * metadata.
+ * 
+ * @since 2.0
+ */
+public enum MetadataCacheEvent {
+
+    /** The requested item was in the cache */
+    HIT,
+
+    /** The requested item had to be produced by its provider */
+    MISS,
+
+    /** The item was evicted before being produced, or was unavailable */
+    EVICTION,
+
+    /** The request was blocked as it was already in progress */
+    RECURSIVE_GET,
+
+    /** The item was produced again after a request for it was blocked */
+    RETRY
+}
@@ -0,0 +1,24 @@
+package org.springframework.roo.metadata;
+
+/**
+ * The policies a {@link MetadataCache} can use to decide which items to keep
+ * once it reaches its maximum capacity or weight.
+ * 
+ * @since 2.0
+ */
+public enum MetadataCacheEvictionPolicy {
+
+    /**
+     * Evicts the least recently used item. Every newly produced item is
+     * admitted, so a one-off scan of many items flushes out the frequently
+     * used ones.
+     */
+    LRU,
+
+    /**
+     * Window TinyLFU: newly produced items enter a small LRU window; when they
+     * leave it, they are only admitted to the main cache if they have been
+     * requested more often than the item they would displace.
+     */
+    TINY_LFU
+}
@@ -53,6 +53,25 @@ public interface MetadataDependencyRegistry {
      */
     void addNotificationListener(MetadataNotificationListener listener);
 
+    /**
+     * Starts collecting the notifications published by the current thread via
+     * {@link #notifyDownstream(String)}, rather than dispatching each of them
+     * immediately. Batches may be nested; the notifications are dispatched
+     * when the outermost batch ends.
+     * <p>
+     * This method does nothing unless batching has been enabled via
+     * {@link #setNotificationBatchingEnabled(boolean)}.
+     */
+    void beginNotificationBatch();
+
+    /**
+     * Ends a batch started by {@link #beginNotificationBatch()} without
+     * dispatching the notifications collected so far, e.g. because the
+     * enclosing operation failed and will be undone. Ends the outermost batch
+     * too, if this was a nested batch.
+     */
+    void discardNotificationBatch();
+
     /**
      * Removes all upstream dependencies that were previously registered for the
      * specified downstream dependency. This is useful if rebuilding the
@@ -84,6 +103,21 @@ public interface MetadataDependencyRegistry {
     void deregisterDependency(String upstreamDependency,
             String downstreamDependency);
 
+    /**
+     * Ends a batch started by {@link #beginNotificationBatch()}. If this was
+     * the outermost batch, the collected notifications are dispatched before
+     * this method returns:
+     * <ul>
+     * <li>each affected downstream dependency is notified once, however many of
+     * its upstream dependencies published a notification,</li>
+     * <li>downstream dependencies are notified in dependency order, i.e. after
+     * all of their own upstream dependencies that are also affected, and</li>
+     * <li>notifications published while dispatching (as regenerated metadata
+     * notifies its own downstream dependencies) join the same batch.</li>
+     * </ul>
+     */
+    void endNotificationBatch();
+
     /**
      * Obtains the list of the immediate downstream dependencies of the
      * indicated metadata item.
@@ -101,6 +135,17 @@ public interface MetadataDependencyRegistry {
      */
     Set<String> getDownstream(String upstreamDependency);
 
+    /**
+     * Obtains every metadata identification string that currently has at
+     * least one registered downstream dependency. Together with
+     * {@link #getDownstream(String)} this allows the whole dependency graph to
+     * be enumerated.
+     * 
+     * @return an immutable set of upstream dependencies (never null, but the
+     *         set may be empty)
+     */
+    Set<String> getRegisteredUpstreams();
+
     /**
      * Obtains a list of the immediate upstream dependencies of the indicated
      * metadata item.
@@ -115,6 +160,15 @@ public interface MetadataDependencyRegistry {
      */
     Set<String> getUpstream(String downstreamDependency);
 
+    /**
+     * Indicates whether {@link #beginNotificationBatch()} collects
+     * notifications.
+     * 
+     * @return <code>false</code> if every notification is dispatched
+     *         immediately
+     */
+    boolean isNotificationBatchingEnabled();
+
     /**
      * Indicates whether the indicated downstream dependency is legally
      * permitted to depend on the indicated upstream dependency. Specifically,
@@ -180,4 +234,14 @@ public interface MetadataDependencyRegistry {
      * @param listener to no longer receive notifications (required)
      */
     void removeNotificationListener(MetadataNotificationListener listener);
+
+    /**
+     * Enables or disables batched notifications (see
+     * {@link #beginNotificationBatch()}). Batches that are in progress are
+     * unaffected.
+     * 
+     * @param notificationBatchingEnabled whether to honour notification
+     *            batches
+     */
+    void setNotificationBatchingEnabled(boolean notificationBatchingEnabled);
 }
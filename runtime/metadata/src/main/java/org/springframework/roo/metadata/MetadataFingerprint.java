@@ -0,0 +1,130 @@
+package org.springframework.roo.metadata;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A 128-bit fingerprint of the content of a {@link MetadataItem}, used to
+ * decide whether a newly produced item differs from the previous one (see
+ * {@link AbstractHashCodeTrackingMetadataNotifier}).
+ * <p>
+ * Fingerprints built with a {@link MetadataFingerprintBuilder} are
+ * {@link #isStable() stable}: they depend only on the content presented to the
+ * builder, so they can be persisted and compared after a restart. Fingerprints
+ * derived from {@link Object#hashCode()} via {@link #ofHashCode(Object)} are
+ * only meaningful within the current JVM.
+ * <p>
+ * Instances are immutable.
+ * 
+ * @since 2.0
+ */
+public final class MetadataFingerprint {
+
+    private static final int HEX_LENGTH = 32;
+
+    /**
+     * Returns a fingerprint based on the {@link Object#hashCode()} of the
+     * given object, for items that do not provide a structural fingerprint.
+     * 
+     * @param object the object to fingerprint (required)
+     * @return an unstable fingerprint (never null)
+     */
+    public static MetadataFingerprint ofHashCode(final Object object) {
+        Validate.notNull(object, "Object to fingerprint required");
+        return new MetadataFingerprint(0, object.hashCode(), false);
+    }
+
+    /**
+     * Parses a stable fingerprint from the form returned by
+     * {@link #toString()}.
+     * 
+     * @param hex 32 hexadecimal digits (required)
+     * @return a stable fingerprint (never null)
+     * @throws IllegalArgumentException if the given string is not a valid
+     *             fingerprint
+     */
+    public static MetadataFingerprint valueOf(final String hex) {
+        Validate.isTrue(hex != null && hex.length() == HEX_LENGTH,
+                "Invalid metadata fingerprint '%s'", hex);
+        try {
+            return new MetadataFingerprint(parseHex(hex.substring(0, 16)),
+                    parseHex(hex.substring(16)), true);
+        }
+        catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid metadata fingerprint '"
+                    + hex + "'", e);
+        }
+    }
+
+    private static long parseHex(final String hex) {
+        // Long.parseLong can't handle values with the top bit set
+        return Long.parseLong(hex.substring(0, 8), 16) << 32
+                | Long.parseLong(hex.substring(8), 16);
+    }
+
+    private final long high;
+    private final long low;
+    private final boolean stable;
+
+    /**
+     * Constructor (package protected to enforce the use of the
+     * {@link MetadataFingerprintBuilder})
+     */
+    MetadataFingerprint(final long high, final long low, final boolean stable) {
+        this.high = high;
+        this.low = low;
+        this.stable = stable;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MetadataFingerprint)) {
+            return false;
+        }
+        final MetadataFingerprint other = (MetadataFingerprint) obj;
+        return high == other.high && low == other.low
+                && stable == other.stable;
+    }
+
+    /**
+     * @return the most significant 64 bits of this fingerprint
+     */
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * @return the least significant 64 bits of this fingerprint
+     */
+    public long getLow() {
+        return low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ low >>> 32);
+    }
+
+    /**
+     * Indicates whether this fingerprint is the same in every JVM for the
+     * same content, i.e. whether it may be persisted.
+     * 
+     * @return <code>false</code> if it is based on {@link Object#hashCode()}
+     */
+    public boolean isStable() {
+        return stable;
+    }
+
+    /**
+     * Returns the 32 hexadecimal digits of a stable fingerprint, which can be
+     * parsed by {@link #valueOf(String)}; unstable fingerprints are prefixed
+     * with <code>hashCode:</code>.
+     */
+    @Override
+    public String toString() {
+        final String hex = String.format("%016x%016x", high, low);
+        return stable ? hex : "hashCode:" + hex;
+    }
+}
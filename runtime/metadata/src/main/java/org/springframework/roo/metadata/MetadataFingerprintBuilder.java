@@ -0,0 +1,159 @@
+package org.springframework.roo.metadata;
+
+/**
+ * Builder for stable {@link MetadataFingerprint}s. Values are appended in a
+ * fixed order and mixed into a 128-bit hash using the MurmurHash3 (x64, 128
+ * bit) block function; strings are length-prefixed, so that for example
+ * <code>append("ab").append("c")</code> and
+ * <code>append("a").append("bc")</code> produce different fingerprints.
+ * <p>
+ * The result depends only on the appended values, never on
+ * {@link Object#hashCode()}, so it is the same in every JVM.
+ * 
+ * @since 2.0
+ */
+public class MetadataFingerprintBuilder {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final long NULL = 0x9e3779b97f4a7c15L;
+
+    private static long finalMix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private long h1;
+    private long h2;
+    private boolean halfBlock;
+    private long length;
+    private long pendingWord;
+
+    /**
+     * Appends a boolean value.
+     * 
+     * @param value the value to append
+     * @return this builder
+     */
+    public MetadataFingerprintBuilder append(final boolean value) {
+        appendWord(value ? 1 : 0);
+        return this;
+    }
+
+    /**
+     * Appends a long (or int) value.
+     * 
+     * @param value the value to append
+     * @return this builder
+     */
+    public MetadataFingerprintBuilder append(final long value) {
+        appendWord(value);
+        return this;
+    }
+
+    /**
+     * Appends another fingerprint, for example that of a nested structure.
+     * 
+     * @param fingerprint the fingerprint to append (can be null)
+     * @return this builder
+     */
+    public MetadataFingerprintBuilder append(
+            final MetadataFingerprint fingerprint) {
+        if (fingerprint == null) {
+            appendWord(NULL);
+        }
+        else {
+            appendWord(fingerprint.getHigh());
+            appendWord(fingerprint.getLow());
+        }
+        return this;
+    }
+
+    /**
+     * Appends a string.
+     * 
+     * @param value the string to append (can be null)
+     * @return this builder
+     */
+    public MetadataFingerprintBuilder append(final String value) {
+        if (value == null) {
+            appendWord(NULL);
+            return this;
+        }
+        final int length = value.length();
+        appendWord(length);
+        long word = 0;
+        for (int i = 0; i < length; i++) {
+            word = word << 16 | value.charAt(i);
+            if ((i & 3) == 3) {
+                appendWord(word);
+                word = 0;
+            }
+        }
+        if ((length & 3) != 0) {
+            appendWord(word);
+        }
+        return this;
+    }
+
+    private void appendWord(final long word) {
+        if (!halfBlock) {
+            pendingWord = word;
+            halfBlock = true;
+            return;
+        }
+        halfBlock = false;
+        length += 16;
+
+        h1 ^= mixK1(pendingWord);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2(word);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    /**
+     * Returns the fingerprint of the values appended so far. The builder can
+     * continue to be used afterwards.
+     * 
+     * @return a stable fingerprint (never null)
+     */
+    public MetadataFingerprint build() {
+        long a = h1;
+        long b = h2;
+        long totalLength = length;
+        if (halfBlock) {
+            a ^= mixK1(pendingWord);
+            totalLength += 8;
+        }
+        a ^= totalLength;
+        b ^= totalLength;
+        a += b;
+        b += a;
+        a = finalMix(a);
+        b = finalMix(b);
+        a += b;
+        b += a;
+        return new MetadataFingerprint(a, b, true);
+    }
+}
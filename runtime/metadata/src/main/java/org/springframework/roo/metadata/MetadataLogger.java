@@ -1,5 +1,7 @@
 package org.springframework.roo.metadata;
 
+import java.io.File;
+import java.util.Map;
 import java.util.SortedSet;
 
 /**
@@ -41,6 +43,31 @@ import java.util.SortedSet;
  */
 public interface MetadataLogger {
 
+    /**
+     * @return a snapshot of the statistics recorded via
+     *         {@link #recordCacheEvent(String, MetadataCacheEvent)} and
+     *         {@link #recordLatency(String, MetadataOperation, long)}, ordered
+     *         by metadata class (never null, but may be empty)
+     */
+    SortedSet<MetadataProviderStatistic> getProviderStatistics();
+
+    /**
+     * @return a snapshot of the times recorded via
+     *         {@link #recordRegenerationTime(String, long)}; key: MID, value:
+     *         nanoseconds (never null, but may be empty)
+     */
+    Map<String, Long> getRegenerationTimes();
+
+    /**
+     * Returns the class the current thread's most recently started timer is
+     * counting against, e.g. the metadata provider that is producing metadata
+     * or being notified.
+     * 
+     * @return <code>null</code> if the current thread has no timer running
+     * @since 2.0
+     */
+    String getResponsibleClass();
+
     /**
      * @return a snapshot of timing statistics that have been collated so far
      *         (never null, but may be empty)
@@ -53,6 +80,14 @@ public interface MetadataLogger {
      */
     int getTraceLevel();
 
+    /**
+     * Indicates whether events are being recorded to a binary trace file.
+     * 
+     * @return <code>true</code> if {@link #startTraceRecording(File, int)} has
+     *         been called without a subsequent {@link #stopTraceRecording()}
+     */
+    boolean isTraceRecording();
+
     /**
      * Logs a message against the given event identifier.
      * 
@@ -60,6 +95,60 @@ public interface MetadataLogger {
      */
     void log(String message);
 
+    /**
+     * Counts a cache event for the given type of metadata. Recording does not
+     * allocate memory once the metadata class has been seen.
+     * 
+     * @param metadataClass the metadata class, as per
+     *            {@link MetadataIdentificationUtils#getMetadataClass(String)}
+     *            (required)
+     * @param event the event that occurred (required)
+     */
+    void recordCacheEvent(String metadataClass, MetadataCacheEvent event);
+
+    /**
+     * Records the latency of an operation on the given type of metadata.
+     * Recording does not allocate memory once the metadata class has been
+     * seen.
+     * 
+     * @param metadataClass the metadata class, as per
+     *            {@link MetadataIdentificationUtils#getMetadataClass(String)}
+     *            (required)
+     * @param operation the operation that was timed (required)
+     * @param nanoseconds how long it took
+     */
+    void recordLatency(String metadataClass, MetadataOperation operation,
+            long nanoseconds);
+
+    /**
+     * Records how long the given item took to regenerate the last time it was
+     * produced, excluding the time spent producing any items it requested
+     * (see {@link #stopTimer()}). Replaces any time recorded before.
+     * <p>
+     * Times are only kept while tracing or trace recording is active (see
+     * {@link #getTraceLevel()} and {@link #isTraceRecording()}), so that they
+     * cost nothing the rest of the time.
+     * 
+     * @param metadataIdentificationString the MID produced (required)
+     * @param nanoseconds how long it took
+     */
+    void recordRegenerationTime(String metadataIdentificationString,
+            long nanoseconds);
+
+    /**
+     * Records an event in the binary trace file, if recording is enabled (see
+     * {@link #startTraceRecording(File, int)}); otherwise does nothing.
+     * Recording does not allocate memory once the MIDs have been seen.
+     * 
+     * @param event the event that occurred (required)
+     * @param metadataIdentificationString the MID concerned (required)
+     * @param relatedIdentificationString a related MID, e.g. the upstream MID
+     *            of a notification (can be null)
+     */
+    void recordTraceEvent(MetadataTraceEvent event,
+            String metadataIdentificationString,
+            String relatedIdentificationString);
+
     /**
      * Enable low-level tracing of event delivery information. Defaults to level
      * 0 (none).
@@ -85,6 +174,19 @@ public interface MetadataLogger {
      */
     void startTimer(String responsibleClass);
 
+    /**
+     * Starts recording {@link MetadataTraceEvent}s into a ring buffer in the
+     * given file, replacing any recording already in progress. Unlike
+     * {@link #log(String)}, this records compact binary events and is cheap
+     * enough to leave enabled while working in the shell.
+     * 
+     * @param file the trace file to create or overwrite (required)
+     * @param capacity the number of events to keep before the oldest are
+     *            overwritten
+     * @throws IllegalStateException if the file cannot be created
+     */
+    void startTraceRecording(File file, int capacity);
+
     /**
      * Decrements the current stack level.
      */
@@ -94,6 +196,18 @@ public interface MetadataLogger {
      * Stops the most recently started timer. This is mandatory and must be in
      * the reverse order timers were started. When a timer stops is also when we
      * update its timings.
+     * 
+     * @return the time counted against the responsible class by this timer,
+     *         in nanoseconds, i.e. excluding the time of any timers started
+     *         while it was running
+     */
+    long stopTimer();
+
+    /**
+     * Stops recording {@link MetadataTraceEvent}s and flushes the trace file.
+     * 
+     * @return the trace file that was written, or <code>null</code> if no
+     *         recording was in progress
      */
-    void stopTimer();
+    File stopTraceRecording();
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package org.springframework.roo.metadata;
+
+/**
+ * The operations whose latency {@link MetadataLogger} records for each type of
+ * metadata.
+ * 
+ * @since 2.0
+ */
+public enum MetadataOperation {
+
+    /**
+     * A {@link MetadataProvider#get(String)} call made by the
+     * {@link MetadataService} on a cache miss.
+     */
+    GET,
+
+    /**
+     * A {@link MetadataService#notify(String, String)} call made by the
+     * {@link MetadataDependencyRegistry}, including any regeneration it
+     * triggers.
+     */
+    NOTIFY
+}
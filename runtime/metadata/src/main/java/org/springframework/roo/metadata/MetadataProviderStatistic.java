@@ -0,0 +1,55 @@
+package org.springframework.roo.metadata;
+
+/**
+ * An immutable snapshot of the statistics {@link MetadataLogger} has recorded
+ * for one type of metadata, i.e. for the provider of that type.
+ * <p>
+ * Latencies are measured in nanoseconds from the start to the end of each
+ * operation, so they include any nested operations. Percentiles are accurate
+ * to within about 6%.
+ * 
+ * @since 2.0
+ */
+public interface MetadataProviderStatistic extends
+        Comparable<MetadataProviderStatistic> {
+
+    /**
+     * @param event the event to count (required)
+     * @return how many times the given event occurred
+     */
+    long getCount(MetadataCacheEvent event);
+
+    /**
+     * @param operation the operation (required)
+     * @return how many times the given operation was recorded
+     */
+    long getInvocations(MetadataOperation operation);
+
+    /**
+     * @param operation the operation (required)
+     * @return the longest recorded latency of the given operation, in
+     *         nanoseconds (zero if never recorded)
+     */
+    long getMaximum(MetadataOperation operation);
+
+    /**
+     * @return the metadata class, as per
+     *         {@link MetadataIdentificationUtils#getMetadataClass(String)}
+     *         (never blank)
+     */
+    String getName();
+
+    /**
+     * @param operation the operation (required)
+     * @param percentile the percentile to return, between 0 and 100
+     * @return the latency in nanoseconds that the given percentage of recorded
+     *         operations did not exceed (zero if never recorded)
+     */
+    long getPercentile(MetadataOperation operation, double percentile);
+
+    /**
+     * @param operation the operation (required)
+     * @return the total latency of the given operation, in nanoseconds
+     */
+    long getTime(MetadataOperation operation);
+}
@@ -96,4 +96,27 @@ public interface MetadataService extends MetadataNotificationListener,
      */
     @Deprecated
     MetadataItem get(String metadataIdentificationString, boolean evictCache);
+
+    /**
+     * Indicates whether independent metadata requests may be processed in
+     * parallel.
+     * 
+     * @return <code>true</code> if the concurrent mode is enabled, or
+     *         <code>false</code> if requests are processed one at a time
+     * @see #setConcurrentMode(boolean)
+     */
+    boolean isConcurrentMode();
+
+    /**
+     * Enables or disables the concurrent mode. In concurrent mode, requests
+     * for different metadata identifiers are processed in parallel, while
+     * requests for the same identifier are still processed one at a time and
+     * recursive requests are still blocked and retried. Every registered
+     * {@link MetadataProvider} must then be safe for use by multiple threads.
+     * 
+     * @param concurrentMode <code>true</code> to process independent requests
+     *            in parallel, <code>false</code> to process all requests one at
+     *            a time (the default)
+     */
+    void setConcurrentMode(boolean concurrentMode);
 }
@@ -0,0 +1,93 @@
+package org.springframework.roo.metadata;
+
+import java.util.Map;
+
+/**
+ * Persists the state of the metadata infrastructure between shell sessions, so
+ * that a restarted shell does not need to regenerate metadata whose inputs
+ * have not changed.
+ * <p>
+ * A snapshot records:
+ * <ul>
+ * <li>the registered {@link MetadataDependencyRegistry} dependencies,</li>
+ * <li>the stable {@link MetadataFingerprint}s kept by each
+ * {@link AbstractHashCodeTrackingMetadataNotifier}, and</li>
+ * <li>the fingerprint (size and modification time) of the source file each
+ * metadata item was built from,</li>
+ * <li>the files generated from the metadata, and</li>
+ * <li>the Roo version and installed add-ons that wrote the snapshot.</li>
+ * </ul>
+ * When the snapshot is loaded, any metadata whose source file changed since
+ * the snapshot was written, or which is downstream of such metadata, is
+ * considered stale and is regenerated as usual; everything else is restored.
+ * The whole snapshot is ignored if the Roo version or the installed add-ons
+ * differ, or if any of the generated files has gone.
+ * <p>
+ * {@link MetadataItem}s themselves are not persisted, as they are not
+ * serializable and are defined by add-on bundles; they continue to be
+ * produced lazily on request.
+ *
+ * @since 2.0
+ */
+public interface MetadataSnapshotService {
+
+    /**
+     * Returns the live map in which the given notifier keeps the fingerprints
+     * of the metadata items it has published, keyed by metadata instance. The
+     * stable fingerprints are persisted with the snapshot and restored from
+     * it, including those of stale items, as a regenerated item whose content
+     * did not change needs no downstream notification.
+     *
+     * @param notifierName a name that uniquely identifies the notifier, e.g.
+     *            its class name (required)
+     * @return a thread-safe, modifiable map (never null)
+     */
+    Map<String, MetadataFingerprint> getTrackedFingerprints(String notifierName);
+
+    /**
+     * Indicates whether snapshots are being loaded and saved.
+     *
+     * @return <code>true</code> if enabled
+     */
+    boolean isEnabled();
+
+    /**
+     * Indicates whether the given metadata item was recorded in the loaded
+     * snapshot and neither its source file nor any of its upstream
+     * dependencies has changed since the snapshot was written.
+     *
+     * @param metadataIdentificationString the MID to check (required)
+     * @return <code>false</code> if the item must be regenerated
+     */
+    boolean isUnchangedSinceSnapshot(String metadataIdentificationString);
+
+    /**
+     * Records a file that has just been generated from metadata, e.g. an ITD,
+     * so that a snapshot is only trusted while the file still exists.
+     *
+     * @param canonicalPath the canonical path of the generated file (required)
+     */
+    void recordGeneratedFile(String canonicalPath);
+
+    /**
+     * Records the source file that the given metadata item has just been
+     * built from, along with the file's current fingerprint.
+     *
+     * @param metadataIdentificationString the MID of the item (required)
+     * @param canonicalPath the canonical path of the source file (required)
+     */
+    void recordSource(String metadataIdentificationString, String canonicalPath);
+
+    /**
+     * Indicates that the source file of the given metadata item has changed
+     * during this session, so it is no longer unchanged since the snapshot.
+     *
+     * @param metadataIdentificationString the MID of the item (required)
+     */
+    void sourceChanged(String metadataIdentificationString);
+
+    /**
+     * Writes the current state to the snapshot file.
+     */
+    void save();
+}
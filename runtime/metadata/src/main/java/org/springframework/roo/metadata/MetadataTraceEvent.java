@@ -0,0 +1,40 @@
+package org.springframework.roo.metadata;
+
+/**
+ * The kinds of event the binary trace recorder of {@link MetadataLogger}
+ * captures (see {@link MetadataLogger#startTraceRecording(java.io.File, int)}).
+ * <p>
+ * The ordinal of each constant is written to the trace file, so constants may
+ * only ever be appended.
+ * 
+ * @since 2.0
+ */
+public enum MetadataTraceEvent {
+
+    /** A {@link MetadataProvider} is asked to produce an item */
+    GET_START,
+
+    /** The {@link MetadataProvider} has returned (see {@link #GET_START}) */
+    GET_END,
+
+    /** A requested item was found in the cache */
+    CACHE_HIT,
+
+    /** A requested item was not in the cache */
+    CACHE_MISS,
+
+    /** An item was evicted from the cache */
+    EVICT,
+
+    /** A recursive request was blocked, to be retried later */
+    BLOCKED,
+
+    /**
+     * A downstream item is being notified of a change to an upstream item,
+     * which is recorded as the related item
+     */
+    NOTIFY_START,
+
+    /** The notification has been handled (see {@link #NOTIFY_START}) */
+    NOTIFY_END
+}
@@ -0,0 +1,20 @@
+package org.springframework.roo.metadata;
+
+/**
+ * A {@link MetadataItem} that can cheaply say how much it describes, which the
+ * {@link MetadataCache} uses to estimate its weight once a maximum weight is
+ * configured (see {@link MetadataCache#setMaxWeight(long)}).
+ * 
+ * @since 2.0
+ */
+public interface WeighableMetadataItem extends MetadataItem {
+
+    /**
+     * Returns the number of elements (e.g. members and annotations) this item
+     * describes. It must not require rendering the item, as it is called each
+     * time the item is cached.
+     * 
+     * @return zero or more
+     */
+    int getElementCount();
+}
@@ -1,37 +1,114 @@
 package org.springframework.roo.metadata.internal;
 
-import java.util.LinkedHashMap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.lang3.Validate;
 import org.springframework.roo.metadata.MetadataCache;
+import org.springframework.roo.metadata.MetadataCacheEvictionPolicy;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
 import org.springframework.roo.metadata.MetadataItem;
+import org.springframework.roo.metadata.internal.MetadataCachePolicy.EvictionReason;
+import org.springframework.roo.metadata.internal.MetadataCachePolicy.EvictionListener;
 
 /**
- * Basic {@link MetadataCache} that stores elements on a least recently used
- * (LRU) basis.
- * 
+ * Basic {@link MetadataCache} bounded by both the number of items and their
+ * estimated weight in bytes (see {@link MetadataItemWeigher}); items are only
+ * weighed once a maximum weight has been set. By default
+ * elements are stored on a least recently used (LRU) basis; a frequency-aware
+ * policy can be selected with
+ * {@link #setEvictionPolicy(MetadataCacheEvictionPolicy)}.
+ * <p>
+ * Optionally, evicted items are kept in a tier of soft references, from which
+ * they are restored if requested before the garbage collector reclaims them.
+ * <p>
+ * All cache operations are guarded by an internal monitor, so the cache can be
+ * shared by threads producing metadata concurrently.
+ *
  * @author Ben Alex
  * @since 1.0
  */
 public abstract class AbstractMetadataCache implements MetadataCache {
 
-    private static final float hashTableLoadFactor = 0.75f;
+    /**
+     * A softly referenced item that remembers its identifier, so it can be
+     * removed from the soft tier once collected.
+     */
+    private static class SoftEntry extends SoftReference<MetadataItem> {
+        final String id;
+        final long weight;
 
-    private LinkedHashMap<String, MetadataItem> map;
-    private int maxCapacity = 100000;
+        SoftEntry(final MetadataItem item, final long weight,
+                final ReferenceQueue<MetadataItem> queue) {
+            super(item, queue);
+            id = item.getId();
+            this.weight = weight;
+        }
+    }
+
+    private final Object cacheLock = new Object();
+    private volatile MetadataCacheEvictionPolicy evictionPolicy = MetadataCacheEvictionPolicy.LRU;
+    private final Map<EvictionReason, Long> evictions = new EnumMap<EvictionReason, Long>(
+            EvictionReason.class);
+    private volatile int maxCapacity = 100000;
+    private volatile long maxWeight = Long.MAX_VALUE;
+    private MetadataCachePolicy policy;
+    private final ReferenceQueue<MetadataItem> softQueue = new ReferenceQueue<MetadataItem>();
+    private final Map<String, SoftEntry> softTier = new HashMap<String, SoftEntry>();
+    private volatile boolean softReferencesEnabled;
+    private MetadataItemWeigher weigher = new DefaultMetadataItemWeigher();
+
+    private final EvictionListener evictionListener = new EvictionListener() {
+        public void onEviction(final MetadataItem item, final long weight,
+                final EvictionReason reason) {
+            countEviction(reason);
+            if (softReferencesEnabled) {
+                softTier.put(item.getId(), new SoftEntry(item, weight,
+                        softQueue));
+            }
+        }
+    };
 
     protected AbstractMetadataCache() {
         init();
     }
 
+    /**
+     * Must be called with the {@link #cacheLock} held.
+     */
+    private void countEviction(final EvictionReason reason) {
+        final Long count = evictions.get(reason);
+        evictions.put(reason, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Removes collected items from the soft tier. Must be called with the
+     * {@link #cacheLock} held.
+     */
+    private void drainSoftQueue() {
+        Reference<? extends MetadataItem> reference;
+        while ((reference = softQueue.poll()) != null) {
+            final SoftEntry entry = (SoftEntry) reference;
+            if (softTier.get(entry.id) == entry) {
+                softTier.remove(entry.id);
+                countEviction(EvictionReason.COLLECTED);
+            }
+        }
+    }
+
     public void evict(final String metadataIdentificationString) {
         Validate.isTrue(MetadataIdentificationUtils
                 .isIdentifyingInstance(metadataIdentificationString),
                 "Only metadata instances can be cached (not '%s')",
                 metadataIdentificationString);
-        map.remove(metadataIdentificationString);
+        synchronized (cacheLock) {
+            policy.remove(metadataIdentificationString);
+            softTier.remove(metadataIdentificationString);
+        }
     }
 
     public void evictAll() {
@@ -39,7 +116,38 @@ public abstract class AbstractMetadataCache implements MetadataCache {
     }
 
     protected int getCacheSize() {
-        return map.size();
+        synchronized (cacheLock) {
+            return policy.size();
+        }
+    }
+
+    protected long getCacheWeight() {
+        synchronized (cacheLock) {
+            return policy.getWeight();
+        }
+    }
+
+    /**
+     * Returns how many items have been evicted for each reason since the
+     * cache was last emptied; explicit evictions are not included.
+     *
+     * @return a snapshot (never null)
+     */
+    protected Map<EvictionReason, Long> getEvictionCounts() {
+        synchronized (cacheLock) {
+            drainSoftQueue();
+            final Map<EvictionReason, Long> result = new EnumMap<EvictionReason, Long>(
+                    EvictionReason.class);
+            for (final EvictionReason reason : EvictionReason.values()) {
+                final Long count = evictions.get(reason);
+                result.put(reason, count == null ? 0 : count);
+            }
+            return result;
+        }
+    }
+
+    public MetadataCacheEvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
     }
 
     protected MetadataItem getFromCache(
@@ -48,31 +156,79 @@ public abstract class AbstractMetadataCache implements MetadataCache {
                 .isIdentifyingInstance(metadataIdentificationString),
                 "Only metadata instances can be cached (not '%s')",
                 metadataIdentificationString);
-        return map.get(metadataIdentificationString);
+        synchronized (cacheLock) {
+            // Policies record the access, hence the lock even for reads
+            final MetadataItem result = policy
+                    .get(metadataIdentificationString);
+            if (result != null || softTier.isEmpty()) {
+                return result;
+            }
+            drainSoftQueue();
+            final SoftEntry softEntry = softTier
+                    .remove(metadataIdentificationString);
+            if (softEntry == null) {
+                return null;
+            }
+            final MetadataItem restored = softEntry.get();
+            if (restored != null) {
+                policy.put(restored, softEntry.weight);
+            }
+            return restored;
+        }
     }
 
     public int getMaxCapacity() {
         return maxCapacity;
     }
 
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    protected int getSoftCacheSize() {
+        synchronized (cacheLock) {
+            drainSoftQueue();
+            return softTier.size();
+        }
+    }
+
     private void init() {
-        final int hashTableCapacity = (int) Math.ceil(maxCapacity
-                / hashTableLoadFactor) + 1;
-        map = new LinkedHashMap<String, MetadataItem>(hashTableCapacity,
-                hashTableLoadFactor, true) {
-            private static final long serialVersionUID = 1;
-
-            @Override
-            protected boolean removeEldestEntry(
-                    final Map.Entry<String, MetadataItem> eldest) {
-                return size() > maxCapacity;
+        synchronized (cacheLock) {
+            if (evictionPolicy == MetadataCacheEvictionPolicy.TINY_LFU) {
+                policy = new TinyLfuMetadataCachePolicy(maxCapacity,
+                        maxWeight, evictionListener);
+            }
+            else {
+                policy = new LruMetadataCachePolicy(maxCapacity, maxWeight,
+                        evictionListener);
             }
-        };
+            softTier.clear();
+            evictions.clear();
+        }
+    }
+
+    public boolean isSoftReferencesEnabled() {
+        return softReferencesEnabled;
     }
 
     public void put(final MetadataItem metadataItem) {
         Validate.notNull(metadataItem, "A metadata item is required");
-        map.put(metadataItem.getId(), metadataItem);
+        // Unbounded by default, in which case weighing would be wasted
+        final long weight = maxWeight == Long.MAX_VALUE ? 0 : weigher
+                .weigh(metadataItem);
+        synchronized (cacheLock) {
+            softTier.remove(metadataItem.getId());
+            policy.put(metadataItem, weight);
+        }
+    }
+
+    public void setEvictionPolicy(
+            final MetadataCacheEvictionPolicy evictionPolicy) {
+        Validate.notNull(evictionPolicy, "Eviction policy required");
+        synchronized (cacheLock) {
+            this.evictionPolicy = evictionPolicy;
+            init();
+        }
     }
 
     public void setMaxCapacity(int maxCapacity) {
@@ -82,4 +238,34 @@ public abstract class AbstractMetadataCache implements MetadataCache {
         this.maxCapacity = maxCapacity;
         init();
     }
+
+    public void setMaxWeight(long maxWeight) {
+        if (maxWeight < 1024 * 1024) {
+            maxWeight = 1024 * 1024;
+        }
+        this.maxWeight = maxWeight;
+        init();
+    }
+
+    /**
+     * Replaces the strategy used to estimate the weight of cached items.
+     *
+     * @param weigher the weigher to use (required)
+     */
+    protected void setMetadataItemWeigher(final MetadataItemWeigher weigher) {
+        Validate.notNull(weigher, "Metadata item weigher required");
+        synchronized (cacheLock) {
+            this.weigher = weigher;
+            init();
+        }
+    }
+
+    public void setSoftReferencesEnabled(final boolean softReferencesEnabled) {
+        synchronized (cacheLock) {
+            this.softReferencesEnabled = softReferencesEnabled;
+            if (!softReferencesEnabled) {
+                softTier.clear();
+            }
+        }
+    }
 }
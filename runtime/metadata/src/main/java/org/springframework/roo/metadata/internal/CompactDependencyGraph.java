@@ -0,0 +1,346 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.Arrays;
+
+/**
+ * A directed graph of interned metadata identifiers, where each node's
+ * upstream and downstream neighbours are held in sorted <code>int</code>
+ * arrays.
+ * <p>
+ * Neighbour arrays are copy-on-write: a mutation replaces the array of the
+ * affected node only, and the arrays returned by {@link #getDownstream(int)}
+ * and {@link #getUpstream(int)} are never modified afterwards. Mutations must
+ * be serialized by the caller; the returned arrays can be read by any thread.
+ * <p>
+ * The graph is kept acyclic by maintaining a topological order of its nodes
+ * incrementally, as described by Pearce and Kelly ("A Dynamic Topological Sort
+ * Algorithm for Directed Acyclic Graphs", 2006). An edge that agrees with the
+ * current order is accepted in constant time; otherwise only the nodes whose
+ * position lies between the edge's endpoints are searched and reordered.
+ * Removing edges never invalidates the order.
+ * 
+ * @since 2.0
+ */
+class CompactDependencyGraph {
+
+    static final int[] NONE = new int[0];
+
+    /**
+     * Returns a copy of the sorted array with the value added, or the same
+     * array if it was already present.
+     */
+    private static int[] add(final int[] array, final int value) {
+        final int index = Arrays.binarySearch(array, value);
+        if (index >= 0) {
+            return array;
+        }
+        final int insertion = -index - 1;
+        final int[] result = new int[array.length + 1];
+        System.arraycopy(array, 0, result, 0, insertion);
+        result[insertion] = value;
+        System.arraycopy(array, insertion, result, insertion + 1, array.length
+                - insertion);
+        return result;
+    }
+
+    /**
+     * Returns a copy of the sorted array with the value removed, or the same
+     * array if it was not present.
+     */
+    private static int[] remove(final int[] array, final int value) {
+        final int index = Arrays.binarySearch(array, value);
+        if (index < 0) {
+            return array;
+        }
+        if (array.length == 1) {
+            return NONE;
+        }
+        final int[] result = new int[array.length - 1];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 1, result, index, array.length - index
+                - 1);
+        return result;
+    }
+
+    /**
+     * A growable stack of node ids, reused between searches to avoid
+     * allocating on each registration.
+     */
+    private static class IntStack {
+        int[] elements = new int[16];
+        int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int pop() {
+            return elements[--size];
+        }
+
+        void push(final int value) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, size << 1);
+            }
+            elements[size++] = value;
+        }
+    }
+
+    /** index: upstream id; value: sorted downstream ids */
+    private volatile int[][] downstream = new int[0][];
+    /** index: downstream id; value: sorted upstream ids */
+    private volatile int[][] upstream = new int[0][];
+
+    // Topological order: upstream nodes always precede their downstreams
+    /** index: node id; value: position in the order */
+    private int[] positionOf = NONE;
+    /** index: position in the order; value: node id */
+    private int[] nodeAt = NONE;
+
+    // Search state, reused between calls
+    private int[] visited = NONE;
+    private int visitMark;
+    private final IntStack forward = new IntStack();
+    private final IntStack backward = new IntStack();
+    private final IntStack pending = new IntStack();
+
+    /**
+     * Adds the edge from the given upstream node to the given downstream node,
+     * unless doing so would create a cycle.
+     * 
+     * @return <code>false</code> if the edge would create a cycle (the graph is
+     *         left unchanged); <code>true</code> if the edge was added or
+     *         already existed
+     */
+    boolean addEdge(final int upstreamId, final int downstreamId) {
+        if (upstreamId == downstreamId) {
+            return false;
+        }
+        ensureCapacity(Math.max(upstreamId, downstreamId) + 1);
+        final int[] before = downstream[upstreamId];
+        if (Arrays.binarySearch(before, downstreamId) >= 0) {
+            return true;
+        }
+        final int lowerBound = positionOf[downstreamId];
+        final int upperBound = positionOf[upstreamId];
+        if (lowerBound < upperBound) {
+            // The edge goes against the current order; find the affected
+            // region, failing if the downstream node reaches the upstream one
+            if (!searchForward(downstreamId, upperBound)) {
+                return false;
+            }
+            searchBackward(upstreamId, lowerBound);
+            reorder();
+        }
+        downstream[upstreamId] = add(before, downstreamId);
+        upstream[downstreamId] = add(upstream[downstreamId], upstreamId);
+        return true;
+    }
+
+    /**
+     * Indicates whether adding the edge from the given upstream node to the
+     * given downstream node would keep the graph acyclic. Does not modify the
+     * graph.
+     */
+    boolean canAddEdge(final int upstreamId, final int downstreamId) {
+        if (upstreamId == downstreamId) {
+            return false;
+        }
+        if (upstreamId >= positionOf.length || downstreamId >= positionOf.length) {
+            // A node without any edges cannot close a cycle
+            return true;
+        }
+        if (positionOf[downstreamId] > positionOf[upstreamId]
+                || containsEdge(upstreamId, downstreamId)) {
+            return true;
+        }
+        return searchForward(downstreamId, positionOf[upstreamId]);
+    }
+
+    /**
+     * Indicates whether the given edge exists.
+     */
+    boolean containsEdge(final int upstreamId, final int downstreamId) {
+        return Arrays.binarySearch(getDownstream(upstreamId), downstreamId) >= 0;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity <= downstream.length) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, downstream.length
+                + (downstream.length >> 1) + 16);
+        final int oldCapacity = downstream.length;
+        final int[][] newDownstream = Arrays.copyOf(downstream, newCapacity);
+        final int[][] newUpstream = Arrays.copyOf(upstream, newCapacity);
+        positionOf = Arrays.copyOf(positionOf, newCapacity);
+        nodeAt = Arrays.copyOf(nodeAt, newCapacity);
+        visited = Arrays.copyOf(visited, newCapacity);
+        for (int i = oldCapacity; i < newCapacity; i++) {
+            newDownstream[i] = NONE;
+            newUpstream[i] = NONE;
+            // New nodes have no edges, so they can go at the end of the order
+            positionOf[i] = i;
+            nodeAt[i] = i;
+        }
+        downstream = newDownstream;
+        upstream = newUpstream;
+    }
+
+    /**
+     * Returns the sorted downstream neighbours of the given node; the array
+     * must not be modified.
+     */
+    int[] getDownstream(final int id) {
+        final int[][] current = downstream;
+        return id >= 0 && id < current.length ? current[id] : NONE;
+    }
+
+    /**
+     * Returns the number of nodes the graph has room for, i.e. one more than
+     * the highest node identifier that may have neighbours.
+     */
+    int getNodeCapacity() {
+        return downstream.length;
+    }
+
+    /**
+     * Returns the position of the given node in the topological order, which
+     * is lower than the position of any of its downstream nodes.
+     */
+    int getPosition(final int id) {
+        return id < positionOf.length ? positionOf[id] : id;
+    }
+
+    /**
+     * Returns the sorted upstream neighbours of the given node; the array must
+     * not be modified.
+     */
+    int[] getUpstream(final int id) {
+        final int[][] current = upstream;
+        return id >= 0 && id < current.length ? current[id] : NONE;
+    }
+
+    /**
+     * Removes the edge from the given upstream node to the given downstream
+     * node, if present.
+     * 
+     * @return <code>false</code> if the edge did not exist
+     */
+    boolean removeEdge(final int upstreamId, final int downstreamId) {
+        if (upstreamId < 0 || downstreamId < 0
+                || Math.max(upstreamId, downstreamId) >= downstream.length) {
+            return false;
+        }
+        final int[] before = downstream[upstreamId];
+        final int[] after = remove(before, downstreamId);
+        if (after == before) {
+            return false;
+        }
+        downstream[upstreamId] = after;
+        upstream[downstreamId] = remove(upstream[downstreamId], upstreamId);
+        return true;
+    }
+
+    /**
+     * Moves the nodes found by the last forward and backward searches so that
+     * all backward nodes precede all forward nodes, reusing the positions they
+     * occupied between them.
+     */
+    private void reorder() {
+        sortByPosition(backward);
+        sortByPosition(forward);
+        final int total = backward.size + forward.size;
+        final int[] positions = new int[total];
+        for (int i = 0; i < backward.size; i++) {
+            positions[i] = positionOf[backward.elements[i]];
+        }
+        for (int i = 0; i < forward.size; i++) {
+            positions[backward.size + i] = positionOf[forward.elements[i]];
+        }
+        Arrays.sort(positions);
+        for (int i = 0; i < total; i++) {
+            final int node = i < backward.size ? backward.elements[i]
+                    : forward.elements[i - backward.size];
+            positionOf[node] = positions[i];
+            nodeAt[positions[i]] = node;
+        }
+    }
+
+    /**
+     * Collects into {@link #backward} the nodes upstream of the given node
+     * whose position is above the given lower bound.
+     */
+    private void searchBackward(final int start, final int lowerBound) {
+        final int mark = nextVisitMark();
+        backward.clear();
+        pending.clear();
+        pending.push(start);
+        visited[start] = mark;
+        while (!pending.isEmpty()) {
+            final int node = pending.pop();
+            backward.push(node);
+            for (final int next : upstream[node]) {
+                if (visited[next] != mark && positionOf[next] > lowerBound) {
+                    visited[next] = mark;
+                    pending.push(next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects into {@link #forward} the nodes downstream of the given node
+     * whose position is below the given upper bound.
+     * 
+     * @return <code>false</code> if the node at the upper bound is reachable,
+     *         i.e. an edge from it to the start node would create a cycle
+     */
+    private boolean searchForward(final int start, final int upperBound) {
+        final int mark = nextVisitMark();
+        forward.clear();
+        pending.clear();
+        pending.push(start);
+        visited[start] = mark;
+        while (!pending.isEmpty()) {
+            final int node = pending.pop();
+            forward.push(node);
+            for (final int next : downstream[node]) {
+                final int position = positionOf[next];
+                if (position == upperBound) {
+                    return false;
+                }
+                if (visited[next] != mark && position < upperBound) {
+                    visited[next] = mark;
+                    pending.push(next);
+                }
+            }
+        }
+        return true;
+    }
+
+    private int nextVisitMark() {
+        if (++visitMark == 0) {
+            // Wrapped around; forget all previous marks
+            Arrays.fill(visited, 0);
+            visitMark = 1;
+        }
+        return visitMark;
+    }
+
+    private void sortByPosition(final IntStack nodes) {
+        // Sort by position via the inverse permutation
+        final int[] positions = new int[nodes.size];
+        for (int i = 0; i < nodes.size; i++) {
+            positions[i] = positionOf[nodes.elements[i]];
+        }
+        Arrays.sort(positions);
+        for (int i = 0; i < nodes.size; i++) {
+            nodes.elements[i] = nodeAt[positions[i]];
+        }
+    }
+}
@@ -3,11 +3,17 @@ package org.springframework.roo.metadata.internal;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferencePolicy;
@@ -16,14 +22,36 @@ import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
 import org.springframework.roo.metadata.MetadataLogger;
 import org.springframework.roo.metadata.MetadataNotificationListener;
+import org.springframework.roo.metadata.MetadataOperation;
 import org.springframework.roo.metadata.MetadataService;
+import org.springframework.roo.metadata.MetadataTraceEvent;
 
 /**
  * Default implementation of {@link MetadataDependencyRegistry}.
  * <p>
- * This implementation is not thread safe. It should only be accessed by a
- * single thread at a time. This is enforced by the process manager semantics,
- * so we avoid the cost of re-synchronization here.
+ * The dependency graph is guarded by a mutex, as providers register their
+ * dependencies from whichever thread produces their metadata (see
+ * {@link MetadataService#setConcurrentMode(boolean)}). Notifications are
+ * dispatched outside the mutex.
+ * <p>
+ * MIDs are interned into integer identifiers, and each MID's upstream and
+ * downstream dependencies are stored as sorted, copy-on-write arrays of those
+ * identifiers. The sets returned by {@link #getDownstream(String)} and
+ * {@link #getUpstream(String)} are therefore immutable views of the graph at
+ * the time of the call, without copying.
+ * <p>
+ * The graph also maintains a topological order of its MIDs incrementally, so
+ * registering a dependency only searches the part of the graph whose order
+ * must change, rather than the whole upstream closure (see
+ * {@link CompactDependencyGraph}).
+ * <p>
+ * When notification batching is enabled (see
+ * {@link #setNotificationBatchingEnabled(boolean)}, or the
+ * <code>roo.metadata.batch</code> system property), notifications published
+ * within a batch are queued per downstream MID and dispatched in topological
+ * order once the batch ends, so a MID with several changed upstreams is only
+ * notified, and hence regenerated, once. The number of notifications
+ * coalesced this way is reported by {@link #toString()}.
  * 
  * @author Ben Alex
  * @since 1.0
@@ -33,17 +61,79 @@ import org.springframework.roo.metadata.MetadataService;
 public class DefaultMetadataDependencyRegistry implements
         MetadataDependencyRegistry {
 
-    /** key: downstream dependency; value: list<upstream dependencies> */
-    private final Map<String, Set<String>> downstreamKeyed = new HashMap<String, Set<String>>();
+    /**
+     * The notifications collected by one thread between
+     * {@link DefaultMetadataDependencyRegistry#beginNotificationBatch()} and
+     * {@link DefaultMetadataDependencyRegistry#endNotificationBatch()}.
+     */
+    private static class NotificationBatch {
+        int depth;
+        boolean dispatching;
+        /** Upstreams whose general-purpose listeners are still to be notified */
+        final Set<String> listenerUpstreams = new LinkedHashSet<String>();
+        /** key: see {@link PendingNotification#key} */
+        final Map<String, PendingNotification> pending = new HashMap<String, PendingNotification>();
+        final Queue<PendingNotification> queue = new PriorityQueue<PendingNotification>();
+        long sequence;
+    }
 
-    /** key: upstream dependency; value: list<downstream dependencies> */
-    private final Map<String, Set<String>> upstreamKeyed = new HashMap<String, Set<String>>();
+    /**
+     * A notification waiting in a {@link NotificationBatch}; notifications are
+     * dispatched in the topological order of their downstream dependencies,
+     * then in the order they were published.
+     */
+    private static class PendingNotification implements
+            Comparable<PendingNotification> {
+        final String downstream;
+        /** The downstream MID, qualified by the upstream if class-level */
+        final String key;
+        final int position;
+        final long sequence;
+        final String upstream;
+        final boolean viaClass;
+
+        PendingNotification(final String upstream, final String downstream,
+                final String key, final boolean viaClass, final int position,
+                final long sequence) {
+            this.upstream = upstream;
+            this.downstream = downstream;
+            this.key = key;
+            this.viaClass = viaClass;
+            this.position = position;
+            this.sequence = sequence;
+        }
 
-    private final Set<MetadataNotificationListener> listeners = new HashSet<MetadataNotificationListener>();
+        public int compareTo(final PendingNotification other) {
+            if (position != other.position) {
+                return position < other.position ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1
+                    : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    /** Interned MIDs; the graph refers to them by integer identifier */
+    private final MetadataIdentifierTable identifiers = new MetadataIdentifierTable();
+
+    private final CompactDependencyGraph graph = new CompactDependencyGraph();
+
+    private final Set<MetadataNotificationListener> listeners = new CopyOnWriteArraySet<MetadataNotificationListener>();
+
+    private final ThreadLocal<NotificationBatch> batches = new ThreadLocal<NotificationBatch>();
+    private volatile boolean notificationBatchingEnabled = Boolean
+            .getBoolean("roo.metadata.batch");
+
+    // Statistics
+    private final AtomicLong coalescedNotifications = new AtomicLong();
+    private final AtomicLong dispatchedNotifications = new AtomicLong();
+    private final AtomicLong requestedNotifications = new AtomicLong();
+
+    // Mutex
+    private final Object lock = new Object();
 
     @Reference(policy=ReferencePolicy.DYNAMIC)
     protected volatile MetadataLogger metadataLogger;
-    protected MetadataService metadataService;
+    protected volatile MetadataService metadataService;
 
     public void addNotificationListener(
             final MetadataNotificationListener listener) {
@@ -59,16 +149,43 @@ public class DefaultMetadataDependencyRegistry implements
         listeners.add(listener);
     }
 
-    private void buildSetOfAllUpstreamDependencies(final Set<String> results,
-            final String downstreamDependency) {
-        final Set<String> upstreams = downstreamKeyed.get(downstreamDependency);
-        if (upstreams == null) {
-            return;
+    public void beginNotificationBatch() {
+        NotificationBatch batch = batches.get();
+        if (batch == null) {
+            if (!notificationBatchingEnabled) {
+                return;
+            }
+            batch = new NotificationBatch();
+            batches.set(batch);
         }
+        batch.depth++;
+    }
 
-        for (final String upstream : upstreams) {
-            results.add(upstream);
-            buildSetOfAllUpstreamDependencies(results, upstream);
+    /**
+     * Queues the notifications that the given upstream dependency would cause
+     * to be dispatched, unless identical ones are already queued.
+     */
+    private void collect(final NotificationBatch batch,
+            final String upstreamDependency) {
+        if (metadataService != null) {
+            final Set<String> downstreams = getDownstream(upstreamDependency);
+            for (final String downstream : downstreams) {
+                enqueue(batch, upstreamDependency, downstream, false);
+            }
+            if (!MetadataIdentificationUtils
+                    .isIdentifyingClass(upstreamDependency)) {
+                final String asClass = MetadataIdentificationUtils
+                        .getMetadataClassId(upstreamDependency);
+                for (final String downstream : getDownstream(asClass)) {
+                    if (!downstreams.contains(downstream)
+                            && !upstreamDependency.equals(downstream)) {
+                        enqueue(batch, upstreamDependency, downstream, true);
+                    }
+                }
+            }
+        }
+        if (!listeners.isEmpty()) {
+            batch.listenerUpstreams.add(upstreamDependency);
         }
     }
 
@@ -78,17 +195,26 @@ public class DefaultMetadataDependencyRegistry implements
                 "Downstream dependency is an invalid metadata identification string ('%s')",
                 downstreamDependency);
 
-        // Acquire the keys to delete
-        final Set<String> upstream = downstreamKeyed.get(downstreamDependency);
-        if (upstream == null) {
-            return;
+        synchronized (lock) {
+            final int downstream = identifiers.idOf(downstreamDependency);
+            // The array is not modified by removeEdge, so it's safe to iterate
+            for (final int upstream : graph.getUpstream(downstream)) {
+                graph.removeEdge(upstream, downstream);
+            }
         }
+    }
 
-        final Set<String> upstreamToDelete = new HashSet<String>(upstream);
-
-        // Delete them normally
-        for (final String deleteUpstream : upstreamToDelete) {
-            deregisterDependency(deleteUpstream, downstreamDependency);
+    public void discardNotificationBatch() {
+        final NotificationBatch batch = batches.get();
+        if (batch == null) {
+            return;
+        }
+        batch.queue.clear();
+        batch.pending.clear();
+        batch.listenerUpstreams.clear();
+        batch.depth = Math.max(0, batch.depth - 1);
+        if (batch.depth == 0 && !batch.dispatching) {
+            batches.remove();
         }
     }
 
@@ -103,17 +229,49 @@ public class DefaultMetadataDependencyRegistry implements
                 "Downstream dependency is an invalid metadata identification string ('%s')",
                 downstreamDependency);
 
-        // Maintain the upstream-keyed map, if it even exists
-        final Set<String> downstream = upstreamKeyed.get(upstreamDependency);
-        if (downstream != null) {
-            downstream.remove(downstreamDependency);
+        synchronized (lock) {
+            graph.removeEdge(identifiers.idOf(upstreamDependency),
+                    identifiers.idOf(downstreamDependency));
+        }
+    }
+
+    public void endNotificationBatch() {
+        final NotificationBatch batch = batches.get();
+        if (batch == null) {
+            return;
+        }
+        batch.depth--;
+        if (batch.depth > 0 || batch.dispatching) {
+            // The outermost batch (or the dispatch loop) will take care of it
+            return;
+        }
+        batch.dispatching = true;
+        try {
+            dispatch(batch);
         }
+        finally {
+            batches.remove();
+        }
+    }
 
-        // Maintain the downstream-keyed map, if it even exists
-        final Set<String> upstream = downstreamKeyed.get(downstreamDependency);
-        if (upstream != null) {
-            upstream.remove(upstreamDependency);
+    private void enqueue(final NotificationBatch batch,
+            final String upstreamDependency, final String downstreamDependency,
+            final boolean viaClass) {
+        requestedNotifications.incrementAndGet();
+        // A class-level downstream decides which instance to refresh based on
+        // the upstream, so such notifications only coalesce per upstream
+        final String key = MetadataIdentificationUtils
+                .isIdentifyingClass(downstreamDependency) ? downstreamDependency
+                + " <- " + upstreamDependency : downstreamDependency;
+        if (batch.pending.containsKey(key)) {
+            coalescedNotifications.incrementAndGet();
+            return;
         }
+        final PendingNotification notification = new PendingNotification(
+                upstreamDependency, downstreamDependency, key, viaClass,
+                getPosition(downstreamDependency), batch.sequence++);
+        batch.pending.put(key, notification);
+        batch.queue.add(notification);
     }
 
     public Set<String> getDownstream(final String upstreamDependency) {
@@ -122,13 +280,23 @@ public class DefaultMetadataDependencyRegistry implements
                 "Upstream dependency is an invalid metadata identification string ('%s')",
                 upstreamDependency);
 
-        final Set<String> downstream = upstreamKeyed.get(upstreamDependency);
-        if (downstream == null) {
-            return new HashSet<String>();
+        synchronized (lock) {
+            return new IdentifierSetView(graph.getDownstream(identifiers
+                    .idOf(upstreamDependency)), identifiers);
         }
+    }
 
-        return Collections.unmodifiableSet(new CopyOnWriteArraySet<String>(
-                downstream));
+    public Set<String> getRegisteredUpstreams() {
+        final Set<String> result = new HashSet<String>();
+        synchronized (lock) {
+            final int nodes = graph.getNodeCapacity();
+            for (int id = 0; id < nodes; id++) {
+                if (graph.getDownstream(id).length > 0) {
+                    result.add(identifiers.nameOf(id));
+                }
+            }
+        }
+        return Collections.unmodifiableSet(result);
     }
 
     public Set<String> getUpstream(final String downstreamDependency) {
@@ -137,79 +305,96 @@ public class DefaultMetadataDependencyRegistry implements
                 "Downstream dependency is an invalid metadata identification string ('%s')",
                 downstreamDependency);
 
-        final Set<String> upstream = downstreamKeyed.get(downstreamDependency);
-        if (upstream == null) {
-            return new HashSet<String>();
+        synchronized (lock) {
+            return new IdentifierSetView(graph.getUpstream(identifiers
+                    .idOf(downstreamDependency)), identifiers);
         }
-
-        return Collections.unmodifiableSet(upstream);
     }
 
     public boolean isValidDependency(final String upstreamDependency,
             final String downstreamDependency) {
-        Validate.isTrue(
-                MetadataIdentificationUtils.isValid(upstreamDependency),
-                "Upstream dependency is an invalid metadata identification string ('%s')",
-                upstreamDependency);
-        Validate.isTrue(
-                MetadataIdentificationUtils.isValid(downstreamDependency),
-                "Downstream dependency is an invalid metadata identification string ('%s')",
-                downstreamDependency);
-        Validate.isTrue(
-                !upstreamDependency.equals(downstreamDependency),
-                "Upstream dependency cannot be the same as the downstream dependency ('%s')",
-                downstreamDependency);
+        validateDependency(upstreamDependency, downstreamDependency);
+
+        synchronized (lock) {
+            final int upstream = identifiers.idOf(upstreamDependency);
+            final int downstream = identifiers.idOf(downstreamDependency);
+            if (upstream < 0 || downstream < 0) {
+                // A MID never seen before cannot close a cycle
+                return true;
+            }
 
-        // The simplest possible outcome is the relationship already exists, so
-        // quickly return in that case
-        Set<String> downstream = upstreamKeyed.get(upstreamDependency);
-        if (downstream != null && downstream.contains(downstreamDependency)) {
-            return true;
+            // The graph is acyclic and ordered topologically, so only the
+            // nodes between the two dependencies need to be searched
+            return graph.canAddEdge(upstream, downstream);
         }
-        // Don't need the variable anymore, as we don't care about the other
-        // downstream dependencies
-        downstream = null;
+    }
 
-        // Need to walk the upstream dependency's parent dependency graph,
-        // verifying no presence of the proposed downstream dependency
+    /**
+     * Dispatches every notification collected by the given batch; see
+     * {@link #endNotificationBatch()}.
+     */
+    private void dispatch(final NotificationBatch batch) {
+        try {
+            metadataLogger.startEvent();
+            while (!batch.queue.isEmpty() || !batch.listenerUpstreams.isEmpty()) {
+                // The metadata service receives each notification before the
+                // general-purpose listeners, as when dispatching immediately
+                PendingNotification notification;
+                while ((notification = batch.queue.poll()) != null) {
+                    batch.pending.remove(notification.key);
+                    notifyMetadataService(notification.upstream,
+                            notification.downstream, notification.viaClass);
+                }
+                final Iterator<String> iter = batch.listenerUpstreams
+                        .iterator();
+                if (iter.hasNext()) {
+                    final String upstream = iter.next();
+                    iter.remove();
+                    notifyListeners(upstream);
+                }
+            }
+        }
+        finally {
+            metadataLogger.stopEvent();
+        }
+    }
 
-        // Need to build a set representing every eventual upstream dependency
-        // of the indicated upstream dependency
-        final Set<String> allUpstreams = new HashSet<String>();
-        buildSetOfAllUpstreamDependencies(allUpstreams, upstreamDependency);
+    /**
+     * Returns the position of the given MID in the topological order of the
+     * graph, or -1 if it has no dependencies.
+     */
+    private int getPosition(final String metadataIdentificationString) {
+        synchronized (lock) {
+            final int id = identifiers.idOf(metadataIdentificationString);
+            return id < 0 ? -1 : graph.getPosition(id);
+        }
+    }
 
-        // The dependency is valid if none of the upstreams depend on the
-        // proposed downstream
-        return !allUpstreams.contains(downstreamDependency);
+    public boolean isNotificationBatchingEnabled() {
+        return notificationBatchingEnabled;
     }
 
     public void notifyDownstream(final String upstreamDependency) {
+        final NotificationBatch batch = batches.get();
+        if (batch != null) {
+            collect(batch, upstreamDependency);
+            return;
+        }
+
         try {
             metadataLogger.startEvent();
 
             if (metadataService != null) {
                 // First dispatch the fine-grained, instance-specific
                 // dependencies.
-                Set<String> notifiedDownstreams = new HashSet<String>();
-                Set<String> downstreams = getDownstream(upstreamDependency);
+                final Set<String> downstreams = getDownstream(upstreamDependency);
                 for (final String downstream : downstreams) {
-                    if (metadataLogger.getTraceLevel() > 0) {
-                        metadataLogger.log(upstreamDependency + " -> "
-                                + downstream);
-                    }
                     // No need to ensure upstreamDependency is different from
                     // downstream, as that's taken care of in the
                     // isValidDependency() method
-                    try {
-                        final String responsibleClass = MetadataIdentificationUtils
-                                .getMetadataClass(downstream);
-                        metadataLogger.startTimer(responsibleClass);
-                        metadataService.notify(upstreamDependency, downstream);
-                    }
-                    finally {
-                        metadataLogger.stopTimer();
-                    }
-                    notifiedDownstreams.add(downstream);
+                    requestedNotifications.incrementAndGet();
+                    notifyMetadataService(upstreamDependency, downstream,
+                            false);
                 }
 
                 // Next dispatch the coarse-grained, class-specific
@@ -221,8 +406,7 @@ public class DefaultMetadataDependencyRegistry implements
                         .isIdentifyingClass(upstreamDependency)) {
                     final String asClass = MetadataIdentificationUtils
                             .getMetadataClassId(upstreamDependency);
-                    downstreams = getDownstream(asClass);
-                    for (final String downstream : downstreams) {
+                    for (final String downstream : getDownstream(asClass)) {
                         // We don't notify a downstream if it had a direct
                         // instance-specific dependency and was already notified
                         // in previous loop
@@ -233,74 +417,83 @@ public class DefaultMetadataDependencyRegistry implements
                         // registered to receive class-specific notifications
                         // and that instance
                         // caused an event to fire)
-                        if (!notifiedDownstreams.contains(downstream)
+                        if (!downstreams.contains(downstream)
                                 && !upstreamDependency.equals(downstream)) {
-                            if (metadataLogger.getTraceLevel() > 0) {
-                                metadataLogger.log(upstreamDependency + " -> "
-                                        + downstream + " [via class]");
-                            }
-                            try {
-                                final String responsibleClass = MetadataIdentificationUtils
-                                        .getMetadataClass(downstream);
-                                metadataLogger.startTimer(responsibleClass);
-                                metadataService.notify(upstreamDependency,
-                                        downstream);
-                            }
-                            finally {
-                                metadataLogger.stopTimer();
-                            }
+                            requestedNotifications.incrementAndGet();
+                            notifyMetadataService(upstreamDependency,
+                                    downstream, true);
                         }
                     }
                 }
-
-                notifiedDownstreams = null;
             }
 
             // Finally dispatch the general-purpose additional listeners
-            for (final MetadataNotificationListener listener : listeners) {
-                if (metadataLogger.getTraceLevel() > 1) {
-                    metadataLogger.log(upstreamDependency + " -> "
-                            + upstreamDependency + " ["
-                            + listener.getClass().getSimpleName() + "]");
-                }
-                try {
-                    final String responsibleClass = listener.getClass()
-                            .getName();
-                    metadataLogger.startTimer(responsibleClass);
-                    listener.notify(upstreamDependency, null);
-                }
-                finally {
-                    metadataLogger.stopTimer();
-                }
-            }
+            notifyListeners(upstreamDependency);
         }
         finally {
             metadataLogger.stopEvent();
         }
     }
 
-    public void registerDependency(final String upstreamDependency,
-            final String downstreamDependency) {
-        Validate.isTrue(
-                isValidDependency(upstreamDependency, downstreamDependency),
-                "Invalid dependency between upstream '%s' and downstream '%s'",
-                upstreamDependency, downstreamDependency);
+    private void notifyListeners(final String upstreamDependency) {
+        for (final MetadataNotificationListener listener : listeners) {
+            if (metadataLogger.getTraceLevel() > 1) {
+                metadataLogger.log(upstreamDependency + " -> "
+                        + upstreamDependency + " ["
+                        + listener.getClass().getSimpleName() + "]");
+            }
+            try {
+                final String responsibleClass = listener.getClass().getName();
+                metadataLogger.startTimer(responsibleClass);
+                listener.notify(upstreamDependency, null);
+            }
+            finally {
+                metadataLogger.stopTimer();
+            }
+        }
+    }
 
-        // Maintain the upstream-keyed map
-        Set<String> downstream = upstreamKeyed.get(upstreamDependency);
-        if (downstream == null) {
-            downstream = new HashSet<String>();
-            upstreamKeyed.put(upstreamDependency, downstream);
+    private void notifyMetadataService(final String upstreamDependency,
+            final String downstreamDependency, final boolean viaClass) {
+        final MetadataService service = metadataService;
+        if (service == null) {
+            return;
+        }
+        if (metadataLogger.getTraceLevel() > 0) {
+            metadataLogger.log(upstreamDependency + " -> "
+                    + downstreamDependency + (viaClass ? " [via class]" : ""));
+        }
+        dispatchedNotifications.incrementAndGet();
+        final String responsibleClass = MetadataIdentificationUtils
+                .getMetadataClass(downstreamDependency);
+        final long started = System.nanoTime();
+        metadataLogger.recordTraceEvent(MetadataTraceEvent.NOTIFY_START,
+                downstreamDependency, upstreamDependency);
+        try {
+            metadataLogger.startTimer(responsibleClass);
+            service.notify(upstreamDependency, downstreamDependency);
+        }
+        finally {
+            metadataLogger.stopTimer();
+            metadataLogger.recordLatency(responsibleClass,
+                    MetadataOperation.NOTIFY, System.nanoTime() - started);
+            metadataLogger.recordTraceEvent(MetadataTraceEvent.NOTIFY_END,
+                    downstreamDependency, upstreamDependency);
         }
-        downstream.add(downstreamDependency);
+    }
 
-        // Maintain the downstream-keyed map
-        Set<String> upstream = downstreamKeyed.get(downstreamDependency);
-        if (upstream == null) {
-            upstream = new HashSet<String>();
-            downstreamKeyed.put(downstreamDependency, upstream);
+    public void registerDependency(final String upstreamDependency,
+            final String downstreamDependency) {
+        validateDependency(upstreamDependency, downstreamDependency);
+
+        synchronized (lock) {
+            final boolean acyclic = graph.addEdge(
+                    identifiers.intern(upstreamDependency),
+                    identifiers.intern(downstreamDependency));
+            Validate.isTrue(acyclic,
+                    "Invalid dependency between upstream '%s' and downstream '%s'",
+                    upstreamDependency, downstreamDependency);
         }
-        upstream.add(upstreamDependency);
     }
 
     public void removeNotificationListener(
@@ -315,4 +508,37 @@ public class DefaultMetadataDependencyRegistry implements
 
         listeners.remove(listener);
     }
+
+    public void setNotificationBatchingEnabled(
+            final boolean notificationBatchingEnabled) {
+        this.notificationBatchingEnabled = notificationBatchingEnabled;
+    }
+
+    @Override
+    public String toString() {
+        final ToStringBuilder builder = new ToStringBuilder(this);
+        builder.append("notificationBatchingEnabled",
+                notificationBatchingEnabled);
+        builder.append("requestedNotifications", requestedNotifications.get());
+        builder.append("dispatchedNotifications",
+                dispatchedNotifications.get());
+        builder.append("coalescedNotifications", coalescedNotifications.get());
+        return builder.toString();
+    }
+
+    private void validateDependency(final String upstreamDependency,
+            final String downstreamDependency) {
+        Validate.isTrue(
+                MetadataIdentificationUtils.isValid(upstreamDependency),
+                "Upstream dependency is an invalid metadata identification string ('%s')",
+                upstreamDependency);
+        Validate.isTrue(
+                MetadataIdentificationUtils.isValid(downstreamDependency),
+                "Downstream dependency is an invalid metadata identification string ('%s')",
+                downstreamDependency);
+        Validate.isTrue(
+                !upstreamDependency.equals(downstreamDependency),
+                "Upstream dependency cannot be the same as the downstream dependency ('%s')",
+                downstreamDependency);
+    }
 }
@@ -0,0 +1,36 @@
+package org.springframework.roo.metadata.internal;
+
+import org.springframework.roo.metadata.MetadataItem;
+import org.springframework.roo.metadata.WeighableMetadataItem;
+
+/**
+ * {@link MetadataItemWeigher} that estimates an item's size from the number of
+ * elements it describes (see {@link WeighableMetadataItem}), so a large item
+ * such as web scaffold metadata weighs far more than plural metadata. Items
+ * that can't count their elements are given a fixed weight.
+ * 
+ * @since 2.0
+ */
+public class DefaultMetadataItemWeigher implements MetadataItemWeigher {
+
+    /** Estimated size of the item, its identifier and the cache entry */
+    static final long BASE_WEIGHT = 256;
+
+    /**
+     * Estimated size of one member or annotation, including its names, types
+     * and body
+     */
+    static final long ELEMENT_WEIGHT = 512;
+
+    /** Estimated size of the content of an item that can't count it */
+    static final long UNKNOWN_CONTENT_WEIGHT = 2048;
+
+    public long weigh(final MetadataItem metadataItem) {
+        if (metadataItem instanceof WeighableMetadataItem) {
+            return BASE_WEIGHT
+                    + ELEMENT_WEIGHT
+                    * ((WeighableMetadataItem) metadataItem).getElementCount();
+        }
+        return BASE_WEIGHT + UNKNOWN_CONTENT_WEIGHT;
+    }
+}
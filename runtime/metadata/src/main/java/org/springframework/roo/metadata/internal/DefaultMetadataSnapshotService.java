@@ -0,0 +1,257 @@
+package org.springframework.roo.metadata.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.osgi.framework.Bundle;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
+import org.springframework.roo.metadata.MetadataFingerprint;
+import org.springframework.roo.metadata.MetadataSnapshotService;
+import org.springframework.roo.support.logging.HandlerUtils;
+import org.springframework.roo.support.osgi.OSGiUtils;
+
+/**
+ * Default implementation of {@link MetadataSnapshotService}, which stores the
+ * snapshot in <code>.roo/metadata.snapshot</code> below the Roo working
+ * directory.
+ * <p>
+ * Snapshots are only used if the <code>roo.metadata.snapshot</code> system
+ * property is set to <code>true</code>. The snapshot is loaded when this
+ * component is activated and written when it is deactivated, i.e. when the
+ * shell closes.
+ * <p>
+ * A snapshot written by another Roo version, with other add-ons installed, or
+ * whose generated files no longer all exist is discarded as a whole.
+ *
+ * @since 2.0
+ */
+@Component
+@Service
+public class DefaultMetadataSnapshotService implements MetadataSnapshotService {
+
+    private static final Logger LOGGER = HandlerUtils
+            .getLogger(DefaultMetadataSnapshotService.class);
+
+    private static final String SNAPSHOT_FILE = ".roo" + File.separator
+            + "metadata.snapshot";
+
+    @Reference private MetadataDependencyRegistry metadataDependencyRegistry;
+
+    private final boolean enabled = Boolean.getBoolean("roo.metadata.snapshot");
+    private final Set<String> addOns = new TreeSet<String>();
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<String, String>();
+    private final Set<String> generatedFiles = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private String rooVersion = "";
+    private File snapshotFile;
+    private final Map<String, String> sources = new ConcurrentHashMap<String, String>();
+    /** key: notifier name */
+    private final Map<String, Map<String, MetadataFingerprint>> trackedFingerprints = new ConcurrentHashMap<String, Map<String, MetadataFingerprint>>();
+    private final Set<String> unchanged = new HashSet<String>();
+
+    protected void activate(final ComponentContext context) {
+        final String workingDir = OSGiUtils.getRooWorkingDirectory(context);
+        if (enabled && StringUtils.isNotBlank(workingDir)) {
+            snapshotFile = new File(workingDir, SNAPSHOT_FILE);
+            rooVersion = String.valueOf(context.getBundleContext()
+                    .getBundle().getVersion());
+            for (final Bundle bundle : context.getBundleContext().getBundles()) {
+                addOns.add(bundle.getSymbolicName() + ";"
+                        + bundle.getVersion());
+            }
+            load();
+        }
+    }
+
+    protected void deactivate(final ComponentContext context) {
+        save();
+    }
+
+    public Map<String, MetadataFingerprint> getTrackedFingerprints(
+            final String notifierName) {
+        Validate.notBlank(notifierName, "Notifier name required");
+        synchronized (trackedFingerprints) {
+            Map<String, MetadataFingerprint> result = trackedFingerprints
+                    .get(notifierName);
+            if (result == null) {
+                result = new ConcurrentHashMap<String, MetadataFingerprint>();
+                trackedFingerprints.put(notifierName, result);
+            }
+            return result;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isUnchangedSinceSnapshot(
+            final String metadataIdentificationString) {
+        synchronized (unchanged) {
+            return unchanged.contains(metadataIdentificationString);
+        }
+    }
+
+    /**
+     * Restores the state recorded in the snapshot file, skipping anything
+     * that is stale.
+     */
+    private void load() {
+        final MetadataSnapshot snapshot;
+        try {
+            snapshot = MetadataSnapshot.read(snapshotFile);
+        }
+        catch (final Exception e) {
+            // An unreadable snapshot just means a full regeneration
+            LOGGER.log(Level.FINE, "Ignoring unreadable metadata snapshot", e);
+            return;
+        }
+        if (snapshot == null) {
+            return;
+        }
+        if (!snapshot.isValidFor(rooVersion, addOns)) {
+            LOGGER.fine("Ignoring metadata snapshot of another Roo version, "
+                    + "set of add-ons or with missing generated files");
+            return;
+        }
+        // Files generated last session remain so unless regenerated otherwise
+        generatedFiles.addAll(snapshot.getGeneratedFiles());
+
+        final Set<String> stale = snapshot.getStaleIdentifiers();
+
+        for (final Map.Entry<String, Set<String>> entry : snapshot
+                .getDependencies().entrySet()) {
+            for (final String downstream : entry.getValue()) {
+                try {
+                    metadataDependencyRegistry.registerDependency(
+                            entry.getKey(), downstream);
+                }
+                catch (final IllegalArgumentException ignore) {
+                    // Already re-registered the other way round this session
+                }
+            }
+        }
+
+        // Fingerprints describe content rather than freshness, so even those
+        // of stale items are restored: if such an item is regenerated without
+        // changes, its downstream items need not be notified
+        for (final Map.Entry<String, Map<String, String>> entry : snapshot
+                .getItemFingerprints().entrySet()) {
+            final Map<String, MetadataFingerprint> tracked = getTrackedFingerprints(entry
+                    .getKey());
+            for (final Map.Entry<String, String> fingerprint : entry
+                    .getValue().entrySet()) {
+                tracked.put(fingerprint.getKey(),
+                        MetadataFingerprint.valueOf(fingerprint.getValue()));
+            }
+        }
+
+        for (final Map.Entry<String, String> entry : snapshot.getSources()
+                .entrySet()) {
+            if (!stale.contains(entry.getKey())) {
+                final String path = entry.getValue();
+                sources.put(entry.getKey(), path);
+                fingerprints.put(path, snapshot.getFingerprints().get(path));
+                synchronized (unchanged) {
+                    unchanged.add(entry.getKey());
+                }
+            }
+        }
+
+        LOGGER.fine("Restored metadata snapshot: " + unchanged.size()
+                + " unchanged, " + stale.size() + " stale");
+    }
+
+    public void recordGeneratedFile(final String canonicalPath) {
+        Validate.notBlank(canonicalPath, "Canonical path required");
+        if (enabled) {
+            generatedFiles.add(canonicalPath);
+        }
+    }
+
+    public void recordSource(final String metadataIdentificationString,
+            final String canonicalPath) {
+        Validate.notBlank(metadataIdentificationString,
+                "Metadata identification string required");
+        Validate.notBlank(canonicalPath, "Canonical path required");
+        if (!enabled) {
+            return;
+        }
+        sourceChanged(metadataIdentificationString);
+        final String fingerprint = MetadataSnapshot.fingerprint(new File(
+                canonicalPath));
+        if (fingerprint == null) {
+            sources.remove(metadataIdentificationString);
+            return;
+        }
+        sources.put(metadataIdentificationString, canonicalPath);
+        fingerprints.put(canonicalPath, fingerprint);
+    }
+
+    public void save() {
+        if (snapshotFile == null) {
+            return;
+        }
+        final MetadataSnapshot snapshot = new MetadataSnapshot();
+        snapshot.setRooVersion(rooVersion);
+        snapshot.getAddOns().addAll(addOns);
+        for (final String generatedFile : generatedFiles) {
+            // Generated files that were deleted since need not be checked
+            if (new File(generatedFile).isFile()) {
+                snapshot.getGeneratedFiles().add(generatedFile);
+            }
+        }
+        for (final String upstream : metadataDependencyRegistry
+                .getRegisteredUpstreams()) {
+            snapshot.getDependencies().put(
+                    upstream,
+                    new HashSet<String>(metadataDependencyRegistry
+                            .getDownstream(upstream)));
+        }
+        synchronized (trackedFingerprints) {
+            for (final Map.Entry<String, Map<String, MetadataFingerprint>> entry : trackedFingerprints
+                    .entrySet()) {
+                final Map<String, String> stable = new HashMap<String, String>();
+                for (final Map.Entry<String, MetadataFingerprint> fingerprint : entry
+                        .getValue().entrySet()) {
+                    // Hash code based fingerprints mean nothing after a restart
+                    if (fingerprint.getValue().isStable()) {
+                        stable.put(fingerprint.getKey(), fingerprint.getValue()
+                                .toString());
+                    }
+                }
+                snapshot.getItemFingerprints().put(entry.getKey(), stable);
+            }
+        }
+        snapshot.getSources().putAll(sources);
+        snapshot.getFingerprints().putAll(fingerprints);
+
+        try {
+            snapshot.write(snapshotFile);
+        }
+        catch (final IOException e) {
+            LOGGER.log(Level.FINE, "Unable to write metadata snapshot", e);
+        }
+    }
+
+    public void sourceChanged(final String metadataIdentificationString) {
+        synchronized (unchanged) {
+            unchanged.remove(metadataIdentificationString);
+        }
+    }
+}
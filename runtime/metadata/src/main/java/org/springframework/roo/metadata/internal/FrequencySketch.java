@@ -0,0 +1,101 @@
+package org.springframework.roo.metadata.internal;
+
+/**
+ * A count-min sketch estimating how often each metadata identifier has been
+ * requested recently, for use by {@link TinyLfuMetadataCachePolicy}.
+ * <p>
+ * Each key is counted in four 4-bit counters, sixteen of which are packed
+ * into each <code>long</code> of the table; its frequency is the smallest of
+ * them. Counters saturate at 15, and all counters are halved once the number
+ * of increments reaches ten times the number of expected entries, so that the
+ * sketch reflects recent rather than historic popularity. Recording an access
+ * does not allocate.
+ * 
+ * @since 2.0
+ */
+class FrequencySketch {
+
+    private static final int MAX_COUNT = 15;
+    private static final int MAX_TABLE_SIZE = 1 << 22;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = { 0x97cb3127, 0xb2a9f1d3, 0x6d8b4f2d,
+            0x5f356495 };
+
+    private int additions;
+    private final int mask;
+    private final int sampleSize;
+    private final long[] table;
+
+    /**
+     * Constructor
+     * 
+     * @param expectedEntries the number of distinct keys expected to be
+     *            tracked, usually the maximum capacity of the cache
+     */
+    FrequencySketch(final int expectedEntries) {
+        int size = 16;
+        while (size < expectedEntries && size < MAX_TABLE_SIZE) {
+            size <<= 1;
+        }
+        table = new long[size];
+        // Sixteen counters per element of the table
+        mask = (size << 4) - 1;
+        sampleSize = 10 * size;
+    }
+
+    /**
+     * Returns the estimated number of recent accesses of the given key.
+     */
+    int frequency(final String key) {
+        final int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, getCount(indexOf(hash, i)));
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an access of the given key.
+     */
+    void increment(final String key) {
+        final int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int index = indexOf(hash, i);
+            if (getCount(index) < MAX_COUNT) {
+                table[index >>> 4] += 1L << ((index & 15) << 2);
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private int getCount(final int index) {
+        return (int) (table[index >>> 4] >>> ((index & 15) << 2)) & MAX_COUNT;
+    }
+
+    private int indexOf(final int hash, final int row) {
+        int h = (hash + SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    /**
+     * Ages the sketch by halving every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int spread(final int hashCode) {
+        int h = hashCode * 0x9e3779b9;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,61 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable {@link java.util.Set} of MIDs backed by a sorted array of
+ * interned identifiers. The array is never modified once published by
+ * {@link CompactDependencyGraph}, so a view can be handed out and iterated
+ * without copying, even while the graph changes.
+ * 
+ * @since 2.0
+ */
+class IdentifierSetView extends AbstractSet<String> {
+
+    private final int[] ids;
+    private final MetadataIdentifierTable table;
+
+    IdentifierSetView(final int[] ids, final MetadataIdentifierTable table) {
+        this.ids = ids;
+        this.table = table;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        final int id = table.idOf((String) o);
+        return id >= 0 && Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int index;
+
+            public boolean hasNext() {
+                return index < ids.length;
+            }
+
+            public String next() {
+                if (index >= ids.length) {
+                    throw new NoSuchElementException();
+                }
+                return table.nameOf(ids[index++]);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return ids.length;
+    }
+}
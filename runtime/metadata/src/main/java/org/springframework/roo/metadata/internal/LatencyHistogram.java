@@ -0,0 +1,118 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, which can be recorded into by many
+ * threads at once without locking or allocating.
+ * <p>
+ * Values are counted in log-linear buckets: each power of two is split into
+ * 16 equal buckets, so a bucket's bounds differ by at most 1/16th. Values of
+ * 2^41 nanoseconds (about 37 minutes) or more are counted in the last bucket,
+ * along with the values from 31 * 2^36 up to that.
+ * 
+ * @since 2.0
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2)
+            * SUB_BUCKETS;
+
+    /**
+     * Returns the bucket the given value is counted in.
+     */
+    static int bucketOf(final long value) {
+        if (value < SUB_BUCKETS << 1) {
+            return (int) Math.max(0, value);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        final int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS)
+                + subBucket;
+    }
+
+    /**
+     * Returns the highest value counted in the given bucket.
+     */
+    static long upperBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS << 1) {
+            return bucket;
+        }
+        final int exponent = (bucket >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        final long subBucket = bucket & (SUB_BUCKETS - 1);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong maximum = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * Returns a copy of the count of each bucket.
+     */
+    long[] getCounts() {
+        final long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    long getMaximum() {
+        return maximum.get();
+    }
+
+    long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Records one value.
+     * 
+     * @param nanoseconds the latency to record (negative values count as zero)
+     */
+    public void record(final long nanoseconds) {
+        final long value = Math.max(0, nanoseconds);
+        counts.incrementAndGet(bucketOf(value));
+        total.addAndGet(value);
+        long current;
+        while (value > (current = maximum.get())) {
+            if (maximum.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the given percentile of the given bucket counts, as the upper
+     * bound of the bucket it falls into, capped at the given maximum.
+     */
+    static long percentile(final long[] counts, final long maximum,
+            final double percentile) {
+        long population = 0;
+        for (final long count : counts) {
+            population += count;
+        }
+        if (population == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1,
+                (long) Math.ceil(population * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), maximum);
+            }
+        }
+        return maximum;
+    }
+}
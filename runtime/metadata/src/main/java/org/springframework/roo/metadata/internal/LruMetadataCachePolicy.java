@@ -0,0 +1,72 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.springframework.roo.metadata.MetadataItem;
+
+/**
+ * {@link MetadataCachePolicy} that evicts the least recently used items.
+ * 
+ * @since 2.0
+ */
+public class LruMetadataCachePolicy extends MetadataCachePolicy {
+
+    private static final float hashTableLoadFactor = 0.75f;
+
+    private final LinkedHashMap<String, Entry> map;
+    private long weight;
+
+    public LruMetadataCachePolicy(final int maxCapacity, final long maxWeight,
+            final EvictionListener listener) {
+        super(maxCapacity, maxWeight, listener);
+        final int hashTableCapacity = (int) Math.ceil(maxCapacity
+                / hashTableLoadFactor) + 1;
+        map = new LinkedHashMap<String, Entry>(hashTableCapacity,
+                hashTableLoadFactor, true);
+    }
+
+    @Override
+    public MetadataItem get(final String metadataIdentificationString) {
+        final Entry entry = map.get(metadataIdentificationString);
+        return entry == null ? null : entry.item;
+    }
+
+    @Override
+    public long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public void put(final MetadataItem metadataItem, final long itemWeight) {
+        final Entry previous = map.put(metadataItem.getId(), new Entry(
+                metadataItem, itemWeight));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += itemWeight;
+
+        final Iterator<Entry> eldest = map.values().iterator();
+        while (map.size() > maxCapacity || weight > maxWeight) {
+            final EvictionReason reason = map.size() > maxCapacity ? EvictionReason.CAPACITY
+                    : EvictionReason.WEIGHT;
+            final Entry entry = eldest.next();
+            eldest.remove();
+            weight -= entry.weight;
+            evicted(entry, reason);
+        }
+    }
+
+    @Override
+    public void remove(final String metadataIdentificationString) {
+        final Entry entry = map.remove(metadataIdentificationString);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+}
@@ -0,0 +1,107 @@
+package org.springframework.roo.metadata.internal;
+
+import org.springframework.roo.metadata.MetadataItem;
+
+/**
+ * Stores the items of an {@link AbstractMetadataCache} and decides which of
+ * them to evict once the cache exceeds its maximum number of entries or its
+ * maximum weight.
+ * <p>
+ * Implementations are not thread safe; the owning cache serializes access.
+ * 
+ * @since 2.0
+ */
+public abstract class MetadataCachePolicy {
+
+    /**
+     * A cached item along with its estimated weight.
+     */
+    protected static class Entry {
+        final MetadataItem item;
+        final long weight;
+
+        Entry(final MetadataItem item, final long weight) {
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Why an item left the cache other than by an explicit eviction.
+     */
+    public enum EvictionReason {
+        /** The cache held its maximum number of entries */
+        CAPACITY,
+        /** The cache held its maximum weight */
+        WEIGHT,
+        /** The admission policy found the item less valuable than the others */
+        ADMISSION,
+        /** The garbage collector reclaimed a softly referenced item */
+        COLLECTED
+    }
+
+    /**
+     * Receives the items evicted by a {@link MetadataCachePolicy}.
+     */
+    public interface EvictionListener {
+
+        void onEviction(MetadataItem item, long weight, EvictionReason reason);
+    }
+
+    private final EvictionListener listener;
+    protected final int maxCapacity;
+    protected final long maxWeight;
+
+    /**
+     * Constructor
+     * 
+     * @param maxCapacity the maximum number of items
+     * @param maxWeight the maximum total weight of the items
+     * @param listener to notify of evicted items (required)
+     */
+    protected MetadataCachePolicy(final int maxCapacity, final long maxWeight,
+            final EvictionListener listener) {
+        this.listener = listener;
+        this.maxCapacity = maxCapacity;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Reports an evicted item to the listener.
+     */
+    protected final void evicted(final Entry entry, final EvictionReason reason) {
+        listener.onEviction(entry.item, entry.weight, reason);
+    }
+
+    /**
+     * Returns the item with the given identifier, recording the access.
+     * 
+     * @return <code>null</code> if not cached
+     */
+    public abstract MetadataItem get(String metadataIdentificationString);
+
+    /**
+     * Returns the total weight of the cached items.
+     */
+    public abstract long getWeight();
+
+    /**
+     * Caches the given item, replacing any item with the same identifier and
+     * evicting other items as required.
+     * 
+     * @param metadataItem the item to cache (required)
+     * @param weight its estimated weight
+     */
+    public abstract void put(MetadataItem metadataItem, long weight);
+
+    /**
+     * Removes the item with the given identifier, without reporting it as
+     * evicted.
+     */
+    public abstract void remove(String metadataIdentificationString);
+
+    /**
+     * Returns the number of cached items.
+     */
+    public abstract int size();
+}
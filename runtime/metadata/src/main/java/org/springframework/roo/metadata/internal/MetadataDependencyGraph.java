@@ -0,0 +1,492 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+
+/**
+ * A snapshot of the graph of dependencies held by a
+ * {@link MetadataDependencyRegistry}, in which each item is weighted by the
+ * time it last took to regenerate (see
+ * {@link org.springframework.roo.metadata.MetadataLogger#getRegenerationTimes()}
+ * ).
+ * <p>
+ * The <em>cascade</em> of an item is the item itself plus every item
+ * downstream of it, i.e. what may be regenerated when it changes; its cost is
+ * the sum of their regeneration times. The <em>critical path</em> of an item
+ * is its most expensive single chain of downstream dependencies. Items that
+ * have not been regenerated since the times were last recorded cost nothing.
+ * <p>
+ * Class-level dependencies are followed the way the registry delivers them:
+ * an instance is upstream of each downstream of its metadata class, with a
+ * class-level downstream standing for its instance of the same key.
+ *
+ * @since 2.0
+ */
+public class MetadataDependencyGraph {
+
+    /**
+     * The cascade of one item.
+     */
+    public static class Cascade {
+        private final List<String> criticalPath;
+        private final long criticalPathTime;
+        private final int itemCount;
+        private final String metadataIdentificationString;
+        private final long totalTime;
+
+        Cascade(final String metadataIdentificationString,
+                final long totalTime, final int itemCount,
+                final List<String> criticalPath, final long criticalPathTime) {
+            this.metadataIdentificationString = metadataIdentificationString;
+            this.totalTime = totalTime;
+            this.itemCount = itemCount;
+            this.criticalPath = criticalPath;
+            this.criticalPathTime = criticalPathTime;
+        }
+
+        /**
+         * @return the most expensive chain of items, starting with this
+         *         cascade's item (never empty)
+         */
+        public List<String> getCriticalPath() {
+            return Collections.unmodifiableList(criticalPath);
+        }
+
+        /**
+         * @return the regeneration time of the critical path, in nanoseconds
+         */
+        public long getCriticalPathTime() {
+            return criticalPathTime;
+        }
+
+        /**
+         * @return the number of items in the cascade, including its own item
+         */
+        public int getItemCount() {
+            return itemCount;
+        }
+
+        public String getMetadataIdentificationString() {
+            return metadataIdentificationString;
+        }
+
+        /**
+         * @return the regeneration time of the whole cascade, in nanoseconds
+         */
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        @Override
+        public String toString() {
+            return metadataIdentificationString;
+        }
+    }
+
+    private static final Comparator<Cascade> BY_TOTAL_TIME_DESCENDING = new Comparator<Cascade>() {
+        public int compare(final Cascade cascade1, final Cascade cascade2) {
+            if (cascade1.totalTime != cascade2.totalTime) {
+                return cascade1.totalTime < cascade2.totalTime ? 1 : -1;
+            }
+            return cascade1.metadataIdentificationString
+                    .compareTo(cascade2.metadataIdentificationString);
+        }
+    };
+
+    private static final long NANOSECONDS_IN_MICROSECOND = 1000;
+
+    private Cascade[] cascades;
+    /** Indexes of each item's downstream items */
+    private final int[][] downstream;
+    private int edges;
+    /** Identifiers in index order */
+    private final String[] ids;
+    private final long[] times;
+
+    /**
+     * Constructor
+     *
+     * @param registry the registry whose dependencies to snapshot (required)
+     * @param regenerationTimes key: MID, value: nanoseconds (required)
+     */
+    public MetadataDependencyGraph(final MetadataDependencyRegistry registry,
+            final Map<String, Long> regenerationTimes) {
+        Validate.notNull(registry, "Metadata dependency registry required");
+        Validate.notNull(regenerationTimes, "Regeneration times required");
+        final Map<String, Integer> indexes = new LinkedHashMap<String, Integer>();
+        final Map<String, Set<String>> adjacency = new TreeMap<String, Set<String>>();
+        final Deque<String> pending = new ArrayDeque<String>(
+                regenerationTimes.keySet());
+        for (final String upstream : registry.getRegisteredUpstreams()) {
+            final Set<String> downstreamIds = new TreeSet<String>(
+                    registry.getDownstream(upstream));
+            adjacency.put(upstream, downstreamIds);
+            pending.add(upstream);
+            pending.addAll(downstreamIds);
+        }
+        // An instance is also notified of changes by the downstreams of its
+        // metadata class, with class-level downstreams resolved to the same
+        // instance, as DefaultMetadataDependencyRegistry#notifyDownstream does
+        final Set<String> resolved = new HashSet<String>();
+        while (!pending.isEmpty()) {
+            final String upstream = pending.poll();
+            if (!resolved.add(upstream)
+                    || MetadataIdentificationUtils.isIdentifyingClass(upstream)) {
+                continue;
+            }
+            final String instance = MetadataIdentificationUtils
+                    .getMetadataInstance(upstream);
+            for (final String downstreamId : registry
+                    .getDownstream(MetadataIdentificationUtils
+                            .getMetadataClassId(upstream))) {
+                final String target = MetadataIdentificationUtils
+                        .isIdentifyingClass(downstreamId) ? MetadataIdentificationUtils
+                        .create(MetadataIdentificationUtils
+                                .getMetadataClass(downstreamId), instance)
+                        : downstreamId;
+                if (target.equals(upstream)) {
+                    continue;
+                }
+                Set<String> downstreamIds = adjacency.get(upstream);
+                if (downstreamIds == null) {
+                    downstreamIds = new TreeSet<String>();
+                    adjacency.put(upstream, downstreamIds);
+                }
+                downstreamIds.add(target);
+                pending.add(target);
+            }
+        }
+        for (final Map.Entry<String, Set<String>> entry : adjacency
+                .entrySet()) {
+            indexOf(indexes, entry.getKey());
+            for (final String downstreamId : entry.getValue()) {
+                indexOf(indexes, downstreamId);
+            }
+        }
+
+        ids = indexes.keySet().toArray(new String[indexes.size()]);
+        times = new long[ids.length];
+        downstream = new int[ids.length][];
+        for (int i = 0; i < ids.length; i++) {
+            final Long time = regenerationTimes.get(ids[i]);
+            times[i] = time == null ? 0 : time;
+            final Set<String> downstreamIds = adjacency.get(ids[i]);
+            if (downstreamIds == null) {
+                downstream[i] = new int[0];
+                continue;
+            }
+            downstream[i] = new int[downstreamIds.size()];
+            int j = 0;
+            for (final String downstreamId : downstreamIds) {
+                downstream[i][j++] = indexes.get(downstreamId);
+            }
+            edges += downstream[i].length;
+        }
+    }
+
+    /**
+     * Computes the cascade of every item. Each cascade is found by a separate
+     * traversal, as cascades overlap wherever items share downstream items.
+     */
+    private synchronized Cascade[] getCascades() {
+        if (cascades != null) {
+            return cascades;
+        }
+        // Critical paths, computed depth first with memoization; -1 means
+        // not yet computed, -2 in progress (i.e. a cycle, which is cut)
+        final long[] pathTimes = new long[ids.length];
+        final int[] next = new int[ids.length];
+        Arrays.fill(next, -1);
+        Arrays.fill(pathTimes, -1);
+        for (int i = 0; i < ids.length; i++) {
+            computeCriticalPath(i, pathTimes, next);
+        }
+
+        final int[] visited = new int[ids.length];
+        final int[] queue = new int[ids.length];
+        cascades = new Cascade[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            // Breadth first; visited[j] == i + 1 marks j as seen for item i
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = i;
+            visited[i] = i + 1;
+            long totalTime = 0;
+            while (head < tail) {
+                final int current = queue[head++];
+                totalTime += times[current];
+                for (final int downstreamIndex : downstream[current]) {
+                    if (visited[downstreamIndex] != i + 1) {
+                        visited[downstreamIndex] = i + 1;
+                        queue[tail++] = downstreamIndex;
+                    }
+                }
+            }
+            final List<String> criticalPath = new ArrayList<String>();
+            for (int j = i; j >= 0 && criticalPath.size() < ids.length; j = next[j]) {
+                criticalPath.add(ids[j]);
+            }
+            cascades[i] = new Cascade(ids[i], totalTime, tail, criticalPath,
+                    pathTimes[i]);
+        }
+        return cascades;
+    }
+
+    private long computeCriticalPath(final int index, final long[] pathTimes,
+            final int[] next) {
+        if (pathTimes[index] >= 0) {
+            return pathTimes[index];
+        }
+        if (pathTimes[index] == -2) {
+            return 0;
+        }
+        pathTimes[index] = -2;
+        long longest = 0;
+        for (final int downstreamIndex : downstream[index]) {
+            final long pathTime = computeCriticalPath(downstreamIndex,
+                    pathTimes, next);
+            if (next[index] == -1 || pathTime > longest) {
+                longest = pathTime;
+                next[index] = downstreamIndex;
+            }
+        }
+        pathTimes[index] = times[index] + longest;
+        return pathTimes[index];
+    }
+
+    /**
+     * Returns the graph in the DOT language read by Graphviz, each item
+     * labelled with its regeneration time and cascade cost.
+     *
+     * @return a non-<code>null</code> string
+     */
+    public String formatDot() {
+        final Cascade[] allCascades = getCascades();
+        final StringBuilder sb = new StringBuilder("digraph metadata {");
+        sb.append(IOUtils.LINE_SEPARATOR);
+        for (int i = 0; i < ids.length; i++) {
+            sb.append("  \"").append(escapeDot(ids[i])).append("\" [label=\"")
+                    .append(escapeDot(getLabel(ids[i]))).append("\\n")
+                    .append(formatMicros(times[i])).append(" / ")
+                    .append(formatMicros(allCascades[i].totalTime))
+                    .append("\"];").append(IOUtils.LINE_SEPARATOR);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            for (final int downstreamIndex : downstream[i]) {
+                sb.append("  \"").append(escapeDot(ids[i])).append("\" -> \"")
+                        .append(escapeDot(ids[downstreamIndex])).append("\";")
+                        .append(IOUtils.LINE_SEPARATOR);
+            }
+        }
+        return sb.append("}").append(IOUtils.LINE_SEPARATOR).toString();
+    }
+
+    /**
+     * Returns the graph in GraphML, with the regeneration time and cascade
+     * cost of each item (in microseconds) as node data.
+     *
+     * @return a non-<code>null</code> string
+     */
+    public String formatGraphMl() {
+        final Cascade[] allCascades = getCascades();
+        final String nl = IOUtils.LINE_SEPARATOR;
+        final StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>").append(nl);
+        sb.append("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">")
+                .append(nl);
+        sb.append(
+                "  <key id=\"label\" for=\"node\" attr.name=\"label\" attr.type=\"string\"/>")
+                .append(nl);
+        sb.append(
+                "  <key id=\"time\" for=\"node\" attr.name=\"regenerationMicros\" attr.type=\"long\"/>")
+                .append(nl);
+        sb.append(
+                "  <key id=\"cascade\" for=\"node\" attr.name=\"cascadeMicros\" attr.type=\"long\"/>")
+                .append(nl);
+        sb.append("  <graph id=\"metadata\" edgedefault=\"directed\">")
+                .append(nl);
+        for (int i = 0; i < ids.length; i++) {
+            sb.append("    <node id=\"").append(escapeXml(ids[i]))
+                    .append("\">");
+            sb.append("<data key=\"label\">")
+                    .append(escapeXml(getLabel(ids[i]))).append("</data>");
+            sb.append("<data key=\"time\">")
+                    .append(times[i] / NANOSECONDS_IN_MICROSECOND)
+                    .append("</data>");
+            sb.append("<data key=\"cascade\">")
+                    .append(allCascades[i].totalTime
+                            / NANOSECONDS_IN_MICROSECOND).append("</data>");
+            sb.append("</node>").append(nl);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            for (final int downstreamIndex : downstream[i]) {
+                sb.append("    <edge source=\"").append(escapeXml(ids[i]))
+                        .append("\" target=\"")
+                        .append(escapeXml(ids[downstreamIndex]))
+                        .append("\"/>").append(nl);
+            }
+        }
+        sb.append("  </graph>").append(nl);
+        return sb.append("</graphml>").append(nl).toString();
+    }
+
+    /**
+     * Describes the given number of most expensive cascades, each with its
+     * critical path.
+     *
+     * @param limit the maximum number of cascades to describe
+     * @return a multi-line description (never null)
+     */
+    public String formatMostExpensiveCascades(final int limit) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Cascade cascade : getMostExpensiveCascades(limit)) {
+            sb.append(String.format("%,d us (%d items) %s",
+                    cascade.totalTime / NANOSECONDS_IN_MICROSECOND,
+                    cascade.itemCount, cascade.metadataIdentificationString));
+            sb.append(IOUtils.LINE_SEPARATOR);
+            sb.append(String.format("  critical path %,d us: ",
+                    cascade.criticalPathTime / NANOSECONDS_IN_MICROSECOND));
+            final List<String> labels = new ArrayList<String>();
+            for (final String id : cascade.criticalPath) {
+                labels.add(getLabel(id));
+            }
+            sb.append(StringUtils.join(labels, " -> "));
+            sb.append(IOUtils.LINE_SEPARATOR);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Describes the regeneration cost of each type of metadata, most
+     * expensive first: the number of items, their total regeneration time,
+     * and the cost of the most expensive cascade starting at one of them.
+     *
+     * @return a multi-line description (never null)
+     */
+    public String formatProviderCosts() {
+        final Cascade[] allCascades = getCascades();
+        final Map<String, long[]> costs = new HashMap<String, long[]>();
+        for (int i = 0; i < ids.length; i++) {
+            final String metadataClass = MetadataIdentificationUtils
+                    .getMetadataClass(ids[i]);
+            long[] cost = costs.get(metadataClass);
+            if (cost == null) {
+                cost = new long[3];
+                costs.put(metadataClass, cost);
+            }
+            cost[0]++;
+            cost[1] += times[i];
+            cost[2] = Math.max(cost[2], allCascades[i].totalTime);
+        }
+        final List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(
+                costs.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+            public int compare(final Map.Entry<String, long[]> entry1,
+                    final Map.Entry<String, long[]> entry2) {
+                if (entry1.getValue()[1] != entry2.getValue()[1]) {
+                    return entry1.getValue()[1] < entry2.getValue()[1] ? 1
+                            : -1;
+                }
+                return entry1.getKey().compareTo(entry2.getKey());
+            }
+        });
+        final StringBuilder sb = new StringBuilder();
+        for (final Map.Entry<String, long[]> entry : entries) {
+            final long[] cost = entry.getValue();
+            sb.append(String.format(
+                    "%,d us in %d items (largest cascade %,d us) %s",
+                    cost[1] / NANOSECONDS_IN_MICROSECOND, cost[0], cost[2]
+                            / NANOSECONDS_IN_MICROSECOND, entry.getKey()));
+            sb.append(IOUtils.LINE_SEPARATOR);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the number of dependencies in the graph
+     */
+    public int getEdgeCount() {
+        return edges;
+    }
+
+    /**
+     * Returns the given number of cascades with the highest total cost.
+     *
+     * @param limit the maximum number of cascades to return
+     * @return a non-<code>null</code> list, most expensive first
+     */
+    public List<Cascade> getMostExpensiveCascades(final int limit) {
+        final List<Cascade> result = new ArrayList<Cascade>(
+                Arrays.asList(getCascades()));
+        Collections.sort(result, BY_TOTAL_TIME_DESCENDING);
+        return result.subList(0, Math.max(0, Math.min(limit, result.size())));
+    }
+
+    /**
+     * @return the number of items in the graph
+     */
+    public int getNodeCount() {
+        return ids.length;
+    }
+
+    private String escapeDot(final String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private String escapeXml(final String text) {
+        return StringEscapeUtils.escapeXml(text);
+    }
+
+    private String formatMicros(final long nanoseconds) {
+        return String.format("%,d us", nanoseconds / NANOSECONDS_IN_MICROSECOND);
+    }
+
+    /**
+     * Shortens the given MID to the simple name of its metadata class plus
+     * the instance key, if any.
+     */
+    private String getLabel(final String metadataIdentificationString) {
+        final String metadataClass = MetadataIdentificationUtils
+                .getMetadataClass(metadataIdentificationString);
+        final String simpleName = StringUtils.substringAfterLast(
+                metadataClass, ".");
+        final String label = StringUtils.defaultIfEmpty(simpleName,
+                metadataClass);
+        if (!MetadataIdentificationUtils
+                .isIdentifyingInstance(metadataIdentificationString)) {
+            return label;
+        }
+        return label
+                + "#"
+                + MetadataIdentificationUtils
+                        .getMetadataInstance(metadataIdentificationString);
+    }
+
+    private int indexOf(final Map<String, Integer> indexes, final String id) {
+        Integer index = indexes.get(id);
+        if (index == null) {
+            index = indexes.size();
+            indexes.put(id, index);
+        }
+        return index;
+    }
+}
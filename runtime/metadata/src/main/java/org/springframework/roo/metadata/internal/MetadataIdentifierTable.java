@@ -0,0 +1,72 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns metadata identification strings into dense integer identifiers, so
+ * that the dependency graph can be stored as arrays of <code>int</code>s
+ * rather than sets of long strings.
+ * <p>
+ * Identifiers are never reused, and {@link #intern(String)} must be called by
+ * one thread at a time (the owning registry serializes it). Lookups may be
+ * made concurrently.
+ * 
+ * @since 2.0
+ */
+class MetadataIdentifierTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] names = new String[INITIAL_CAPACITY];
+    private volatile int size;
+
+    /**
+     * Returns the integer identifier of the given MID, or -1 if it has never
+     * been interned.
+     */
+    int idOf(final String metadataIdentificationString) {
+        final Integer id = ids.get(metadataIdentificationString);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the integer identifier of the given MID, allocating one if
+     * required.
+     */
+    int intern(final String metadataIdentificationString) {
+        final Integer existing = ids.get(metadataIdentificationString);
+        if (existing != null) {
+            return existing;
+        }
+        final int id = size;
+        String[] current = names;
+        if (id == current.length) {
+            final String[] grown = new String[current.length
+                    + (current.length >> 1)];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+        current[id] = metadataIdentificationString;
+        names = current;
+        size = id + 1;
+        ids.put(metadataIdentificationString, id);
+        return id;
+    }
+
+    /**
+     * Returns the MID with the given integer identifier.
+     */
+    String nameOf(final int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns the number of interned MIDs, which is also one more than the
+     * highest identifier allocated so far.
+     */
+    int size() {
+        return size;
+    }
+}
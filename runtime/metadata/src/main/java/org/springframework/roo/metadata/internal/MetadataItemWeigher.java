@@ -0,0 +1,20 @@
+package org.springframework.roo.metadata.internal;
+
+import org.springframework.roo.metadata.MetadataItem;
+
+/**
+ * Estimates the memory retained by a cached {@link MetadataItem}.
+ * 
+ * @since 2.0
+ */
+public interface MetadataItemWeigher {
+
+    /**
+     * Estimates the number of bytes retained by the given item. This is
+     * called once when the item is put into the cache.
+     * 
+     * @param metadataItem the item to weigh (never null)
+     * @return a positive weight in bytes
+     */
+    long weigh(MetadataItem metadataItem);
+}
@@ -0,0 +1,317 @@
+package org.springframework.roo.metadata.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+
+/**
+ * The state written by {@link DefaultMetadataSnapshotService}. Only strings
+ * are held, so the snapshot can be read back regardless of which add-on
+ * bundles are installed.
+ * <p>
+ * The format is a gzipped stream of the Roo version, the installed add-ons,
+ * the generated files and then each map as a count followed by its entries.
+ *
+ * @since 2.0
+ */
+public class MetadataSnapshot {
+
+    private static final int MAGIC = 0x524f4f4d; // "ROOM"
+    private static final int VERSION = 3;
+
+    /**
+     * Returns the fingerprint of the given file as it currently exists on
+     * disk.
+     *
+     * @param file the file to fingerprint (required)
+     * @return <code>null</code> if the file does not exist
+     */
+    public static String fingerprint(final File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        return file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * Reads the given snapshot file.
+     *
+     * @param file the file to read (required)
+     * @return <code>null</code> if the file doesn't exist or is of an unknown
+     *         version
+     * @throws IOException if the file can't be read
+     */
+    public static MetadataSnapshot read(final File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new FileInputStream(file))));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            final MetadataSnapshot snapshot = new MetadataSnapshot();
+            snapshot.rooVersion = in.readUTF();
+            readStrings(in, snapshot.addOns);
+            readStrings(in, snapshot.generatedFiles);
+            final int dependencyCount = in.readInt();
+            for (int i = 0; i < dependencyCount; i++) {
+                final String upstream = in.readUTF();
+                final Set<String> downstream = new HashSet<String>();
+                readStrings(in, downstream);
+                snapshot.dependencies.put(upstream, downstream);
+            }
+            readMap(in, snapshot.fingerprints);
+            final int notifierCount = in.readInt();
+            for (int i = 0; i < notifierCount; i++) {
+                final String notifier = in.readUTF();
+                final Map<String, String> itemFingerprints = new HashMap<String, String>();
+                readMap(in, itemFingerprints);
+                snapshot.itemFingerprints.put(notifier, itemFingerprints);
+            }
+            readMap(in, snapshot.sources);
+            return snapshot;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static void readMap(final DataInputStream in,
+            final Map<String, String> map) throws IOException {
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            map.put(in.readUTF(), in.readUTF());
+        }
+    }
+
+    private static void readStrings(final DataInputStream in,
+            final Collection<String> strings) throws IOException {
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+    }
+
+    private static void writeMap(final DataOutputStream out,
+            final Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (final Entry<String, String> entry : map.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    private static void writeStrings(final DataOutputStream out,
+            final Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (final String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    /** the symbolic names and versions of the installed bundles */
+    private final Set<String> addOns = new TreeSet<String>();
+
+    /** key: upstream dependency; value: downstream dependencies */
+    private final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+
+    /** key: source file canonical path; value: fingerprint when recorded */
+    private final Map<String, String> fingerprints = new HashMap<String, String>();
+
+    /** the canonical paths of the files generated from the metadata */
+    private final Set<String> generatedFiles = new TreeSet<String>();
+
+    /**
+     * key: notifier name; value: (key: instance id, value: stable metadata
+     * fingerprint in hexadecimal)
+     */
+    private final Map<String, Map<String, String>> itemFingerprints = new HashMap<String, Map<String, String>>();
+
+    private String rooVersion = "";
+
+    /** key: MID; value: canonical path of its source file */
+    private final Map<String, String> sources = new HashMap<String, String>();
+
+    public Set<String> getAddOns() {
+        return addOns;
+    }
+
+    public Map<String, Set<String>> getDependencies() {
+        return dependencies;
+    }
+
+    public Map<String, String> getFingerprints() {
+        return fingerprints;
+    }
+
+    public Set<String> getGeneratedFiles() {
+        return generatedFiles;
+    }
+
+    public Map<String, Map<String, String>> getItemFingerprints() {
+        return itemFingerprints;
+    }
+
+    public String getRooVersion() {
+        return rooVersion;
+    }
+
+    public Map<String, String> getSources() {
+        return sources;
+    }
+
+    /**
+     * Computes the MIDs that can no longer be trusted: those whose source file
+     * fingerprint differs from the one on disk, plus every MID that is
+     * (transitively) downstream of them. Class-specific dependencies are
+     * followed the way
+     * {@link DefaultMetadataDependencyRegistry#notifyDownstream(String)}
+     * delivers them, i.e. a class-level downstream of a stale instance is
+     * taken to mean the instance of that class with the same instance key.
+     *
+     * @return a modifiable set of MIDs (never null)
+     */
+    public Set<String> getStaleIdentifiers() {
+        final Deque<String> pending = new ArrayDeque<String>();
+        for (final Map.Entry<String, String> entry : sources.entrySet()) {
+            final String path = entry.getValue();
+            final String recorded = fingerprints.get(path);
+            if (recorded == null
+                    || !recorded.equals(fingerprint(new File(path)))) {
+                pending.add(entry.getKey());
+            }
+        }
+
+        final Set<String> stale = new HashSet<String>();
+        while (!pending.isEmpty()) {
+            final String mid = pending.poll();
+            if (!stale.add(mid)) {
+                continue;
+            }
+            final Set<String> downstream = dependencies.get(mid);
+            if (downstream != null) {
+                pending.addAll(downstream);
+            }
+            if (MetadataIdentificationUtils.isIdentifyingClass(mid)) {
+                continue;
+            }
+            final Set<String> classDownstream = dependencies
+                    .get(MetadataIdentificationUtils.getMetadataClassId(mid));
+            if (classDownstream == null) {
+                continue;
+            }
+            final String instance = MetadataIdentificationUtils
+                    .getMetadataInstance(mid);
+            for (final String dependent : classDownstream) {
+                if (MetadataIdentificationUtils.isIdentifyingClass(dependent)) {
+                    pending.add(MetadataIdentificationUtils.create(
+                            MetadataIdentificationUtils
+                                    .getMetadataClass(dependent), instance));
+                }
+                else {
+                    pending.add(dependent);
+                }
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Indicates whether this snapshot was written by the given Roo version
+     * with the given add-ons installed, and every file generated from it
+     * still exists. If not, none of its content can be trusted.
+     *
+     * @param rooVersion the running Roo version (required)
+     * @param addOns the symbolic names and versions of the installed bundles
+     *            (required)
+     * @return <code>true</code> if the snapshot can be used
+     */
+    public boolean isValidFor(final String rooVersion,
+            final Set<String> addOns) {
+        if (!this.rooVersion.equals(rooVersion) || !this.addOns.equals(addOns)) {
+            return false;
+        }
+        for (final String generatedFile : generatedFiles) {
+            if (!new File(generatedFile).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void setRooVersion(final String rooVersion) {
+        this.rooVersion = rooVersion;
+    }
+
+    /**
+     * Writes this snapshot to the given file, replacing it atomically so that
+     * a failed write leaves the previous snapshot intact.
+     *
+     * @param file the file to write (required)
+     * @throws IOException if the file can't be written
+     */
+    public void write(final File file) throws IOException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create '" + directory + "'");
+        }
+        final File temp = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(temp))));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(rooVersion);
+            writeStrings(out, addOns);
+            writeStrings(out, generatedFiles);
+            out.writeInt(dependencies.size());
+            for (final Entry<String, Set<String>> entry : dependencies
+                    .entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeStrings(out, entry.getValue());
+            }
+            writeMap(out, fingerprints);
+            out.writeInt(itemFingerprints.size());
+            for (final Entry<String, Map<String, String>> entry : itemFingerprints
+                    .entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeMap(out, entry.getValue());
+            }
+            writeMap(out, sources);
+            out.close();
+            out = null;
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package org.springframework.roo.metadata.internal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.MetadataTraceEvent;
+
+/**
+ * Reads a trace written by {@link MetadataTraceRecorder} and rebuilds the
+ * tree of metadata requests and notifications made by each thread.
+ * <p>
+ * Records that the ring buffer overwrote are lost, so a call whose start was
+ * overwritten is ignored, and a call that had not ended when the trace was
+ * written is considered to end with the last event of its thread.
+ * 
+ * @since 2.0
+ */
+public class MetadataTraceAnalyzer {
+
+    /**
+     * A metadata request ({@link MetadataTraceEvent#GET_START}) or
+     * notification ({@link MetadataTraceEvent#NOTIFY_START}) and the calls
+     * made while it was in progress.
+     */
+    public static class Call {
+        private final List<Call> children = new ArrayList<Call>();
+        private long end;
+        private final MetadataTraceEvent kind;
+        private final String metadataIdentificationString;
+        private final Call parent;
+        private final String relatedIdentificationString;
+        private final long start;
+
+        Call(final Call parent, final MetadataTraceEvent kind,
+                final String metadataIdentificationString,
+                final String relatedIdentificationString, final long start) {
+            this.parent = parent;
+            this.kind = kind;
+            this.metadataIdentificationString = metadataIdentificationString;
+            this.relatedIdentificationString = relatedIdentificationString;
+            this.start = start;
+            end = start;
+        }
+
+        public List<Call> getChildren() {
+            return Collections.unmodifiableList(children);
+        }
+
+        /**
+         * @return the time spent in this call, excluding its children
+         */
+        public long getExclusiveTime() {
+            long result = getInclusiveTime();
+            for (final Call child : children) {
+                result -= child.getInclusiveTime();
+            }
+            return Math.max(0, result);
+        }
+
+        /**
+         * @return the time spent in this call, including its children
+         */
+        public long getInclusiveTime() {
+            return end - start;
+        }
+
+        /**
+         * @return {@link MetadataTraceEvent#GET_START} or
+         *         {@link MetadataTraceEvent#NOTIFY_START}
+         */
+        public MetadataTraceEvent getKind() {
+            return kind;
+        }
+
+        public String getMetadataIdentificationString() {
+            return metadataIdentificationString;
+        }
+
+        /**
+         * @return the upstream MID of a notification, otherwise
+         *         <code>null</code>
+         */
+        public String getRelatedIdentificationString() {
+            return relatedIdentificationString;
+        }
+
+        @Override
+        public String toString() {
+            return (kind == MetadataTraceEvent.GET_START ? "get " : "notify ")
+                    + metadataIdentificationString;
+        }
+    }
+
+    private static final Comparator<Call> BY_INCLUSIVE_TIME_DESCENDING = new Comparator<Call>() {
+        public int compare(final Call first, final Call second) {
+            final long difference = second.getInclusiveTime()
+                    - first.getInclusiveTime();
+            return difference < 0 ? -1 : difference == 0 ? 0 : 1;
+        }
+    };
+
+    private static final int NANOSECONDS_IN_MICROSECOND = 1000;
+
+    /**
+     * Returns the frame name of the given call in a flame graph: the
+     * operation and the simple name of the metadata class, so that calls for
+     * different instances of the same type are merged.
+     */
+    private static String getFrameName(final Call call) {
+        final String metadataClass = MetadataIdentificationUtils
+                .getMetadataClass(call.metadataIdentificationString);
+        final String name = metadataClass == null ? call.metadataIdentificationString
+                : StringUtils.substringAfterLast("." + metadataClass, ".");
+        // Semicolons separate frames in the collapsed stack format
+        return (call.kind == MetadataTraceEvent.GET_START ? "get " : "notify ")
+                + name.replace(';', '_');
+    }
+
+    private final Map<Long, List<Call>> callsByThread = new TreeMap<Long, List<Call>>();
+    private int events;
+
+    /**
+     * Constructor; reads and analyzes the given trace file and its MID
+     * dictionary.
+     * 
+     * @param traceFile the file written by a {@link MetadataTraceRecorder}
+     *            (required)
+     * @throws IOException if the trace cannot be read
+     */
+    public MetadataTraceAnalyzer(final File traceFile) throws IOException {
+        Validate.notNull(traceFile, "Trace file required");
+        final Map<Integer, String> mids = readDictionary(MetadataTraceRecorder
+                .getDictionaryFile(traceFile));
+        final ByteBuffer buffer = readTrace(traceFile);
+        buildCalls(buffer, mids);
+    }
+
+    private void buildCalls(final ByteBuffer buffer,
+            final Map<Integer, String> mids) {
+        // Order the surviving records by sequence number
+        final int capacity = buffer.getInt(12);
+        final List<Integer> offsets = new ArrayList<Integer>();
+        for (int i = 0; i < capacity; i++) {
+            final int offset = MetadataTraceRecorder.HEADER_SIZE + i
+                    * MetadataTraceRecorder.RECORD_SIZE;
+            if (offset + MetadataTraceRecorder.RECORD_SIZE <= buffer.limit()
+                    && buffer.getLong(offset) > 0) {
+                offsets.add(offset);
+            }
+        }
+        Collections.sort(offsets, new Comparator<Integer>() {
+            public int compare(final Integer first, final Integer second) {
+                final long difference = buffer.getLong(first)
+                        - buffer.getLong(second);
+                return difference < 0 ? -1 : difference == 0 ? 0 : 1;
+            }
+        });
+        events = offsets.size();
+
+        final MetadataTraceEvent[] kinds = MetadataTraceEvent.values();
+        final Map<Long, Call> openCalls = new HashMap<Long, Call>();
+        final Map<Long, Long> lastTimes = new HashMap<Long, Long>();
+        for (final int offset : offsets) {
+            final long time = buffer.getLong(offset + 8);
+            final String mid = nameOf(mids, buffer.getInt(offset + 16));
+            final String related = nameOf(mids, buffer.getInt(offset + 20));
+            final long thread = buffer.getInt(offset + 24);
+            final int ordinal = buffer.getShort(offset + 28);
+            if (ordinal < 0 || ordinal >= kinds.length) {
+                continue;
+            }
+            lastTimes.put(thread, time);
+            final Call current = openCalls.get(thread);
+            switch (kinds[ordinal]) {
+            case GET_START:
+            case NOTIFY_START:
+                final Call call = new Call(current, kinds[ordinal], mid,
+                        related, time);
+                if (current == null) {
+                    List<Call> roots = callsByThread.get(thread);
+                    if (roots == null) {
+                        roots = new ArrayList<Call>();
+                        callsByThread.put(thread, roots);
+                    }
+                    roots.add(call);
+                }
+                else {
+                    current.children.add(call);
+                }
+                openCalls.put(thread, call);
+                break;
+            case GET_END:
+            case NOTIFY_END:
+                // Close the innermost matching call; an end without a start
+                // belongs to a call whose start was overwritten
+                final MetadataTraceEvent startKind = kinds[ordinal] == MetadataTraceEvent.GET_END ? MetadataTraceEvent.GET_START
+                        : MetadataTraceEvent.NOTIFY_START;
+                Call matching = current;
+                while (matching != null
+                        && !(matching.kind == startKind && StringUtils.equals(
+                                matching.metadataIdentificationString, mid))) {
+                    matching = matching.parent;
+                }
+                if (matching != null) {
+                    for (Call open = current; open != matching.parent; open = open.parent) {
+                        open.end = time;
+                    }
+                    openCalls.put(thread, matching.parent);
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        // Calls still open end with the last event of their thread
+        for (final Map.Entry<Long, Call> entry : openCalls.entrySet()) {
+            final long last = lastTimes.get(entry.getKey());
+            for (Call open = entry.getValue(); open != null; open = open.parent) {
+                open.end = last;
+            }
+        }
+    }
+
+    /**
+     * Returns the top-level calls of every thread, in the order they started
+     * within each thread.
+     * 
+     * @return a non-<code>null</code> list
+     */
+    public List<Call> getCalls() {
+        final List<Call> result = new ArrayList<Call>();
+        for (final List<Call> calls : callsByThread.values()) {
+            result.addAll(calls);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the top-level calls that took longest, including everything
+     * they triggered.
+     * 
+     * @param limit the maximum number of calls to return
+     * @return a non-<code>null</code> list, most expensive first
+     */
+    public List<Call> getMostExpensiveCalls(final int limit) {
+        final List<Call> result = getCalls();
+        Collections.sort(result, BY_INCLUSIVE_TIME_DESCENDING);
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    /**
+     * @return the number of events that survived in the ring buffer
+     */
+    public int getEventCount() {
+        return events;
+    }
+
+    /**
+     * Describes the given number of most expensive top-level calls, each with
+     * the chain of most expensive nested calls it caused.
+     * 
+     * @param limit the maximum number of chains to describe
+     * @return a multi-line description (never null)
+     */
+    public String formatMostExpensiveChains(final int limit) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Call root : getMostExpensiveCalls(limit)) {
+            int depth = 0;
+            for (Call call = root; call != null; depth++) {
+                sb.append(StringUtils.repeat("  ", depth));
+                sb.append(String.format("%,d us (%,d us self) %s",
+                        call.getInclusiveTime() / NANOSECONDS_IN_MICROSECOND,
+                        call.getExclusiveTime() / NANOSECONDS_IN_MICROSECOND,
+                        call));
+                if (call.relatedIdentificationString != null) {
+                    sb.append(" <- ").append(call.relatedIdentificationString);
+                }
+                sb.append(IOUtils.LINE_SEPARATOR);
+                call = call.children.isEmpty() ? null : Collections.min(
+                        call.children, BY_INCLUSIVE_TIME_DESCENDING);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the calls in the "collapsed stack" format read by flame graph
+     * tools: one line per distinct stack of frames, separated by semicolons,
+     * followed by the time spent in the innermost frame in microseconds.
+     * 
+     * @return a non-<code>null</code> string
+     */
+    public String formatFlameGraph() {
+        final Map<String, Long> stacks = new TreeMap<String, Long>();
+        final LinkedList<Object[]> pending = new LinkedList<Object[]>();
+        for (final Call root : getCalls()) {
+            pending.add(new Object[] { root, getFrameName(root) });
+        }
+        while (!pending.isEmpty()) {
+            final Object[] entry = pending.removeFirst();
+            final Call call = (Call) entry[0];
+            final String stack = (String) entry[1];
+            final Long existing = stacks.get(stack);
+            stacks.put(stack, (existing == null ? 0 : existing)
+                    + call.getExclusiveTime());
+            for (final Call child : call.children) {
+                pending.add(new Object[] { child,
+                        stack + ";" + getFrameName(child) });
+            }
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (final Map.Entry<String, Long> entry : stacks.entrySet()) {
+            final long micros = entry.getValue() / NANOSECONDS_IN_MICROSECOND;
+            if (micros > 0) {
+                sb.append(entry.getKey()).append(' ').append(micros)
+                        .append(IOUtils.LINE_SEPARATOR);
+            }
+        }
+        return sb.toString();
+    }
+
+    private String nameOf(final Map<Integer, String> mids, final int id) {
+        if (id < 0) {
+            return null;
+        }
+        final String mid = mids.get(id);
+        return mid == null ? "#" + id : mid;
+    }
+
+    private Map<Integer, String> readDictionary(final File dictionaryFile)
+            throws IOException {
+        final Map<Integer, String> result = new HashMap<Integer, String>();
+        if (!dictionaryFile.isFile()) {
+            return result;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(dictionaryFile)));
+            while (true) {
+                final int id = in.readInt();
+                result.put(id, in.readUTF());
+            }
+        }
+        catch (final EOFException endOfDictionary) {
+            // The recorder may have been stopped mid-entry; keep what we have
+            return result;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private ByteBuffer readTrace(final File traceFile) throws IOException {
+        final RandomAccessFile in = new RandomAccessFile(traceFile, "r");
+        try {
+            final ByteBuffer buffer = in.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, in.length());
+            if (buffer.limit() < MetadataTraceRecorder.HEADER_SIZE
+                    || buffer.getInt(0) != MetadataTraceRecorder.MAGIC) {
+                throw new IOException("'" + traceFile
+                        + "' is not a metadata trace");
+            }
+            if (buffer.getInt(4) != MetadataTraceRecorder.FORMAT_VERSION
+                    || buffer.getInt(8) != MetadataTraceRecorder.RECORD_SIZE) {
+                throw new IOException("Unsupported metadata trace format in '"
+                        + traceFile + "'");
+            }
+            return buffer;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.springframework.roo.metadata.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.metadata.MetadataTraceEvent;
+
+/**
+ * Records metadata trace events into a ring buffer of fixed-size binary
+ * records in a memory-mapped file, for later analysis by
+ * {@link MetadataTraceAnalyzer}.
+ * <p>
+ * The file starts with a header of {@value #HEADER_SIZE} bytes: a magic
+ * number, the format version, the record size, the capacity in records, and
+ * the {@link System#nanoTime()} and {@link System#currentTimeMillis()} at
+ * which recording started. Each record then holds:
+ * <ol>
+ * <li>a sequence number (long; starting at 1, so unused slots read as 0)</li>
+ * <li>the {@link System#nanoTime()} of the event (long)</li>
+ * <li>the id of the MID the event concerns (int)</li>
+ * <li>the id of a related MID, or -1 (int)</li>
+ * <li>the id of the recording thread (int)</li>
+ * <li>the {@link MetadataTraceEvent} ordinal (short)</li>
+ * <li>the event nesting depth (short)</li>
+ * </ol>
+ * Once the buffer is full, the oldest records are overwritten.
+ * <p>
+ * MIDs are interned into integer ids as they are first seen, and each new
+ * (id, MID) pair is appended to a dictionary file next to the trace file, with
+ * the extension {@value #DICTIONARY_EXTENSION}. Recording an event for a MID
+ * that has already been seen does not allocate memory or take a lock.
+ * 
+ * @since 2.0
+ */
+public class MetadataTraceRecorder {
+
+    static final String DICTIONARY_EXTENSION = ".mids";
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int MAGIC = 0x524f4f54; // "ROOT"
+    static final int RECORD_SIZE = 32;
+    static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE)
+            / RECORD_SIZE;
+
+    private static final int DICTIONARY_FLUSH_INTERVAL = 256;
+
+    /**
+     * Returns the dictionary file that accompanies the given trace file.
+     */
+    static File getDictionaryFile(final File traceFile) {
+        return new File(traceFile.getPath() + DICTIONARY_EXTENSION);
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final RandomAccessFile data;
+    private final DataOutputStream dictionary;
+    private final File file;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private int nextId;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Constructor; creates or truncates the trace file and its dictionary.
+     * 
+     * @param file the trace file to write (required)
+     * @param capacity the maximum number of records to keep
+     * @throws IOException if the files cannot be created
+     */
+    public MetadataTraceRecorder(final File file, final int capacity)
+            throws IOException {
+        Validate.notNull(file, "Trace file required");
+        Validate.isTrue(capacity > 0 && capacity <= MAX_CAPACITY,
+                "Capacity must be between 1 and %d", MAX_CAPACITY);
+        this.file = file;
+        this.capacity = capacity;
+        final long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        data = new RandomAccessFile(file, "rw");
+        try {
+            data.setLength(0);
+            data.setLength(size);
+            buffer = data.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    size);
+            dictionary = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(getDictionaryFile(file))));
+        }
+        catch (final IOException e) {
+            IOUtils.closeQuietly(data);
+            throw e;
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        buffer.putInt(8, RECORD_SIZE);
+        buffer.putInt(12, capacity);
+        buffer.putLong(16, System.nanoTime());
+        buffer.putLong(24, System.currentTimeMillis());
+    }
+
+    /**
+     * Flushes the trace to disk and releases the files; events recorded
+     * afterwards are not persisted.
+     */
+    public void close() {
+        synchronized (dictionary) {
+            IOUtils.closeQuietly(dictionary);
+        }
+        buffer.force();
+        IOUtils.closeQuietly(data);
+    }
+
+    /**
+     * Returns the trace file being written.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the id of the given MID, assigning one and adding it to the
+     * dictionary the first time it is seen.
+     */
+    private int idOf(final String metadataIdentificationString) {
+        if (metadataIdentificationString == null) {
+            return -1;
+        }
+        final Integer id = ids.get(metadataIdentificationString);
+        if (id != null) {
+            return id;
+        }
+        synchronized (dictionary) {
+            final Integer existing = ids.get(metadataIdentificationString);
+            if (existing != null) {
+                return existing;
+            }
+            final int newId = nextId++;
+            try {
+                dictionary.writeInt(newId);
+                dictionary.writeUTF(metadataIdentificationString);
+                if (nextId % DICTIONARY_FLUSH_INTERVAL == 0) {
+                    dictionary.flush();
+                }
+            }
+            catch (final IOException ignore) {
+                // The analyzer will show the id instead of the MID
+            }
+            ids.put(metadataIdentificationString, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * Records one event.
+     * 
+     * @param event the event (required)
+     * @param metadataIdentificationString the MID concerned (required)
+     * @param relatedIdentificationString a related MID (can be null)
+     * @param depth the nesting depth of the event
+     */
+    public void record(final MetadataTraceEvent event,
+            final String metadataIdentificationString,
+            final String relatedIdentificationString, final int depth) {
+        final long time = System.nanoTime();
+        final int mid = idOf(metadataIdentificationString);
+        final int related = idOf(relatedIdentificationString);
+        final long number = sequence.incrementAndGet();
+        final int offset = HEADER_SIZE + (int) ((number - 1) % capacity)
+                * RECORD_SIZE;
+        // Absolute puts don't touch the buffer's position, so threads writing
+        // to different slots don't interfere
+        buffer.putLong(offset + 8, time);
+        buffer.putInt(offset + 16, mid);
+        buffer.putInt(offset + 20, related);
+        buffer.putInt(offset + 24, (int) Thread.currentThread().getId());
+        buffer.putShort(offset + 28, (short) event.ordinal());
+        buffer.putShort(offset + 30, (short) depth);
+        // The sequence number goes last, marking the record as complete
+        buffer.putLong(offset, number);
+    }
+}
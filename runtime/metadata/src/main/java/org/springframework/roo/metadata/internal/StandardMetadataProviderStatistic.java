@@ -0,0 +1,131 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.metadata.MetadataCacheEvent;
+import org.springframework.roo.metadata.MetadataOperation;
+import org.springframework.roo.metadata.MetadataProviderStatistic;
+
+/**
+ * Standard implementation of {@link MetadataProviderStatistic}.
+ * 
+ * @since 2.0
+ */
+public class StandardMetadataProviderStatistic implements
+        MetadataProviderStatistic {
+
+    private static class Latencies {
+        final long[] counts;
+        final long invocations;
+        final long maximum;
+        final long total;
+
+        Latencies(final LatencyHistogram histogram) {
+            counts = histogram.getCounts();
+            long sum = 0;
+            for (final long count : counts) {
+                sum += count;
+            }
+            invocations = sum;
+            maximum = histogram.getMaximum();
+            total = histogram.getTotal();
+        }
+    }
+
+    private final Map<MetadataCacheEvent, Long> counts;
+    private final Map<MetadataOperation, Latencies> latencies = new EnumMap<MetadataOperation, Latencies>(
+            MetadataOperation.class);
+    private final String name;
+
+    /**
+     * Constructor
+     * 
+     * @param name the metadata class (required)
+     * @param counts the number of each event (required; missing events count
+     *            as zero)
+     * @param histograms the latencies of each operation (required; missing
+     *            operations count as never recorded)
+     */
+    public StandardMetadataProviderStatistic(final String name,
+            final Map<MetadataCacheEvent, Long> counts,
+            final Map<MetadataOperation, LatencyHistogram> histograms) {
+        Validate.notBlank(name, "Name required");
+        Validate.notNull(counts, "Counts required");
+        Validate.notNull(histograms, "Histograms required");
+        this.name = name;
+        this.counts = new EnumMap<MetadataCacheEvent, Long>(
+                MetadataCacheEvent.class);
+        this.counts.putAll(counts);
+        for (final Map.Entry<MetadataOperation, LatencyHistogram> entry : histograms
+                .entrySet()) {
+            latencies.put(entry.getKey(), new Latencies(entry.getValue()));
+        }
+    }
+
+    public int compareTo(final MetadataProviderStatistic o) {
+        return name.compareTo(o.getName());
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof MetadataProviderStatistic
+                && compareTo((MetadataProviderStatistic) obj) == 0;
+    }
+
+    public long getCount(final MetadataCacheEvent event) {
+        final Long count = counts.get(event);
+        return count == null ? 0 : count;
+    }
+
+    public long getInvocations(final MetadataOperation operation) {
+        final Latencies latency = latencies.get(operation);
+        return latency == null ? 0 : latency.invocations;
+    }
+
+    public long getMaximum(final MetadataOperation operation) {
+        final Latencies latency = latencies.get(operation);
+        return latency == null ? 0 : latency.maximum;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getPercentile(final MetadataOperation operation,
+            final double percentile) {
+        Validate.isTrue(percentile >= 0 && percentile <= 100,
+                "Percentile must be between 0 and 100");
+        final Latencies latency = latencies.get(operation);
+        return latency == null ? 0 : LatencyHistogram.percentile(
+                latency.counts, latency.maximum, percentile);
+    }
+
+    public long getTime(final MetadataOperation operation) {
+        final Latencies latency = latencies.get(operation);
+        return latency == null ? 0 : latency.total;
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(name);
+        for (final MetadataOperation operation : MetadataOperation.values()) {
+            sb.append(String.format(
+                    "; %s: %d call(s), p50 %d ns, p99 %d ns, max %d ns",
+                    operation.name().toLowerCase(), getInvocations(operation),
+                    getPercentile(operation, 50),
+                    getPercentile(operation, 99), getMaximum(operation)));
+        }
+        for (final MetadataCacheEvent event : MetadataCacheEvent.values()) {
+            sb.append("; ").append(event.name().toLowerCase()).append(": ")
+                    .append(getCount(event));
+        }
+        return sb.toString();
+    }
+}
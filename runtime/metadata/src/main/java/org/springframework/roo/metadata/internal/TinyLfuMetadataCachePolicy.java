@@ -0,0 +1,173 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.roo.metadata.MetadataItem;
+
+/**
+ * {@link MetadataCachePolicy} implementing Window TinyLFU.
+ * <p>
+ * New items enter a small LRU window holding 1% of the capacity and weight.
+ * An item leaving the window is admitted to the main LRU region only if its
+ * estimated access frequency (see {@link FrequencySketch}) is higher than that
+ * of every item it would displace; otherwise the item itself is evicted. This
+ * keeps frequently used metadata cached while a one-off scan of many items
+ * passes through the window.
+ * 
+ * @since 2.0
+ */
+public class TinyLfuMetadataCachePolicy extends MetadataCachePolicy {
+
+    private static final float hashTableLoadFactor = 0.75f;
+    private static final int WINDOW_PERCENTAGE = 1;
+
+    private static int windowShare(final int limit) {
+        return Math.max(1, limit * WINDOW_PERCENTAGE / 100);
+    }
+
+    private static long windowShare(final long limit) {
+        if (limit == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1, limit / 100 * WINDOW_PERCENTAGE);
+    }
+
+    private final LinkedHashMap<String, Entry> main;
+    private final int mainCapacity;
+    private final long mainMaxWeight;
+    private long mainWeight;
+    private final FrequencySketch sketch;
+    private final LinkedHashMap<String, Entry> window;
+    private final int windowCapacity;
+    private final long windowMaxWeight;
+    private long windowWeight;
+
+    public TinyLfuMetadataCachePolicy(final int maxCapacity,
+            final long maxWeight, final EvictionListener listener) {
+        super(maxCapacity, maxWeight, listener);
+        windowCapacity = windowShare(maxCapacity);
+        windowMaxWeight = windowShare(maxWeight);
+        mainCapacity = Math.max(1, maxCapacity - windowCapacity);
+        mainMaxWeight = maxWeight == Long.MAX_VALUE ? Long.MAX_VALUE : Math
+                .max(1, maxWeight - windowMaxWeight);
+        window = new LinkedHashMap<String, Entry>(16, hashTableLoadFactor,
+                true);
+        main = new LinkedHashMap<String, Entry>((int) Math.ceil(mainCapacity
+                / hashTableLoadFactor) + 1, hashTableLoadFactor, true);
+        sketch = new FrequencySketch(maxCapacity);
+    }
+
+    /**
+     * Moves the given item from the window to the main region if it is more
+     * valuable than the items it would displace, otherwise evicts it.
+     */
+    private void admit(final String id, final Entry candidate) {
+        if (candidate.weight > mainMaxWeight) {
+            evicted(candidate, EvictionReason.WEIGHT);
+            return;
+        }
+
+        final int candidateFrequency = sketch.frequency(id);
+        final List<String> victims = new ArrayList<String>();
+        int size = main.size() + 1;
+        long weight = mainWeight + candidate.weight;
+        final Iterator<Map.Entry<String, Entry>> eldest = main
+                .entrySet().iterator();
+        while (size > mainCapacity || weight > mainMaxWeight) {
+            final Map.Entry<String, Entry> victim = eldest.next();
+            if (candidateFrequency <= sketch.frequency(victim.getKey())) {
+                evicted(candidate, EvictionReason.ADMISSION);
+                return;
+            }
+            victims.add(victim.getKey());
+            size--;
+            weight -= victim.getValue().weight;
+        }
+
+        for (final String victimId : victims) {
+            final boolean overCapacity = main.size() + 1 > mainCapacity;
+            final Entry victim = main.remove(victimId);
+            mainWeight -= victim.weight;
+            evicted(victim, overCapacity ? EvictionReason.CAPACITY
+                    : EvictionReason.WEIGHT);
+        }
+        main.put(id, candidate);
+        mainWeight += candidate.weight;
+    }
+
+    @Override
+    public MetadataItem get(final String metadataIdentificationString) {
+        sketch.increment(metadataIdentificationString);
+        Entry entry = window.get(metadataIdentificationString);
+        if (entry == null) {
+            entry = main.get(metadataIdentificationString);
+        }
+        return entry == null ? null : entry.item;
+    }
+
+    @Override
+    public long getWeight() {
+        return windowWeight + mainWeight;
+    }
+
+    @Override
+    public void put(final MetadataItem metadataItem, final long itemWeight) {
+        final String id = metadataItem.getId();
+        sketch.increment(id);
+        final Entry entry = new Entry(metadataItem, itemWeight);
+
+        final Entry previous = main.get(id);
+        if (previous != null) {
+            // Already admitted, so just replace it
+            main.put(id, entry);
+            mainWeight += itemWeight - previous.weight;
+            final Iterator<Entry> eldest = main.values().iterator();
+            while (main.size() > mainCapacity || mainWeight > mainMaxWeight) {
+                final boolean overCapacity = main.size() > mainCapacity;
+                final Entry victim = eldest.next();
+                eldest.remove();
+                mainWeight -= victim.weight;
+                evicted(victim, overCapacity ? EvictionReason.CAPACITY
+                        : EvictionReason.WEIGHT);
+            }
+            return;
+        }
+
+        final Entry replaced = window.put(id, entry);
+        if (replaced != null) {
+            windowWeight -= replaced.weight;
+        }
+        windowWeight += itemWeight;
+
+        while (window.size() > windowCapacity
+                || windowWeight > windowMaxWeight) {
+            final Iterator<Map.Entry<String, Entry>> eldest = window
+                    .entrySet().iterator();
+            final Map.Entry<String, Entry> candidate = eldest.next();
+            eldest.remove();
+            windowWeight -= candidate.getValue().weight;
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    @Override
+    public void remove(final String metadataIdentificationString) {
+        Entry entry = window.remove(metadataIdentificationString);
+        if (entry != null) {
+            windowWeight -= entry.weight;
+        }
+        entry = main.remove(metadataIdentificationString);
+        if (entry != null) {
+            mainWeight -= entry.weight;
+        }
+    }
+
+    @Override
+    public int size() {
+        return window.size() + main.size();
+    }
+}
@@ -1,23 +1,239 @@
 package org.springframework.roo.metadata;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
 public class DefaultMetadataServiceTest {
 
+    /**
+     * A metadata item with no content
+     */
+    private static class TestItem extends AbstractMetadataItem {
+
+        TestItem(final String id) {
+            super(id);
+        }
+    }
+
+    /**
+     * Provides {@link TestItem}s, first running the given action, if any
+     */
+    private static class TestProvider implements MetadataProvider {
+
+        private final Runnable action;
+        final AtomicInteger gets = new AtomicInteger();
+        private final String metadataClass;
+
+        TestProvider(final String metadataClass, final Runnable action) {
+            this.action = action;
+            this.metadataClass = metadataClass;
+        }
+
+        public MetadataItem get(final String metadataIdentificationString) {
+            gets.incrementAndGet();
+            if (action != null) {
+                action.run();
+            }
+            return new TestItem(metadataIdentificationString);
+        }
+
+        public String getProvidesType() {
+            return MetadataIdentificationUtils.create(metadataClass);
+        }
+    }
+
+    private static final String X = MetadataIdentificationUtils.create(
+            "org.example.XMetadata", "x");
+    private static final String Y = MetadataIdentificationUtils.create(
+            "org.example.YMetadata", "y");
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            assertTrue("Timed out", latch.await(TIMEOUT_SECONDS,
+                    TimeUnit.SECONDS));
+        }
+        catch (final InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static DefaultMetadataService newConcurrentService()
+            throws Exception {
+        final DefaultMetadataService service = new DefaultMetadataService();
+        final Field metadataLogger = DefaultMetadataService.class
+                .getDeclaredField("metadataLogger");
+        metadataLogger.setAccessible(true);
+        metadataLogger.set(service, new DefaultMetadataLogger());
+        service.setConcurrentMode(true);
+        return service;
+    }
+
+    /**
+     * Gets the given item on a new thread, putting the result (or the
+     * exception thrown) in the given queue.
+     */
+    private static Thread startGet(final DefaultMetadataService service,
+            final String mid, final BlockingQueue<Object> results) {
+        final Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    results.add(service.get(mid));
+                }
+                catch (final Throwable t) {
+                    results.add(t);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static Object take(final BlockingQueue<Object> results)
+            throws InterruptedException {
+        final Object result = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("Timed out", result);
+        if (result instanceof Throwable) {
+            throw new AssertionError(result);
+        }
+        return result;
+    }
+
+    private static void waitUntilWaiting(final Thread thread)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_SECONDS
+                * 1000;
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
     private static final String TO_STRING_FOR_NEW_INSTANCE = "org.springframework.roo.metadata.DefaultMetadataService:"
             + "[validGets=0,"
             + "recursiveGets=0,"
+            + "retries=0,"
+            + "maxRetryDepth=0,"
             + "cachePuts=0,"
             + "cacheHits=0,"
             + "cacheMisses=0,"
             + "cacheEvictions=0,"
-            + "cacheCurrentSize=0," + "cacheMaximumSize=100000]";
+            + "cacheCurrentSize=0,"
+            + "cacheMaximumSize=100000,"
+            + "cacheCurrentWeight=0,"
+            + "cacheMaximumWeight=9223372036854775807,"
+            + "cacheEvictionPolicy=LRU,"
+            + "cacheSoftSize=0,"
+            + "cacheEvictionReasons={CAPACITY=0, WEIGHT=0, ADMISSION=0, COLLECTED=0}]";
 
     @Test
     public void testToStringOfNewInstance() {
         assertEquals(TO_STRING_FOR_NEW_INSTANCE,
                 new DefaultMetadataService().toString());
     }
+
+    @Test
+    public void testConcurrentModeCanBeToggled() {
+        final DefaultMetadataService service = new DefaultMetadataService();
+        assertFalse(service.isConcurrentMode());
+        service.setConcurrentMode(true);
+        assertTrue(service.isConcurrentMode());
+        service.setConcurrentMode(false);
+        assertFalse(service.isConcurrentMode());
+    }
+
+    @Test
+    public void testConcurrentRequestAwaitsItemBeingProducedByAnotherThread()
+            throws Exception {
+        // Set up
+        final DefaultMetadataService service = newConcurrentService();
+        final CountDownLatch producing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestProvider provider = new TestProvider(
+                "org.example.XMetadata", new Runnable() {
+                    public void run() {
+                        producing.countDown();
+                        await(release);
+                    }
+                });
+        service.bindMetadataProvider(provider);
+        final BlockingQueue<Object> firstResult = new ArrayBlockingQueue<Object>(
+                1);
+        final BlockingQueue<Object> secondResult = new ArrayBlockingQueue<Object>(
+                1);
+
+        // Invoke
+        startGet(service, X, firstResult);
+        await(producing);
+        final Thread second = startGet(service, X, secondResult);
+        // Waiting for the first thread to finish producing X
+        waitUntilWaiting(second);
+        release.countDown();
+
+        // Check
+        final Object first = take(firstResult);
+        assertSame(first, take(secondResult));
+        assertEquals(1, provider.gets.get());
+        assertTrue(service.toString().contains("recursiveGets=0,"));
+    }
+
+    @Test
+    public void testCrossThreadWaitCycleIsBlockedAndRetried() throws Exception {
+        // Set up: X's provider needs Y and Y's provider needs X, and each is
+        // first requested on its own thread
+        final DefaultMetadataService service = newConcurrentService();
+        final CountDownLatch xClaimed = new CountDownLatch(1);
+        final CountDownLatch yClaimed = new CountDownLatch(1);
+        final List<Object> nested = Collections
+                .synchronizedList(new ArrayList<Object>());
+        final TestProvider xProvider = new TestProvider(
+                "org.example.XMetadata", new Runnable() {
+                    public void run() {
+                        xClaimed.countDown();
+                        await(yClaimed);
+                        nested.add(String.valueOf(service.get(Y)));
+                    }
+                });
+        final TestProvider yProvider = new TestProvider(
+                "org.example.YMetadata", new Runnable() {
+                    public void run() {
+                        yClaimed.countDown();
+                        await(xClaimed);
+                        nested.add(String.valueOf(service.get(X)));
+                    }
+                });
+        service.bindMetadataProvider(xProvider);
+        service.bindMetadataProvider(yProvider);
+        final BlockingQueue<Object> xResult = new ArrayBlockingQueue<Object>(1);
+        final BlockingQueue<Object> yResult = new ArrayBlockingQueue<Object>(1);
+
+        // Invoke
+        startGet(service, X, xResult);
+        startGet(service, Y, yResult);
+
+        // Check: whichever thread closed the cycle was blocked instead of
+        // waiting, and retried its request once its own request completed
+        assertEquals(X, ((MetadataItem) take(xResult)).getId());
+        assertEquals(Y, ((MetadataItem) take(yResult)).getId());
+        assertEquals(3, xProvider.gets.get() + yProvider.gets.get());
+        assertTrue(nested.contains("null"));
+        final String statistics = service.toString();
+        assertTrue(statistics, statistics.contains("recursiveGets=1,"));
+        assertTrue(statistics, statistics.contains("retries=1,"));
+    }
 }
@@ -0,0 +1,74 @@
+package org.springframework.roo.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test of {@link MetadataFingerprintBuilder} and
+ * {@link MetadataFingerprint}
+ */
+public class MetadataFingerprintBuilderTest {
+
+    private MetadataFingerprint fingerprint(final String... values) {
+        final MetadataFingerprintBuilder builder = new MetadataFingerprintBuilder();
+        for (final String value : values) {
+            builder.append(value);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testFingerprintIsDeterministic() {
+        final MetadataFingerprint fingerprint = fingerprint("com.example.Person",
+                "public String getName() { return name; }");
+        assertEquals(fingerprint, fingerprint("com.example.Person",
+                "public String getName() { return name; }"));
+        assertTrue(fingerprint.isStable());
+        // Must never change between releases, or persisted fingerprints would
+        // all mismatch after an upgrade
+        assertEquals("3b5581e70632ea1d8741bd887aeb8982",
+                new MetadataFingerprintBuilder().append("abc")
+                .append(42).append(true).build().toString());
+    }
+
+    @Test
+    public void testBuildDoesNotResetTheBuilder() {
+        final MetadataFingerprintBuilder builder = new MetadataFingerprintBuilder()
+                .append("a");
+        final MetadataFingerprint first = builder.build();
+        assertEquals(first, builder.build());
+        assertFalse(first.equals(builder.append("b").build()));
+    }
+
+    @Test
+    public void testHashCodeFingerprintsAreUnstable() {
+        final MetadataFingerprint fingerprint = MetadataFingerprint
+                .ofHashCode("abc");
+        assertFalse(fingerprint.isStable());
+        assertEquals(fingerprint, MetadataFingerprint.ofHashCode("abc"));
+        assertTrue(fingerprint.toString().startsWith("hashCode:"));
+    }
+
+    @Test
+    public void testStringsAreDelimited() {
+        assertFalse(fingerprint("ab", "c").equals(fingerprint("a", "bc")));
+        assertFalse(fingerprint("abcd").equals(fingerprint("abcd", "")));
+        assertFalse(fingerprint((String) null).equals(fingerprint("")));
+    }
+
+    @Test
+    public void testValueOfParsesToString() {
+        final MetadataFingerprint fingerprint = fingerprint("x", "y", "z");
+        final String hex = fingerprint.toString();
+        assertEquals(32, hex.length());
+        assertEquals(fingerprint, MetadataFingerprint.valueOf(hex));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValueOfRejectsInvalidFingerprints() {
+        MetadataFingerprint.valueOf("not a fingerprint, but 32 chars!");
+    }
+}
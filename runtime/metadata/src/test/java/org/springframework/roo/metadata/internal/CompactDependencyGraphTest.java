@@ -0,0 +1,78 @@
+package org.springframework.roo.metadata.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit test of {@link CompactDependencyGraph}
+ */
+public class CompactDependencyGraphTest {
+
+    private static final int NODES = 200;
+
+    private boolean isReachable(final CompactDependencyGraph graph,
+            final int from, final int to) {
+        final boolean[] seen = new boolean[NODES];
+        final Deque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            final int node = queue.remove();
+            if (node == to) {
+                return true;
+            }
+            for (final int next : graph.getDownstream(node)) {
+                if (!seen[next]) {
+                    seen[next] = true;
+                    queue.add(next);
+                }
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testCycleIsRejected() {
+        final CompactDependencyGraph graph = new CompactDependencyGraph();
+        assertTrue(graph.addEdge(0, 1));
+        assertTrue(graph.addEdge(1, 2));
+        assertFalse(graph.canAddEdge(2, 0));
+        assertFalse(graph.addEdge(2, 0));
+        assertEquals(0, graph.getDownstream(2).length);
+        assertFalse(graph.addEdge(1, 1));
+
+        graph.removeEdge(0, 1);
+        assertTrue(graph.addEdge(2, 0));
+    }
+
+    @Test
+    public void testRandomEdgesMatchReachability() {
+        final CompactDependencyGraph graph = new CompactDependencyGraph();
+        final Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            final int upstream = random.nextInt(NODES);
+            final int downstream = random.nextInt(NODES);
+            if (random.nextInt(4) == 0) {
+                graph.removeEdge(upstream, downstream);
+                continue;
+            }
+            final boolean expected = upstream != downstream
+                    && !isReachable(graph, downstream, upstream);
+            assertEquals(expected, graph.canAddEdge(upstream, downstream));
+            assertEquals(expected, graph.addEdge(upstream, downstream));
+        }
+
+        // The maintained order must be topological
+        for (int node = 0; node < NODES; node++) {
+            for (final int next : graph.getDownstream(node)) {
+                assertTrue(graph.getPosition(node) < graph.getPosition(next));
+            }
+        }
+    }
+}
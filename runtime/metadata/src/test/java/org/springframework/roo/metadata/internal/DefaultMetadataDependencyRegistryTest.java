@@ -1,9 +1,21 @@
 package org.springframework.roo.metadata.internal;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
+import org.springframework.roo.metadata.DefaultMetadataLogger;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.MetadataService;
 
 public class DefaultMetadataDependencyRegistryTest {
 
@@ -56,4 +68,85 @@ public class DefaultMetadataDependencyRegistryTest {
         Assert.assertEquals(0, reg.getDownstream(JAVA_TYPE_PERSON).size());
         Assert.assertEquals(2, reg.getDownstream(MVC_CONTROLLER).size());
     }
+
+    @Test
+    public void testDownstreamViewIsUnaffectedByLaterChanges() {
+        final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry();
+        reg.registerDependency(MVC_CONTROLLER, JSP_PAGE_1);
+        final Set<String> downstream = reg.getDownstream(MVC_CONTROLLER);
+
+        reg.registerDependency(MVC_CONTROLLER, JSP_PAGE_2);
+        reg.deregisterDependency(MVC_CONTROLLER, JSP_PAGE_1);
+
+        Assert.assertEquals(Collections.singleton(JSP_PAGE_1), downstream);
+        Assert.assertEquals(Collections.singleton(JSP_PAGE_2),
+                reg.getDownstream(MVC_CONTROLLER));
+        Assert.assertEquals(Collections.singleton(MVC_CONTROLLER),
+                reg.getUpstream(JSP_PAGE_2));
+        Assert.assertTrue(reg.getUpstream(JSP_PAGE_1).isEmpty());
+        Assert.assertEquals(Collections.singleton(MVC_CONTROLLER),
+                reg.getRegisteredUpstreams());
+    }
+
+    /**
+     * Returns a {@link MetadataService} that records each notified downstream
+     * and, like a real provider, notifies that downstream's own dependencies.
+     */
+    private MetadataService recordingMetadataService(
+            final DefaultMetadataDependencyRegistry reg,
+            final List<String> notified) {
+        return (MetadataService) Proxy.newProxyInstance(getClass()
+                .getClassLoader(), new Class<?>[] { MetadataService.class },
+                new InvocationHandler() {
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] args) {
+                        if ("notify".equals(method.getName())) {
+                            notified.add((String) args[1]);
+                            reg.notifyDownstream((String) args[1]);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    @Test
+    public void testBatchNotifiesEachDownstreamOnceInDependencyOrder() {
+        final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry();
+        reg.metadataLogger = new DefaultMetadataLogger();
+        final List<String> notified = new ArrayList<String>();
+        reg.addNotificationListener(recordingMetadataService(reg, notified));
+
+        // Two types feed a controller, which feeds two pages; one page also
+        // depends directly on one of the types
+        reg.registerDependency(JAVA_TYPE_OBJECT, MVC_CONTROLLER);
+        reg.registerDependency(JAVA_TYPE_PERSON, MVC_CONTROLLER);
+        reg.registerDependency(MVC_CONTROLLER, JSP_PAGE_1);
+        reg.registerDependency(MVC_CONTROLLER, JSP_PAGE_2);
+        reg.registerDependency(JAVA_TYPE_PERSON, JSP_PAGE_2);
+
+        // Without a batch, notifications cascade depth-first
+        reg.notifyDownstream(JAVA_TYPE_OBJECT);
+        reg.notifyDownstream(JAVA_TYPE_PERSON);
+        Assert.assertEquals(7, notified.size());
+
+        notified.clear();
+        reg.setNotificationBatchingEnabled(true);
+        reg.beginNotificationBatch();
+        reg.notifyDownstream(JAVA_TYPE_OBJECT);
+        reg.notifyDownstream(JAVA_TYPE_PERSON);
+        Assert.assertTrue(notified.isEmpty());
+        reg.endNotificationBatch();
+
+        Assert.assertEquals(3, notified.size());
+        Assert.assertEquals(MVC_CONTROLLER, notified.get(0));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(JSP_PAGE_1,
+                JSP_PAGE_2)), new HashSet<String>(notified.subList(1, 3)));
+
+        // Discarded notifications are never dispatched
+        notified.clear();
+        reg.beginNotificationBatch();
+        reg.notifyDownstream(JAVA_TYPE_OBJECT);
+        reg.discardNotificationBatch();
+        Assert.assertTrue(notified.isEmpty());
+    }
 }
@@ -0,0 +1,66 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.Random;
+
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+
+/**
+ * Measures the throughput of
+ * {@link DefaultMetadataDependencyRegistry#registerDependency(String, String)}
+ * on a synthetic, layered graph of 100,000 MIDs, roughly shaped like a project
+ * (physical types feeding several layers of ITD and view metadata).
+ * <p>
+ * Not run as part of the build; run its main method to obtain figures.
+ */
+public class DependencyRegistrationBenchmark {
+
+    private static final int EDGES_PER_MID = 4;
+    private static final int LAYERS = 10;
+    private static final int MIDS = 100000;
+
+    public static void main(final String[] args) {
+        final String[] mids = new String[MIDS];
+        for (int i = 0; i < MIDS; i++) {
+            mids[i] = MetadataIdentificationUtils.create("com.example.Layer"
+                    + i % LAYERS, "SRC_MAIN_JAVA?com.example.Type" + i);
+        }
+        for (int round = 1; round <= 3; round++) {
+            run(mids, round);
+        }
+    }
+
+    private static void run(final String[] mids, final int round) {
+        final DefaultMetadataDependencyRegistry registry = new DefaultMetadataDependencyRegistry();
+        final Random random = new Random(round);
+        final int perLayer = MIDS / LAYERS;
+        int registrations = 0;
+
+        final long start = System.nanoTime();
+        // Register the MIDs in a shuffled layer order, so that many edges
+        // disagree with the order in which the MIDs were first seen
+        for (int layer = LAYERS - 1; layer > 0; layer--) {
+            for (int i = 0; i < perLayer; i++) {
+                final int downstream = layer * perLayer + i;
+                for (int e = 0; e < EDGES_PER_MID; e++) {
+                    final int upstream = random.nextInt(layer * perLayer);
+                    registry.registerDependency(mids[upstream],
+                            mids[downstream]);
+                    registrations++;
+                }
+            }
+        }
+        // Providers re-register the same dependencies on every get
+        for (int i = perLayer; i < MIDS; i++) {
+            for (final String upstream : registry.getUpstream(mids[i])) {
+                registry.registerDependency(upstream, mids[i]);
+                registrations++;
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        System.out.printf(
+                "Round %d: %,d registrations in %,d ms (%,.0f per second)%n",
+                round, registrations, elapsed / 1000000, registrations
+                        * 1e9 / elapsed);
+    }
+}
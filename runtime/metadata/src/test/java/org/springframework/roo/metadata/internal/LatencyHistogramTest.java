@@ -0,0 +1,48 @@
+package org.springframework.roo.metadata.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test of {@link LatencyHistogram}
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBoundsContainTheirValues() {
+        for (long value = 0; value < 1L << 41; value = value * 3 / 2 + 1) {
+            final int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket < LatencyHistogram.BUCKETS);
+            if (bucket < LatencyHistogram.BUCKETS - 1) {
+                assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+                assertTrue(bucket == 0
+                        || value > LatencyHistogram.upperBoundOf(bucket - 1));
+                // Relative error stays within one sixteenth
+                assertTrue(LatencyHistogram.upperBoundOf(bucket) - value <= value / 16);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        final long[] counts = histogram.getCounts();
+        final long max = histogram.getMaximum();
+
+        assertEquals(1000000L, max);
+        assertEquals(500500000L, histogram.getTotal());
+        final long p50 = LatencyHistogram.percentile(counts, max, 50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 17 / 16);
+        final long p99 = LatencyHistogram.percentile(counts, max, 99);
+        assertTrue(p99 >= 990000 && p99 <= max);
+        assertEquals(max, LatencyHistogram.percentile(counts, max, 100));
+        assertEquals(0,
+                LatencyHistogram.percentile(new LatencyHistogram().getCounts(),
+                        0, 50));
+    }
+}
@@ -0,0 +1,128 @@
+package org.springframework.roo.metadata.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+
+/**
+ * Unit test of {@link DefaultMetadataDependencyRegistry} on a synthetic,
+ * layered graph roughly shaped like a project (physical types feeding several
+ * layers of ITD and view metadata), registered in an order that disagrees
+ * with the layers.
+ */
+public class LayeredDependencyRegistrationTest {
+
+    private static final int EDGES_PER_MID = 4;
+    private static final int LAYERS = 10;
+    private static final int MIDS = 10000;
+    private static final int PER_LAYER = MIDS / LAYERS;
+
+    private String[] mids;
+    private DefaultMetadataDependencyRegistry registry;
+    private int[][] upstreams;
+
+    @Before
+    public void setUp() {
+        mids = new String[MIDS];
+        for (int i = 0; i < MIDS; i++) {
+            mids[i] = MetadataIdentificationUtils.create("com.example.Layer"
+                    + i % LAYERS, "SRC_MAIN_JAVA?com.example.Type" + i);
+        }
+        registry = new DefaultMetadataDependencyRegistry();
+        upstreams = new int[MIDS][];
+        final Random random = new Random(1);
+        // Register the layers from the last to the first, so that many edges
+        // disagree with the order in which the MIDs were first seen
+        for (int layer = LAYERS - 1; layer > 0; layer--) {
+            for (int i = 0; i < PER_LAYER; i++) {
+                final int downstream = layer * PER_LAYER + i;
+                upstreams[downstream] = new int[EDGES_PER_MID];
+                for (int e = 0; e < EDGES_PER_MID; e++) {
+                    final int upstream = random.nextInt(layer * PER_LAYER);
+                    upstreams[downstream][e] = upstream;
+                    registry.registerDependency(mids[upstream],
+                            mids[downstream]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEveryRegisteredDependencyIsReportedBothWays() {
+        for (int downstream = PER_LAYER; downstream < MIDS; downstream++) {
+            for (final int upstream : upstreams[downstream]) {
+                assertTrue(registry.getUpstream(mids[downstream]).contains(
+                        mids[upstream]));
+                assertTrue(registry.getDownstream(mids[upstream]).contains(
+                        mids[downstream]));
+            }
+        }
+    }
+
+    @Test
+    public void testReregistrationChangesNothing() {
+        final int[] upstreamCounts = new int[MIDS];
+        for (int i = 0; i < MIDS; i++) {
+            upstreamCounts[i] = registry.getUpstream(mids[i]).size();
+        }
+
+        // Providers re-register the same dependencies on every get
+        for (int i = PER_LAYER; i < MIDS; i++) {
+            for (final String upstream : registry.getUpstream(mids[i])) {
+                registry.registerDependency(upstream, mids[i]);
+            }
+        }
+
+        for (int i = 0; i < MIDS; i++) {
+            assertEquals(upstreamCounts[i], registry.getUpstream(mids[i])
+                    .size());
+        }
+    }
+
+    @Test
+    public void testReversedDependenciesAreCycles() {
+        for (int downstream = PER_LAYER; downstream < MIDS; downstream += 7) {
+            for (final int upstream : upstreams[downstream]) {
+                assertFalse(registry.isValidDependency(mids[downstream],
+                        mids[upstream]));
+            }
+        }
+    }
+
+    @Test
+    public void testTransitiveCycleIsRejected() {
+        // Walk up from a MID in the last layer to one with no upstreams
+        int top = MIDS - 1;
+        while (upstreams[top] != null) {
+            top = upstreams[top][0];
+        }
+        assertTrue(top < PER_LAYER);
+        assertFalse(registry.isValidDependency(mids[MIDS - 1], mids[top]));
+        try {
+            registry.registerDependency(mids[MIDS - 1], mids[top]);
+            fail("Expected an IllegalArgumentException");
+        }
+        catch (final IllegalArgumentException expected) {
+            // Expected
+        }
+        assertFalse(registry.getUpstream(mids[top]).contains(mids[MIDS - 1]));
+    }
+
+    @Test
+    public void testDependenciesFollowingTheLayersAreValid() {
+        final Random random = new Random(2);
+        for (int n = 0; n < 1000; n++) {
+            final int upstream = random.nextInt(PER_LAYER);
+            final int downstream = MIDS - 1 - random.nextInt(PER_LAYER);
+            assertTrue(registry.isValidDependency(mids[upstream],
+                    mids[downstream]));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.springframework.roo.metadata.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.roo.metadata.AbstractMetadataItem;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.MetadataItem;
+import org.springframework.roo.metadata.internal.MetadataCachePolicy.EvictionListener;
+import org.springframework.roo.metadata.internal.MetadataCachePolicy.EvictionReason;
+
+/**
+ * Unit test of the {@link MetadataCachePolicy} implementations
+ * 
+ * @since 2.0
+ */
+public class MetadataCachePolicyTest {
+
+    private static class TestItem extends AbstractMetadataItem {
+        TestItem(final int index) {
+            super(MetadataIdentificationUtils.create("com.Test", "item"
+                    + index));
+        }
+    }
+
+    private final List<EvictionReason> reasons = new ArrayList<EvictionReason>();
+
+    private final EvictionListener listener = new EvictionListener() {
+        public void onEviction(final MetadataItem item, final long weight,
+                final EvictionReason reason) {
+            reasons.add(reason);
+        }
+    };
+
+    private static String id(final int index) {
+        return new TestItem(index).getId();
+    }
+
+    @Test
+    public void testLruEvictsByWeight() {
+        final MetadataCachePolicy policy = new LruMetadataCachePolicy(100,
+                1000, listener);
+        policy.put(new TestItem(1), 400);
+        policy.put(new TestItem(2), 400);
+        policy.put(new TestItem(3), 400);
+
+        assertEquals(2, policy.size());
+        assertEquals(800, policy.getWeight());
+        assertNull(policy.get(id(1)));
+        assertEquals(EvictionReason.WEIGHT, reasons.get(0));
+    }
+
+    @Test
+    public void testLruEvictsByCapacity() {
+        final MetadataCachePolicy policy = new LruMetadataCachePolicy(2,
+                Long.MAX_VALUE, listener);
+        policy.put(new TestItem(1), 1);
+        policy.put(new TestItem(2), 1);
+        policy.get(id(1));
+        policy.put(new TestItem(3), 1);
+
+        assertNotNull(policy.get(id(1)));
+        assertNull(policy.get(id(2)));
+        assertEquals(EvictionReason.CAPACITY, reasons.get(0));
+    }
+
+    @Test
+    public void testTinyLfuKeepsFrequentItemsDuringScan() {
+        final MetadataCachePolicy policy = new TinyLfuMetadataCachePolicy(
+                100, Long.MAX_VALUE, listener);
+        for (int i = 0; i < 99; i++) {
+            policy.put(new TestItem(i), 1);
+            policy.get(id(i));
+            policy.get(id(i));
+        }
+
+        // A one-off scan of items requested only once
+        for (int i = 1000; i < 1500; i++) {
+            policy.put(new TestItem(i), 1);
+        }
+
+        for (int i = 0; i < 99; i++) {
+            assertNotNull(policy.get(id(i)));
+        }
+        assertEquals(100, policy.size());
+        assertEquals(EvictionReason.ADMISSION, reasons.get(0));
+    }
+
+    @Test
+    public void testTinyLfuReplacementEvictsByWeight() {
+        final MetadataCachePolicy policy = new TinyLfuMetadataCachePolicy(
+                100, 10000, listener);
+        policy.put(new TestItem(1), 90);
+        policy.put(new TestItem(2), 90);
+        policy.put(new TestItem(3), 90);
+
+        // Item 1 has been admitted to the main region, so is replaced there
+        policy.put(new TestItem(1), 9850);
+
+        assertNull(policy.get(id(2)));
+        assertNotNull(policy.get(id(1)));
+        assertEquals(1, reasons.size());
+        assertEquals(EvictionReason.WEIGHT, reasons.get(0));
+    }
+}
@@ -0,0 +1,113 @@
+package org.springframework.roo.metadata.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.internal.MetadataDependencyGraph.Cascade;
+
+/**
+ * Unit test of {@link MetadataDependencyGraph}
+ */
+public class MetadataDependencyGraphTest {
+
+    private static final String BASE_ENTITY = MetadataIdentificationUtils
+            .create("com.example.TypeMetadata", "BaseEntity");
+    private static final String CONTROLLER = MetadataIdentificationUtils
+            .create("com.example.ControllerMetadata", "Person");
+    private static final String ENTITY = MetadataIdentificationUtils.create(
+            "com.example.EntityMetadata", "Person");
+    private static final String PAGE = MetadataIdentificationUtils.create(
+            "com.example.PageMetadata", "Person");
+
+    private MetadataDependencyGraph graph;
+
+    @Before
+    public void setUp() {
+        // The base entity feeds the entity and (directly) the page; the
+        // entity feeds the controller, which feeds the page
+        final DefaultMetadataDependencyRegistry registry = new DefaultMetadataDependencyRegistry();
+        registry.registerDependency(BASE_ENTITY, ENTITY);
+        registry.registerDependency(BASE_ENTITY, PAGE);
+        registry.registerDependency(ENTITY, CONTROLLER);
+        registry.registerDependency(CONTROLLER, PAGE);
+
+        final Map<String, Long> times = new HashMap<String, Long>();
+        times.put(BASE_ENTITY, 1000000L);
+        times.put(ENTITY, 2000000L);
+        times.put(CONTROLLER, 3000000L);
+        times.put(PAGE, 4000000L);
+        graph = new MetadataDependencyGraph(registry, times);
+    }
+
+    @Test
+    public void testCascadeCountsSharedItemsOnce() {
+        assertEquals(4, graph.getNodeCount());
+        assertEquals(4, graph.getEdgeCount());
+
+        final List<Cascade> cascades = graph.getMostExpensiveCascades(2);
+        assertEquals(2, cascades.size());
+        final Cascade base = cascades.get(0);
+        assertEquals(BASE_ENTITY, base.getMetadataIdentificationString());
+        assertEquals(4, base.getItemCount());
+        assertEquals(10000000L, base.getTotalTime());
+        assertEquals(Arrays.asList(BASE_ENTITY, ENTITY, CONTROLLER, PAGE),
+                base.getCriticalPath());
+        assertEquals(10000000L, base.getCriticalPathTime());
+        assertEquals(ENTITY, cascades.get(1).getMetadataIdentificationString());
+        assertEquals(9000000L, cascades.get(1).getTotalTime());
+    }
+
+    @Test
+    public void testExports() {
+        final String dot = graph.formatDot();
+        assertTrue(dot, dot.startsWith("digraph metadata {"));
+        assertTrue(dot, dot.contains("\"" + ENTITY + "\" -> \"" + CONTROLLER
+                + "\";"));
+        assertTrue(dot, dot.contains("[label=\"EntityMetadata#Person\\n"));
+
+        final String graphMl = graph.formatGraphMl();
+        assertTrue(graphMl,
+                graphMl.contains("<edge source=\"" + CONTROLLER
+                        + "\" target=\"" + PAGE + "\"/>"));
+        assertTrue(graphMl, graphMl.contains("<data key=\"cascade\">10000</data>"));
+
+        // The page is the most expensive type to regenerate
+        final String costs = graph.formatProviderCosts();
+        assertTrue(costs, costs.indexOf("com.example.PageMetadata") < costs
+                .indexOf("com.example.ControllerMetadata"));
+    }
+
+    @Test
+    public void testClassLevelDependenciesAreResolvedToInstances() {
+        final String typeItd = MetadataIdentificationUtils.create(
+                "com.example.ItdMetadata", "BaseEntity");
+        final DefaultMetadataDependencyRegistry registry = new DefaultMetadataDependencyRegistry();
+        registry.registerDependency(BASE_ENTITY, ENTITY);
+        registry.registerDependency(
+                MetadataIdentificationUtils.getMetadataClassId(BASE_ENTITY),
+                MetadataIdentificationUtils.create("com.example.ItdMetadata"));
+
+        final Map<String, Long> times = new HashMap<String, Long>();
+        times.put(BASE_ENTITY, 1000000L);
+        times.put(ENTITY, 2000000L);
+        times.put(typeItd, 5000000L);
+        final MetadataDependencyGraph classLevelGraph = new MetadataDependencyGraph(
+                registry, times);
+
+        final Cascade base = classLevelGraph.getMostExpensiveCascades(1)
+                .get(0);
+        assertEquals(BASE_ENTITY, base.getMetadataIdentificationString());
+        assertEquals(3, base.getItemCount());
+        assertEquals(8000000L, base.getTotalTime());
+        assertEquals(Arrays.asList(BASE_ENTITY, typeItd),
+                base.getCriticalPath());
+    }
+}
@@ -0,0 +1,154 @@
+package org.springframework.roo.metadata.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+
+/**
+ * Unit test of {@link MetadataSnapshot}
+ *
+ * @since 2.0
+ */
+public class MetadataSnapshotTest {
+
+    private static final Set<String> ADD_ONS = Collections
+            .singleton("org.example.addon;1.0.0");
+    private static final String CHANGED_TYPE = MetadataIdentificationUtils
+            .create("com.Test", "changed");
+    private static final String CLASS_LEVEL_ITD = MetadataIdentificationUtils
+            .create("com.Itd");
+    private static final String DEPENDENT_ITD = MetadataIdentificationUtils
+            .create("com.Test", "itd");
+    private static final String ROO_VERSION = "2.0.0";
+    private static final String UNCHANGED_TYPE = MetadataIdentificationUtils
+            .create("com.Test", "unchanged");
+
+    private File changedFile;
+    private File unchangedFile;
+
+    @After
+    public void deleteFiles() {
+        FileUtils.deleteQuietly(changedFile);
+        FileUtils.deleteQuietly(unchangedFile);
+    }
+
+    @Before
+    public void createFiles() throws IOException {
+        changedFile = File.createTempFile("changed", ".java");
+        unchangedFile = File.createTempFile("unchanged", ".java");
+    }
+
+    @Test
+    public void testFingerprintOfMissingFileIsNull() {
+        assertNull(MetadataSnapshot.fingerprint(new File(changedFile
+                .getPath() + ".missing")));
+    }
+
+    @Test
+    public void testStaleIdentifiersFollowDownstreamDependencies()
+            throws IOException {
+        final MetadataSnapshot snapshot = new MetadataSnapshot();
+        snapshot.getSources().put(CHANGED_TYPE, changedFile.getPath());
+        snapshot.getSources().put(UNCHANGED_TYPE, unchangedFile.getPath());
+        snapshot.getFingerprints().put(changedFile.getPath(),
+                MetadataSnapshot.fingerprint(changedFile));
+        snapshot.getFingerprints().put(unchangedFile.getPath(),
+                MetadataSnapshot.fingerprint(unchangedFile));
+        snapshot.getDependencies().put(CHANGED_TYPE,
+                new HashSet<String>(Collections.singleton(DEPENDENT_ITD)));
+
+        assertTrue(snapshot.getStaleIdentifiers().isEmpty());
+
+        FileUtils.writeStringToFile(changedFile, "class Changed {}");
+
+        final Set<String> stale = snapshot.getStaleIdentifiers();
+        assertEquals(2, stale.size());
+        assertTrue(stale.contains(CHANGED_TYPE));
+        assertTrue(stale.contains(DEPENDENT_ITD));
+    }
+
+    @Test
+    public void testStaleIdentifiersFollowClassLevelDependencies()
+            throws IOException {
+        final MetadataSnapshot snapshot = new MetadataSnapshot();
+        snapshot.getSources().put(CHANGED_TYPE, changedFile.getPath());
+        snapshot.getFingerprints().put(changedFile.getPath(),
+                MetadataSnapshot.fingerprint(changedFile));
+        snapshot.getDependencies().put(
+                MetadataIdentificationUtils.getMetadataClassId(CHANGED_TYPE),
+                new HashSet<String>(Collections.singleton(CLASS_LEVEL_ITD)));
+
+        FileUtils.writeStringToFile(changedFile, "class Changed {}");
+
+        final Set<String> stale = snapshot.getStaleIdentifiers();
+        assertEquals(2, stale.size());
+        assertTrue(stale.contains(CHANGED_TYPE));
+        assertTrue(stale.contains(MetadataIdentificationUtils.create("com.Itd",
+                "changed")));
+    }
+
+    @Test
+    public void testSnapshotIsInvalidForOtherVersionAddOnsOrMissingFiles()
+            throws IOException {
+        final MetadataSnapshot snapshot = new MetadataSnapshot();
+        snapshot.setRooVersion(ROO_VERSION);
+        snapshot.getAddOns().addAll(ADD_ONS);
+        snapshot.getGeneratedFiles().add(unchangedFile.getPath());
+
+        assertTrue(snapshot.isValidFor(ROO_VERSION, ADD_ONS));
+        assertFalse(snapshot.isValidFor("2.0.1", ADD_ONS));
+        assertFalse(snapshot.isValidFor(ROO_VERSION,
+                Collections.<String> emptySet()));
+
+        FileUtils.deleteQuietly(unchangedFile);
+
+        assertFalse(snapshot.isValidFor(ROO_VERSION, ADD_ONS));
+    }
+
+    @Test
+    public void testWriteAndReadPreserveContent() throws IOException {
+        final MetadataSnapshot snapshot = new MetadataSnapshot();
+        snapshot.setRooVersion(ROO_VERSION);
+        snapshot.getAddOns().addAll(ADD_ONS);
+        snapshot.getGeneratedFiles().add(unchangedFile.getPath());
+        snapshot.getSources().put(CHANGED_TYPE, changedFile.getPath());
+        snapshot.getFingerprints().put(changedFile.getPath(),
+                MetadataSnapshot.fingerprint(changedFile));
+        snapshot.getDependencies().put(CHANGED_TYPE,
+                new HashSet<String>(Collections.singleton(DEPENDENT_ITD)));
+        snapshot.getItemFingerprints().put("notifier",
+                Collections.singletonMap(DEPENDENT_ITD, "0a1b"));
+
+        final File file = File.createTempFile("metadata", ".snapshot");
+        try {
+            snapshot.write(file);
+            final MetadataSnapshot read = MetadataSnapshot.read(file);
+
+            assertEquals(ROO_VERSION, read.getRooVersion());
+            assertEquals(snapshot.getAddOns(), read.getAddOns());
+            assertEquals(snapshot.getGeneratedFiles(),
+                    read.getGeneratedFiles());
+            assertEquals(snapshot.getSources(), read.getSources());
+            assertEquals(snapshot.getFingerprints(), read.getFingerprints());
+            assertEquals(snapshot.getDependencies(), read.getDependencies());
+            assertEquals(snapshot.getItemFingerprints(),
+                    read.getItemFingerprints());
+        }
+        finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.springframework.roo.metadata.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.metadata.MetadataTraceEvent;
+import org.springframework.roo.metadata.internal.MetadataTraceAnalyzer.Call;
+
+/**
+ * Unit test of {@link MetadataTraceRecorder} and {@link MetadataTraceAnalyzer}
+ */
+public class MetadataTraceRecorderTest {
+
+    private static final String ENTITY = "MID:com.example.EntityMetadata#Person";
+    private static final String TYPE = "MID:com.example.TypeMetadata#Person";
+    private static final String UPSTREAM = "MID:com.example.TypeMetadata#Owner";
+
+    private File traceFile;
+
+    @Before
+    public void setUp() throws Exception {
+        traceFile = File.createTempFile("metadata", ".trace");
+    }
+
+    @After
+    public void tearDown() {
+        MetadataTraceRecorder.getDictionaryFile(traceFile).delete();
+        traceFile.delete();
+    }
+
+    private void recordGet(final MetadataTraceRecorder recorder,
+            final String mid, final int depth, final String nestedMid)
+            throws InterruptedException {
+        recorder.record(MetadataTraceEvent.CACHE_MISS, mid, null, depth);
+        recorder.record(MetadataTraceEvent.GET_START, mid, null, depth);
+        Thread.sleep(2);
+        if (nestedMid != null) {
+            recordGet(recorder, nestedMid, depth + 1, null);
+        }
+        recorder.record(MetadataTraceEvent.GET_END, mid, null, depth);
+    }
+
+    @Test
+    public void testAnalyzerRebuildsCallTree() throws Exception {
+        final MetadataTraceRecorder recorder = new MetadataTraceRecorder(
+                traceFile, 64);
+        recorder.record(MetadataTraceEvent.NOTIFY_START, ENTITY, UPSTREAM, 0);
+        recordGet(recorder, ENTITY, 1, TYPE);
+        recorder.record(MetadataTraceEvent.NOTIFY_END, ENTITY, UPSTREAM, 0);
+        recorder.close();
+
+        final MetadataTraceAnalyzer analyzer = new MetadataTraceAnalyzer(
+                traceFile);
+        assertEquals(8, analyzer.getEventCount());
+        final List<Call> calls = analyzer.getCalls();
+        assertEquals(1, calls.size());
+        final Call notification = calls.get(0);
+        assertEquals(MetadataTraceEvent.NOTIFY_START, notification.getKind());
+        assertEquals(UPSTREAM, notification.getRelatedIdentificationString());
+        final Call get = notification.getChildren().get(0);
+        assertEquals(ENTITY, get.getMetadataIdentificationString());
+        final Call nested = get.getChildren().get(0);
+        assertEquals(TYPE, nested.getMetadataIdentificationString());
+        assertNull(nested.getRelatedIdentificationString());
+        assertTrue(get.getInclusiveTime() >= nested.getInclusiveTime());
+        assertTrue(notification.getInclusiveTime() >= get.getInclusiveTime());
+
+        final String flameGraph = analyzer.formatFlameGraph();
+        assertTrue(flameGraph,
+                flameGraph.contains("notify EntityMetadata;get EntityMetadata "));
+        assertTrue(flameGraph,
+                flameGraph
+                        .contains("notify EntityMetadata;get EntityMetadata;get TypeMetadata "));
+        assertTrue(analyzer.formatMostExpensiveChains(1).contains(TYPE));
+    }
+
+    @Test
+    public void testOverwrittenStartsAreIgnored() throws Exception {
+        final MetadataTraceRecorder recorder = new MetadataTraceRecorder(
+                traceFile, 4);
+        // Six events into four slots loses the outer CACHE_MISS and GET_START
+        recordGet(recorder, ENTITY, 0, TYPE);
+        recorder.close();
+
+        final MetadataTraceAnalyzer analyzer = new MetadataTraceAnalyzer(
+                traceFile);
+        assertEquals(4, analyzer.getEventCount());
+        final List<Call> calls = analyzer.getCalls();
+        assertEquals(1, calls.size());
+        assertEquals(TYPE, calls.get(0).getMetadataIdentificationString());
+        assertTrue(calls.get(0).getChildren().isEmpty());
+    }
+}
@@ -0,0 +1,61 @@
+package org.springframework.roo.process.manager;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.file.monitor.event.FileOperation;
+
+/**
+ * What a dry run changed, and whether those changes were reverted; see
+ * {@link ProcessManager#endDryRun()}.
+ * <p>
+ * Immutable.
+ *
+ * @since 2.0
+ */
+public final class DryRunResult {
+
+    private final SortedMap<String, FileOperation> changes;
+    private final boolean reverted;
+
+    /**
+     * Constructor
+     *
+     * @param changes the net change made to each file, keyed by canonical
+     *            path (required)
+     * @param reverted whether every change was reverted
+     */
+    public DryRunResult(final SortedMap<String, FileOperation> changes,
+            final boolean reverted) {
+        Validate.notNull(changes, "Changes required");
+        this.changes = Collections
+                .unmodifiableSortedMap(new TreeMap<String, FileOperation>(
+                        changes));
+        this.reverted = reverted;
+    }
+
+    /**
+     * @return the net change made to each file, keyed by canonical path, i.e.
+     *         {@link FileOperation#CREATED}, {@link FileOperation#UPDATED} or
+     *         {@link FileOperation#DELETED} (never <code>null</code>)
+     */
+    public SortedMap<String, FileOperation> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return <code>false</code> if some of the changes could not be
+     *         reverted, i.e. remain on disk
+     */
+    public boolean isReverted() {
+        return reverted;
+    }
+
+    @Override
+    public String toString() {
+        return changes.size() + " change(s), "
+                + (reverted ? "reverted" : "not all reverted");
+    }
+}
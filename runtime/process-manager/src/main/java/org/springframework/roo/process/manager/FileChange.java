@@ -0,0 +1,60 @@
+package org.springframework.roo.process.manager;
+
+/**
+ * A change a {@link FileManager} made to a file; see
+ * {@link FileManager#takeChanges()}.
+ * <p>
+ * Immutable.
+ * 
+ * @since 2.0
+ */
+public final class FileChange {
+
+    private final String contentHash;
+    private final boolean deleted;
+    private final String writer;
+
+    /**
+     * Constructor
+     * 
+     * @param writer the class responsible for the change (can be
+     *            <code>null</code> if unknown)
+     * @param contentHash the SHA-1 hash of the file's new contents (can be
+     *            <code>null</code> if unknown or deleted)
+     * @param deleted whether the file was deleted
+     */
+    public FileChange(final String writer, final String contentHash,
+            final boolean deleted) {
+        this.contentHash = deleted ? null : contentHash;
+        this.deleted = deleted;
+        this.writer = writer;
+    }
+
+    /**
+     * @return the SHA-1 hash of the file's new contents, as a hex string;
+     *         <code>null</code> if the file was deleted, or was written
+     *         through a {@link MutableFile} whose contents the file manager
+     *         never saw
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @return the class responsible for the change, e.g. the metadata provider
+     *         that was running when it was requested (<code>null</code> if
+     *         unknown)
+     */
+    public String getWriter() {
+        return writer;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public String toString() {
+        return (deleted ? "deleted" : contentHash) + " by " + writer;
+    }
+}
@@ -1,6 +1,7 @@
 package org.springframework.roo.process.manager;
 
 import java.io.InputStream;
+import java.util.Map;
 import java.util.SortedSet;
 
 import org.springframework.roo.file.monitor.FileMonitorService;
@@ -18,7 +19,10 @@ import org.springframework.roo.file.undo.UndoManager;
  * that {@link ProcessManager} can undo or reset as required.
  * <p>
  * An implementation may elect to defer writes to disk or discard them until
- * {@link #commit()} or {@link #clear()} respectively is invoked.
+ * {@link #commit()} or {@link #clear()} respectively is invoked. Until then,
+ * {@link #exists(String)}, {@link #readFile(String)},
+ * {@link #getInputStream(String)} and {@link #findMatchingAntPath(String)}
+ * reflect the deferred changes, as if they had already been written.
  * 
  * @author Ben Alex
  * @since 1.0
@@ -186,6 +190,25 @@ public interface FileManager {
      */
     SortedSet<FileDetails> findMatchingAntPath(String antPath);
 
+    /**
+     * Returns how many times this file manager has read a file to find out
+     * whether new content would change it.
+     * 
+     * @return zero or more
+     * @since 2.0
+     */
+    long getComparisonReadCount();
+
+    /**
+     * Returns how many times this file manager has found out whether new
+     * content would change a file without reading it, because it knew what it
+     * had last written to or read from that file.
+     * 
+     * @return zero or more
+     * @since 2.0
+     */
+    long getComparisonSkippedReadCount();
+
     /**
      * Obtains an input stream for the indicated file identifier, which must be
      * a file (not a directory) and must exist at the time the method is called.
@@ -215,6 +238,17 @@ public interface FileManager {
      */
     int scan();
 
+    /**
+     * Returns the files this file manager has created, updated or deleted
+     * since the last call to this method, and forgets them. A deferred write
+     * counts once it is committed, and only if it changed the file.
+     * 
+     * @return key: the file's canonical path, value: the last change made to
+     *         it; never <code>null</code>, but may be empty
+     * @since 2.0
+     */
+    Map<String, FileChange> takeChanges();
+
     /**
      * Provides an updatable representation of a file on the disk.
      * <p>
@@ -3,6 +3,7 @@ package org.springframework.roo.process.manager;
 import org.springframework.roo.file.monitor.FileMonitorService;
 import org.springframework.roo.file.undo.UndoManager;
 import org.springframework.roo.metadata.MetadataService;
+import org.springframework.roo.process.manager.event.ConvergenceSummary;
 import org.springframework.roo.process.manager.event.ProcessManagerStatus;
 import org.springframework.roo.process.manager.event.ProcessManagerStatusProvider;
 
@@ -47,8 +48,9 @@ import org.springframework.roo.process.manager.event.ProcessManagerStatusProvide
  * (before re-throwing the exception).</li>
  * <li>A {@link FileMonitorService#scanAll()} will be called after a command is
  * executed, and will continue to be called until such time as it does not
- * return any further changes. Such calls will occur within the scope of the
- * same "transaction" as used for the command.</li>
+ * return any further changes (or an implementation-specific limit is reached).
+ * Such calls will occur within the scope of the same "transaction" as used for
+ * the command.</li>
  * </ul>
  * <p>
  * {@link ProcessManager} implementations also guarantee to update
@@ -60,6 +62,29 @@ import org.springframework.roo.process.manager.event.ProcessManagerStatusProvide
  */
 public interface ProcessManager extends ProcessManagerStatusProvider {
 
+    /**
+     * Starts a dry run: until {@link #endDryRun()} is called, the undo history
+     * is kept across transactions (even in development mode), and the files
+     * they change are recorded. The changes are written to disk as usual, and
+     * only reverted when the dry run ends. Only to be called while executing
+     * a command.
+     * 
+     * @throws IllegalStateException if a dry run is already in progress
+     * @since 2.0
+     */
+    void beginDryRun();
+
+    /**
+     * Ends the current dry run, reverting every file change made since
+     * {@link #beginDryRun()} was called.
+     * 
+     * @return the net change the dry run made to each file, and whether they
+     *         were all reverted (never <code>null</code>)
+     * @throws IllegalStateException if no dry run is in progress
+     * @since 2.0
+     */
+    DryRunResult endDryRun();
+
     /**
      * Execute a user command within a "transaction". This method blocks until
      * {@link ProcessManagerStatus#AVAILABLE}.
@@ -74,8 +99,27 @@ public interface ProcessManager extends ProcessManagerStatusProvider {
      */
     <T> T execute(CommandCallback<T> callback);
 
+    /**
+     * @return how the last transaction that changed any files converged
+     *         (<code>null</code> if none has yet)
+     * @since 2.0
+     */
+    ConvergenceSummary getLastConvergence();
+
     long getLastScanDuration();
 
+    /**
+     * @return how many files and directories the last timer-based scan read
+     *         the state of from disk (0 if unknown)
+     */
+    long getLastScanFileCount();
+
+    /**
+     * @return how many directories the last timer-based scan skipped as they
+     *         had not changed recently enough to be due (0 if unknown)
+     */
+    long getLastScanSkippedDirectoryCount();
+
     long getMinimumDelayBetweenScan();
 
     /**
@@ -85,6 +129,12 @@ public interface ProcessManager extends ProcessManagerStatusProvider {
      */
     boolean isDevelopmentMode();
 
+    /**
+     * @return whether a dry run is in progress
+     * @since 2.0
+     */
+    boolean isDryRun();
+
     void setDevelopmentMode(boolean developmentMode);
 
     void setMinimumDelayBetweenScan(long minimumDelayBetweenScan);
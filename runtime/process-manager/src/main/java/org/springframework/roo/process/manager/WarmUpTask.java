@@ -0,0 +1,31 @@
+package org.springframework.roo.process.manager;
+
+import org.springframework.roo.process.manager.event.ProcessManagerStatus;
+
+/**
+ * Optional work that a {@link ProcessManager} performs once, in the
+ * background, after startup has completed, so that the first user command
+ * does not pay for it; for example producing metadata that would otherwise
+ * be produced lazily.
+ * <p>
+ * Implementations are registered as OSGi services. The process manager runs
+ * them within a "transaction" while publishing
+ * {@link ProcessManagerStatus#WARMING_UP}, and cancels them as soon as a user
+ * command is executed.
+ * 
+ * @since 2.0
+ */
+public interface WarmUpTask {
+
+    /**
+     * Asks a running or future {@link #warmUp()} to stop as soon as possible.
+     * May be called from any thread; once called, the task stays cancelled.
+     */
+    void cancel();
+
+    /**
+     * Performs the warm-up. Must return promptly once {@link #cancel()} has
+     * been called.
+     */
+    void warmUp();
+}
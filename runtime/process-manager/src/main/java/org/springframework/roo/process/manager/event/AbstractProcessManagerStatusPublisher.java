@@ -61,6 +61,23 @@ public abstract class AbstractProcessManagerStatusPublisher implements
         processManagerStatusListeners.remove(processManagerStatusListener);
     }
 
+    /**
+     * Delivers the given summary to the registered
+     * {@link ProcessManagerConvergenceListener}s.
+     *
+     * @param summary the summary to deliver (required)
+     * @since 2.0
+     */
+    protected void publishConvergence(final ConvergenceSummary summary) {
+        Validate.notNull(summary, "Convergence summary required");
+        for (final ProcessManagerStatusListener listener : processManagerStatusListeners) {
+            if (listener instanceof ProcessManagerConvergenceListener) {
+                ((ProcessManagerConvergenceListener) listener)
+                        .onConvergence(summary);
+            }
+        }
+    }
+
     /**
      * Set the process manager status without synchronization.
      */
@@ -0,0 +1,180 @@
+package org.springframework.roo.process.manager.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.process.manager.ProcessManager;
+
+/**
+ * Describes how the file changes made by a {@link ProcessManager} transaction
+ * converged. The transaction's command (or initial scan) is the first round;
+ * each scan it then needed to process the resulting changes is another round.
+ * <p>
+ * Immutable.
+ *
+ * @since 2.0
+ */
+public final class ConvergenceSummary {
+
+    /**
+     * How the rounds ended.
+     */
+    public enum Outcome {
+
+        /** The last round left nothing more to scan */
+        CONVERGED,
+
+        /**
+         * A round left the changed files in the same state as an earlier
+         * round, so further rounds would repeat themselves
+         */
+        OSCILLATING,
+
+        /** The maximum number of rounds was reached */
+        ROUND_LIMIT
+    }
+
+    /**
+     * One round, and the files it changed.
+     */
+    public static final class Round {
+
+        private final SortedMap<String, String> changes;
+        private final long duration;
+
+        /**
+         * Constructor
+         *
+         * @param duration how many milliseconds the round took
+         * @param changes key: canonical path of a changed file, value: the
+         *            class responsible for the change (can be
+         *            <code>null</code> if unknown); required
+         */
+        public Round(final long duration, final Map<String, String> changes) {
+            Validate.notNull(changes, "Changes required");
+            this.changes = Collections
+                    .unmodifiableSortedMap(new TreeMap<String, String>(changes));
+            this.duration = duration;
+        }
+
+        /**
+         * @return key: canonical path of a changed file, value: the class
+         *         responsible for the change (<code>null</code> if unknown,
+         *         e.g. it was changed outside Roo)
+         */
+        public SortedMap<String, String> getChanges() {
+            return changes;
+        }
+
+        /**
+         * @return how many milliseconds the round took
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return key: the simple name of a class responsible for changes in
+         *         this round (<code>"unknown"</code> if unknown), value: how
+         *         many files it changed
+         */
+        public SortedMap<String, Integer> getWriterCounts() {
+            final SortedMap<String, Integer> counts = new TreeMap<String, Integer>();
+            for (final String writer : changes.values()) {
+                final String name = writer == null ? "unknown" : StringUtils
+                        .substringAfterLast("." + writer, ".");
+                final Integer count = counts.get(name);
+                counts.put(name, count == null ? 1 : count + 1);
+            }
+            return counts;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder().append(duration)
+                    .append(" ms, ").append(changes.size()).append(" files");
+            if (!changes.isEmpty()) {
+                sb.append(" (");
+                String separator = "";
+                for (final Map.Entry<String, Integer> entry : getWriterCounts()
+                        .entrySet()) {
+                    sb.append(separator).append(entry.getKey()).append(' ')
+                            .append(entry.getValue());
+                    separator = ", ";
+                }
+                sb.append(")");
+            }
+            return sb.toString();
+        }
+    }
+
+    private final Outcome outcome;
+    private final List<Round> rounds;
+
+    /**
+     * Constructor
+     *
+     * @param rounds the rounds, in order (required, can't be empty)
+     * @param outcome how they ended (required)
+     */
+    public ConvergenceSummary(final List<Round> rounds, final Outcome outcome) {
+        Validate.notEmpty(rounds, "Rounds required");
+        Validate.notNull(outcome, "Outcome required");
+        this.outcome = outcome;
+        this.rounds = Collections.unmodifiableList(new ArrayList<Round>(
+                rounds));
+    }
+
+    /**
+     * @return how many milliseconds all the rounds took
+     */
+    public long getDuration() {
+        long duration = 0;
+        for (final Round round : rounds) {
+            duration += round.getDuration();
+        }
+        return duration;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return the rounds, in order (never empty)
+     */
+    public List<Round> getRounds() {
+        return rounds;
+    }
+
+    /**
+     * @return whether any round changed any files
+     */
+    public boolean hasChanges() {
+        for (final Round round : rounds) {
+            if (!round.getChanges().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder().append(rounds.size())
+                .append(rounds.size() == 1 ? " round in " : " rounds in ")
+                .append(getDuration()).append(" ms, ")
+                .append(outcome.name().toLowerCase().replace('_', ' '));
+        for (int i = 0; i < rounds.size(); i++) {
+            sb.append(i == 0 ? ": " : "; ").append(i + 1).append(") ")
+                    .append(rounds.get(i));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,21 @@
+package org.springframework.roo.process.manager.event;
+
+import org.springframework.roo.process.manager.ProcessManager;
+
+/**
+ * Implemented by {@link ProcessManagerStatusListener}s that also wish to be
+ * told how each {@link ProcessManager} transaction's file changes converged.
+ *
+ * @since 2.0
+ */
+public interface ProcessManagerConvergenceListener extends
+        ProcessManagerStatusListener {
+
+    /**
+     * Invoked by the {@link ProcessManager} at the end of each transaction
+     * that changed any files.
+     *
+     * @param summary the rounds the transaction took (never null)
+     */
+    void onConvergence(ConvergenceSummary summary);
+}
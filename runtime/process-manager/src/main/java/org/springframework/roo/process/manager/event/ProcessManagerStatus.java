@@ -16,5 +16,11 @@ import org.springframework.roo.process.manager.ProcessManager;
  * @since 1.0
  */
 public enum ProcessManagerStatus {
-    AVAILABLE, BUSY_EXECUTING, BUSY_SCANNING, COMPLETING_STARTUP, RESETTING_UNDOS, STARTING, TERMINATED, UNDOING
+    AVAILABLE, BUSY_EXECUTING, BUSY_SCANNING, COMPLETING_STARTUP, RESETTING_UNDOS, STARTING, TERMINATED, UNDOING,
+
+    /**
+     * Running the {@link org.springframework.roo.process.manager.WarmUpTask}s
+     * after startup; ends early if a command is executed
+     */
+    WARMING_UP
 }
@@ -0,0 +1,169 @@
+package org.springframework.roo.process.manager.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Replaces the contents of files so that a reader (or a crash) never observes
+ * a partially written file: the new contents are written to a temporary file
+ * in the same directory, which is then moved over the target in a single
+ * rename.
+ * <p>
+ * Syncing is split into two steps so that callers writing many files can
+ * batch it: {@link #write(File, byte[], boolean)} optionally syncs the
+ * temporary file's data before the rename, and {@link #syncDirectories}
+ * syncs each affected directory once, after all the renames.
+ * <p>
+ * A symbolic link is preserved: its target is the file replaced, or, if the
+ * target can't be resolved, is written in place through the link.
+ *
+ * @since 2.0
+ */
+final class AtomicFileWriter {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Syncs the given directories, so that the renames within them survive a
+     * crash. Platforms that can't sync a directory (e.g. Windows) are ignored.
+     *
+     * @param directories the directories to sync (required, can be empty)
+     */
+    static void syncDirectories(final Collection<File> directories) {
+        Validate.notNull(directories, "Directories required");
+        for (final File directory : directories) {
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(directory.toPath(),
+                        StandardOpenOption.READ);
+                channel.force(true);
+            }
+            catch (final IOException ignored) {
+            }
+            finally {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of the given file, creating it if necessary.
+     *
+     * @param file the file to write (required; its directory must exist)
+     * @param bytes the new contents (required)
+     * @param sync whether to sync the new contents to disk before they replace
+     *            the old ones
+     * @throws IOException if the file couldn't be written; it then keeps its
+     *             old contents
+     */
+    static void write(final File file, final byte[] bytes, final boolean sync)
+            throws IOException {
+        Validate.notNull(file, "File required");
+        Validate.notNull(bytes, "Contents required");
+        final Path path = file.toPath();
+        Path target = path;
+        if (Files.isSymbolicLink(path)) {
+            try {
+                // Moving over the link would replace it with a regular file
+                target = path.toRealPath();
+            }
+            catch (final IOException e) {
+                // e.g. a dangling link
+                writeInPlace(file, bytes, sync);
+                return;
+            }
+        }
+        final File targetFile = target.toFile();
+        // File.createTempFile, unlike Files.createTempFile, leaves the new
+        // file's permissions to the umask
+        final File temp = File.createTempFile("." + targetFile.getName(),
+                TEMP_SUFFIX, targetFile.getAbsoluteFile().getParentFile());
+        boolean moved = false;
+        try {
+            writeInPlace(temp, bytes, sync);
+            copyPermissions(targetFile, temp);
+            try {
+                Files.move(temp.toPath(), target,
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (final AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        }
+        finally {
+            if (!moved) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the given contents to the given file, following any symbolic
+     * link.
+     */
+    private static void writeInPlace(final File file, final byte[] bytes,
+            final boolean sync) throws IOException {
+        final FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            final FileChannel channel = outputStream.getChannel();
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        }
+        finally {
+            outputStream.close();
+        }
+    }
+
+    private static void closeQuietly(final FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            catch (final IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Gives the temporary file the target's POSIX permissions, as updating a
+     * file in place would have kept them.
+     */
+    private static void copyPermissions(final File from, final File to) {
+        if (!from.exists()) {
+            return;
+        }
+        try {
+            Files.setPosixFilePermissions(to.toPath(),
+                    Files.getPosixFilePermissions(from.toPath()));
+        }
+        catch (final UnsupportedOperationException ignored) {
+        }
+        catch (final IOException ignored) {
+        }
+    }
+
+    /**
+     * Constructor is private to prevent instantiation
+     */
+    private AtomicFileWriter() {
+    }
+}
@@ -0,0 +1,199 @@
+package org.springframework.roo.process.manager.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.file.monitor.FileMonitorService;
+import org.springframework.roo.process.manager.FileChange;
+import org.springframework.roo.process.manager.FileManager;
+import org.springframework.roo.process.manager.event.ConvergenceSummary;
+import org.springframework.roo.process.manager.event.ConvergenceSummary.Outcome;
+import org.springframework.roo.process.manager.event.ConvergenceSummary.Round;
+
+/**
+ * Records the rounds of one transaction of {@link DefaultProcessManager}: how
+ * long each took, which files it changed, and which class was responsible for
+ * each change.
+ * <p>
+ * Rounds are deterministic, so if a round leaves the files it changed with
+ * the same contents as an earlier round did, the rounds are oscillating and
+ * {@link #isConverging()} returns <code>false</code>; so it does once the
+ * maximum number of rounds is reached. The contents are identified by the
+ * hashes the {@link FileManager} reports for its writes; files it can't
+ * report on are only read once a round changes the same set of files as an
+ * earlier round, so an oscillation involving them is detected a cycle later.
+ * <p>
+ * Not thread-safe.
+ *
+ * @since 2.0
+ */
+final class ConvergenceTracker {
+
+    /**
+     * The key under which the file monitor records changes for this class;
+     * register it (see {@link FileMonitorService#getDirtyFiles(String)})
+     * before tracking the first transaction
+     */
+    static final String DIRTY_FILES_KEY = ConvergenceTracker.class.getName();
+
+    private static String hash(final File file) {
+        if (!file.isFile()) {
+            return "-";
+        }
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            return DigestUtils.shaHex(inputStream);
+        }
+        catch (final IOException e) {
+            // e.g. deleted since; distinct from any content
+            return "?";
+        }
+        finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private final FileManager fileManager;
+    private final FileMonitorService fileMonitorService;
+    private final int maxRounds;
+    private boolean oscillating;
+    /** The SHA-1 hashes of the sets of files changed by each round */
+    private final Set<String> pathSets = new HashSet<String>();
+    /** The changes the file manager made in the previous round */
+    private Map<String, FileChange> previousWrites = Collections.emptyMap();
+    private final List<Round> rounds = new ArrayList<Round>();
+    private long roundStarted = System.nanoTime();
+    /**
+     * The state of the files changed by each round whose state is known, as
+     * SHA-1 hashes
+     */
+    private final Set<String> states = new HashSet<String>();
+
+    /**
+     * Constructor; the first round starts now.
+     *
+     * @param fileMonitorService the file monitor (required)
+     * @param fileManager the file manager (can be <code>null</code>, in which
+     *            case changes are not attributed to classes)
+     * @param maxRounds the maximum number of rounds to allow
+     */
+    ConvergenceTracker(final FileMonitorService fileMonitorService,
+            final FileManager fileManager, final int maxRounds) {
+        Validate.notNull(fileMonitorService, "FileMonitorService required");
+        Validate.isTrue(maxRounds > 0, "Maximum rounds must be positive");
+        this.fileManager = fileManager;
+        this.fileMonitorService = fileMonitorService;
+        this.maxRounds = maxRounds;
+    }
+
+    /**
+     * Ends the current round, recording the files it changed, and starts the
+     * next one.
+     */
+    void endRound() {
+        final long now = System.nanoTime();
+        // Includes deletions, which the file monitor doesn't report
+        final Map<String, FileChange> writes = fileManager == null ? Collections
+                .<String, FileChange> emptyMap() : fileManager.takeChanges();
+        final Map<String, String> changes = new LinkedHashMap<String, String>();
+        for (final Map.Entry<String, FileChange> write : writes.entrySet()) {
+            changes.put(write.getKey(), write.getValue().getWriter());
+        }
+        for (final String path : fileMonitorService
+                .getDirtyFiles(DIRTY_FILES_KEY)) {
+            // A scan reports the files written in the previous round again
+            if (!changes.containsKey(path)
+                    && !previousWrites.containsKey(path)
+                    && !new File(path).isDirectory()) {
+                changes.put(path, null);
+            }
+        }
+        previousWrites = writes;
+        rounds.add(new Round((now - roundStarted) / 1000000, changes));
+        if (!changes.isEmpty()) {
+            // Only a round that changes the same files as an earlier round
+            // can be repeating it, so only then are unknown contents read
+            final Set<String> paths = new TreeSet<String>(changes.keySet());
+            final boolean repeated = !pathSets.add(DigestUtils
+                    .shaHex(StringUtils.join(paths, '\n')));
+            final String state = getState(paths, writes, repeated);
+            if (state != null && !states.add(state)) {
+                oscillating = true;
+            }
+        }
+        roundStarted = now;
+    }
+
+    /**
+     * @param converged whether the file monitor has nothing more to scan
+     * @return a summary of the rounds so far (never null)
+     */
+    ConvergenceSummary getSummary(final boolean converged) {
+        final Outcome outcome;
+        if (converged) {
+            outcome = Outcome.CONVERGED;
+        }
+        else if (oscillating) {
+            outcome = Outcome.OSCILLATING;
+        }
+        else {
+            outcome = Outcome.ROUND_LIMIT;
+        }
+        return new ConvergenceSummary(rounds, outcome);
+    }
+
+    /**
+     * @return whether another round may still converge
+     */
+    boolean isConverging() {
+        return !oscillating && rounds.size() < maxRounds;
+    }
+
+    /**
+     * Returns the state of the given files as a SHA-1 hash, using the hashes
+     * the file manager reported where it could.
+     *
+     * @param paths the changed files, in order (required)
+     * @param writes the file manager's changes (required)
+     * @param read whether to read the files the file manager didn't report on
+     * @return <code>null</code> if some files' contents are unknown and weren't
+     *         to be read
+     */
+    private String getState(final Set<String> paths,
+            final Map<String, FileChange> writes, final boolean read) {
+        final StringBuilder state = new StringBuilder();
+        for (final String path : paths) {
+            final FileChange write = writes.get(path);
+            final String hash;
+            if (write != null && write.isDeleted()) {
+                hash = "-";
+            }
+            else if (write != null && write.getContentHash() != null) {
+                hash = write.getContentHash();
+            }
+            else if (read) {
+                hash = hash(new File(path));
+            }
+            else {
+                return null;
+            }
+            state.append(path).append('=').append(hash).append('\n');
+        }
+        return DigestUtils.shaHex(state.toString());
+    }
+}
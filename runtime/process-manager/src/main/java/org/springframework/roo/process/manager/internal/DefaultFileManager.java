@@ -7,14 +7,27 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.felix.scr.annotations.Component;
@@ -34,6 +47,8 @@ import org.springframework.roo.file.undo.UndoEvent;
 import org.springframework.roo.file.undo.UndoListener;
 import org.springframework.roo.file.undo.UndoManager;
 import org.springframework.roo.file.undo.UpdateFile;
+import org.springframework.roo.metadata.MetadataLogger;
+import org.springframework.roo.process.manager.FileChange;
 import org.springframework.roo.process.manager.FileManager;
 import org.springframework.roo.process.manager.MutableFile;
 import org.springframework.roo.process.manager.ProcessManager;
@@ -51,16 +66,132 @@ public class DefaultFileManager implements FileManager, UndoListener {
 
 	protected final static Logger LOGGER = HandlerUtils.getLogger(DefaultFileManager.class);
 	
+    /**
+     * The content this file manager last wrote to, or read from, a file.
+     */
+    private static final class KnownContents {
+
+        final String hash;
+        final long lastModified;
+        final long length;
+        /**
+         * Whether the file has been seen unchanged more than a timestamp tick
+         * after it was last modified
+         */
+        private volatile boolean settled;
+
+        KnownContents(final File file, final String hash) {
+            this.hash = hash;
+            lastModified = file.lastModified();
+            length = file.length();
+            settled = isSettled();
+        }
+
+        /**
+         * Indicates whether the file still has this content, as far as can be
+         * told without reading it. A file modified within the same timestamp
+         * granularity as it was recorded might be changed again without its
+         * timestamp changing, so isn't trusted until it is seen unchanged a
+         * whole tick later (e.g. when a write is first regenerated); by then
+         * any further change would show in its timestamp.
+         */
+        boolean isCurrent(final File file) {
+            if (file.lastModified() != lastModified
+                    || file.length() != length) {
+                return false;
+            }
+            if (!settled) {
+                settled = isSettled();
+            }
+            return settled;
+        }
+
+        private boolean isSettled() {
+            return System.currentTimeMillis() - lastModified > TIMESTAMP_GRANULARITY;
+        }
+    }
+
+    /**
+     * A deferred write whose content differs from the file on disk.
+     */
+    private static final class PendingWrite {
+
+        final byte[] bytes;
+        final String canonicalPath;
+        final boolean existed;
+        final File file;
+        final String fileIdentifier;
+        final String hash;
+
+        PendingWrite(final String fileIdentifier, final File file,
+                final String canonicalPath, final byte[] bytes,
+                final boolean existed, final String hash) {
+            this.bytes = bytes;
+            this.canonicalPath = canonicalPath;
+            this.existed = existed;
+            this.file = file;
+            this.fileIdentifier = fileIdentifier;
+            this.hash = hash;
+        }
+    }
+
+    // Deferred writes may come from metadata producers on several threads, so
+    // these maps are guarded by deferredFileWrites
+
     /** key: file identifier, value: new description of change */
     private final Map<String, String> deferredDescriptionOfChanges = new LinkedHashMap<String, String>();
     /** key: file identifier, value: new textual content */
     private final Map<String, String> deferredFileWrites = new LinkedHashMap<String, String>();
+    /** key: file identifier, value: the class that requested the write */
+    private final Map<String, String> deferredWriters = new HashMap<String, String>();
+
+    /** Compares and writes deferred files in parallel; created on demand */
+    private ForkJoinPool commitPool;
+    private final int commitThreads = Integer.getInteger(
+            "roo.file.commit.threads",
+            Math.min(8, Runtime.getRuntime().availableProcessors()));
+    /** Whether committed files are synced to disk before they replace the old ones */
+    private final boolean syncWrites = !"false".equalsIgnoreCase(System
+            .getProperty("roo.file.commit.sync"));
+
+    private static final int MAX_CHANGES = 10000;
+    private static final int MAX_KNOWN_CONTENTS = 10000;
+    private static final long TIMESTAMP_GRANULARITY = 1000;
+
+    /** key: file identifier; the least recently used are forgotten first */
+    private final Map<String, KnownContents> knownContents = Collections
+            .synchronizedMap(new LinkedHashMap<String, KnownContents>(16,
+                    0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        final Map.Entry<String, KnownContents> eldest) {
+                    return size() > MAX_KNOWN_CONTENTS;
+                }
+            });
+    /**
+     * key: canonical path of a changed file, value: the change; guarded by
+     * itself, and bounded in case nobody takes them
+     */
+    private final Map<String, FileChange> changes = new LinkedHashMap<String, FileChange>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                final Map.Entry<String, FileChange> eldest) {
+            return size() > MAX_CHANGES;
+        }
+    };
+    private final AtomicLong comparisonReads = new AtomicLong();
+    private final AtomicLong comparisonSkippedReads = new AtomicLong();
 
     // ------------ OSGi component attributes ----------------
    	private BundleContext context;
 
     private NotifiableFileMonitorService fileMonitorService;
     private FilenameResolver filenameResolver;
+    private MetadataLogger metadataLogger;
     private ProcessManager processManager;
     private UndoManager undoManager;
 
@@ -73,34 +204,141 @@ public class DefaultFileManager implements FileManager, UndoListener {
     }
     
     public void clear() {
-        deferredFileWrites.clear();
-        deferredDescriptionOfChanges.clear();
+        synchronized (deferredFileWrites) {
+            deferredFileWrites.clear();
+            deferredDescriptionOfChanges.clear();
+            deferredWriters.clear();
+        }
     }
 
     public void commit() {
-        final Map<String, String> toRemove = new LinkedHashMap<String, String>(
-                deferredFileWrites);
-        try {
-            for (final Entry<String, String> entry : toRemove.entrySet()) {
-                final String fileIdentifier = entry.getKey();
-                final String newContents = entry.getValue();
-                if (StringUtils.isNotBlank(newContents)) {
-                    createOrUpdateTextFileIfRequired(fileIdentifier,
-                            newContents,
-                            StringUtils
-                                    .stripToEmpty(deferredDescriptionOfChanges
-                                            .get(fileIdentifier)));
-                }
-                else if (exists(fileIdentifier)) {
-                    delete(fileIdentifier, "empty");
-                }
+        final Map<String, String> toRemove;
+        final Map<String, String> descriptionOfChanges;
+        final Map<String, String> writers;
+        synchronized (deferredFileWrites) {
+            toRemove = new LinkedHashMap<String, String>(deferredFileWrites);
+            descriptionOfChanges = new LinkedHashMap<String, String>(
+                    deferredDescriptionOfChanges);
+            writers = new HashMap<String, String>(deferredWriters);
+            // Taken out up front, so that the writes below see the disk rather
+            // than these pending changes
+            deferredFileWrites.clear();
+            deferredDescriptionOfChanges.clear();
+            deferredWriters.clear();
+        }
+        if (!toRemove.isEmpty()) {
+            commit(toRemove, descriptionOfChanges, writers);
+        }
+    }
+
+    /**
+     * Writes the given deferred changes to disk in four steps:
+     * <ol>
+     * <li>in parallel, compares each new content with the file on disk</li>
+     * <li>in order, records the undo operation for each changed file, deletes
+     * the files whose new content is empty, and logs each change</li>
+     * <li>in parallel, writes each changed file through a temporary file that
+     * is moved into place atomically</li>
+     * <li>syncs each affected directory once and notifies the file monitor of
+     * all the changed files at once</li>
+     * </ol>
+     * 
+     * @param newContents key: file identifier, value: new textual content
+     * @param descriptionOfChanges key: file identifier, value: description
+     * @param writers key: file identifier, value: the class that requested
+     *            the write
+     */
+    private void commit(final Map<String, String> newContents,
+            final Map<String, String> descriptionOfChanges,
+            final Map<String, String> writers) {
+        if (fileMonitorService == null) {
+            fileMonitorService = getFileMonitorService();
+        }
+        if (processManager == null) {
+            processManager = getProcessManager();
+        }
+        if (filenameResolver == null) {
+            filenameResolver = getFileNameResolver();
+        }
+        if (undoManager == null) {
+            undoManager = getUndoManager();
+        }
+        Validate.notNull(fileMonitorService, "FileMonitorService required");
+        Validate.notNull(processManager, "ProcessManager required");
+        Validate.notNull(filenameResolver, "FilenameResolver required");
+        Validate.notNull(undoManager, "UndoManager required");
+        final long started = System.currentTimeMillis();
+        final long skippedBefore = comparisonSkippedReads.get();
+        final boolean includeHashCode = processManager.isDevelopmentMode();
+
+        final List<Callable<PendingWrite>> comparisons = new ArrayList<Callable<PendingWrite>>();
+        for (final Entry<String, String> entry : newContents.entrySet()) {
+            if (StringUtils.isNotBlank(entry.getValue())) {
+                comparisons.add(newComparison(entry.getKey(),
+                        entry.getValue()));
             }
         }
-        finally {
-            for (final String remove : toRemove.keySet()) {
-                deferredFileWrites.remove(remove);
+        final Map<String, PendingWrite> changed = new HashMap<String, PendingWrite>();
+        for (final PendingWrite write : invokeAll(comparisons)) {
+            if (write != null) {
+                changed.put(write.fileIdentifier, write);
             }
-            deferredDescriptionOfChanges.clear();
+        }
+
+        final List<PendingWrite> writes = new ArrayList<PendingWrite>();
+        int deleted = 0;
+        for (final Entry<String, String> entry : newContents.entrySet()) {
+            final String fileIdentifier = entry.getKey();
+            final PendingWrite write = changed.get(fileIdentifier);
+            if (write != null) {
+                prepare(write, StringUtils.stripToEmpty(descriptionOfChanges
+                        .get(fileIdentifier)), includeHashCode);
+                recordChange(write.file, new FileChange(
+                        writers.get(fileIdentifier), write.hash, false));
+                writes.add(write);
+            }
+            else if (StringUtils.isBlank(entry.getValue())
+                    && new File(fileIdentifier).exists()) {
+                delete(fileIdentifier, "empty");
+                recordChange(new File(fileIdentifier), new FileChange(
+                        writers.get(fileIdentifier), null, true));
+                deleted++;
+            }
+        }
+
+        final List<Callable<PendingWrite>> outputs = new ArrayList<Callable<PendingWrite>>();
+        for (final PendingWrite write : writes) {
+            outputs.add(newOutput(write));
+        }
+        invokeAll(outputs);
+
+        final Set<File> directories = new LinkedHashSet<File>();
+        final List<String> canonicalPaths = new ArrayList<String>();
+        long bytes = 0;
+        for (final PendingWrite write : writes) {
+            // Where a symbolic link's target was replaced
+            directories.add(new File(write.canonicalPath).getParentFile());
+            if (write.existed) {
+                // Created files were notified as such by createFile
+                canonicalPaths.add(write.canonicalPath);
+            }
+            bytes += write.bytes.length;
+        }
+        if (syncWrites) {
+            AtomicFileWriter.syncDirectories(directories);
+        }
+        fileMonitorService.notifyChanged(canonicalPaths);
+
+        if (!writes.isEmpty() || deleted > 0) {
+            final long duration = System.currentTimeMillis() - started;
+            LOGGER.log(includeHashCode ? Level.FINE : Level.FINEST,
+                    "Committed " + newContents.size() + " deferred writes in "
+                            + duration + " ms: " + writes.size() + " written ("
+                            + bytes + " bytes), " + deleted + " deleted, "
+                            + (comparisons.size() - writes.size())
+                            + " unchanged ("
+                            + (comparisonSkippedReads.get() - skippedBefore)
+                            + " comparisons answered without reading)");
         }
     }
 
@@ -148,6 +386,7 @@ public class DefaultFileManager implements FileManager, UndoListener {
         Validate.notNull(processManager, "ProcessManager required");
         Validate.notNull(filenameResolver, "FilenameResolver required");
         Validate.notNull(undoManager, "UndoManager required");
+        writeDeferred(fileIdentifier);
         final File actual = new File(fileIdentifier);
         Validate.isTrue(!actual.exists(), "File '%s' already exists",
                 fileIdentifier);
@@ -161,6 +400,8 @@ public class DefaultFileManager implements FileManager, UndoListener {
         catch (final IOException ignored) {
         }
         new CreateFile(undoManager, filenameResolver, actual);
+        recordChange(actual, new FileChange(getResponsibleClass(), null,
+                false));
         final ManagedMessageRenderer renderer = new ManagedMessageRenderer(
                 filenameResolver, actual, true);
         renderer.setIncludeHashCode(processManager.isDevelopmentMode());
@@ -175,18 +416,19 @@ public class DefaultFileManager implements FileManager, UndoListener {
 
     private void createOrUpdateTextFileIfRequired(final String fileIdentifier,
             final String newContents, final String descriptionOfChange) {
+        synchronized (deferredFileWrites) {
+            // This write supersedes any pending one
+            deferredFileWrites.remove(fileIdentifier);
+            deferredDescriptionOfChanges.remove(fileIdentifier);
+            deferredWriters.remove(fileIdentifier);
+        }
         MutableFile mutableFile = null;
-        if (exists(fileIdentifier)) {
+        final File file = new File(fileIdentifier);
+        final byte[] bytes = newContents.getBytes();
+        final String hash = DigestUtils.shaHex(bytes);
+        if (file.exists()) {
             // First verify if the file has even changed
-            final File file = new File(fileIdentifier);
-            String existing = null;
-            try {
-                existing = FileUtils.readFileToString(file);
-            }
-            catch (final IOException ignored) {
-            }
-
-            if (!newContents.equals(existing)) {
+            if (!hasContents(fileIdentifier, file, bytes, hash)) {
                 mutableFile = updateFile(fileIdentifier);
             }
         }
@@ -203,14 +445,23 @@ public class DefaultFileManager implements FileManager, UndoListener {
                     mutableFile.setDescriptionOfChange(descriptionOfChange);
                 }
                 outputStream = mutableFile.getOutputStream();
-                IOUtils.write(newContents, outputStream);
+                outputStream.write(bytes);
             }
             catch (final IOException e) {
                 throw new IllegalStateException("Could not output '"
                         + mutableFile.getCanonicalPath() + "'", e);
             }
             finally {
-                IOUtils.closeQuietly(outputStream);
+                // Closing writes the file; only remember what was written
+                if (outputStream != null) {
+                    try {
+                        outputStream.close();
+                        knownContents.put(fileIdentifier, new KnownContents(
+                                file, hash));
+                    }
+                    catch (final IOException ignored) {
+                    }
+                }
             }
         }
     }
@@ -223,18 +474,23 @@ public class DefaultFileManager implements FileManager, UndoListener {
                     descriptionOfChange);
         }
         else {
-            deferredFileWrites.put(fileIdentifier, newContents);
+            final String writer = getResponsibleClass();
+            synchronized (deferredFileWrites) {
+                deferredFileWrites.put(fileIdentifier, newContents);
+                deferredWriters.put(fileIdentifier, writer);
 
-            String deferredDescriptionOfChange = StringUtils.defaultIfEmpty(
-                    deferredDescriptionOfChanges.get(fileIdentifier), "");
-            if (StringUtils.isNotBlank(deferredDescriptionOfChange)
-                    && !deferredDescriptionOfChange.trim().endsWith(";")) {
-                deferredDescriptionOfChange += "; ";
+                String deferredDescriptionOfChange = StringUtils
+                        .defaultIfEmpty(
+                                deferredDescriptionOfChanges.get(fileIdentifier),
+                                "");
+                if (StringUtils.isNotBlank(deferredDescriptionOfChange)
+                        && !deferredDescriptionOfChange.trim().endsWith(";")) {
+                    deferredDescriptionOfChange += "; ";
+                }
+                deferredDescriptionOfChanges.put(fileIdentifier,
+                        deferredDescriptionOfChange
+                                + StringUtils.stripToEmpty(descriptionOfChange));
             }
-            deferredDescriptionOfChanges.put(
-                    fileIdentifier,
-                    deferredDescriptionOfChange
-                            + StringUtils.stripToEmpty(descriptionOfChange));
         }
     }
 
@@ -244,6 +500,12 @@ public class DefaultFileManager implements FileManager, UndoListener {
     	}
     	Validate.notNull(undoManager, "UndoManager is required");
         undoManager.removeUndoListener(this);
+        synchronized (this) {
+            if (commitPool != null) {
+                commitPool.shutdown();
+                commitPool = null;
+            }
+        }
     }
 
     public void delete(final String fileIdentifier) {
@@ -269,13 +531,26 @@ public class DefaultFileManager implements FileManager, UndoListener {
         }
 
         final File actual = new File(fileIdentifier);
+        final String deferredContents;
+        synchronized (deferredFileWrites) {
+            deferredContents = deferredFileWrites.remove(fileIdentifier);
+            deferredDescriptionOfChanges.remove(fileIdentifier);
+            deferredWriters.remove(fileIdentifier);
+        }
+        if (StringUtils.isNotBlank(deferredContents) && !actual.exists()) {
+            // Only ever existed as a pending write
+            return;
+        }
         Validate.isTrue(actual.exists(), "File '%s' does not exist",
                 fileIdentifier);
+        knownContents.remove(fileIdentifier);
         try {
             fileMonitorService.notifyDeleted(actual.getCanonicalPath());
         }
         catch (final IOException ignored) {
         }
+        recordChange(actual, new FileChange(getResponsibleClass(), null,
+                true));
         if (actual.isDirectory()) {
             new DeleteDirectory(undoManager, filenameResolver, actual,
                     reasonForDeletion);
@@ -288,6 +563,14 @@ public class DefaultFileManager implements FileManager, UndoListener {
 
     public boolean exists(final String fileIdentifier) {
         Validate.notBlank(fileIdentifier, "File identifier required");
+        final String deferredContents;
+        synchronized (deferredFileWrites) {
+            deferredContents = deferredFileWrites.get(fileIdentifier);
+        }
+        if (deferredContents != null) {
+            // Blank contents mean the file will be deleted
+            return StringUtils.isNotBlank(deferredContents);
+        }
         return new File(fileIdentifier).exists();
     }
 
@@ -296,13 +579,47 @@ public class DefaultFileManager implements FileManager, UndoListener {
     		fileMonitorService = getFileMonitorService();
     	}
         Validate.notNull(fileMonitorService, "FileMonitorService required");
-        return fileMonitorService.findMatchingAntPath(antPath);
+        final SortedSet<FileDetails> result = fileMonitorService
+                .findMatchingAntPath(antPath);
+        final Map<String, String> deferred;
+        synchronized (deferredFileWrites) {
+            if (deferredFileWrites.isEmpty()) {
+                return result;
+            }
+            deferred = new LinkedHashMap<String, String>(deferredFileWrites);
+        }
+        // Overlay the pending writes: files to be created are included, and
+        // files to be deleted are not
+        final Map<String, FileDetails> byPath = new HashMap<String, FileDetails>();
+        for (final FileDetails fileDetails : result) {
+            byPath.put(fileDetails.getCanonicalPath(), fileDetails);
+        }
+        for (final Entry<String, String> entry : deferred.entrySet()) {
+            final File file = new File(entry.getKey());
+            final FileDetails pending = new FileDetails(file,
+                    file.exists() ? file.lastModified() : null);
+            final FileDetails existing = byPath.get(pending
+                    .getCanonicalPath());
+            if (StringUtils.isBlank(entry.getValue())) {
+                if (existing != null) {
+                    result.remove(existing);
+                }
+            }
+            else if (existing == null && pending.matchesAntPath(antPath)) {
+                result.add(pending);
+            }
+        }
+        return result;
     }
 
     public InputStream getInputStream(final String fileIdentifier) {
-        if (deferredFileWrites.containsKey(fileIdentifier)) {
+        final String deferredContents;
+        synchronized (deferredFileWrites) {
+            deferredContents = deferredFileWrites.get(fileIdentifier);
+        }
+        if (deferredContents != null) {
             return new BufferedInputStream(new ByteArrayInputStream(
-                    deferredFileWrites.get(fileIdentifier).getBytes()));
+                    deferredContents.getBytes()));
         }
 
         final File file = new File(fileIdentifier);
@@ -321,9 +638,149 @@ public class DefaultFileManager implements FileManager, UndoListener {
         }
     }
 
+    public long getComparisonReadCount() {
+        return comparisonReads.get();
+    }
+
+    public long getComparisonSkippedReadCount() {
+        return comparisonSkippedReads.get();
+    }
+
+    /**
+     * Indicates whether the given existing file already has the given
+     * content. The file is only read if this file manager doesn't know its
+     * current content, or if the lengths alone don't show it has changed.
+     * 
+     * @param fileIdentifier the file's identifier (required)
+     * @param file the file (required)
+     * @param bytes the new content (required)
+     * @param hash the SHA-1 hash of the new content (required)
+     * @return see above
+     */
+    private boolean hasContents(final String fileIdentifier, final File file,
+            final byte[] bytes, final String hash) {
+        final KnownContents known = knownContents.get(fileIdentifier);
+        if (known != null && known.isCurrent(file)) {
+            comparisonSkippedReads.incrementAndGet();
+            return known.hash.equals(hash);
+        }
+        if (file.length() != bytes.length) {
+            return false;
+        }
+        comparisonReads.incrementAndGet();
+        try {
+            if (!Arrays.equals(bytes, FileUtils.readFileToByteArray(file))) {
+                return false;
+            }
+        }
+        catch (final IOException e) {
+            return false;
+        }
+        knownContents.put(fileIdentifier, new KnownContents(file, hash));
+        return true;
+    }
+
+    /**
+     * Runs the given tasks, in parallel if there are several of them.
+     * 
+     * @param tasks the tasks to run (required, can be empty)
+     * @return their results, in the same order
+     * @throws RuntimeException if any task fails, once they have all finished
+     */
+    private <T> List<T> invokeAll(final List<Callable<T>> tasks) {
+        final List<T> results = new ArrayList<T>(tasks.size());
+        if (tasks.size() < 2 || commitThreads < 2) {
+            for (final Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                }
+                catch (final RuntimeException e) {
+                    throw e;
+                }
+                catch (final Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return results;
+        }
+        final ForkJoinPool pool;
+        synchronized (this) {
+            if (commitPool == null) {
+                commitPool = new ForkJoinPool(commitThreads);
+            }
+            pool = commitPool;
+        }
+        for (final Future<T> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            }
+            catch (final ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns a task that compares the given new content with the file on
+     * disk.
+     * 
+     * @return a task whose result is <code>null</code> if the file already
+     *         has this content
+     */
+    private Callable<PendingWrite> newComparison(final String fileIdentifier,
+            final String newContents) {
+        return new Callable<PendingWrite>() {
+            public PendingWrite call() {
+                final File file = new File(fileIdentifier);
+                final byte[] bytes = newContents.getBytes();
+                final String hash = DigestUtils.shaHex(bytes);
+                final boolean existed = file.exists();
+                if (existed && hasContents(fileIdentifier, file, bytes, hash)) {
+                    return null;
+                }
+                final String canonicalPath;
+                try {
+                    canonicalPath = file.getCanonicalPath();
+                }
+                catch (final IOException ioe) {
+                    throw new IllegalStateException(ioe);
+                }
+                return new PendingWrite(fileIdentifier, file, canonicalPath,
+                        bytes, existed, hash);
+            }
+        };
+    }
+
+    private Callable<PendingWrite> newOutput(final PendingWrite write) {
+        return new Callable<PendingWrite>() {
+            public PendingWrite call() {
+                try {
+                    AtomicFileWriter.write(write.file, write.bytes, syncWrites);
+                    knownContents.put(write.fileIdentifier, new KnownContents(
+                            write.file, write.hash));
+                }
+                catch (final IOException e) {
+                    throw new IllegalStateException("Could not output '"
+                            + write.canonicalPath + "'", e);
+                }
+                return write;
+            }
+        };
+    }
+
     public void onUndoEvent(final UndoEvent event) {
         if (event.isUndoing()) {
             clear();
+            // Undone files have been restored behind this file manager's back
+            knownContents.clear();
         }
         else {
             // It's a flush or a reset event
@@ -331,12 +788,78 @@ public class DefaultFileManager implements FileManager, UndoListener {
         }
     }
 
+    /**
+     * Records how to undo the given write and logs it; the file itself is
+     * written later.
+     */
+    private void prepare(final PendingWrite write,
+            final String descriptionOfChange, final boolean includeHashCode) {
+        if (write.existed) {
+            new UpdateFile(undoManager, filenameResolver, write.file);
+        }
+        else {
+            // Creates any parent directories, undoably
+            Validate.notNull(createFile(write.fileIdentifier),
+                    "Could not create file '%s'", write.fileIdentifier);
+        }
+        final ManagedMessageRenderer renderer = new ManagedMessageRenderer(
+                filenameResolver, write.file, !write.existed);
+        renderer.setIncludeHashCode(includeHashCode);
+        renderer.setHashCode(write.hash);
+        if (StringUtils.isNotBlank(descriptionOfChange)) {
+            renderer.setDescriptionOfChange(descriptionOfChange);
+        }
+        renderer.logManagedMessage();
+    }
+
+    /**
+     * Remembers that the given file was changed, for {@link #takeChanges()}.
+     * 
+     * @param file the created, updated or deleted file (required)
+     * @param change the change (required)
+     */
+    private void recordChange(final File file, final FileChange change) {
+        String canonicalPath;
+        try {
+            canonicalPath = file.getCanonicalPath();
+        }
+        catch (final IOException e) {
+            canonicalPath = file.getAbsolutePath();
+        }
+        synchronized (changes) {
+            changes.put(canonicalPath, change);
+        }
+    }
+
+    /**
+     * Returns the class responsible for what the current thread is doing, as
+     * far as the {@link MetadataLogger} knows.
+     * 
+     * @return <code>null</code> if unknown
+     */
+    private String getResponsibleClass() {
+        if (metadataLogger == null) {
+            metadataLogger = getMetadataLogger();
+        }
+        return metadataLogger == null ? null : metadataLogger
+                .getResponsibleClass();
+    }
+
     public FileDetails readFile(final String fileIdentifier) {
         Validate.notNull(fileIdentifier, "File identifier required");
         final File f = new File(fileIdentifier);
-        if (!f.exists()) {
+        final String deferredContents;
+        synchronized (deferredFileWrites) {
+            deferredContents = deferredFileWrites.get(fileIdentifier);
+        }
+        if (deferredContents != null && StringUtils.isBlank(deferredContents)) {
+            // To be deleted
             return null;
         }
+        if (!f.exists()) {
+            // Possibly only a pending write so far
+            return deferredContents == null ? null : new FileDetails(f, null);
+        }
         return new FileDetails(f, f.lastModified());
     }
 
@@ -348,6 +871,15 @@ public class DefaultFileManager implements FileManager, UndoListener {
         return fileMonitorService.scanNotified();
     }
 
+    public Map<String, FileChange> takeChanges() {
+        synchronized (changes) {
+            final Map<String, FileChange> result = new LinkedHashMap<String, FileChange>(
+                    changes);
+            changes.clear();
+            return result;
+        }
+    }
+
     public MutableFile updateFile(final String fileIdentifier) {
     	if(fileMonitorService == null){
     		fileMonitorService = getFileMonitorService();
@@ -366,16 +898,44 @@ public class DefaultFileManager implements FileManager, UndoListener {
         Validate.notNull(processManager, "ProcessManager required");
         Validate.notNull(filenameResolver, "FilenameResolver required");
         Validate.notNull(undoManager, "UndoManager required");
+        writeDeferred(fileIdentifier);
         final File actual = new File(fileIdentifier);
         Validate.isTrue(actual.exists(), "File '%s' does not exist",
                 fileIdentifier);
         new UpdateFile(undoManager, filenameResolver, actual);
+        recordChange(actual, new FileChange(getResponsibleClass(), null,
+                false));
         final ManagedMessageRenderer renderer = new ManagedMessageRenderer(
                 filenameResolver, actual, false);
         renderer.setIncludeHashCode(processManager.isDevelopmentMode());
         return new DefaultMutableFile(actual, fileMonitorService, renderer);
     }
     
+    /**
+     * Writes any pending change to the given file to disk now, e.g. because
+     * the caller is about to modify the file directly.
+     * 
+     * @param fileIdentifier the file's identifier (required)
+     */
+    private void writeDeferred(final String fileIdentifier) {
+        final String deferredContents;
+        final String descriptionOfChange;
+        synchronized (deferredFileWrites) {
+            deferredContents = deferredFileWrites.remove(fileIdentifier);
+            descriptionOfChange = deferredDescriptionOfChanges
+                    .remove(fileIdentifier);
+            deferredWriters.remove(fileIdentifier);
+        }
+        if (StringUtils.isNotBlank(deferredContents)) {
+            createOrUpdateTextFileIfRequired(fileIdentifier, deferredContents,
+                    StringUtils.stripToEmpty(descriptionOfChange));
+        }
+        else if (deferredContents != null
+                && new File(fileIdentifier).exists()) {
+            delete(fileIdentifier, "empty");
+        }
+    }
+
     public NotifiableFileMonitorService getFileMonitorService(){
     	// Get all Services implement NotifiableFileMonitorService interface
 		try {
@@ -427,6 +987,23 @@ public class DefaultFileManager implements FileManager, UndoListener {
 		}
     }
     
+    public MetadataLogger getMetadataLogger(){
+    	// Get all Services implement MetadataLogger interface
+		try {
+			ServiceReference<?>[] references = this.context.getAllServiceReferences(MetadataLogger.class.getName(), null);
+			
+			for(ServiceReference<?> ref : references){
+				return (MetadataLogger) this.context.getService(ref);
+			}
+			
+			return null;
+			
+		} catch (InvalidSyntaxException e) {
+			LOGGER.warning("Cannot load MetadataLogger on DefaultFileManager.");
+			return null;
+		}
+    }
+    
     public UndoManager getUndoManager(){
     	// Get all Services implement UndoManager interface
 		try {
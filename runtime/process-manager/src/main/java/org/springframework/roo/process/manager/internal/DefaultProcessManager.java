@@ -1,5 +1,15 @@
 package org.springframework.roo.process.manager.internal;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,17 +29,45 @@ import org.osgi.service.startlevel.StartLevel;
 import org.springframework.roo.file.monitor.FileMonitorService;
 import org.springframework.roo.file.monitor.MonitoringRequest;
 import org.springframework.roo.file.monitor.NotifiableFileMonitorService;
+import org.springframework.roo.file.monitor.TieredFileMonitorService;
+import org.springframework.roo.file.monitor.event.FileOperation;
 import org.springframework.roo.file.undo.UndoManager;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.process.manager.ActiveProcessManager;
 import org.springframework.roo.process.manager.CommandCallback;
+import org.springframework.roo.process.manager.DryRunResult;
+import org.springframework.roo.process.manager.FileManager;
 import org.springframework.roo.process.manager.ProcessManager;
+import org.springframework.roo.process.manager.WarmUpTask;
 import org.springframework.roo.process.manager.event.AbstractProcessManagerStatusPublisher;
+import org.springframework.roo.process.manager.event.ConvergenceSummary;
+import org.springframework.roo.process.manager.event.ConvergenceSummary.Outcome;
+import org.springframework.roo.process.manager.event.ConvergenceSummary.Round;
 import org.springframework.roo.process.manager.event.ProcessManagerStatus;
 import org.springframework.roo.support.logging.HandlerUtils;
 import org.springframework.roo.support.osgi.OSGiUtils;
 
 /**
  * Default implementation of {@link ProcessManager} interface.
+ * <p>
+ * Once startup has completed, the background thread runs any registered
+ * {@link WarmUpTask}s before it starts scanning; executing a command cancels
+ * them.
+ * <p>
+ * If the {@link FileMonitorService} is a {@link TieredFileMonitorService}, the
+ * background thread's scans only re-examine the directories that are due,
+ * according to how recently each one changed; manual scans (via
+ * {@link #timerBasedScan()}) re-examine everything.
+ * <p>
+ * A dry run can't keep its changes off the disk, as metadata is generated in
+ * response to the file monitor's scans of it. Instead the undo history is kept
+ * for the whole dry run, and replayed (even in development mode) at its end.
+ * <p>
+ * The scans that follow a command stop once the files they change return to
+ * an earlier state, or after <code>roo.scan.max.rounds</code> (default 50)
+ * rounds, rather than looping forever. Each transaction that changes files is
+ * summarised round by round (see {@link #getLastConvergence()}), including
+ * the metadata provider responsible for each change.
  * 
  * @author Ben Alex
  * @since 1.0
@@ -41,21 +79,97 @@ public class DefaultProcessManager extends
 
     private static final Logger LOGGER = HandlerUtils
             .getLogger(DefaultProcessManager.class);
+    private static final int MAX_ROUNDS = Integer.getInteger(
+            "roo.scan.max.rounds", 50);
     
     // ------------ OSGi component attributes ----------------
    	private BundleContext context;
 
+    private boolean convergenceKeyRegistered;
     private boolean developmentMode = false;
+    private boolean dryRun;
+    /** The files changed so far by the current dry run */
+    private final Set<String> dryRunPaths = new LinkedHashSet<String>();
+    private FileManager fileManager;
     private FileMonitorService fileMonitorService;
+    private volatile ConvergenceSummary lastConvergence;
     private long lastScanDuration = 0;
+    private long lastScanFileCount = 0;
+    private long lastScanSkippedDirectoryCount = 0;
     private long lastScanTime = 0; // What time the last scan was completed
+    private MetadataDependencyRegistry metadataDependencyRegistry;
     private long minimumDelayBetweenScan = -1; // How many ms must pass at
     private StartLevel startLevel;
     private UndoManager undoManager;
+    private volatile WarmUpTask activeWarmUp;
+    private volatile boolean warmUpCancelled;
+    private boolean warmedUp;
     private String workingDir;
 
+    public void beginDryRun() {
+        synchronized (processManagerStatus) {
+            Validate.validState(!dryRun, "A dry run is already in progress");
+            if (fileMonitorService == null) {
+                fileMonitorService = getFileMonitorService();
+            }
+            Validate.notNull(fileMonitorService,
+                    "FileMonitorService is required");
+            if (undoManager == null) {
+                undoManager = getUndoManager();
+            }
+            Validate.notNull(undoManager, "UndoManager is required");
+            dryRunPaths.clear();
+            dryRun = true;
+            // Undo must work throughout, even in development mode, or a
+            // failing transaction would discard the dry run's pre-images
+            undoManager.setUndoEnabled(true);
+        }
+    }
+
+    public DryRunResult endDryRun() {
+        synchronized (processManagerStatus) {
+            Validate.validState(dryRun, "No dry run is in progress");
+            try {
+                // Bring the file monitor up to date with everything written
+                converge(newConvergenceTracker(), false);
+                final Collection<String> changedPaths = new ArrayList<String>(
+                        dryRunPaths);
+                final Map<String, Boolean> existedAfter = new HashMap<String, Boolean>();
+                for (final String path : changedPaths) {
+                    existedAfter.put(path, new File(path).exists());
+                }
+
+                final boolean reverted = undoManager.undo();
+
+                final SortedMap<String, FileOperation> changes = new TreeMap<String, FileOperation>();
+                for (final String path : changedPaths) {
+                    final File file = new File(path);
+                    if (file.isDirectory()) {
+                        continue;
+                    }
+                    final boolean existedBefore = file.exists();
+                    if (existedAfter.get(path)) {
+                        changes.put(path, existedBefore ? FileOperation.UPDATED
+                                : FileOperation.CREATED);
+                    }
+                    else if (existedBefore) {
+                        changes.put(path, FileOperation.DELETED);
+                    }
+                }
+                return new DryRunResult(changes, reverted);
+            }
+            finally {
+                dryRun = false;
+                dryRunPaths.clear();
+                undoManager.setUndoEnabled(!developmentMode);
+            }
+        }
+    }
+
     public <T> T execute(final CommandCallback<T> callback) {
         Validate.notNull(callback, "Callback required");
+        // The user is waiting, so don't make them wait for the warm-up too
+        cancelWarmUp();
         synchronized (processManagerStatus) {
             // For us to acquire this lock means no other thread has hold of
             // process manager status
@@ -78,6 +192,10 @@ public class DefaultProcessManager extends
         }
     }
 
+    public ConvergenceSummary getLastConvergence() {
+        return lastConvergence;
+    }
+
     /**
      * @return how many milliseconds the last scan execution took to complete (0
      *         = never ran; >0 = last execution time)
@@ -86,6 +204,14 @@ public class DefaultProcessManager extends
         return lastScanDuration;
     }
 
+    public long getLastScanFileCount() {
+        return lastScanFileCount;
+    }
+
+    public long getLastScanSkippedDirectoryCount() {
+        return lastScanSkippedDirectoryCount;
+    }
+
     /**
      * @return how many milliseconds must pass between each scan (0 = manual
      *         only; <0 = auto-scaled; >0 = interval)
@@ -98,6 +224,10 @@ public class DefaultProcessManager extends
         return developmentMode;
     }
 
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
     public void setDevelopmentMode(final boolean developmentMode) {
     	
     	if(undoManager == null){
@@ -109,8 +239,8 @@ public class DefaultProcessManager extends
         this.developmentMode = developmentMode;
 
         // To assist with debugging, development mode does not undertake undo
-        // operations
-        undoManager.setUndoEnabled(!developmentMode);
+        // operations, except to end a dry run
+        undoManager.setUndoEnabled(!developmentMode || dryRun);
     }
 
     /**
@@ -135,6 +265,16 @@ public class DefaultProcessManager extends
     }
 
     public void timerBasedScan() {
+        timerBasedScan(false);
+    }
+
+    /**
+     * Scans for file changes, unless it's too soon since the last scan.
+     * 
+     * @param dueOnly whether to only re-examine the directories that are due
+     *            (if the file monitor supports this)
+     */
+    private void timerBasedScan(final boolean dueOnly) {
         try {
             if (minimumDelayBetweenScan == 0) {
                 // Manual scanning only, we never allow the timer to kick of a
@@ -161,7 +301,14 @@ public class DefaultProcessManager extends
                 // Too soon to re-scan
                 return;
             }
-            backgroundScan();
+            if (backgroundScan(dueOnly)
+                    && fileMonitorService instanceof TieredFileMonitorService) {
+                final TieredFileMonitorService tieredFileMonitorService = (TieredFileMonitorService) fileMonitorService;
+                lastScanFileCount = tieredFileMonitorService
+                        .getLastScanFileCount();
+                lastScanSkippedDirectoryCount = tieredFileMonitorService
+                        .getLastScanSkippedDirectoryCount();
+            }
             // Record the completion time so we can ensure we don't re-scan too
             // soon
             lastScanTime = System.currentTimeMillis();
@@ -214,7 +361,12 @@ public class DefaultProcessManager extends
                     // We only bother doing a scan if we seem to be available (a
                     // proper synchronized check happens later)
                     if (getProcessManagerStatus() == ProcessManagerStatus.AVAILABLE) {
-                        timerBasedScan();
+                        if (warmedUp) {
+                            timerBasedScan(true);
+                        }
+                        else {
+                            warmUp();
+                        }
                     }
                     try {
                         Thread.sleep(1000);
@@ -232,7 +384,7 @@ public class DefaultProcessManager extends
         terminate(); // Safe to call even if we'd terminated earlier
     }
 
-    private boolean backgroundScan() {
+    private boolean backgroundScan(final boolean dueOnly) {
         // Quickly determine if another thread is running; we don't need to sit
         // around and wait (we'll get called again in a few hundred milliseconds
         // anyway)
@@ -252,7 +404,7 @@ public class DefaultProcessManager extends
             setProcessManagerStatus(ProcessManagerStatus.BUSY_SCANNING);
 
             try {
-                doTransactionally(null);
+                doTransactionally(null, dueOnly);
             }
             catch (final Throwable t) {
                 // We don't want a scan failure to cause the background scanning
@@ -266,6 +418,18 @@ public class DefaultProcessManager extends
         return true;
     }
 
+    /**
+     * Stops any running {@link WarmUpTask} and prevents any others from
+     * starting.
+     */
+    private void cancelWarmUp() {
+        warmUpCancelled = true;
+        final WarmUpTask warmUpTask = activeWarmUp;
+        if (warmUpTask != null) {
+            warmUpTask.cancel();
+        }
+    }
+
     private void completeStartup() {
     	
     	if(fileMonitorService == null){
@@ -298,6 +462,20 @@ public class DefaultProcessManager extends
     }
 
     private <T> T doTransactionally(final CommandCallback<T> callback) {
+        return doTransactionally(callback, false);
+    }
+
+    /**
+     * Executes the given command, or scans for file changes if there's no
+     * command, then scans until there are no more changes to process.
+     * 
+     * @param callback the command to execute (can be <code>null</code>)
+     * @param dueOnly whether a scan in place of a command should only
+     *            re-examine the directories that are due
+     * @return the command's result, if any
+     */
+    private <T> T doTransactionally(final CommandCallback<T> callback,
+            final boolean dueOnly) {
     	
     	if(fileMonitorService == null){
     		fileMonitorService = getFileMonitorService();
@@ -314,40 +492,33 @@ public class DefaultProcessManager extends
         T result = null;
         try {
             ActiveProcessManager.setActiveProcessManager(this);
+            final ConvergenceTracker tracker = newConvergenceTracker();
 
             // Run the requested operation
             if (callback == null) {
-                fileMonitorService.scanAll();
+                scan(false, dueOnly);
             }
             else {
                 result = callback.callback();
             }
 
-            // Flush the undo manager so that any changes it has been holding
-            // are written to disk and the file monitor service
-            undoManager.flush();
+            converge(tracker, callback != null);
 
-            // Guarantee scans repeat until there are no more changes detected
-            while (fileMonitorService.isDirty()) {
-                if (fileMonitorService instanceof NotifiableFileMonitorService) {
-                    ((NotifiableFileMonitorService) fileMonitorService)
-                            .scanNotified();
-                }
-                else {
-                    fileMonitorService.scanAll();
-                }
-                // In case something else happened as a result of event
-                // notifications above
-                undoManager.flush();
-            }
+            // It all seems to have worked, so clear the undo history, unless
+            // a dry run still needs it
+            if (!dryRun) {
+                setProcessManagerStatus(ProcessManagerStatus.RESETTING_UNDOS);
 
-            // It all seems to have worked, so clear the undo history
-            setProcessManagerStatus(ProcessManagerStatus.RESETTING_UNDOS);
-
-            undoManager.reset();
+                undoManager.reset();
+            }
 
         }
         catch (final RuntimeException e) {
+            if (dryRun) {
+                // The whole dry run is reverted when it ends, which needs
+                // every pre-image recorded since it began
+                throw e;
+            }
             // Something went wrong, so attempt to undo
             try {
                 setProcessManagerStatus(ProcessManagerStatus.UNDOING);
@@ -366,6 +537,158 @@ public class DefaultProcessManager extends
         return result;
     }
 
+    /**
+     * Ends the first round of a transaction, then scans until there are no
+     * more changes to process or they are found not to converge, and reports
+     * how the rounds went.
+     * 
+     * @param tracker the tracker of the transaction's rounds (required)
+     * @param command whether the first round executed a command
+     */
+    private void converge(final ConvergenceTracker tracker,
+            final boolean command) {
+        // Flush the undo manager so that any changes it has been holding
+        // are written to disk and the file monitor service
+        undoManager.flush();
+        tracker.endRound();
+
+        // Guarantee scans repeat until there are no more changes detected, or
+        // they're found to never end
+        while (fileMonitorService.isDirty() && tracker.isConverging()) {
+            scan(fileMonitorService instanceof NotifiableFileMonitorService,
+                    false);
+            // In case something else happened as a result of event
+            // notifications above
+            undoManager.flush();
+            tracker.endRound();
+        }
+
+        final ConvergenceSummary summary = tracker.getSummary(!fileMonitorService
+                .isDirty());
+        if (!summary.hasChanges()) {
+            return;
+        }
+        if (dryRun) {
+            for (final Round round : summary.getRounds()) {
+                dryRunPaths.addAll(round.getChanges().keySet());
+            }
+        }
+        lastConvergence = summary;
+        if (summary.getOutcome() != Outcome.CONVERGED) {
+            // The remaining changes are left to the background scans
+            LOGGER.log(command ? Level.WARNING : Level.FINE,
+                    "File changes did not converge after " + summary);
+        }
+        else if (summary.getRounds().size() > 1) {
+            LOGGER.log(developmentMode ? Level.FINE : Level.FINEST,
+                    "File changes converged after " + summary);
+        }
+        publishConvergence(summary);
+    }
+
+    private ConvergenceTracker newConvergenceTracker() {
+        if (!convergenceKeyRegistered) {
+            // The first request returns every file, rather than the changes
+            fileMonitorService.getDirtyFiles(ConvergenceTracker.DIRTY_FILES_KEY);
+            convergenceKeyRegistered = true;
+        }
+        if (fileManager == null) {
+            fileManager = getFileManager();
+        }
+        return new ConvergenceTracker(fileMonitorService, fileManager,
+                MAX_ROUNDS);
+    }
+
+    /**
+     * Scans for file changes, batching the resulting metadata notifications so
+     * that each affected metadata item is only regenerated once per scan.
+     * 
+     * @param notifiedOnly whether to only scan the paths the
+     *            {@link NotifiableFileMonitorService} was notified of
+     * @param dueOnly otherwise, whether to only scan the directories that the
+     *            {@link TieredFileMonitorService} says are due
+     */
+    private void scan(final boolean notifiedOnly, final boolean dueOnly) {
+        if (metadataDependencyRegistry == null) {
+            metadataDependencyRegistry = getMetadataDependencyRegistry();
+        }
+        if (metadataDependencyRegistry != null) {
+            metadataDependencyRegistry.beginNotificationBatch();
+        }
+        boolean scanned = false;
+        try {
+            if (notifiedOnly) {
+                ((NotifiableFileMonitorService) fileMonitorService)
+                        .scanNotified();
+            }
+            else if (dueOnly
+                    && fileMonitorService instanceof TieredFileMonitorService) {
+                ((TieredFileMonitorService) fileMonitorService).scanDue();
+            }
+            else {
+                fileMonitorService.scanAll();
+            }
+            scanned = true;
+        }
+        finally {
+            if (metadataDependencyRegistry != null) {
+                if (scanned) {
+                    metadataDependencyRegistry.endNotificationBatch();
+                }
+                else {
+                    // Whatever was thrown, don't dispatch a partial batch
+                    metadataDependencyRegistry.discardNotificationBatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the registered {@link WarmUpTask}s, unless a command has already
+     * been executed. Only called by the background thread.
+     */
+    private void warmUp() {
+        warmedUp = true;
+        if (warmUpCancelled) {
+            return;
+        }
+        final List<WarmUpTask> warmUpTasks = getWarmUpTasks();
+        if (warmUpTasks.isEmpty()) {
+            return;
+        }
+        synchronized (processManagerStatus) {
+            if (getProcessManagerStatus() != ProcessManagerStatus.AVAILABLE) {
+                // Another thread got in first, so try again later
+                warmedUp = false;
+                return;
+            }
+            setProcessManagerStatus(ProcessManagerStatus.WARMING_UP);
+            try {
+                doTransactionally(new CommandCallback<Void>() {
+                    public Void callback() {
+                        for (final WarmUpTask warmUpTask : warmUpTasks) {
+                            // Publish the task before checking for
+                            // cancellation, so cancelWarmUp() can't miss it
+                            activeWarmUp = warmUpTask;
+                            if (warmUpCancelled) {
+                                break;
+                            }
+                            warmUpTask.warmUp();
+                        }
+                        return null;
+                    }
+                });
+            }
+            catch (final Throwable t) {
+                logException(t);
+            }
+            finally {
+                activeWarmUp = null;
+                setProcessManagerStatus(ProcessManagerStatus.AVAILABLE);
+            }
+        }
+    }
+
     private void logException(final Throwable t) {
         final Throwable root = ObjectUtils.defaultIfNull(
                 ExceptionUtils.getRootCause(t), t);
@@ -405,6 +728,23 @@ public class DefaultProcessManager extends
 		}
     }
     
+    public FileManager getFileManager(){
+    	// Get all Services implement FileManager interface
+		try {
+			ServiceReference<?>[] references = this.context.getAllServiceReferences(FileManager.class.getName(), null);
+			
+			for(ServiceReference<?> ref : references){
+				return (FileManager) this.context.getService(ref);
+			}
+			
+			return null;
+			
+		} catch (InvalidSyntaxException e) {
+			LOGGER.warning("Cannot load FileManager on DefaultProcessManager.");
+			return null;
+		}
+    }
+    
     public StartLevel getStartLevel(){
     	// Get all Services implement StartLevel interface
 		try {
@@ -439,4 +779,47 @@ public class DefaultProcessManager extends
 		}
     }
     
+    public MetadataDependencyRegistry getMetadataDependencyRegistry(){
+    	// Get all Services implement MetadataDependencyRegistry interface
+		try {
+			ServiceReference<?>[] references = this.context.getAllServiceReferences(MetadataDependencyRegistry.class.getName(), null);
+			
+			if(references == null){
+				return null;
+			}
+			
+			for(ServiceReference<?> ref : references){
+				return (MetadataDependencyRegistry) this.context.getService(ref);
+			}
+			
+			return null;
+			
+		} catch (InvalidSyntaxException e) {
+			LOGGER.warning("Cannot load MetadataDependencyRegistry on DefaultProcessManager.");
+			return null;
+		}
+    }
+    
+    public List<WarmUpTask> getWarmUpTasks(){
+    	// Get all Services implement WarmUpTask interface
+    	final List<WarmUpTask> warmUpTasks = new ArrayList<WarmUpTask>();
+		try {
+			ServiceReference<?>[] references = this.context.getAllServiceReferences(WarmUpTask.class.getName(), null);
+			
+			if(references == null){
+				return warmUpTasks;
+			}
+			
+			for(ServiceReference<?> ref : references){
+				warmUpTasks.add((WarmUpTask) this.context.getService(ref));
+			}
+			
+			return warmUpTasks;
+			
+		} catch (InvalidSyntaxException e) {
+			LOGGER.warning("Cannot load WarmUpTask on DefaultProcessManager.");
+			return warmUpTasks;
+		}
+    }
+    
 }
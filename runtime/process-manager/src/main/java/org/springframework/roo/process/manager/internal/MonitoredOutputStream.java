@@ -6,7 +6,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
 import org.springframework.roo.file.monitor.NotifiableFileMonitorService;
 
@@ -60,8 +59,9 @@ public class MonitoredOutputStream extends ByteArrayOutputStream {
         // Log that we're writing the file
         managedMessageRenderer.logManagedMessage();
 
-        // Write the actual file out to disk
-        FileUtils.writeByteArrayToFile(file, bytes);
+        // Write the actual file out to disk, replacing rather than
+        // overwriting it so that any pre-image linked to it stays intact
+        AtomicFileWriter.write(file, bytes, false);
 
         // Tell the FileMonitorService what happened
         String fileCanonicalPath;
@@ -11,8 +11,9 @@ import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.component.ComponentContext;
 import org.springframework.roo.process.manager.ProcessManager;
+import org.springframework.roo.process.manager.event.ConvergenceSummary;
+import org.springframework.roo.process.manager.event.ProcessManagerConvergenceListener;
 import org.springframework.roo.process.manager.event.ProcessManagerStatus;
-import org.springframework.roo.process.manager.event.ProcessManagerStatusListener;
 import org.springframework.roo.process.manager.event.ProcessManagerStatusProvider;
 import org.springframework.roo.shell.CliAvailabilityIndicator;
 import org.springframework.roo.shell.CliCommand;
@@ -33,7 +34,7 @@ import org.springframework.roo.support.logging.HandlerUtils;
 @Service
 @Component
 public class ProcessManagerDiagnosticsListener extends AbstractFlashingObject
-        implements ProcessManagerStatusListener, CommandMarker {
+        implements ProcessManagerConvergenceListener, CommandMarker {
 
     private static final String PROCESS_MANAGER_DEBUG_COMMAND = "process manager debug";
     
@@ -62,6 +63,12 @@ public class ProcessManagerDiagnosticsListener extends AbstractFlashingObject
     	return getShell().isDevelopmentMode() && getProcessManager().isDevelopmentMode();
     }
 
+    public void onConvergence(final ConvergenceSummary summary) {
+        if (isDebug) {
+            LOGGER.info("File changes took " + summary);
+        }
+    }
+
     public void onProcessManagerStatusChange(
             final ProcessManagerStatus oldStatus,
             final ProcessManagerStatus newStatus) {
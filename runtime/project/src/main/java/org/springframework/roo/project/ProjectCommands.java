@@ -1,5 +1,9 @@
 package org.springframework.roo.project;
 
+import static org.apache.commons.io.IOUtils.LINE_SEPARATOR;
+
+import java.util.Map.Entry;
+import java.util.SortedMap;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang3.Validate;
@@ -9,8 +13,11 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.file.monitor.event.FileOperation;
 import org.springframework.roo.model.JavaPackage;
+import org.springframework.roo.process.manager.DryRunResult;
 import org.springframework.roo.process.manager.ProcessManager;
+import org.springframework.roo.process.manager.event.ConvergenceSummary;
 import org.springframework.roo.project.packaging.JarPackaging;
 import org.springframework.roo.project.packaging.PackagingProvider;
 import org.springframework.roo.shell.CliAvailabilityIndicator;
@@ -32,6 +39,7 @@ import org.springframework.roo.support.logging.HandlerUtils;
 public class ProjectCommands implements CommandMarker {
 	
 	private static final String DEVELOPMENT_MODE_COMMAND = "development mode";
+	private static final String DRY_RUN_COMMAND = "dry run";
 	private static final String PROJECT_SETUP_COMMAND = "project setup";
 	private static final String PROJECT_SCAN_SPEED_COMMAND = "project scan speed";
 	private static final String PROJECT_SCAN_STATUS_COMMAND = "project scan status";
@@ -96,6 +104,51 @@ public class ProjectCommands implements CommandMarker {
         return "Development mode set to " + enabled;
     }
 
+    @CliCommand(value = DRY_RUN_COMMAND, help = "Executes a command (e.g. a script), reports the files it changed, then reverts them; the changes are written to disk until then")
+    public String dryRun(
+            @CliOption(key = { "", "command" }, mandatory = true, help = "The command to execute, e.g. \"script --file setup.roo\"") final String command) {
+    	if(processManager == null){
+    		processManager = getProcessManager();
+    	}
+    	
+    	Validate.notNull(processManager, "ProcessManager is required");
+    	
+    	if(shell == null){
+    		shell = getShell();
+    	}
+    	
+    	Validate.notNull(shell, "Shell is required");
+    	
+        processManager.beginDryRun();
+        boolean success = false;
+        final DryRunResult result;
+        try {
+            success = shell.executeCommand(command);
+        }
+        finally {
+            result = processManager.endDryRun();
+        }
+
+        final SortedMap<String, FileOperation> changes = result.getChanges();
+        final StringBuilder sb = new StringBuilder("Dry run of '")
+                .append(command).append(success ? "' " : "' failed, but ")
+                .append("changed ").append(changes.size()).append(" files");
+        if (result.isReverted()) {
+            sb.append(" (all reverted)");
+        }
+        else {
+            sb.append(", but could not revert them all");
+        }
+        for (final Entry<String, FileOperation> change : changes.entrySet()) {
+            sb.append(LINE_SEPARATOR).append(change.getValue()).append(' ')
+                    .append(change.getKey());
+        }
+        if (!result.isReverted()) {
+            throw new IllegalStateException(sb.toString());
+        }
+        return sb.toString();
+    }
+
     @CliCommand(value = PROJECT_SCAN_NOW_COMMAND, help = "Perform a manual file system scan")
     public String scan() {
     	if(processManager == null){
@@ -131,7 +184,16 @@ public class ProjectCommands implements CommandMarker {
             sb.append("never executed; ");
         }
         else {
-            sb.append("last took ").append(duration).append(" ms; ");
+            sb.append("last took ").append(duration).append(" ms");
+            final long fileCount = processManager.getLastScanFileCount();
+            if (fileCount > 0) {
+                sb.append(" and checked ").append(fileCount)
+                        .append(" files (")
+                        .append(processManager
+                                .getLastScanSkippedDirectoryCount())
+                        .append(" unchanged directories skipped)");
+            }
+            sb.append("; ");
         }
         final long minimum = processManager.getMinimumDelayBetweenScan();
         if (minimum == 0) {
@@ -144,6 +206,12 @@ public class ProjectCommands implements CommandMarker {
             sb.append("scanning frequency has a minimum interval of ")
                     .append(minimum).append(" ms");
         }
+        final ConvergenceSummary convergence = processManager
+                .getLastConvergence();
+        if (convergence != null) {
+            sb.append(LINE_SEPARATOR).append("Last file changes took ")
+                    .append(convergence);
+        }
         return sb.toString();
     }
 
@@ -40,6 +40,7 @@ import org.apache.commons.lang3.Validate;
 import org.springframework.roo.shell.AbstractShell;
 import org.springframework.roo.shell.CommandMarker;
 import org.springframework.roo.shell.ExitShellRequest;
+import org.springframework.roo.shell.ProjectDescriptor;
 import org.springframework.roo.shell.Shell;
 import org.springframework.roo.shell.event.ShellStatus;
 import org.springframework.roo.shell.event.ShellStatus.Status;
@@ -579,6 +580,9 @@ public abstract class JLineShell extends AbstractShell implements
 				Element document = docXml.getDocumentElement();
 				Element rooVersionElement = XmlUtils.findFirstElement(
 						"properties/roo.version", document);
+				if (rooVersionElement == null) {
+					return;
+				}
 				rooVersionElement.setTextContent(shellVersion);
 
 				TransformerFactory transformerFactory = TransformerFactory
@@ -587,6 +591,8 @@ public abstract class JLineShell extends AbstractShell implements
 				DOMSource source = new DOMSource(docXml);
 				StreamResult result = new StreamResult(new File(pomPath));
 				transformer.transform(source, result);
+				// The rewrite may not change the POM's length or timestamp
+				ProjectDescriptor.invalidate(getHome());
 
 				String changes = "["
 						+ AnsiEscapeCode.decorate("updated property",
@@ -605,38 +611,11 @@ public abstract class JLineShell extends AbstractShell implements
 	}
 
 	private String getRooProjectVersion() {
-		String homePath = getHome().getPath();
-		String pomPath = homePath + "/pom.xml";
-		File pom = new File(pomPath);
-		try {
-			if (pom.exists()) {
-				InputStream is = new FileInputStream(pom);
-				Document docXml = XmlUtils.readXml(is);
-				Element document = docXml.getDocumentElement();
-				Element rooVersionElement = XmlUtils.findFirstElement(
-						"properties/roo.version", document);
-				String rooVersion = rooVersionElement.getTextContent();
-
-				return rooVersion;
-			}
-
-			return "UNKNOWN";
-
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		}
-
-		return "";
+		return ProjectDescriptor.getRooVersion(getHome());
 	}
 
 	private boolean isDifferentVersion() {
-		String rooVersion = getRooProjectVersion();
-
-		if ("UNKNOWN".equals(rooVersion)) {
-			return false;
-		}
-
-		return !rooVersion.equals(versionInfoWithoutGit());
+		return ProjectDescriptor.isDifferentVersion(getHome());
 	}
 
 	public void setDevelopmentMode(final boolean developmentMode) {
@@ -117,49 +117,7 @@ public abstract class AbstractShell extends AbstractShellStatusPublisher
     }
     
     public static String versionInfoWithoutGit() {
-        // Try to determine the bundle version
-        String bundleVersion = null;
-        JarFile jarFile = null;
-        try {
-            final URL classContainer = AbstractShell.class
-                    .getProtectionDomain().getCodeSource().getLocation();
-            if (classContainer.toString().endsWith(".jar")) {
-                // Attempt to obtain the "Bundle-Version" version from the
-                // manifest
-                jarFile = new JarFile(new File(classContainer.toURI()), false);
-                final ZipEntry manifestEntry = jarFile
-                        .getEntry("META-INF/MANIFEST.MF");
-                final Manifest manifest = new Manifest(
-                        jarFile.getInputStream(manifestEntry));
-                bundleVersion = manifest.getMainAttributes().getValue(
-                        "Bundle-Version");
-            }
-        }
-        catch (final IOException ignoreAndMoveOn) {
-        }
-        catch (final URISyntaxException ignoreAndMoveOn) {
-        }
-        finally {
-            if (jarFile != null) {
-                try {
-                    jarFile.close();
-                }
-                catch (final IOException ignored) {
-                }
-            }
-        }
-
-        final StringBuilder sb = new StringBuilder();
-
-        if (bundleVersion != null) {
-            sb.append(bundleVersion);
-        }
-
-        if (sb.length() == 0) {
-            sb.append("UNKNOWN VERSION");
-        }
-
-        return sb.toString();
+        return ProjectDescriptor.getShellVersion();
     }
 
     protected final Logger logger = HandlerUtils.getLogger(getClass());
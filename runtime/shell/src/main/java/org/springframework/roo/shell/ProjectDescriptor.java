@@ -0,0 +1,207 @@
+package org.springframework.roo.shell;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.support.util.XmlUtils;
+import org.w3c.dom.Element;
+
+/**
+ * Provides the Spring Roo version recorded in a project's root POM (the
+ * <code>roo.version</code> property), and compares it with the version of the
+ * running shell (ROO-3622).
+ * <p>
+ * Each POM is parsed once and then only re-read when its fingerprint (its
+ * length and last modified time) changes, so that callers such as the file
+ * monitor can check the version on every scan without parsing any XML while
+ * the project is idle. The shell's own version is read from its bundle
+ * manifest once per JVM.
+ * <p>
+ * Thread-safe.
+ *
+ * @since 2.0
+ */
+public final class ProjectDescriptor {
+
+    /**
+     * What was read from a POM with a given fingerprint.
+     */
+    private static final class Entry {
+
+        final long lastModified;
+        final long length;
+        final String rooVersion;
+
+        Entry(final long lastModified, final long length,
+                final String rooVersion) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.rooVersion = rooVersion;
+        }
+
+        boolean matches(final File pom) {
+            return pom.lastModified() == lastModified
+                    && pom.length() == length;
+        }
+    }
+
+    private static final String POM_XML = "pom.xml";
+    private static final String ROO_VERSION_PATH = "properties/roo.version";
+    private static final String UNKNOWN_VERSION = "UNKNOWN VERSION";
+
+    /** key: canonical path of a POM */
+    private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<String, Entry>();
+
+    private static volatile String shellVersion;
+
+    private static String getKey(final File pom) {
+        try {
+            return pom.getCanonicalPath();
+        }
+        catch (final IOException e) {
+            return pom.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Returns the <code>roo.version</code> property of the given project's
+     * root POM, re-reading the POM only if it has changed since it was last
+     * read.
+     *
+     * @param projectDirectory the directory containing the POM (required)
+     * @return <code>null</code> if there is no such POM, it can't be parsed,
+     *         or it doesn't specify the property
+     */
+    public static String getRooVersion(final File projectDirectory) {
+        Validate.notNull(projectDirectory, "Project directory required");
+        final File pom = new File(projectDirectory, POM_XML);
+        final String key = getKey(pom);
+        if (!pom.isFile()) {
+            ENTRIES.remove(key);
+            return null;
+        }
+        final Entry cached = ENTRIES.get(key);
+        if (cached != null && cached.matches(pom)) {
+            return cached.rooVersion;
+        }
+        // Take the fingerprint first, so that a concurrent write is detected
+        // by the next call
+        final long lastModified = pom.lastModified();
+        final long length = pom.length();
+        final String rooVersion = readRooVersion(pom);
+        ENTRIES.put(key, new Entry(lastModified, length, rooVersion));
+        return rooVersion;
+    }
+
+    /**
+     * Returns the version of the running shell, as given by its bundle
+     * manifest and without any Git revision.
+     *
+     * @return a non-blank version (<code>"UNKNOWN VERSION"</code> if not
+     *         running from a bundle JAR)
+     */
+    public static String getShellVersion() {
+        if (shellVersion == null) {
+            shellVersion = readShellVersion();
+        }
+        return shellVersion;
+    }
+
+    /**
+     * Discards what is known about the given project's POM, e.g. because this
+     * JVM has just rewritten it and its fingerprint may not have changed.
+     *
+     * @param projectDirectory the directory containing the POM (required)
+     */
+    public static void invalidate(final File projectDirectory) {
+        Validate.notNull(projectDirectory, "Project directory required");
+        ENTRIES.remove(getKey(new File(projectDirectory, POM_XML)));
+    }
+
+    /**
+     * Indicates whether the given project was generated by a different version
+     * of Spring Roo than the running shell.
+     *
+     * @param projectDirectory the directory containing the project's root POM
+     *            (required)
+     * @return <code>false</code> if the project's version is unknown
+     */
+    public static boolean isDifferentVersion(final File projectDirectory) {
+        final String rooVersion = getRooVersion(projectDirectory);
+        return rooVersion != null && !rooVersion.equals(getShellVersion());
+    }
+
+    private static String readRooVersion(final File pom) {
+        final Element root;
+        try {
+            // XmlUtils closes the stream
+            root = XmlUtils.readXml(new FileInputStream(pom))
+                    .getDocumentElement();
+        }
+        catch (final IOException e) {
+            return null;
+        }
+        catch (final IllegalStateException e) {
+            // Unparseable, e.g. part way through being written
+            return null;
+        }
+        final Element rooVersion = XmlUtils.findFirstElement(
+                ROO_VERSION_PATH, root);
+        if (rooVersion == null) {
+            return null;
+        }
+        return StringUtils.trimToNull(rooVersion.getTextContent());
+    }
+
+    private static String readShellVersion() {
+        // Try to determine the bundle version
+        String bundleVersion = null;
+        JarFile jarFile = null;
+        try {
+            final URL classContainer = AbstractShell.class
+                    .getProtectionDomain().getCodeSource().getLocation();
+            if (classContainer.toString().endsWith(".jar")) {
+                // Attempt to obtain the "Bundle-Version" version from the
+                // manifest
+                jarFile = new JarFile(new File(classContainer.toURI()), false);
+                final ZipEntry manifestEntry = jarFile
+                        .getEntry("META-INF/MANIFEST.MF");
+                final Manifest manifest = new Manifest(
+                        jarFile.getInputStream(manifestEntry));
+                bundleVersion = manifest.getMainAttributes().getValue(
+                        "Bundle-Version");
+            }
+        }
+        catch (final IOException ignoreAndMoveOn) {
+        }
+        catch (final URISyntaxException ignoreAndMoveOn) {
+        }
+        finally {
+            if (jarFile != null) {
+                try {
+                    jarFile.close();
+                }
+                catch (final IOException ignored) {
+                }
+            }
+        }
+        return StringUtils.isBlank(bundleVersion) ? UNKNOWN_VERSION
+                : bundleVersion;
+    }
+
+    /**
+     * Constructor is private to prevent instantiation
+     */
+    private ProjectDescriptor() {
+    }
+}
@@ -0,0 +1,113 @@
+package org.springframework.roo.shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link ProjectDescriptor}
+ *
+ * @since 2.0
+ */
+public class ProjectDescriptorTest {
+
+    private static String pom(final String properties) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<project>"
+                + "<properties>" + properties + "</properties></project>";
+    }
+
+    private File directory;
+    private File pom;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("project", "");
+        directory.delete();
+        directory.mkdir();
+        pom = new File(directory, "pom.xml");
+    }
+
+    @After
+    public void deleteDirectory() {
+        ProjectDescriptor.invalidate(directory);
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testVersionIsUnknownWithoutPom() {
+        assertNull(ProjectDescriptor.getRooVersion(directory));
+        assertFalse(ProjectDescriptor.isDifferentVersion(directory));
+    }
+
+    @Test
+    public void testVersionIsUnknownWithoutProperty() throws Exception {
+        FileUtils.write(pom, pom("<java.version>1.6</java.version>"));
+
+        assertNull(ProjectDescriptor.getRooVersion(directory));
+        assertFalse(ProjectDescriptor.isDifferentVersion(directory));
+    }
+
+    @Test
+    public void testVersionIsUnknownForMalformedPom() throws Exception {
+        FileUtils.write(pom, "<project><properties>");
+
+        assertNull(ProjectDescriptor.getRooVersion(directory));
+    }
+
+    @Test
+    public void testRereadsPomOnlyWhenFingerprintChanges() throws Exception {
+        // Set up
+        FileUtils.write(pom, pom("<roo.version>1.3.0</roo.version>"));
+        final long lastModified = pom.lastModified();
+
+        // Invoke and check
+        assertEquals("1.3.0", ProjectDescriptor.getRooVersion(directory));
+        assertTrue(ProjectDescriptor.isDifferentVersion(directory));
+
+        // Same length and timestamp, so the cached version is still used
+        FileUtils.write(pom, pom("<roo.version>1.4.0</roo.version>"));
+        pom.setLastModified(lastModified);
+        assertEquals("1.3.0", ProjectDescriptor.getRooVersion(directory));
+
+        pom.setLastModified(lastModified - 2000);
+        assertEquals("1.4.0", ProjectDescriptor.getRooVersion(directory));
+
+        FileUtils.write(pom, pom("<roo.version>1.4.0-SNAPSHOT</roo.version>"));
+        pom.setLastModified(lastModified - 2000);
+        assertEquals("1.4.0-SNAPSHOT",
+                ProjectDescriptor.getRooVersion(directory));
+
+        pom.delete();
+        assertNull(ProjectDescriptor.getRooVersion(directory));
+    }
+
+    @Test
+    public void testInvalidateForcesReread() throws Exception {
+        FileUtils.write(pom, pom("<roo.version>1.3.0</roo.version>"));
+        final long lastModified = pom.lastModified();
+        assertEquals("1.3.0", ProjectDescriptor.getRooVersion(directory));
+        FileUtils.write(pom, pom("<roo.version>2.0.0</roo.version>"));
+        pom.setLastModified(lastModified);
+
+        ProjectDescriptor.invalidate(directory);
+
+        assertEquals("2.0.0", ProjectDescriptor.getRooVersion(directory));
+    }
+
+    @Test
+    public void testMatchingVersionIsNotDifferent() throws Exception {
+        FileUtils.write(pom, pom("<roo.version>"
+                + ProjectDescriptor.getShellVersion() + "</roo.version>"));
+
+        assertFalse(ProjectDescriptor.isDifferentVersion(directory));
+    }
+}
@@ -1,7 +1,9 @@
 package org.springframework.roo.support.ant;
 
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.text.StrTokenizer;
@@ -20,8 +22,27 @@ public class AntPathMatcher implements PathMatcher {
     /** Default path separator: "/" */
     public static final String DEFAULT_PATH_SEPARATOR = "/";
 
+    /** The maximum number of tokenized patterns to keep */
+    private static final int PATTERN_CACHE_SIZE = 256;
+
     private String pathSeparator = DEFAULT_PATH_SEPARATOR;
 
+    /**
+     * The directories of recently used patterns, as the same few patterns tend
+     * to be matched against many paths (key: pattern)
+     */
+    private final Map<String, String[]> patternCache = Collections
+            .synchronizedMap(new LinkedHashMap<String, String[]>(16, 0.75f,
+                    true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        final Entry<String, String[]> eldest) {
+                    return size() > PATTERN_CACHE_SIZE;
+                }
+            });
+
     /**
      * Actually match the given <code>path</code> against the given
      * <code>pattern</code>.
@@ -40,8 +61,7 @@ public class AntPathMatcher implements PathMatcher {
             return false;
         }
 
-        final String[] patternDirs = new StrTokenizer(pattern, pathSeparator)
-                .setIgnoreEmptyTokens(true).getTokenArray();
+        final String[] patternDirs = getPatternDirs(pattern);
         final String[] pathDirs = new StrTokenizer(path, pathSeparator)
                 .setIgnoreEmptyTokens(true).getTokenArray();
 
@@ -236,6 +256,20 @@ public class AntPathMatcher implements PathMatcher {
         return variables;
     }
 
+    /**
+     * Returns the directories of the given pattern, tokenizing it only if it
+     * hasn't been used recently. The returned array must not be modified.
+     */
+    private String[] getPatternDirs(final String pattern) {
+        String[] patternDirs = patternCache.get(pattern);
+        if (patternDirs == null) {
+            patternDirs = new StrTokenizer(pattern, pathSeparator)
+                    .setIgnoreEmptyTokens(true).getTokenArray();
+            patternCache.put(pattern, patternDirs);
+        }
+        return patternDirs;
+    }
+
     public boolean isPattern(final String path) {
         return path.indexOf('*') != -1 || path.indexOf('?') != -1;
     }
@@ -274,5 +308,6 @@ public class AntPathMatcher implements PathMatcher {
     public void setPathSeparator(final String pathSeparator) {
         this.pathSeparator = pathSeparator != null ? pathSeparator
                 : DEFAULT_PATH_SEPARATOR;
+        patternCache.clear();
     }
 }
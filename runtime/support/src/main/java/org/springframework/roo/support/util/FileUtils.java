@@ -262,6 +262,23 @@ public final class FileUtils {
         return PATH_MATCHER.match(antPattern, canonicalPath);
     }
 
+    /**
+     * Indicates whether the given canonical path matches the start of the
+     * given Ant-style pattern, i.e. whether paths within the given directory
+     * could match it.
+     *
+     * @param antPattern the pattern to check against (can't be blank)
+     * @param canonicalPath the path to check (can't be blank)
+     * @return see above
+     * @since 2.0
+     */
+    public static boolean matchesAntPathStart(final String antPattern,
+            final String canonicalPath) {
+        Validate.notBlank(antPattern, "Ant pattern required");
+        Validate.notBlank(canonicalPath, "Canonical path required");
+        return PATH_MATCHER.matchStart(antPattern, canonicalPath);
+    }
+
     /**
      * Constructor is private to prevent instantiation
      * 